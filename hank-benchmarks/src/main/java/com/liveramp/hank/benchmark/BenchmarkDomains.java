@@ -0,0 +1,167 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.GzipCueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.ConstantPartitioner;
+import com.liveramp.hank.partitioner.Partitioner;
+import com.liveramp.hank.util.Bytes;
+
+// Shared parameters and helpers for benchmarks. Domains are generated with a fixed seed
+// so that results are comparable between runs.
+public final class BenchmarkDomains {
+
+  public static final int KEY_LENGTH = 16;
+  public static final int KEY_HASH_SIZE = 10;
+  public static final int HASH_INDEX_BITS = 16;
+  public static final int CUEBALL_VALUE_SIZE = 16;
+  public static final int CURLY_VALUE_SIZE = 128;
+  public static final int NUM_LOOKUP_KEYS = 1 << 16;
+
+  private BenchmarkDomains() {
+  }
+
+  public static Hasher getHasher() {
+    return new Murmur64Hasher();
+  }
+
+  // All records end up in partition 0
+  public static Partitioner getPartitioner() {
+    return new ConstantPartitioner();
+  }
+
+  public static Class<? extends CueballCompressionCodec> getCueballCompressionCodecClass(String name) {
+    if (name.equals("none")) {
+      return NoCueballCompressionCodec.class;
+    } else if (name.equals("gzip")) {
+      return GzipCueballCompressionCodec.class;
+    } else {
+      throw new IllegalArgumentException("Unknown Cueball compression codec: " + name);
+    }
+  }
+
+  // "none" disables block compression
+  public static CompressionCodec getBlockCompressionCodec(String name) {
+    if (name.equals("none")) {
+      return null;
+    } else {
+      return CompressionCodec.valueOf(name);
+    }
+  }
+
+  public static File createTmpDir(String name) throws IOException {
+    File dir = File.createTempFile("hank-benchmark-" + name + "-", "");
+    if (!dir.delete() || !dir.mkdirs()) {
+      throw new IOException("Failed to create temporary directory " + dir.getAbsolutePath());
+    }
+    return dir;
+  }
+
+  public static void deleteDir(File dir) {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        deleteDir(file);
+      }
+    }
+    dir.delete();
+  }
+
+  // Pick lookup keys uniformly at random among the given keys
+  public static ByteBuffer[] sampleKeys(List<byte[]> keys, int numKeys, long seed) {
+    Random random = new Random(seed);
+    ByteBuffer[] result = new ByteBuffer[numKeys];
+    for (int i = 0; i < numKeys; ++i) {
+      result[i] = ByteBuffer.wrap(keys.get(random.nextInt(keys.size())));
+    }
+    return result;
+  }
+
+  // Keys that are not in the generated domain (with overwhelming probability)
+  public static ByteBuffer[] randomKeys(int numKeys, long seed) {
+    Random random = new Random(seed);
+    ByteBuffer[] result = new ByteBuffer[numKeys];
+    for (int i = 0; i < numKeys; ++i) {
+      byte[] key = new byte[KEY_LENGTH];
+      random.nextBytes(key);
+      result[i] = ByteBuffer.wrap(key);
+    }
+    return result;
+  }
+
+  // Random records sorted by key hash, the order in which writers expect them
+  public static List<Record> sortedRecords(int numRecords, int valueSize, long seed) {
+    Hasher hasher = getHasher();
+    Random random = new Random(seed);
+    List<Record> records = new ArrayList<Record>(numRecords);
+    for (int i = 0; i < numRecords; ++i) {
+      byte[] key = new byte[KEY_LENGTH];
+      random.nextBytes(key);
+      byte[] keyHash = new byte[KEY_HASH_SIZE];
+      hasher.hash(ByteBuffer.wrap(key), KEY_HASH_SIZE, keyHash);
+      byte[] value = new byte[valueSize];
+      random.nextBytes(value);
+      records.add(new Record(key, keyHash, value));
+    }
+    Collections.sort(records);
+    return records;
+  }
+
+  public static class Record implements Comparable<Record> {
+
+    public final ByteBuffer key;
+    public final ByteBuffer keyHash;
+    public final ByteBuffer value;
+
+    public Record(byte[] key, byte[] keyHash, byte[] value) {
+      this.key = ByteBuffer.wrap(key);
+      this.keyHash = ByteBuffer.wrap(keyHash);
+      this.value = ByteBuffer.wrap(value);
+    }
+
+    @Override
+    public int compareTo(Record other) {
+      return Bytes.compareBytesUnsigned(keyHash, other.keyHash);
+    }
+  }
+
+  // Discards output so that writer benchmarks do not measure the disk
+  public static class NullOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.cueball.CueballFilePath;
+import com.liveramp.hank.storage.cueball.CueballMerger;
+import com.liveramp.hank.storage.cueball.TestDomainGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time to merge a delta into a base. The delta's keys are a subset of the base's keys,
+// since both are generated with the same seed.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CueballMergerBenchmark {
+
+  @Param({"1000000"})
+  public int numBaseRecords;
+
+  @Param({"10000"})
+  public int numDeltaRecords;
+
+  @Param({"none", "gzip"})
+  public String compressionCodec;
+
+  private File tmpDir;
+  private CueballFilePath base;
+  private CueballFilePath delta;
+  private String newBasePath;
+
+  @Setup
+  public void setUp() throws Exception {
+    tmpDir = BenchmarkDomains.createTmpDir("cueball-merger");
+    base = generate("base", numBaseRecords);
+    delta = generate("delta", numDeltaRecords);
+    newBasePath = tmpDir.getAbsolutePath() + "/" + Cueball.getName(1, true);
+  }
+
+  private CueballFilePath generate(String name, int numRecords) throws Exception {
+    String root = tmpDir.getAbsolutePath() + "/" + name;
+    TestDomainGenerator.generate(root,
+        numRecords,
+        BenchmarkDomains.KEY_LENGTH,
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.HASH_INDEX_BITS,
+        BenchmarkDomains.CUEBALL_VALUE_SIZE,
+        BenchmarkDomains.getHasher(),
+        BenchmarkDomains.getCueballCompressionCodecClass(compressionCodec),
+        1,
+        BenchmarkDomains.getPartitioner());
+    return Cueball.getBases(root + "/0").last();
+  }
+
+  @TearDown
+  public void tearDown() {
+    BenchmarkDomains.deleteDir(tmpDir);
+  }
+
+  @Benchmark
+  public void merge() throws Exception {
+    new CueballMerger().merge(base,
+        Collections.singletonList(delta),
+        newBasePath,
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.CUEBALL_VALUE_SIZE,
+        null,
+        BenchmarkDomains.HASH_INDEX_BITS,
+        BenchmarkDomains.getCueballCompressionCodecClass(compressionCodec).newInstance());
+    if (!new File(newBasePath).delete()) {
+      throw new IOException("Failed to delete merged base " + newBasePath);
+    }
+  }
+}
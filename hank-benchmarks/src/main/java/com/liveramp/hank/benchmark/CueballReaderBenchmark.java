@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.storage.cueball.CueballReader;
+import com.liveramp.hank.storage.cueball.TestDomainGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CueballReaderBenchmark {
+
+  @Param({"1000000"})
+  public int numRecords;
+
+  @Param({"none", "gzip"})
+  public String compressionCodec;
+
+  @Param({"false", "true"})
+  public boolean memoryMapped;
+
+  private File tmpDir;
+  private CueballReader reader;
+  private ByteBuffer[] keys;
+  private ByteBuffer[] missingKeys;
+
+  @Setup
+  public void setUp() throws Exception {
+    tmpDir = BenchmarkDomains.createTmpDir("cueball-reader");
+    Map<Integer, List<byte[]>> partitionedKeys = TestDomainGenerator.generate(tmpDir.getAbsolutePath(),
+        numRecords,
+        BenchmarkDomains.KEY_LENGTH,
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.HASH_INDEX_BITS,
+        BenchmarkDomains.CUEBALL_VALUE_SIZE,
+        BenchmarkDomains.getHasher(),
+        BenchmarkDomains.getCueballCompressionCodecClass(compressionCodec),
+        1,
+        BenchmarkDomains.getPartitioner());
+    reader = new CueballReader(tmpDir.getAbsolutePath() + "/0",
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.getHasher(),
+        BenchmarkDomains.CUEBALL_VALUE_SIZE,
+        BenchmarkDomains.HASH_INDEX_BITS,
+        BenchmarkDomains.getCueballCompressionCodecClass(compressionCodec).newInstance(),
+        -1,
+        memoryMapped,
+        -1,
+        null);
+    keys = BenchmarkDomains.sampleKeys(partitionedKeys.get(0), BenchmarkDomains.NUM_LOOKUP_KEYS, 1);
+    missingKeys = BenchmarkDomains.randomKeys(BenchmarkDomains.NUM_LOOKUP_KEYS, 2);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    reader.close();
+    BenchmarkDomains.deleteDir(tmpDir);
+  }
+
+  @State(Scope.Thread)
+  public static class Lookup {
+
+    private final ReaderResult result = new ReaderResult();
+    private int keyIndex = 0;
+
+    private ByteBuffer nextKey(ByteBuffer[] keys) {
+      if (keyIndex == keys.length) {
+        keyIndex = 0;
+      }
+      return keys[keyIndex++];
+    }
+  }
+
+  @Benchmark
+  public ReaderResult get(Lookup lookup) throws IOException {
+    lookup.result.clear();
+    reader.get(lookup.nextKey(keys), lookup.result);
+    return lookup.result;
+  }
+
+  @Benchmark
+  public ReaderResult getNotFound(Lookup lookup) throws IOException {
+    lookup.result.clear();
+    reader.get(lookup.nextKey(missingKeys), lookup.result);
+    return lookup.result;
+  }
+}
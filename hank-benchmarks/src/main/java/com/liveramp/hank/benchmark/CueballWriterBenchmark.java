@@ -0,0 +1,73 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.cueball.CueballWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each invocation writes a whole partition. Output is discarded, so scores are
+// records written per second by the serialization and compression code.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CueballWriterBenchmark {
+
+  private static final int NUM_RECORDS = 100000;
+
+  @Param({"none", "gzip"})
+  public String compressionCodec;
+
+  private List<BenchmarkDomains.Record> records;
+
+  @Setup
+  public void setUp() {
+    records = BenchmarkDomains.sortedRecords(NUM_RECORDS, BenchmarkDomains.CUEBALL_VALUE_SIZE, 1);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public Writer write() throws Exception {
+    CueballWriter writer = new CueballWriter(new BenchmarkDomains.NullOutputStream(),
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.getHasher(),
+        BenchmarkDomains.CUEBALL_VALUE_SIZE,
+        BenchmarkDomains.getCueballCompressionCodecClass(compressionCodec).newInstance(),
+        BenchmarkDomains.HASH_INDEX_BITS);
+    for (BenchmarkDomains.Record record : records) {
+      writer.writeHash(record.keyHash.duplicate(), record.value.duplicate());
+    }
+    writer.close();
+    return writer;
+  }
+}
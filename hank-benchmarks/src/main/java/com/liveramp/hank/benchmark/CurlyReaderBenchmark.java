@@ -0,0 +1,161 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.storage.cueball.CueballReader;
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.storage.curly.CurlyReader;
+import com.liveramp.hank.storage.curly.TestDomainGenerator;
+import com.liveramp.hank.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CurlyReaderBenchmark {
+
+  @Param({"1000000"})
+  public int numRecords;
+
+  // "none" disables block compression
+  @Param({"none", "DEFLATE", "GZIP", "SNAPPY"})
+  public String blockCompressionCodec;
+
+  @Param({"false", "true"})
+  public boolean memoryMapped;
+
+  private File tmpDir;
+  private CurlyReader reader;
+  private ByteBuffer[] keys;
+  // Record file locations of keys, as found in the key file
+  private ByteBuffer[] locations;
+
+  @Setup
+  public void setUp() throws Exception {
+    CompressionCodec codec = BenchmarkDomains.getBlockCompressionCodec(blockCompressionCodec);
+    tmpDir = BenchmarkDomains.createTmpDir("curly-reader");
+    Map<Integer, List<byte[]>> partitionedKeys = TestDomainGenerator.generate(tmpDir.getAbsolutePath(),
+        numRecords,
+        BenchmarkDomains.KEY_LENGTH,
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.HASH_INDEX_BITS,
+        BenchmarkDomains.CURLY_VALUE_SIZE,
+        BenchmarkDomains.getHasher(),
+        NoCueballCompressionCodec.class,
+        1,
+        BenchmarkDomains.getPartitioner(),
+        codec);
+
+    String partitionRoot = tmpDir.getAbsolutePath() + "/0";
+    int offsetNumBytes = Curly.getOffsetNumBytes(TestDomainGenerator.MAX_ALLOWED_PART_SIZE);
+    int offsetInBlockNumBytes = codec == null ? -1 : TestDomainGenerator.OFFSET_IN_BLOCK_NUM_BYTES;
+    CueballReader keyFileReader = new CueballReader(partitionRoot,
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.getHasher(),
+        codec == null ? offsetNumBytes : offsetNumBytes + offsetInBlockNumBytes,
+        BenchmarkDomains.HASH_INDEX_BITS,
+        new NoCueballCompressionCodec(),
+        -1,
+        memoryMapped,
+        -1,
+        null);
+    reader = new CurlyReader(CurlyReader.getLatestBase(partitionRoot),
+        TestDomainGenerator.RECORD_FILE_READ_BUFFER_BYTES,
+        keyFileReader,
+        -1,
+        codec,
+        offsetNumBytes,
+        offsetInBlockNumBytes,
+        false,
+        memoryMapped,
+        -1,
+        null);
+
+    keys = BenchmarkDomains.sampleKeys(partitionedKeys.get(0), BenchmarkDomains.NUM_LOOKUP_KEYS, 1);
+    locations = new ByteBuffer[keys.length];
+    ReaderResult result = new ReaderResult();
+    for (int i = 0; i < keys.length; ++i) {
+      result.clear();
+      keyFileReader.get(keys[i], result);
+      if (!result.isFound()) {
+        throw new IOException("Key file is missing key #" + i);
+      }
+      locations[i] = Bytes.byteBufferDeepCopy(result.getBuffer());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    reader.close();
+    BenchmarkDomains.deleteDir(tmpDir);
+  }
+
+  @State(Scope.Thread)
+  public static class Lookup {
+
+    private final ReaderResult result = new ReaderResult(TestDomainGenerator.RECORD_FILE_READ_BUFFER_BYTES);
+    private int keyIndex = 0;
+
+    private int nextIndex(int numKeys) {
+      if (keyIndex == numKeys) {
+        keyIndex = 0;
+      }
+      return keyIndex++;
+    }
+  }
+
+  // Key file lookup followed by record file read
+  @Benchmark
+  public ReaderResult get(Lookup lookup) throws IOException {
+    lookup.result.clear();
+    reader.get(keys[lookup.nextIndex(keys.length)], lookup.result);
+    return lookup.result;
+  }
+
+  // Record file read only, including block decompression
+  @Benchmark
+  public ReaderResult readRecord(Lookup lookup) throws IOException {
+    lookup.result.clear();
+    ByteBuffer location = locations[lookup.nextIndex(locations.length)];
+    reader.readRecord(location.duplicate(), lookup.result);
+    return lookup.result;
+  }
+}
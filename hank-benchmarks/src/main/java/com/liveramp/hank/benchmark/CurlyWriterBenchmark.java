@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.cueball.CueballWriter;
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.storage.curly.CurlyWriter;
+import com.liveramp.hank.storage.curly.TestDomainGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each invocation writes a whole partition (record file and key file). Output is discarded,
+// so scores are records written per second by the serialization and compression code.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CurlyWriterBenchmark {
+
+  private static final int NUM_RECORDS = 100000;
+
+  // "none" disables block compression
+  @Param({"none", "DEFLATE", "GZIP", "SNAPPY"})
+  public String blockCompressionCodec;
+
+  private List<BenchmarkDomains.Record> records;
+  private CompressionCodec codec;
+  private int offsetNumBytes;
+  private int offsetInBlockNumBytes;
+
+  @Setup
+  public void setUp() {
+    records = BenchmarkDomains.sortedRecords(NUM_RECORDS, BenchmarkDomains.CURLY_VALUE_SIZE, 1);
+    codec = BenchmarkDomains.getBlockCompressionCodec(blockCompressionCodec);
+    offsetNumBytes = Curly.getOffsetNumBytes(TestDomainGenerator.MAX_ALLOWED_PART_SIZE);
+    offsetInBlockNumBytes = codec == null ? -1 : TestDomainGenerator.OFFSET_IN_BLOCK_NUM_BYTES;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public Writer write() throws Exception {
+    CueballWriter keyFileWriter = new CueballWriter(new BenchmarkDomains.NullOutputStream(),
+        BenchmarkDomains.KEY_HASH_SIZE,
+        BenchmarkDomains.getHasher(),
+        codec == null ? offsetNumBytes : offsetNumBytes + offsetInBlockNumBytes,
+        new NoCueballCompressionCodec(),
+        BenchmarkDomains.HASH_INDEX_BITS);
+    CurlyWriter writer = new CurlyWriter(new BenchmarkDomains.NullOutputStream(),
+        keyFileWriter,
+        offsetNumBytes,
+        -1,
+        codec,
+        codec == null ? -1 : TestDomainGenerator.COMPRESSED_BLOCK_SIZE_THRESHOLD,
+        offsetInBlockNumBytes);
+    for (BenchmarkDomains.Record record : records) {
+      writer.write(record.key.duplicate(), record.value.duplicate());
+    }
+    writer.close();
+    return writer;
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.hasher.IdentityHasher;
+import com.liveramp.hank.hasher.LeftPaddedIdentityHasher;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.HashCodePartitioner;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.partitioner.Partitioner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of hashing and partitioning a single key
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class HasherBenchmark {
+
+  private static final int NUM_PARTITIONS = 1024;
+
+  @Param({"8", "16", "64"})
+  public int keyLength;
+
+  private final Hasher murmur64Hasher = new Murmur64Hasher();
+  private final Hasher identityHasher = new IdentityHasher();
+  private final Hasher leftPaddedIdentityHasher = new LeftPaddedIdentityHasher();
+  private final Partitioner murmur64Partitioner = new Murmur64Partitioner();
+  private final Partitioner hashCodePartitioner = new HashCodePartitioner();
+
+  private ByteBuffer[] keys;
+  private int keyIndex = 0;
+  private final byte[] hash = new byte[BenchmarkDomains.KEY_HASH_SIZE];
+  // Identity hashes are as long as keys, and padded hashes are longer
+  private byte[] identityHash;
+  private byte[] paddedHash;
+
+  @Setup
+  public void setUp() {
+    keys = new ByteBuffer[BenchmarkDomains.NUM_LOOKUP_KEYS];
+    Random random = new Random(1);
+    for (int i = 0; i < keys.length; ++i) {
+      byte[] key = new byte[keyLength];
+      random.nextBytes(key);
+      keys[i] = ByteBuffer.wrap(key);
+    }
+    identityHash = new byte[keyLength];
+    paddedHash = new byte[keyLength + 8];
+  }
+
+  private ByteBuffer nextKey() {
+    if (keyIndex == keys.length) {
+      keyIndex = 0;
+    }
+    return keys[keyIndex++];
+  }
+
+  @Benchmark
+  public byte[] murmur64Hasher() {
+    murmur64Hasher.hash(nextKey(), hash.length, hash);
+    return hash;
+  }
+
+  @Benchmark
+  public byte[] identityHasher() {
+    identityHasher.hash(nextKey(), identityHash.length, identityHash);
+    return identityHash;
+  }
+
+  @Benchmark
+  public byte[] leftPaddedIdentityHasher() {
+    leftPaddedIdentityHasher.hash(nextKey(), paddedHash.length, paddedHash);
+    return paddedHash;
+  }
+
+  @Benchmark
+  public int murmur64Partitioner() {
+    return murmur64Partitioner.partition(nextKey(), NUM_PARTITIONS);
+  }
+
+  @Benchmark
+  public int hashCodePartitioner() {
+    return hashCodePartitioner.partition(nextKey(), NUM_PARTITIONS);
+  }
+}
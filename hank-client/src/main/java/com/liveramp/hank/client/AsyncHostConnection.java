@@ -0,0 +1,404 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.HostState;
+import com.liveramp.hank.generated.HankException;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.generated.PartitionServer;
+import com.liveramp.hank.zookeeper.WatchedNodeListener;
+
+/**
+ * AsyncHostConnection is a non-blocking connection to a partition server. Unlike HostConnection,
+ * it is never locked while a query is in flight: GET requests are written to the connection as
+ * they come (pipelined, using the framed transport and compact protocol expected by the server),
+ * and responses are matched to requests by sequence id. All I/O is performed by an
+ * AsyncHostConnectionSelector thread, and callers are notified through a GetCallback, so that
+ * no thread waits for a pending request.
+ * <p/>
+ * Callbacks are executed by the selector thread and must not block.
+ * <p/>
+ * The number of pending requests is bounded: beyond it, GET requests fail right away, so that
+ * they are retried with another host instead of queuing up behind a slow one.
+ */
+public class AsyncHostConnection implements WatchedNodeListener<HostState> {
+
+  private static final Logger LOG = Logger.getLogger(AsyncHostConnection.class);
+
+  private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+  public static final int DEFAULT_MAX_NUM_PENDING_GETS = 1024;
+
+  private final Host host;
+  private final AsyncHostConnectionSelector selector;
+  private final int establishConnectionTimeoutMs;
+  private final int queryTimeoutMs;
+  private final int maxNumPendingGets;
+  // Kept up to date by the host state listener
+  private volatile HostState hostState;
+
+  private SocketChannel channel;
+  private SelectionKey selectionKey;
+  private boolean connected = false;
+  private long connectDeadline;
+  private final LinkedList<ByteBuffer> outgoingFrames = new LinkedList<ByteBuffer>();
+  // Ordered by sequence id, hence by deadline
+  private final LinkedHashMap<Integer, PendingGet> pendingGets = new LinkedHashMap<Integer, PendingGet>();
+  private int nextSequenceId = 0;
+
+  // Incoming frame, only accessed by the selector thread
+  private final ByteBuffer frameSizeBuffer = ByteBuffer.allocate(4);
+  private ByteBuffer frameBuffer = null;
+
+  private static class PendingGet {
+
+    private final GetCallback callback;
+    private final long deadline;
+
+    private PendingGet(GetCallback callback, long deadline) {
+      this.callback = callback;
+      this.deadline = deadline;
+    }
+  }
+
+  private static class Completion {
+
+    private final GetCallback callback;
+    private final HankResponse response;
+
+    private Completion(GetCallback callback, HankResponse response) {
+      this.callback = callback;
+      this.response = response;
+    }
+  }
+
+  // A timeout of 0 means no timeout
+  public AsyncHostConnection(Host host,
+                             AsyncHostConnectionSelector selector,
+                             int establishConnectionTimeoutMs,
+                             int queryTimeoutMs) throws IOException {
+    this(host, selector, establishConnectionTimeoutMs, queryTimeoutMs, DEFAULT_MAX_NUM_PENDING_GETS);
+  }
+
+  public AsyncHostConnection(Host host,
+                             AsyncHostConnectionSelector selector,
+                             int establishConnectionTimeoutMs,
+                             int queryTimeoutMs,
+                             int maxNumPendingGets) throws IOException {
+    if (maxNumPendingGets < 1) {
+      throw new IllegalArgumentException("Maximum number of pending GET requests must be positive: " + maxNumPendingGets);
+    }
+    this.host = host;
+    this.selector = selector;
+    this.establishConnectionTimeoutMs = establishConnectionTimeoutMs;
+    this.queryTimeoutMs = queryTimeoutMs;
+    this.maxNumPendingGets = maxNumPendingGets;
+    host.setStateChangeListener(this);
+    onWatchedNodeChange(host.getState());
+    selector.register(this);
+  }
+
+  Host getHost() {
+    return host;
+  }
+
+  boolean isServing() {
+    return HostState.SERVING.equals(hostState);
+  }
+
+  boolean isOffline() {
+    return HostState.OFFLINE.equals(hostState);
+  }
+
+  @Override
+  public void onWatchedNodeChange(HostState hostState) {
+    // A host without state is offline
+    this.hostState = hostState == null ? HostState.OFFLINE : hostState;
+  }
+
+  // The callback is notified of the response, or of an exception response in case of failure
+  public void get(int domainId, ByteBuffer key, GetCallback callback) {
+    // Check availability
+    if (!isServing() && !isOffline()) {
+      callback.onComplete(getErrorResponse("Connection to host is not available (host is not serving)."));
+      return;
+    }
+    String failure = null;
+    synchronized (this) {
+      // Requests that timed out before being sent are still waiting to be written
+      if (pendingGets.size() >= maxNumPendingGets || outgoingFrames.size() >= maxNumPendingGets) {
+        // Fail fast, so that the request is retried with another host
+        failure = "Too many pending GET requests to host " + host.getAddress()
+            + " (" + pendingGets.size() + " pending, " + outgoingFrames.size() + " not sent)";
+      } else {
+        int sequenceId = nextSequenceId++;
+        try {
+          outgoingFrames.add(getRequestFrame(sequenceId, domainId, key));
+          pendingGets.put(sequenceId, new PendingGet(callback, getDeadline(queryTimeoutMs)));
+        } catch (TException e) {
+          failure = "Failed to serialize GET request: " + e.getMessage();
+        }
+      }
+    }
+    if (failure != null) {
+      callback.onComplete(getErrorResponse(failure));
+      return;
+    }
+    selector.requestUpdate(this);
+  }
+
+  public void disconnect() {
+    host.cancelStateChangeListener(this);
+    List<Completion> completions = new ArrayList<Completion>();
+    synchronized (this) {
+      disconnect("Connection to host " + host.getAddress() + " was closed.", completions);
+    }
+    complete(completions);
+    selector.unregister(this);
+  }
+
+  // Called by the selector thread when there are new requests to send
+  void update(Selector nioSelector) {
+    List<Completion> completions = new ArrayList<Completion>();
+    synchronized (this) {
+      if (!outgoingFrames.isEmpty()) {
+        try {
+          if (channel == null) {
+            connect(nioSelector);
+          } else if (connected) {
+            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          }
+        } catch (IOException e) {
+          LOG.error("Failed to establish connection to host " + host.getAddress(), e);
+          disconnect("Failed to establish connection to host " + host.getAddress() + ": " + e.getMessage(), completions);
+        }
+      }
+    }
+    complete(completions);
+  }
+
+  // Called by the selector thread when the connection is ready for I/O
+  void onSelected(SelectionKey key) {
+    List<Completion> completions = new ArrayList<Completion>();
+    synchronized (this) {
+      if (key == selectionKey && key.isValid()) {
+        try {
+          if (key.isConnectable()) {
+            channel.finishConnect();
+            connected = true;
+            key.interestOps(SelectionKey.OP_READ | (outgoingFrames.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+          }
+          if (key.isValid() && key.isWritable()) {
+            write();
+          }
+          if (key.isValid() && key.isReadable()) {
+            read(completions);
+          }
+        } catch (IOException e) {
+          LOG.error("Failed to communicate with host " + host.getAddress(), e);
+          disconnect("Failed to communicate with host " + host.getAddress() + ": " + e.getMessage(), completions);
+        }
+      }
+    }
+    complete(completions);
+  }
+
+  // Called by the selector thread to expire connection attempts and requests that timed out
+  void expire(long now) {
+    List<Completion> completions = new ArrayList<Completion>();
+    synchronized (this) {
+      if (channel != null && !connected && connectDeadline > 0 && now > connectDeadline) {
+        disconnect("Exceeded timeout while establishing connection to host " + host.getAddress(), completions);
+      }
+      Iterator<PendingGet> iterator = pendingGets.values().iterator();
+      while (iterator.hasNext()) {
+        PendingGet pendingGet = iterator.next();
+        if (pendingGet.deadline <= 0 || now <= pendingGet.deadline) {
+          break;
+        }
+        // Note: a response that arrives later will be ignored
+        iterator.remove();
+        completions.add(new Completion(pendingGet.callback,
+            getErrorResponse("Exceeded timeout while waiting for response from host " + host.getAddress())));
+      }
+    }
+    complete(completions);
+  }
+
+  private void connect(Selector nioSelector) throws IOException {
+    channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    connected = channel.connect(new InetSocketAddress(host.getAddress().getHostName(),
+        host.getAddress().getPortNumber()));
+    connectDeadline = getDeadline(establishConnectionTimeoutMs);
+    if (connected) {
+      selectionKey = channel.register(nioSelector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+    } else {
+      selectionKey = channel.register(nioSelector, SelectionKey.OP_CONNECT, this);
+    }
+  }
+
+  private void disconnect(String reason, List<Completion> completions) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.error("Failed to close connection to host " + host.getAddress(), e);
+      }
+    }
+    channel = null;
+    selectionKey = null;
+    connected = false;
+    outgoingFrames.clear();
+    frameSizeBuffer.clear();
+    frameBuffer = null;
+    for (PendingGet pendingGet : pendingGets.values()) {
+      completions.add(new Completion(pendingGet.callback, getErrorResponse(reason)));
+    }
+    pendingGets.clear();
+  }
+
+  private void write() throws IOException {
+    while (!outgoingFrames.isEmpty()) {
+      ByteBuffer frame = outgoingFrames.getFirst();
+      channel.write(frame);
+      if (frame.hasRemaining()) {
+        // Socket buffer is full, wait until it is writable again
+        return;
+      }
+      outgoingFrames.removeFirst();
+    }
+    selectionKey.interestOps(SelectionKey.OP_READ);
+  }
+
+  private void read(List<Completion> completions) throws IOException {
+    while (true) {
+      if (frameBuffer == null) {
+        if (channel.read(frameSizeBuffer) < 0) {
+          throw new IOException("Connection closed by host");
+        }
+        if (frameSizeBuffer.hasRemaining()) {
+          return;
+        }
+        frameSizeBuffer.flip();
+        int frameSize = frameSizeBuffer.getInt();
+        frameSizeBuffer.clear();
+        if (frameSize < 0 || frameSize > MAX_FRAME_SIZE) {
+          throw new IOException("Invalid frame size: " + frameSize);
+        }
+        frameBuffer = ByteBuffer.allocate(frameSize);
+      }
+      if (channel.read(frameBuffer) < 0) {
+        throw new IOException("Connection closed by host");
+      }
+      if (frameBuffer.hasRemaining()) {
+        return;
+      }
+      onResponseFrame(frameBuffer, completions);
+      frameBuffer = null;
+    }
+  }
+
+  private void onResponseFrame(ByteBuffer frame, List<Completion> completions) throws IOException {
+    TProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(frame.array(), 0, frame.limit()));
+    HankResponse response;
+    TMessage message;
+    try {
+      message = protocol.readMessageBegin();
+      if (message.type == TMessageType.EXCEPTION) {
+        TApplicationException exception = TApplicationException.read(protocol);
+        response = getErrorResponse("Server failed to execute GET: " + exception.getMessage());
+      } else {
+        PartitionServer.get_result result = new PartitionServer.get_result();
+        result.read(protocol);
+        if (result.is_set_success()) {
+          response = result.success;
+        } else {
+          response = getErrorResponse("GET failed: unknown result");
+        }
+      }
+      protocol.readMessageEnd();
+    } catch (TException e) {
+      throw new IOException("Failed to read GET response", e);
+    }
+    PendingGet pendingGet = pendingGets.remove(message.seqid);
+    // Requests that timed out are no longer pending
+    if (pendingGet != null) {
+      completions.add(new Completion(pendingGet.callback, response));
+    }
+  }
+
+  private static ByteBuffer getRequestFrame(int sequenceId, int domainId, ByteBuffer key) throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(key.remaining() + 32);
+    TProtocol protocol = new TCompactProtocol(buffer);
+    protocol.writeMessageBegin(new TMessage("get", TMessageType.CALL, sequenceId));
+    new PartitionServer.get_args(domainId, key).write(protocol);
+    protocol.writeMessageEnd();
+    ByteBuffer frame = ByteBuffer.allocate(4 + buffer.length());
+    frame.putInt(buffer.length());
+    frame.put(buffer.getArray(), 0, buffer.length());
+    frame.flip();
+    return frame;
+  }
+
+  private static long getDeadline(int timeoutMs) {
+    if (timeoutMs <= 0) {
+      return 0;
+    } else {
+      return System.currentTimeMillis() + timeoutMs;
+    }
+  }
+
+  private static HankResponse getErrorResponse(String message) {
+    return HankResponse.xception(HankException.internal_error(message));
+  }
+
+  // Callbacks are executed outside of the connection lock
+  private static void complete(List<Completion> completions) {
+    for (Completion completion : completions) {
+      try {
+        completion.callback.onComplete(completion.response);
+      } catch (Throwable t) {
+        LOG.error("Throwable while executing GET callback", t);
+      }
+    }
+  }
+}
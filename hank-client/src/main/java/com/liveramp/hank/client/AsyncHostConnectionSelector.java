@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A single thread that performs all I/O for a set of AsyncHostConnections, and expires their
+ * requests that timed out.
+ */
+public class AsyncHostConnectionSelector implements Runnable {
+
+  private static final Logger LOG = Logger.getLogger(AsyncHostConnectionSelector.class);
+
+  // Resolution of connection and query timeouts
+  private static final long SELECT_TIMEOUT_MS = 10;
+
+  private final Selector selector;
+  private final Set<AsyncHostConnection> connections
+      = Collections.newSetFromMap(new ConcurrentHashMap<AsyncHostConnection, Boolean>());
+  private final ConcurrentLinkedQueue<AsyncHostConnection> connectionsToUpdate
+      = new ConcurrentLinkedQueue<AsyncHostConnection>();
+  private final AtomicBoolean wakeUpRequested = new AtomicBoolean(false);
+  private final Thread thread;
+  private volatile boolean stopping = false;
+
+  public AsyncHostConnectionSelector() throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this, "Async Host Connection Selector");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void register(AsyncHostConnection connection) {
+    connections.add(connection);
+  }
+
+  void unregister(AsyncHostConnection connection) {
+    connections.remove(connection);
+  }
+
+  // Notify the selector thread that the given connection has new requests to send
+  void requestUpdate(AsyncHostConnection connection) {
+    connectionsToUpdate.add(connection);
+    // Avoid waking up the selector repeatedly when it is already going to process updates
+    if (wakeUpRequested.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
+  @Override
+  public void run() {
+    while (!stopping) {
+      try {
+        selector.select(SELECT_TIMEOUT_MS);
+        wakeUpRequested.set(false);
+        AsyncHostConnection connectionToUpdate;
+        while ((connectionToUpdate = connectionsToUpdate.poll()) != null) {
+          connectionToUpdate.update(selector);
+        }
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+          SelectionKey key = selectedKeys.next();
+          selectedKeys.remove();
+          ((AsyncHostConnection)key.attachment()).onSelected(key);
+        }
+        long now = System.currentTimeMillis();
+        for (AsyncHostConnection connection : connections) {
+          connection.expire(now);
+        }
+      } catch (Exception e) {
+        // Log exception but do not rethrow since we don't want to stop serving other connections
+        LOG.error("Error in async host connection selector", e);
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      LOG.error("Failed to close selector", e);
+    }
+    LOG.info("Async host connection selector stopping.");
+  }
+
+  public void stop() {
+    stopping = true;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      LOG.info("Interrupted while waiting for async host connection selector to terminate.");
+    }
+  }
+}
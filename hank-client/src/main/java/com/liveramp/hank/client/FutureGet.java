@@ -16,6 +16,8 @@
 
 package com.liveramp.hank.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
@@ -28,12 +30,18 @@ public class FutureGet extends FutureTask<Object> {
   private static final Logger LOG = Logger.getLogger(FutureGet.class);
 
   GetTaskRunnableIface runnable;
+  private List<GetCallback> callbacks = null;
 
   public FutureGet(GetTaskRunnableIface runnable) {
     super(runnable, null);
     this.runnable = runnable;
   }
 
+  // Create a future that is not run, but completed by a call to setResponse()
+  FutureGet() {
+    this(new CompletedGetTaskRunnable());
+  }
+
   // Wait for termination and return response
   public HankResponse getResponse() {
     try {
@@ -45,4 +53,55 @@ public class FutureGet extends FutureTask<Object> {
     }
     return runnable.getResponse();
   }
+
+  // Complete a future that is not run
+  void setResponse(HankResponse response) {
+    ((CompletedGetTaskRunnable)runnable).response = response;
+    set(null);
+  }
+
+  // The callback is executed once the response is available, by the thread that completes this future
+  // (or immediately if it is already complete). It should not block.
+  public void addCallback(GetCallback callback) {
+    synchronized (this) {
+      if (!isDone()) {
+        if (callbacks == null) {
+          callbacks = new ArrayList<GetCallback>();
+        }
+        callbacks.add(callback);
+        return;
+      }
+    }
+    callback.onComplete(getResponse());
+  }
+
+  @Override
+  protected void done() {
+    List<GetCallback> callbacksToExecute;
+    synchronized (this) {
+      callbacksToExecute = callbacks;
+      callbacks = null;
+    }
+    if (callbacksToExecute != null) {
+      HankResponse response = getResponse();
+      for (GetCallback callback : callbacksToExecute) {
+        callback.onComplete(response);
+      }
+    }
+  }
+
+  private static class CompletedGetTaskRunnable implements GetTaskRunnableIface {
+
+    private volatile HankResponse response;
+
+    @Override
+    public HankResponse getResponse() {
+      return response;
+    }
+
+    @Override
+    public void run() {
+      // No-op
+    }
+  }
 }
@@ -18,14 +18,17 @@ package com.liveramp.hank.client;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
@@ -43,10 +46,12 @@ import com.liveramp.hank.coordinator.RingGroupDataLocationChangeListener;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
-import com.liveramp.hank.util.AtomicLongCollection;
+import com.liveramp.hank.partitioner.Partitioner;
+import com.liveramp.hank.partitioner.Partitioners;
 import com.liveramp.hank.util.Bytes;
 import com.liveramp.hank.util.FormatUtils;
 import com.liveramp.hank.util.HankTimer;
+import com.liveramp.hank.util.StripedCounterCollection;
 import com.liveramp.hank.util.SynchronizedMemoryBoundCacheExpiring;
 import com.liveramp.hank.util.UpdateStatisticsRunnable;
 
@@ -59,6 +64,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
   private static final HankResponse NO_REPLICA = HankResponse.xception(HankException.no_replica(true));
+  private static final HankResponse NO_CONNECTION_AVAILABLE = HankResponse.xception(HankException.no_connection_available(true));
 
   private static final long GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME = 1;
   private static final TimeUnit GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT = TimeUnit.MINUTES;
@@ -79,14 +85,21 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private final int tryLockConnectionTimeoutMs;
   private final int establishConnectionTimeoutMs;
   private final int queryTimeoutMs;
+  private final int asyncConnectionMaxNumPendingGets;
   private final int bulkQueryTimeoutMs;
+  private final int bulkQueryMaxNumKeys;
+  private final boolean latencyAwareHostSelection;
 
   private final SynchronizedMemoryBoundCacheExpiring<DomainAndKey, HankResponseManagedBytes> responseCache;
-  // 0: num queries
-  // 1: num cache hits
-  private final AtomicLongCollection requestsCounters;
+  // 0: num requests, 1: num cache hits
+  private final StripedCounterCollection requestsCounters;
 
   private final ThreadPoolExecutor getTaskExecutor;
+  // Only set when concurrent gets use async connections
+  private final AsyncHostConnectionSelector asyncHostConnectionSelector;
+  private final AtomicInteger asyncConnectionIndex = new AtomicInteger(0);
+  // Only set when hedged requests are enabled
+  private final HedgedRequestPolicy hedgedRequestPolicy;
 
   private final UpdateRuntimeStatisticsRunnable updateRuntimeStatisticsRunnable;
   private final Thread updateRuntimeStatisticsThread;
@@ -101,6 +114,8 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
   private Map<List<PartitionServerAddress>, HostConnectionPool> partitionServerAddressListToConnectionPool =
       new HashMap<List<PartitionServerAddress>, HostConnectionPool>();
+  private Map<PartitionServerAddress, List<AsyncHostConnection>> partitionServerAddressToAsyncConnections
+      = new HashMap<PartitionServerAddress, List<AsyncHostConnection>>();
 
   private final Object connectionCacheLock = new Object();
   private final ConnectionCacheUpdaterRunnable connectionCacheUpdaterRunnable = new ConnectionCacheUpdaterRunnable();
@@ -156,13 +171,16 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     this.tryLockConnectionTimeoutMs = options.getTryLockConnectionTimeoutMs();
     this.establishConnectionTimeoutMs = options.getEstablishConnectionTimeoutMs();
     this.queryTimeoutMs = options.getQueryTimeoutMs();
+    this.asyncConnectionMaxNumPendingGets = options.getAsyncConnectionMaxNumPendingGets();
     this.bulkQueryTimeoutMs = options.getBulkQueryTimeoutMs();
+    this.bulkQueryMaxNumKeys = options.getBulkQueryMaxNumKeys();
+    this.latencyAwareHostSelection = options.getLatencyAwareHostSelectionEnabled();
     this.responseCache = new SynchronizedMemoryBoundCacheExpiring<DomainAndKey, HankResponseManagedBytes>(
         options.getResponseCacheEnabled(),
         options.getResponseCacheNumBytesCapacity(),
         options.getResponseCacheNumItemsCapacity(),
         options.getResponseCacheExpirationSeconds());
-    this.requestsCounters = new AtomicLongCollection(2, new long[]{0, 0});
+    this.requestsCounters = new StripedCounterCollection(2);
 
     // This creates a thread pool executor with a specific maximum number of threads.
     // We allow core threads to timeout after the keep alive time. We use a custom bounded
@@ -176,6 +194,21 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         new AlwaysBlockingLinkedBlockingQueue(GET_TASK_EXECUTOR_QUEUE_SIZE));
     getTaskExecutor.allowCoreThreadTimeOut(true);
 
+    if (options.getAsyncConnectionsEnabled()) {
+      asyncHostConnectionSelector = new AsyncHostConnectionSelector();
+    } else {
+      asyncHostConnectionSelector = null;
+    }
+
+    if (options.getHedgedRequestsEnabled()) {
+      hedgedRequestPolicy = new HedgedRequestPolicy(
+          options.getHedgedRequestsDelayMs(),
+          options.getHedgedRequestsLatencyPercentile(),
+          options.getHedgedRequestsMaxConcurrency());
+    } else {
+      hedgedRequestPolicy = null;
+    }
+
     // Initialize Load statistics runner
     updateRuntimeStatisticsRunnable = new UpdateRuntimeStatisticsRunnable();
     updateRuntimeStatisticsThread = new Thread(updateRuntimeStatisticsRunnable, "Update Load Statistics");
@@ -202,22 +235,28 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
     final Map<List<PartitionServerAddress>, HostConnectionPool> newPartitionServerAddressListToConnectionPool =
         new HashMap<List<PartitionServerAddress>, HostConnectionPool>();
+    final Map<PartitionServerAddress, List<AsyncHostConnection>> newPartitionServerAddressToAsyncConnections
+        = new HashMap<PartitionServerAddress, List<AsyncHostConnection>>();
 
     // Build new cache
     buildNewConnectionCache(
         newPartitionServerAddressToConnectionPool,
         newDomainToPartitionToPartitionServerAddressList,
         newDomainToPartitionToConnectionPool,
-        newPartitionServerAddressListToConnectionPool);
+        newPartitionServerAddressListToConnectionPool,
+        newPartitionServerAddressToAsyncConnections);
 
     // Switch old cache for new cache
     final Map<PartitionServerAddress, HostConnectionPool> oldPartitionServerAddressToConnectionPool
         = partitionServerAddressToConnectionPool;
+    final Map<PartitionServerAddress, List<AsyncHostConnection>> oldPartitionServerAddressToAsyncConnections
+        = partitionServerAddressToAsyncConnections;
     synchronized (connectionCacheLock) {
       partitionServerAddressToConnectionPool = newPartitionServerAddressToConnectionPool;
       domainToPartitionToPartitionServerAddressList = newDomainToPartitionToPartitionServerAddressList;
       domainToPartitionToConnectionPool = newDomainToPartitionToConnectionPool;
       partitionServerAddressListToConnectionPool = newPartitionServerAddressListToConnectionPool;
+      partitionServerAddressToAsyncConnections = newPartitionServerAddressToAsyncConnections;
     }
 
     // Clean up old cache when new cache is in place
@@ -232,6 +271,14 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         }
       }
     }
+    for (Map.Entry<PartitionServerAddress, List<AsyncHostConnection>> entry
+        : oldPartitionServerAddressToAsyncConnections.entrySet()) {
+      if (!partitionServerAddressToAsyncConnections.containsKey(entry.getKey())) {
+        for (AsyncHostConnection connection : entry.getValue()) {
+          connection.disconnect();
+        }
+      }
+    }
   }
 
   private class ConnectionCacheUpdaterRunnable implements Runnable {
@@ -281,7 +328,8 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       final Map<PartitionServerAddress, HostConnectionPool> newPartitionServerAddressToConnectionPool,
       final Map<Integer, Map<Integer, List<PartitionServerAddress>>> newDomainToPartitionToPartitionServerAddressList,
       final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool,
-      final Map<List<PartitionServerAddress>, HostConnectionPool> newPartitionServerAddressListToConnectionPool)
+      final Map<List<PartitionServerAddress>, HostConnectionPool> newPartitionServerAddressListToConnectionPool,
+      final Map<PartitionServerAddress, List<AsyncHostConnection>> newPartitionServerAddressToAsyncConnections)
       throws IOException, TException {
 
     for (Ring ring : ringGroup.getRings()) {
@@ -327,16 +375,35 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
               + ", query timeout = " + queryTimeoutMs + "ms"
               + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms");
           List<HostConnection> hostConnections = new ArrayList<HostConnection>(numConnectionsPerHost);
+          HostLatencyTracker latencyTracker = new HostLatencyTracker();
           for (int i = 0; i < numConnectionsPerHost; i++) {
             hostConnections.add(new HostConnection(host,
                 tryLockConnectionTimeoutMs,
                 establishConnectionTimeoutMs,
                 queryTimeoutMs,
-                bulkQueryTimeoutMs));
+                bulkQueryTimeoutMs,
+                latencyTracker));
           }
-          hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null);
+          hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null, latencyAwareHostSelection);
         }
         newPartitionServerAddressToConnectionPool.put(host.getAddress(), hostConnectionPool);
+
+        // Build new partitionServerAddressToAsyncConnections
+        // Reuse current async connections to that host if they exist
+        if (asyncHostConnectionSelector != null) {
+          List<AsyncHostConnection> asyncConnections = partitionServerAddressToAsyncConnections.get(host.getAddress());
+          if (asyncConnections == null) {
+            asyncConnections = new ArrayList<AsyncHostConnection>(numConnectionsPerHost);
+            for (int i = 0; i < numConnectionsPerHost; i++) {
+              asyncConnections.add(new AsyncHostConnection(host,
+                  asyncHostConnectionSelector,
+                  establishConnectionTimeoutMs,
+                  queryTimeoutMs,
+                  asyncConnectionMaxNumPendingGets));
+            }
+          }
+          newPartitionServerAddressToAsyncConnections.put(host.getAddress(), asyncConnections);
+        }
       }
     }
 
@@ -353,7 +420,8 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         }
         Integer partitionId = partitionToAddressesEntry.getKey();
         partitionToConnectionPool.put(partitionId,
-            HostConnectionPool.createFromList(connections, getHostListShuffleSeed(domainId, partitionId)));
+            HostConnectionPool.createFromList(connections, getHostListShuffleSeed(domainId, partitionId),
+                latencyAwareHostSelection));
       }
       newDomainToPartitionToConnectionPool.put(domainId, partitionToConnectionPool);
     }
@@ -369,7 +437,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
             connections.addAll(newPartitionServerAddressToConnectionPool.get(partitionServerAddress).getConnections());
           }
           newPartitionServerAddressListToConnectionPool.put(partitionServerAddressList,
-              HostConnectionPool.createFromList(connections, null));
+              HostConnectionPool.createFromList(connections, null, latencyAwareHostSelection));
         }
       }
     }
@@ -396,17 +464,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       return NO_SUCH_DOMAIN_BULK;
     }
-    // Execute futures
-    List<FutureGet> futureGets = new ArrayList<FutureGet>(keys.size());
-    for (ByteBuffer key : keys) {
-      futureGets.add(_concurrentGet(domain, key));
-    }
-    // Build responses list
-    List<HankResponse> allResponses = new ArrayList<HankResponse>(keys.size());
-    for (FutureGet futureGet : futureGets) {
-      allResponses.add(futureGet.getResponse());
-    }
-    return HankBulkResponse.responses(allResponses);
+    return _getBulk(domain, keys);
   }
 
   // Asynchronous get
@@ -445,11 +503,61 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   }
 
   private FutureGet _concurrentGet(Domain domain, ByteBuffer key) {
+    if (asyncHostConnectionSelector != null) {
+      return _asyncGet(domain, key);
+    }
     FutureGet futureGet = new FutureGet(new GetTaskRunnable(domain, key));
     getTaskExecutor.execute(futureGet);
     return futureGet;
   }
 
+  // Perform a get through async connections. The returned future is completed by the
+  // async connection selector thread.
+  private FutureGet _asyncGet(Domain domain, ByteBuffer key) {
+    FutureGet futureGet = new FutureGet();
+    // Check for null keys
+    if (key == null) {
+      futureGet.setResponse(HankResponse.xception(HankException.internal_error(new NullKeyException().toString())));
+      return futureGet;
+    }
+    // Check for empty keys
+    if (key.remaining() == 0) {
+      futureGet.setResponse(HankResponse.xception(HankException.internal_error(new EmptyKeyException().toString())));
+      return futureGet;
+    }
+
+    // Attempt to load from cache
+    HankResponseManagedBytes cachedResponse = responseCache.get(new DomainAndKey(domain, key));
+    if (cachedResponse != null) {
+      // One request, in cache
+      countRequest(true);
+      futureGet.setResponse(cachedResponse.getResponse());
+      return futureGet;
+    }
+
+    // Hash the key once for both the partition and the key hash
+    Partitioner partitioner = domain.getPartitioner();
+    long hash = Partitioners.hash(partitioner, key);
+    int partition = Partitioners.partition(partitioner, key, hash, domain.getNumParts());
+    int keyHash = Partitioners.partition(partitioner, key, hash, Integer.MAX_VALUE);
+    Map<Integer, List<PartitionServerAddress>> partitionToAddresses;
+    Map<PartitionServerAddress, List<AsyncHostConnection>> addressToAsyncConnections;
+    synchronized (connectionCacheLock) {
+      partitionToAddresses = domainToPartitionToPartitionServerAddressList.get(domain.getId());
+      addressToAsyncConnections = partitionServerAddressToAsyncConnections;
+    }
+    List<PartitionServerAddress> addresses = partitionToAddresses == null ? null : partitionToAddresses.get(partition);
+    if (addresses == null || addresses.isEmpty()) {
+      LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
+      // One request, not in cache
+      countRequest(false);
+      futureGet.setResponse(NO_REPLICA);
+      return futureGet;
+    }
+    new AsyncGet(domain, key, addresses, addressToAsyncConnections, keyHash, futureGet).execute();
+    return futureGet;
+  }
+
   private HankResponse _get(Domain domain, ByteBuffer key) {
     // Check for null keys
     if (key == null) {
@@ -464,13 +572,15 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     HankResponseManagedBytes cachedResponse = responseCache.get(new DomainAndKey(domain, key));
     if (cachedResponse != null) {
       // One request, in cache
-      requestsCounters.increment(1, 1);
+      countRequest(true);
       return cachedResponse.getResponse();
     } else {
       try {
         // Determine HostConnectionPool to use
-        int partition = domain.getPartitioner().partition(key, domain.getNumParts());
-        int keyHash = domain.getPartitioner().partition(key, Integer.MAX_VALUE);
+        Partitioner partitioner = domain.getPartitioner();
+        long hash = Partitioners.hash(partitioner, key);
+        int partition = Partitioners.partition(partitioner, key, hash, domain.getNumParts());
+        int keyHash = Partitioners.partition(partitioner, key, hash, Integer.MAX_VALUE);
 
         Map<Integer, HostConnectionPool> partitionToConnectionPool;
         synchronized (connectionCacheLock) {
@@ -491,7 +601,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
           LOG.trace("Looking in domain " + domain.getName() + ", in partition " + partition + ", for key: " + Bytes.bytesToHexString(key));
         }
         // Perform get
-        HankResponse response = hostConnectionPool.get(domain, key, queryMaxNumTries, keyHash);
+        HankResponse response = hostConnectionPool.get(domain, key, queryMaxNumTries, keyHash, hedgedRequestPolicy);
         // Cache response if necessary, do not cache exceptions
         if (responseCache.isEnabled() && response.is_set_not_found() || response.is_set_value()) {
           responseCache.put(
@@ -504,11 +614,102 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         return response;
       } finally {
         // One request, not in cache
-        requestsCounters.increment(1, 0);
+        countRequest(false);
       }
     }
   }
 
+  // Keys are grouped by the list of hosts serving their partition, and each group is sent
+  // as GET BULK requests of at most bulkQueryMaxNumKeys keys to one of these hosts. Keys that
+  // fail are retried individually.
+  private HankBulkResponse _getBulk(Domain domain, List<ByteBuffer> keys) {
+    HankResponse[] responses = new HankResponse[keys.size()];
+
+    Map<Integer, List<PartitionServerAddress>> partitionToAddresses;
+    Map<List<PartitionServerAddress>, HostConnectionPool> addressesToConnectionPool;
+    synchronized (connectionCacheLock) {
+      partitionToAddresses = domainToPartitionToPartitionServerAddressList.get(domain.getId());
+      addressesToConnectionPool = partitionServerAddressListToConnectionPool;
+    }
+
+    // Group keys that are not in cache
+    List<GetBulkTaskRunnable> tasks = new ArrayList<GetBulkTaskRunnable>();
+    Map<List<PartitionServerAddress>, GetBulkTaskRunnable> addressesToTask
+        = new HashMap<List<PartitionServerAddress>, GetBulkTaskRunnable>();
+    for (int i = 0; i < keys.size(); ++i) {
+      ByteBuffer key = keys.get(i);
+      // Check for null keys
+      if (key == null) {
+        throw new NullKeyException();
+      }
+      // Check for empty keys
+      if (key.remaining() == 0) {
+        throw new EmptyKeyException();
+      }
+      // Attempt to load from cache
+      HankResponseManagedBytes cachedResponse = responseCache.get(new DomainAndKey(domain, key));
+      if (cachedResponse != null) {
+        // One request, in cache
+        countRequest(true);
+        responses[i] = cachedResponse.getResponse();
+        continue;
+      }
+      Partitioner partitioner = domain.getPartitioner();
+      int partition = Partitioners.partition(partitioner, key, Partitioners.hash(partitioner, key), domain.getNumParts());
+      List<PartitionServerAddress> addresses = partitionToAddresses == null ? null : partitionToAddresses.get(partition);
+      HostConnectionPool hostConnectionPool = addresses == null ? null : addressesToConnectionPool.get(addresses);
+      if (hostConnectionPool == null) {
+        LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
+        // One request, not in cache
+        countRequest(false);
+        responses[i] = NO_REPLICA;
+        continue;
+      }
+      // Start a new task when the current one for these hosts is full
+      GetBulkTaskRunnable task = addressesToTask.get(addresses);
+      if (task == null || task.getNumKeys() >= bulkQueryMaxNumKeys) {
+        task = new GetBulkTaskRunnable(domain, hostConnectionPool);
+        addressesToTask.put(addresses, task);
+        tasks.add(task);
+      }
+      task.addKey(i, key);
+    }
+
+    // Execute tasks. A single task is executed directly.
+    if (tasks.size() == 1) {
+      try {
+        tasks.get(0).run();
+      } catch (Throwable t) {
+        LOG.error(getLogPrefix() + "Throwable while executing GET BULK task", t);
+      }
+    } else if (tasks.size() > 1) {
+      List<FutureTask<Object>> futureTasks = new ArrayList<FutureTask<Object>>(tasks.size());
+      for (GetBulkTaskRunnable task : tasks) {
+        FutureTask<Object> futureTask = new FutureTask<Object>(task, null);
+        getTaskExecutor.execute(futureTask);
+        futureTasks.add(futureTask);
+      }
+      for (FutureTask<Object> futureTask : futureTasks) {
+        try {
+          futureTask.get();
+        } catch (Throwable t) {
+          LOG.error(getLogPrefix() + "Throwable while executing GET BULK task", t);
+        }
+      }
+    }
+
+    // Build responses list, in the order of the keys
+    for (GetBulkTaskRunnable task : tasks) {
+      task.setResponses(responses);
+    }
+    for (int i = 0; i < responses.length; ++i) {
+      if (responses[i] == null) {
+        responses[i] = HankResponse.xception(HankException.internal_error("Failed to execute GET BULK task"));
+      }
+    }
+    return HankBulkResponse.responses(Arrays.asList(responses));
+  }
+
   @Override
   public void stop() {
     stopGetTaskExecutor();
@@ -523,6 +724,12 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       LOG.info(getLogPrefix() + "Interrupted while waiting for updater threads to terminate during shutdown.");
     }
     disconnect();
+    if (asyncHostConnectionSelector != null) {
+      asyncHostConnectionSelector.stop();
+    }
+    if (hedgedRequestPolicy != null) {
+      hedgedRequestPolicy.stop();
+    }
   }
 
   private void stopGetTaskExecutor() {
@@ -545,6 +752,11 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
           connection.disconnect();
         }
       }
+      for (List<AsyncHostConnection> asyncConnections : partitionServerAddressToAsyncConnections.values()) {
+        for (AsyncHostConnection connection : asyncConnections) {
+          connection.disconnect();
+        }
+      }
     }
   }
 
@@ -554,10 +766,27 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     connectionCacheUpdaterRunnable.wakeUp();
   }
 
+  // Number of gets that were also sent to another replica since the client was created
+  public long getNumHedgedRequests() {
+    return hedgedRequestPolicy == null ? 0 : hedgedRequestPolicy.getNumHedgedRequests();
+  }
+
+  // Number of gets that were not hedged since the client was created, because too many hedges were in flight
+  public long getNumSkippedHedgedRequests() {
+    return hedgedRequestPolicy == null ? 0 : hedgedRequestPolicy.getNumSkippedHedgedRequests();
+  }
+
   private String getLogPrefix() {
     return ringGroup.getName() + ": ";
   }
 
+  private void countRequest(boolean cacheHit) {
+    requestsCounters.increment(0);
+    if (cacheHit) {
+      requestsCounters.increment(1);
+    }
+  }
+
   private class StaticGetTaskRunnable implements GetTaskRunnableIface {
 
     private final HankResponse response;
@@ -599,6 +828,161 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     }
   }
 
+  // Async get that retries on a different host in case of failure. Hosts are tried starting
+  // from one that is deterministic on the key, so that it is likely to have the value in cache.
+  private class AsyncGet implements GetCallback {
+
+    private final Domain domain;
+    private final ByteBuffer key;
+    private final List<PartitionServerAddress> addresses;
+    private final Map<PartitionServerAddress, List<AsyncHostConnection>> addressToAsyncConnections;
+    private final FutureGet futureGet;
+    private int hostIndex;
+    private int numTries = 0;
+
+    private AsyncGet(Domain domain,
+                     ByteBuffer key,
+                     List<PartitionServerAddress> addresses,
+                     Map<PartitionServerAddress, List<AsyncHostConnection>> addressToAsyncConnections,
+                     int keyHash,
+                     FutureGet futureGet) {
+      this.domain = domain;
+      this.key = key;
+      this.addresses = addresses;
+      this.addressToAsyncConnections = addressToAsyncConnections;
+      this.futureGet = futureGet;
+      this.hostIndex = keyHash % addresses.size();
+    }
+
+    private void execute() {
+      // Look for a serving host, or use an offline host opportunistically
+      List<AsyncHostConnection> connections = getConnectionsToUse(true);
+      if (connections == null) {
+        connections = getConnectionsToUse(false);
+      }
+      if (connections == null) {
+        LOG.error(getLogPrefix() + "No connection is available. Giving up. Domain = " + domain.getName() + ", Key=" + Bytes.bytesToHexString(key));
+        complete(NO_CONNECTION_AVAILABLE);
+        return;
+      }
+      AsyncHostConnection connection =
+          connections.get((asyncConnectionIndex.getAndIncrement() & Integer.MAX_VALUE) % connections.size());
+      connection.get(domain.getId(), key, this);
+    }
+
+    private List<AsyncHostConnection> getConnectionsToUse(boolean serving) {
+      for (int i = 0; i < addresses.size(); ++i) {
+        int index = (hostIndex + i) % addresses.size();
+        List<AsyncHostConnection> connections = addressToAsyncConnections.get(addresses.get(index));
+        if (connections != null && !connections.isEmpty()
+            && (serving ? connections.get(0).isServing() : connections.get(0).isOffline())) {
+          hostIndex = index;
+          return connections;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void onComplete(HankResponse response) {
+      if (response.is_set_xception()) {
+        // In case of error, keep count of the number of times we retry
+        ++numTries;
+        if (numTries < queryMaxNumTries) {
+          // Simply log the error and retry with the next host
+          LOG.error(getLogPrefix() + "Failed to perform async query with host: " + addresses.get(hostIndex)
+              + ". Retrying. Try " + numTries + "/" + queryMaxNumTries
+              + ", Domain = " + domain.getName()
+              + ", Key = " + Bytes.bytesToHexString(key) + ", Response = " + response);
+          hostIndex = (hostIndex + 1) % addresses.size();
+          execute();
+          return;
+        } else {
+          // If we have exhausted tries, return an exception response
+          LOG.error(getLogPrefix() + "Failed to perform async query with host: " + addresses.get(hostIndex)
+              + ". Giving up. Try " + numTries + "/" + queryMaxNumTries
+              + ", Domain = " + domain.getName()
+              + ", Key = " + Bytes.bytesToHexString(key) + ", Response = " + response);
+          response = HankResponse.xception(HankException.failed_retries(queryMaxNumTries));
+        }
+      } else if (responseCache.isEnabled()) {
+        // Cache response if necessary, do not cache exceptions
+        responseCache.put(
+            new DomainAndKey(domain, Bytes.byteBufferDeepCopy(key)),
+            new HankResponseManagedBytes(response.deepCopy()));
+      }
+      complete(response);
+    }
+
+    private void complete(HankResponse response) {
+      // One request, not in cache
+      countRequest(false);
+      futureGet.setResponse(response);
+    }
+  }
+
+  private class GetBulkTaskRunnable implements Runnable {
+
+    private final Domain domain;
+    private final HostConnectionPool hostConnectionPool;
+    private final List<Integer> keyIndices = new ArrayList<Integer>();
+    private final List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    private HankResponse[] responses;
+
+    private GetBulkTaskRunnable(Domain domain, HostConnectionPool hostConnectionPool) {
+      this.domain = domain;
+      this.hostConnectionPool = hostConnectionPool;
+    }
+
+    private void addKey(int keyIndex, ByteBuffer key) {
+      keyIndices.add(keyIndex);
+      keys.add(key);
+    }
+
+    private int getNumKeys() {
+      return keys.size();
+    }
+
+    @Override
+    public void run() {
+      responses = new HankResponse[keys.size()];
+      HankBulkResponse bulkResponse = hostConnectionPool.getBulk(domain.getId(), keys, queryMaxNumTries);
+      List<HankResponse> bulkResponses = null;
+      if (bulkResponse.is_set_responses() && bulkResponse.get_responses().size() == keys.size()) {
+        bulkResponses = bulkResponse.get_responses();
+      } else {
+        LOG.error(getLogPrefix() + "Failed to perform get bulk: domain " + domain.getName()
+            + ", num keys: " + keys.size() + ", response: " + bulkResponse + ". Retrying keys individually.");
+      }
+      for (int i = 0; i < keys.size(); ++i) {
+        HankResponse response = bulkResponses == null ? null : bulkResponses.get(i);
+        if (response == null || response.is_set_xception()) {
+          // Retry this key individually
+          responses[i] = _get(domain, keys.get(i));
+        } else {
+          // One request, not in cache
+          countRequest(false);
+          // Cache response if necessary
+          if (responseCache.isEnabled()) {
+            responseCache.put(
+                new DomainAndKey(domain, Bytes.byteBufferDeepCopy(keys.get(i))),
+                new HankResponseManagedBytes(response.deepCopy()));
+          }
+          responses[i] = response;
+        }
+      }
+    }
+
+    private void setResponses(HankResponse[] allResponses) {
+      if (responses == null) {
+        return;
+      }
+      for (int i = 0; i < keyIndices.size(); ++i) {
+        allResponses[keyIndices.get(i)] = responses[i];
+      }
+    }
+  }
+
   private static class GetTaskThreadFactory implements ThreadFactory {
 
     @Override
@@ -613,6 +997,8 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
     private final Map<PartitionServerAddress, ConnectionLoad> partitionServerToConnectionLoad;
     private final HankTimer timer = new HankTimer();
+    private long previousNumHedgedRequests = 0;
+    private long previousNumSkippedHedgedRequests = 0;
 
     public UpdateRuntimeStatisticsRunnable() {
       super(UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT);
@@ -655,15 +1041,24 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       long timerDurationMs = timer.getDurationMs();
       timer.restart();
       // Log requests counters
-      long[] requestsCounterValues = requestsCounters.getAsArrayAndSet(0, 0);
+      long[] requestsCounterValues = requestsCounters.getAsArrayAndReset();
       long numRequests = requestsCounterValues[0];
       long numCacheHits = requestsCounterValues[1];
+      long totalNumHedgedRequests = getNumHedgedRequests();
+      long totalNumSkippedHedgedRequests = getNumSkippedHedgedRequests();
+      long numHedgedRequests = totalNumHedgedRequests - previousNumHedgedRequests;
+      long numSkippedHedgedRequests = totalNumSkippedHedgedRequests - previousNumSkippedHedgedRequests;
+      previousNumHedgedRequests = totalNumHedgedRequests;
+      previousNumSkippedHedgedRequests = totalNumSkippedHedgedRequests;
       if (timerDurationMs != 0 && numRequests != 0) {
         double throughput = (double) numRequests / ((double) timerDurationMs / 1000d);
         double cacheHitRate = (double) numCacheHits / (double) numRequests;
+        double hedgedRequestRate = (double) numHedgedRequests / (double) numRequests;
         LOG.info(getLogPrefix()
             + "Throughput: " + FormatUtils.formatDouble(throughput) + " queries/s"
             + ", client-side cache hit rate: " + FormatUtils.formatDouble(cacheHitRate * 100) + "%"
+            + (hedgedRequestPolicy == null ? "" : ", hedged requests: " + numHedgedRequests
+            + " (" + FormatUtils.formatDouble(hedgedRequestRate * 100) + "%, " + numSkippedHedgedRequests + " skipped)")
             + ", cache: " + responseCache.size() + " items totaling " + FormatUtils.formatNumBytes(responseCache.getNumManagedBytes()));
       }
     }
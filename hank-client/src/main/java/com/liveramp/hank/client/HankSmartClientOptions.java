@@ -24,11 +24,18 @@ public class HankSmartClientOptions {
   private int establishConnectionTimeoutMs = 0;
   private int queryTimeoutMs = 0;
   private int bulkQueryTimeoutMs = 0;
+  private int bulkQueryMaxNumKeys = 1024;
   private int concurrentGetThreadPoolMaxSize = 1024;
   private boolean responseCacheEnabled = false;
   private long responseCacheNumBytesCapacity = 0;
   private int responseCacheNumItemsCapacity = 0;
   private long responseCacheExpirationSeconds = 0;
+  private boolean asyncConnectionsEnabled = false;
+  private int asyncConnectionMaxNumPendingGets = AsyncHostConnection.DEFAULT_MAX_NUM_PENDING_GETS;
+  private int hedgedRequestsDelayMs = 0;
+  private boolean latencyAwareHostSelectionEnabled = false;
+  private double hedgedRequestsLatencyPercentile = 0;
+  private int hedgedRequestsMaxConcurrency = HedgedRequestPolicy.DEFAULT_MAX_NUM_CONCURRENT_HEDGED_REQUESTS;
 
   public int getNumConnectionsPerHost() {
     return numConnectionsPerHost;
@@ -84,6 +91,16 @@ public class HankSmartClientOptions {
     return this;
   }
 
+  public int getBulkQueryMaxNumKeys() {
+    return bulkQueryMaxNumKeys;
+  }
+
+  // Maximum number of keys sent to a host in a single GET BULK request. Larger groups are split.
+  public HankSmartClientOptions setBulkQueryMaxNumKeys(int bulkQueryMaxNumKeys) {
+    this.bulkQueryMaxNumKeys = bulkQueryMaxNumKeys;
+    return this;
+  }
+
   public int getConcurrentGetThreadPoolMaxSize() {
     return concurrentGetThreadPoolMaxSize;
   }
@@ -128,4 +145,73 @@ public class HankSmartClientOptions {
     this.responseCacheExpirationSeconds = responseCacheExpirationSeconds;
     return this;
   }
+
+  public boolean getAsyncConnectionsEnabled() {
+    return asyncConnectionsEnabled;
+  }
+
+  // When enabled, concurrent gets are performed through non-blocking connections that
+  // allow many pending requests per connection, instead of using a thread per request.
+  public HankSmartClientOptions setAsyncConnectionsEnabled(boolean asyncConnectionsEnabled) {
+    this.asyncConnectionsEnabled = asyncConnectionsEnabled;
+    return this;
+  }
+
+  public int getAsyncConnectionMaxNumPendingGets() {
+    return asyncConnectionMaxNumPendingGets;
+  }
+
+  // Maximum number of requests in flight on each non-blocking connection. Above it, requests
+  // fail right away and are retried with another host.
+  public HankSmartClientOptions setAsyncConnectionMaxNumPendingGets(int asyncConnectionMaxNumPendingGets) {
+    this.asyncConnectionMaxNumPendingGets = asyncConnectionMaxNumPendingGets;
+    return this;
+  }
+
+  public int getHedgedRequestsDelayMs() {
+    return hedgedRequestsDelayMs;
+  }
+
+  // When set, a get that has not completed after this delay is also sent to another replica,
+  // and the first response is used.
+  public HankSmartClientOptions setHedgedRequestsDelayMs(int hedgedRequestsDelayMs) {
+    this.hedgedRequestsDelayMs = hedgedRequestsDelayMs;
+    return this;
+  }
+
+  public double getHedgedRequestsLatencyPercentile() {
+    return hedgedRequestsLatencyPercentile;
+  }
+
+  // When set, the hedging delay is the given percentile of recent get latencies (the fixed
+  // delay is used until enough latencies have been measured).
+  public HankSmartClientOptions setHedgedRequestsLatencyPercentile(double hedgedRequestsLatencyPercentile) {
+    this.hedgedRequestsLatencyPercentile = hedgedRequestsLatencyPercentile;
+    return this;
+  }
+
+  public int getHedgedRequestsMaxConcurrency() {
+    return hedgedRequestsMaxConcurrency;
+  }
+
+  // Maximum number of attempts (first attempts and hedges) in flight on hedging threads. Above it, requests are not hedged.
+  public HankSmartClientOptions setHedgedRequestsMaxConcurrency(int hedgedRequestsMaxConcurrency) {
+    this.hedgedRequestsMaxConcurrency = hedgedRequestsMaxConcurrency;
+    return this;
+  }
+
+  public boolean getHedgedRequestsEnabled() {
+    return hedgedRequestsDelayMs > 0 || hedgedRequestsLatencyPercentile > 0;
+  }
+
+  public boolean getLatencyAwareHostSelectionEnabled() {
+    return latencyAwareHostSelectionEnabled;
+  }
+
+  // When enabled, queries are sent to the least loaded of two hosts (based on their recent latency and
+  // number of requests in flight) instead of iterating over hosts.
+  public HankSmartClientOptions setLatencyAwareHostSelectionEnabled(boolean latencyAwareHostSelectionEnabled) {
+    this.latencyAwareHostSelectionEnabled = latencyAwareHostSelectionEnabled;
+    return this;
+  }
 }
@@ -0,0 +1,169 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.util.StripedCounterCollection;
+
+/**
+ * HedgedRequestPolicy determines when a get that has not completed yet should be sent
+ * to another replica. The delay is either fixed, or computed as a percentile of the
+ * latencies of recent requests. Until enough latencies have been recorded, the fixed
+ * delay is used (no request is hedged if it is not set).
+ * <p/>
+ * Both the first attempt and the hedge are performed by a bounded pool of daemon threads
+ * (hedges are started by a timer thread), and the caller returns the first successful
+ * response. When all of them are busy, the first attempt is performed by the caller and
+ * the hedge is skipped rather than adding a thread, so that a stalled replica does not
+ * make the number of threads grow with the request rate.
+ */
+public class HedgedRequestPolicy {
+
+  public static final int DEFAULT_MAX_NUM_CONCURRENT_HEDGED_REQUESTS = 64;
+
+  private static final int NUM_LATENCY_SAMPLES = 1024;
+  private static final int LATENCY_PERCENTILE_UPDATE_PERIOD = 128;
+  private static final long EXECUTOR_THREAD_KEEP_ALIVE_TIME = 1;
+  private static final TimeUnit EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT = TimeUnit.MINUTES;
+
+  private static final int HEDGED_REQUESTS_COUNTER = 0;
+  private static final int SKIPPED_HEDGED_REQUESTS_COUNTER = 1;
+
+  private final long delayNanos;
+  private final double latencyPercentile;
+  private final ScheduledExecutorService timer;
+  private final ThreadPoolExecutor executor;
+  private final StripedCounterCollection counters = new StripedCounterCollection(2);
+
+  // Ring buffer of recent latencies
+  private final long[] latencySamplesNanos;
+  private int numLatencySamples = 0;
+  private int latencySamplesIndex = 0;
+  private volatile long latencyPercentileNanos = -1;
+
+  public HedgedRequestPolicy(int delayMs, double latencyPercentile) {
+    this(delayMs, latencyPercentile, DEFAULT_MAX_NUM_CONCURRENT_HEDGED_REQUESTS);
+  }
+
+  public HedgedRequestPolicy(int delayMs, double latencyPercentile, int maxNumConcurrentHedgedRequests) {
+    if (latencyPercentile < 0 || latencyPercentile >= 100) {
+      throw new IllegalArgumentException("Hedged request latency percentile must be in [0, 100[: " + latencyPercentile);
+    }
+    if (maxNumConcurrentHedgedRequests < 1) {
+      throw new IllegalArgumentException("Maximum number of concurrent hedged requests must be positive: "
+          + maxNumConcurrentHedgedRequests);
+    }
+    this.delayNanos = delayMs > 0 ? TimeUnit.MILLISECONDS.toNanos(delayMs) : -1;
+    this.latencyPercentile = latencyPercentile;
+    this.latencySamplesNanos = latencyPercentile > 0 ? new long[NUM_LATENCY_SAMPLES] : null;
+    this.timer = new ScheduledThreadPoolExecutor(1, new HedgedRequestThreadFactory("HedgedRequestTimerThread"));
+    // No queue: an attempt is either started right away or rejected
+    this.executor = new ThreadPoolExecutor(
+        maxNumConcurrentHedgedRequests,
+        maxNumConcurrentHedgedRequests,
+        EXECUTOR_THREAD_KEEP_ALIVE_TIME,
+        EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT,
+        new SynchronousQueue<Runnable>(),
+        new HedgedRequestThreadFactory("HedgedRequestThread"));
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  // Return the delay after which a request should be hedged, or -1 if it should not be hedged
+  public long getDelayNanos() {
+    long result = latencyPercentileNanos;
+    if (result >= 0) {
+      return result;
+    }
+    return delayNanos;
+  }
+
+  // Record the latency of the first attempt of a request
+  public void recordLatencyNanos(long latencyNanos) {
+    if (latencySamplesNanos == null) {
+      return;
+    }
+    long[] samples = null;
+    synchronized (latencySamplesNanos) {
+      latencySamplesNanos[latencySamplesIndex] = latencyNanos;
+      latencySamplesIndex = (latencySamplesIndex + 1) % latencySamplesNanos.length;
+      ++numLatencySamples;
+      if (numLatencySamples % LATENCY_PERCENTILE_UPDATE_PERIOD == 0) {
+        samples = Arrays.copyOf(latencySamplesNanos, Math.min(numLatencySamples, latencySamplesNanos.length));
+      }
+    }
+    // Sort outside of the lock
+    if (samples != null) {
+      Arrays.sort(samples);
+      latencyPercentileNanos = samples[(int) Math.floor((samples.length - 1) * latencyPercentile / 100.0)];
+    }
+  }
+
+  ScheduledExecutorService getTimer() {
+    return timer;
+  }
+
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  void incrementNumHedgedRequests() {
+    counters.increment(HEDGED_REQUESTS_COUNTER);
+  }
+
+  void incrementNumSkippedHedgedRequests() {
+    counters.increment(SKIPPED_HEDGED_REQUESTS_COUNTER);
+  }
+
+  // Return the number of requests that were sent to a second replica
+  public long getNumHedgedRequests() {
+    return counters.get(HEDGED_REQUESTS_COUNTER);
+  }
+
+  // Return the number of requests that should have been hedged, but were not since all hedging threads were busy
+  public long getNumSkippedHedgedRequests() {
+    return counters.get(SKIPPED_HEDGED_REQUESTS_COUNTER);
+  }
+
+  public void stop() {
+    timer.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private static class HedgedRequestThreadFactory implements ThreadFactory {
+
+    private final String threadName;
+
+    private HedgedRequestThreadFactory(String threadName) {
+      this.threadName = threadName;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread result = new Thread(runnable, threadName);
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
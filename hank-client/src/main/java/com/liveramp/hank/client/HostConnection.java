@@ -49,6 +49,7 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   private TTransport transport;
   private PartitionServer.Client client;
   private final Host host;
+  private final HostLatencyTracker latencyTracker;
   protected final ReentrantLock lock = new ReentrantLock(true); // Use a fair ReentrantLock
 
   // A timeout of 0 means no timeout
@@ -57,7 +58,19 @@ public class HostConnection implements WatchedNodeListener<HostState> {
                         int establishConnectionTimeoutMs,
                         int queryTimeoutMs,
                         int bulkQueryTimeoutMs) throws TException, IOException {
+    this(host, tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs,
+        new HostLatencyTracker());
+  }
+
+  // The latency tracker should be shared by all connections to the same host
+  public HostConnection(Host host,
+                        int tryLockTimeoutMs,
+                        int establishConnectionTimeoutMs,
+                        int queryTimeoutMs,
+                        int bulkQueryTimeoutMs,
+                        HostLatencyTracker latencyTracker) throws TException, IOException {
     this.host = host;
+    this.latencyTracker = latencyTracker;
     this.tryLockTimeoutMs = tryLockTimeoutMs;
     this.establishConnectionTimeoutMs = establishConnectionTimeoutMs;
     this.queryTimeoutMs = queryTimeoutMs;
@@ -70,6 +83,10 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     return host;
   }
 
+  HostLatencyTracker getLatencyTracker() {
+    return latencyTracker;
+  }
+
   boolean isServing() {
     try {
       return HostState.SERVING.equals(host.getState());
@@ -139,8 +156,17 @@ public class HostConnection implements WatchedNodeListener<HostState> {
         connect();
       }
       // Query timeout is by default always set to regular mode
-      // Perform query
-      HankResponse result = client.get(domainId, key);
+      // Perform query. Only the query itself is tracked, and it fails only on Thrift errors.
+      HankResponse result;
+      latencyTracker.requestStarted();
+      long startTime = System.nanoTime();
+      boolean success = false;
+      try {
+        result = client.get(domainId, key);
+        success = true;
+      } finally {
+        latencyTracker.requestCompleted(System.nanoTime() - startTime, success);
+      }
       if (result.is_set_xception()) {
         throw new IOException("Server failed to execute GET: " + result.get_xception());
       } else {
@@ -175,8 +201,17 @@ public class HostConnection implements WatchedNodeListener<HostState> {
       try {
         // Set socket timeout to bulk mode
         setSocketTimeout(bulkQueryTimeoutMs);
-        // Perform query
-        HankBulkResponse result = client.getBulk(domainId, keys);
+        // Perform query. Only the query itself is tracked, and it fails only on Thrift errors.
+        HankBulkResponse result;
+        latencyTracker.requestStarted();
+        long startTime = System.nanoTime();
+        boolean success = false;
+        try {
+          result = client.getBulk(domainId, keys);
+          success = true;
+        } finally {
+          latencyTracker.bulkRequestCompleted(System.nanoTime() - startTime, keys.size(), success);
+        }
         if (result.is_set_xception()) {
           throw new IOException("Server failed to execute GET BULK: " + result.get_xception());
         } else {
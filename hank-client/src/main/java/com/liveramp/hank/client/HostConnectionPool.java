@@ -22,11 +22,15 @@ import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.util.Bytes;
+import com.liveramp.hank.util.HankTimer;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HostConnectionPool manages a collection of connections to Hosts. For a given
@@ -60,6 +64,13 @@ import java.util.*;
  * case of failure, HostConnectionPool will re-attempt a given number of times,
  * each time determining a new connection to use as described earlier. (And
  * using a local Host iterator.)
+ * <p/>
+ * Optionally, the first connection used by a query can be selected according to
+ * the load of each Host (latency and number of requests in flight, as tracked by
+ * HostLatencyTracker) using the power of two choices: two serving Hosts are
+ * picked at random and the least loaded one is used. When the query provides a
+ * key hash, the Host deterministic on that key is always one of the two choices,
+ * and it is used unless it is significantly more loaded than the other one.
  */
 public class HostConnectionPool {
 
@@ -70,6 +81,11 @@ public class HostConnectionPool {
 
   private int globalPreviouslyUsedHostIndex;
   private final Random random = new Random();
+  private final boolean latencyAwareHostSelection;
+
+  // When using latency aware host selection with a key hash, the host deterministic on the key is used
+  // unless its load is higher than this factor times the load of the other host
+  private static final double KEY_AFFINITY_MAX_LOAD_RATIO = 2.0;
 
   private static final HankResponse NO_CONNECTION_AVAILABLE_RESPONSE
       = HankResponse.xception(HankException.no_connection_available(true));
@@ -94,6 +110,13 @@ public class HostConnectionPool {
   }
 
   HostConnectionPool(Map<Host, List<HostConnection>> hostToConnectionsMap, Integer hostShuffleSeed) {
+    this(hostToConnectionsMap, hostShuffleSeed, false);
+  }
+
+  HostConnectionPool(Map<Host, List<HostConnection>> hostToConnectionsMap,
+                     Integer hostShuffleSeed,
+                     boolean latencyAwareHostSelection) {
+    this.latencyAwareHostSelection = latencyAwareHostSelection;
     if (hostToConnectionsMap.size() == 0) {
       throw new RuntimeException("HostConnectionPool must be initialized with a non empty collection of connections.");
     }
@@ -128,6 +151,12 @@ public class HostConnectionPool {
   }
 
   static HostConnectionPool createFromList(Collection<HostConnection> connections, Integer hostShuffleSeed) {
+    return createFromList(connections, hostShuffleSeed, false);
+  }
+
+  static HostConnectionPool createFromList(Collection<HostConnection> connections,
+                                           Integer hostShuffleSeed,
+                                           boolean latencyAwareHostSelection) {
     Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
     for (HostConnection connection : connections) {
       List<HostConnection> connectionList = hostToConnectionsMap.get(connection.getHost());
@@ -137,7 +166,7 @@ public class HostConnectionPool {
       }
       connectionList.add(connection);
     }
-    return new HostConnectionPool(hostToConnectionsMap, hostShuffleSeed);
+    return new HostConnectionPool(hostToConnectionsMap, hostShuffleSeed, latencyAwareHostSelection);
   }
 
   Collection<HostConnection> getConnections() {
@@ -165,6 +194,60 @@ public class HostConnectionPool {
     return getNextConnectionToUse(keyHash % hostToConnections.size());
   }
 
+  // Return a connection to the least loaded of two serving hosts. When a key hash is supplied, one of them is the host
+  // deterministic on the key, and it is preferred unless it is significantly more loaded. Bulk requests compare the
+  // load of bulk requests.
+  private HostConnectionAndHostIndex getLeastLoadedConnectionToUse(Integer keyHash, boolean bulk) {
+    int numHosts = hostToConnections.size();
+    int firstHostIndex = keyHash == null ? random.nextInt(numHosts) : keyHash % numHosts;
+    int secondHostIndex = numHosts > 1 ? (firstHostIndex + 1 + random.nextInt(numHosts - 1)) % numHosts : firstHostIndex;
+    boolean firstHostServing = isHostServing(firstHostIndex);
+    boolean secondHostServing = isHostServing(secondHostIndex);
+    int hostIndex;
+    if (firstHostServing && secondHostServing) {
+      HostLatencyTracker firstHostLatencyTracker = getHostLatencyTracker(firstHostIndex);
+      HostLatencyTracker secondHostLatencyTracker = getHostLatencyTracker(secondHostIndex);
+      double firstHostLoad = bulk ? firstHostLatencyTracker.getBulkLoad() : firstHostLatencyTracker.getLoad();
+      double secondHostLoad = bulk ? secondHostLatencyTracker.getBulkLoad() : secondHostLatencyTracker.getLoad();
+      if (keyHash != null) {
+        hostIndex = firstHostLoad > KEY_AFFINITY_MAX_LOAD_RATIO * secondHostLoad ? secondHostIndex : firstHostIndex;
+      } else {
+        hostIndex = firstHostLoad > secondHostLoad ? secondHostIndex : firstHostIndex;
+      }
+    } else if (firstHostServing) {
+      hostIndex = firstHostIndex;
+    } else if (secondHostServing) {
+      hostIndex = secondHostIndex;
+    } else {
+      // Fall back to looking for any available connection, starting with the first host
+      return getNextConnectionToUse(firstHostIndex == 0 ? numHosts - 1 : firstHostIndex - 1);
+    }
+    return getConnectionToUseForHost(hostIndex);
+  }
+
+  private boolean isHostServing(int hostIndex) {
+    return hostToConnections.get(hostIndex).get(0).hostConnection.isServing();
+  }
+
+  private HostLatencyTracker getHostLatencyTracker(int hostIndex) {
+    return hostToConnections.get(hostIndex).get(0).hostConnection.getLatencyTracker();
+  }
+
+  // Return an unused connection to the given host if there is one, or a random connection to it otherwise
+  private synchronized HostConnectionAndHostIndex getConnectionToUseForHost(int hostIndex) {
+    List<HostConnectionAndHostIndex> connectionAndHostList = hostToConnections.get(hostIndex);
+    for (HostConnectionAndHostIndex connectionAndHostIndex : connectionAndHostList) {
+      // If successful in locking a non locked connection, return it
+      if (connectionAndHostIndex.hostConnection.tryLockRespectingFairness()) {
+        // Note: here the returned connection is already locked.
+        // Unlocking it is not the responsibily of this method.
+        return connectionAndHostIndex;
+      }
+    }
+    // Note: here the returned connection is not locked.
+    return connectionAndHostList.get(random.nextInt(connectionAndHostList.size()));
+  }
+
   // Return a connection to an arbitrary host, initially skipping the supplied host (likely because there was
   // a failure using a connection to it)
   private synchronized HostConnectionAndHostIndex getNextConnectionToUse(int previouslyUsedHostIndex) {
@@ -235,6 +318,38 @@ public class HostConnectionPool {
   }
 
   public HankResponse get(Domain domain, ByteBuffer key, int maxNumTries, Integer keyHash) {
+    return get(domain, key, maxNumTries, keyHash, null);
+  }
+
+  // When a hedged request policy is supplied, and the caller's attempt has not completed after the policy's delay,
+  // the same key is also queried from another host. When the caller's attempt fails, the other host's response is
+  // used instead of retrying.
+  public HankResponse get(Domain domain,
+                          ByteBuffer key,
+                          int maxNumTries,
+                          Integer keyHash,
+                          HedgedRequestPolicy hedgedRequestPolicy) {
+    if (hedgedRequestPolicy == null || hostToConnections.size() < 2) {
+      return get(domain, key, maxNumTries, keyHash, null, null);
+    }
+    long delayNanos = hedgedRequestPolicy.getDelayNanos();
+    if (delayNanos < 0) {
+      HankTimer timer = new HankTimer();
+      HankResponse response = get(domain, key, maxNumTries, keyHash, null, null);
+      hedgedRequestPolicy.recordLatencyNanos(timer.getDuration());
+      return response;
+    }
+    HedgedGet hedgedGet = new HedgedGet(domain, key, maxNumTries, keyHash, hedgedRequestPolicy);
+    return hedgedGet.execute(delayNanos);
+  }
+
+  // Perform a get, either starting from a host determined by the key hash, or skipping the given host index
+  private HankResponse get(Domain domain,
+                           ByteBuffer key,
+                           int maxNumTries,
+                           Integer keyHash,
+                           Integer skippedHostIndex,
+                           HedgedGet hedgedGet) {
     int domainId = domain.getId();
     HostConnectionAndHostIndex connectionAndHostIndex = null;
     int numTries = 0;
@@ -242,7 +357,11 @@ public class HostConnectionPool {
       // Either get a connection to an arbitrary host, or get a connection skipping the
       // previous host used (since it failed)
       if (connectionAndHostIndex == null) {
-        if (keyHash == null) {
+        if (skippedHostIndex != null) {
+          connectionAndHostIndex = getNextConnectionToUse(skippedHostIndex);
+        } else if (latencyAwareHostSelection) {
+          connectionAndHostIndex = getLeastLoadedConnectionToUse(keyHash, false);
+        } else if (keyHash == null) {
           connectionAndHostIndex = getConnectionToUse();
         } else {
           connectionAndHostIndex = getConnectionToUseForKey(keyHash);
@@ -250,6 +369,9 @@ public class HostConnectionPool {
       } else {
         connectionAndHostIndex = getNextConnectionToUse(connectionAndHostIndex.hostIndex);
       }
+      if (hedgedGet != null && connectionAndHostIndex != null) {
+        hedgedGet.hostIndex = connectionAndHostIndex.hostIndex;
+      }
       // If we couldn't find any available connection, return corresponding error response
       if (connectionAndHostIndex == null) {
         LOG.error("No connection is available. Giving up. Domain = " + domain.getName() + ", Key=" + Bytes.bytesToHexString(key));
@@ -261,6 +383,16 @@ public class HostConnectionPool {
         } catch (IOException e) {
           // In case of error, keep count of the number of times we retry
           ++numTries;
+          // Rather than retrying, use the response of the hedge if it has already succeeded
+          HankResponse hedgeResponse = hedgedGet == null ? null : hedgedGet.getSuccessfulResponse();
+          if (hedgeResponse != null) {
+            LOG.error("Failed to perform query with host: "
+                + connectionAndHostIndex.hostConnection.getHost().getAddress()
+                + ". Using hedged request response. Try " + numTries + "/" + maxNumTries
+                + ", Domain = " + domain.getName()
+                + ", Key = " + Bytes.bytesToHexString(key), e);
+            return hedgeResponse;
+          }
           if (numTries < maxNumTries) {
             // Simply log the error and retry
             LOG.error("Failed to perform query with host: "
@@ -282,6 +414,143 @@ public class HostConnectionPool {
     }
   }
 
+  // A get whose first attempt is performed by a hedging thread, and which is also sent to another host by a
+  // second hedging thread if it has not completed after a delay. The caller waits for whichever attempt
+  // succeeds first, so that a slow replica does not hold it. When all hedging threads are busy, the first
+  // attempt is performed by the caller and the hedge is skipped.
+  private class HedgedGet implements Runnable {
+
+    private final Domain domain;
+    private final ByteBuffer key;
+    private final int maxNumTries;
+    private final Integer keyHash;
+    private final HedgedRequestPolicy hedgedRequestPolicy;
+    // Index of the host queried by the first attempt
+    private volatile int hostIndex = -1;
+    private boolean done = false;
+    private boolean firstAttemptDone = false;
+    private boolean hedgeStarted = false;
+    private boolean hedgeDone = false;
+    private HankResponse firstAttemptResponse = null;
+    // Response of the first attempt to succeed
+    private HankResponse successfulResponse = null;
+
+    private HedgedGet(Domain domain,
+                      ByteBuffer key,
+                      int maxNumTries,
+                      Integer keyHash,
+                      HedgedRequestPolicy hedgedRequestPolicy) {
+      this.domain = domain;
+      this.key = key;
+      this.maxNumTries = maxNumTries;
+      this.keyHash = keyHash;
+      this.hedgedRequestPolicy = hedgedRequestPolicy;
+    }
+
+    private HankResponse execute(long delayNanos) {
+      ScheduledFuture<?> hedgeTimer;
+      try {
+        hedgeTimer = hedgedRequestPolicy.getTimer().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        return get(domain, key, maxNumTries, keyHash, null, null);
+      }
+      try {
+        hedgedRequestPolicy.getExecutor().execute(new FirstAttempt());
+      } catch (RejectedExecutionException e) {
+        // All hedging threads are busy
+        new FirstAttempt().run();
+      }
+      try {
+        synchronized (this) {
+          while (successfulResponse == null && !(firstAttemptDone && (!hedgeStarted || hedgeDone))) {
+            wait();
+          }
+          done = true;
+          return successfulResponse != null ? successfulResponse : firstAttemptResponse;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return HankResponse.xception(HankException.internal_error("Interrupted while waiting for hedged get"));
+      } finally {
+        hedgeTimer.cancel(false);
+      }
+    }
+
+    // Called by the timer thread once the delay has elapsed
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (done || firstAttemptDone) {
+          return;
+        }
+        hedgeStarted = true;
+      }
+      try {
+        hedgedRequestPolicy.getExecutor().execute(new Hedge());
+        hedgedRequestPolicy.incrementNumHedgedRequests();
+      } catch (RejectedExecutionException e) {
+        // All hedging threads are busy
+        hedgedRequestPolicy.incrementNumSkippedHedgedRequests();
+        onHedgeComplete(null);
+      }
+    }
+
+    private synchronized HankResponse getSuccessfulResponse() {
+      return successfulResponse;
+    }
+
+    private synchronized void onFirstAttemptComplete(HankResponse response) {
+      firstAttemptResponse = response;
+      firstAttemptDone = true;
+      onAttemptComplete(response);
+    }
+
+    private synchronized void onHedgeComplete(HankResponse response) {
+      hedgeDone = true;
+      onAttemptComplete(response);
+    }
+
+    private void onAttemptComplete(HankResponse response) {
+      if (successfulResponse == null && response != null && !response.is_set_xception()) {
+        successfulResponse = response;
+      }
+      notifyAll();
+    }
+
+    private class FirstAttempt implements Runnable {
+
+      @Override
+      public void run() {
+        HankResponse response;
+        HankTimer timer = new HankTimer();
+        try {
+          response = get(domain, key, maxNumTries, keyHash, null, HedgedGet.this);
+        } catch (Throwable t) {
+          LOG.error("Failed to perform get", t);
+          response = HankResponse.xception(HankException.internal_error(t.toString()));
+        }
+        hedgedRequestPolicy.recordLatencyNanos(timer.getDuration());
+        onFirstAttemptComplete(response);
+      }
+    }
+
+    private class Hedge implements Runnable {
+
+      @Override
+      public void run() {
+        HankResponse response;
+        try {
+          int skippedHostIndex = hostIndex;
+          response = get(domain, key, maxNumTries, keyHash, skippedHostIndex >= 0 ? skippedHostIndex : null, null);
+        } catch (Throwable t) {
+          LOG.error("Failed to perform hedged get", t);
+          response = HankResponse.xception(HankException.internal_error(t.toString()));
+        }
+        onHedgeComplete(response);
+      }
+    }
+  }
+
   public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys, int maxNumTries) {
     HostConnectionAndHostIndex connectionAndHostIndex = null;
     int numTries = 0;
@@ -289,7 +558,11 @@ public class HostConnectionPool {
       // Either get a connection to an arbitrary host, or get a connection skipping the
       // previous host used (since it failed)
       if (connectionAndHostIndex == null) {
-        connectionAndHostIndex = getConnectionToUse();
+        if (latencyAwareHostSelection) {
+          connectionAndHostIndex = getLeastLoadedConnectionToUse(null, true);
+        } else {
+          connectionAndHostIndex = getConnectionToUse();
+        }
       } else {
         connectionAndHostIndex = getNextConnectionToUse(connectionAndHostIndex.hostIndex);
       }
@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.client;
+
+/**
+ * HostLatencyTracker keeps track of the number of requests in flight to a host and of a
+ * moving average of its latency. It is shared by all connections to the same host.
+ * <p/>
+ * The average follows latency increases immediately (peak EWMA), and otherwise decays towards
+ * recent samples. It also decays while no request is completed, so that a host that was
+ * avoided because it was slow eventually gets tried again. Failed requests count as slow
+ * requests. Bulk requests are tracked by a separate average of their latency per key, since
+ * it is not comparable to the latency of single requests.
+ */
+public class HostLatencyTracker {
+
+  private static final double SMOOTHING_FACTOR = 0.1;
+  private static final double DECAY_TIME_NANOS = 10 * 1000L * 1000L * 1000L;
+  private static final int FAILURE_LATENCY_PENALTY_FACTOR = 4;
+  // Minimum latency used when computing the load, so that requests in flight matter for hosts
+  // with no measured latency
+  private static final double MIN_LATENCY_NANOS = 1000;
+
+  private final LatencyAverage averageLatency = new LatencyAverage();
+  private final LatencyAverage averageBulkLatencyPerKey = new LatencyAverage();
+  private int numRequestsInFlight = 0;
+
+  public synchronized void requestStarted() {
+    ++numRequestsInFlight;
+  }
+
+  public synchronized void requestCompleted(long latencyNanos, boolean success) {
+    --numRequestsInFlight;
+    averageLatency.update(latencyNanos, success, System.nanoTime());
+  }
+
+  public synchronized void bulkRequestCompleted(long latencyNanos, int numKeys, boolean success) {
+    --numRequestsInFlight;
+    averageBulkLatencyPerKey.update(latencyNanos / Math.max(1, numKeys), success, System.nanoTime());
+  }
+
+  public synchronized int getNumRequestsInFlight() {
+    return numRequestsInFlight;
+  }
+
+  public synchronized double getAverageLatencyNanos() {
+    return averageLatency.get(System.nanoTime());
+  }
+
+  public synchronized double getAverageBulkLatencyPerKeyNanos() {
+    return averageBulkLatencyPerKey.get(System.nanoTime());
+  }
+
+  // Estimated cost of sending one more request to this host. Lower is better.
+  public synchronized double getLoad() {
+    return getLoad(averageLatency);
+  }
+
+  // Estimated cost of sending one more bulk request to this host. Lower is better.
+  public synchronized double getBulkLoad() {
+    return getLoad(averageBulkLatencyPerKey);
+  }
+
+  private double getLoad(LatencyAverage average) {
+    double latency = Math.max(MIN_LATENCY_NANOS, average.get(System.nanoTime()));
+    return latency * (numRequestsInFlight + 1);
+  }
+
+  private static class LatencyAverage {
+
+    private double averageLatencyNanos = 0;
+    private long lastUpdateTimeNanos = System.nanoTime();
+
+    private void update(long latencyNanos, boolean success, long now) {
+      double currentAverageLatencyNanos = get(now);
+      double sample = success ? latencyNanos
+          : FAILURE_LATENCY_PENALTY_FACTOR * Math.max((double) latencyNanos, currentAverageLatencyNanos);
+      if (sample > currentAverageLatencyNanos) {
+        averageLatencyNanos = sample;
+      } else {
+        averageLatencyNanos = currentAverageLatencyNanos + SMOOTHING_FACTOR * (sample - currentAverageLatencyNanos);
+      }
+      lastUpdateTimeNanos = now;
+    }
+
+    private double get(long now) {
+      return averageLatencyNanos * Math.exp(-(now - lastUpdateTimeNanos) / DECAY_TIME_NANOS);
+    }
+  }
+}
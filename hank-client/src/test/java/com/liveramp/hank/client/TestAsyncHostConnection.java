@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.HostState;
+import com.liveramp.hank.coordinator.PartitionServerAddress;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.test.coordinator.MockHost;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestAsyncHostConnection extends BaseTestCase {
+
+  private static class RecordingCallback implements GetCallback {
+
+    private final List<HankResponse> responses = new ArrayList<HankResponse>();
+
+    @Override
+    public synchronized void onComplete(HankResponse response) {
+      responses.add(response);
+    }
+
+    private synchronized List<HankResponse> getResponses() {
+      return new ArrayList<HankResponse>(responses);
+    }
+  }
+
+  @Test
+  public void testMaxNumPendingGetsAndHostState() throws Exception {
+    // A server that accepts connections but never responds
+    ServerSocket serverSocket = new ServerSocket(0);
+    AsyncHostConnectionSelector selector = new AsyncHostConnectionSelector();
+    Thread selectorThread = new Thread(selector);
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+    try {
+      Host host = new MockHost(new PartitionServerAddress("localhost", serverSocket.getLocalPort()));
+      host.setState(HostState.IDLE);
+      AsyncHostConnection connection = new AsyncHostConnection(host, selector, 0, 0, 2);
+      ByteBuffer key = ByteBuffer.wrap(new byte[]{1});
+
+      // Requests fail right away when the host is not serving
+      RecordingCallback callback = new RecordingCallback();
+      connection.get(0, key, callback);
+      assertEquals(1, callback.getResponses().size());
+      assertTrue(callback.getResponses().get(0).is_set_xception());
+
+      // Requests beyond the maximum number of pending requests fail right away
+      host.setState(HostState.SERVING);
+      callback = new RecordingCallback();
+      connection.get(0, key, callback);
+      connection.get(0, key, callback);
+      assertEquals(0, callback.getResponses().size());
+      connection.get(0, key, callback);
+      assertEquals(1, callback.getResponses().size());
+      assertTrue(callback.getResponses().get(0).is_set_xception());
+
+      // Pending requests fail when the connection is closed
+      connection.disconnect();
+      assertEquals(3, callback.getResponses().size());
+    } finally {
+      selector.stop();
+      serverSocket.close();
+    }
+  }
+}
@@ -84,9 +84,9 @@ public class TestHankSmartClient extends BaseTestCase {
 
   private static class MockPartitionServerHandler implements PartitionServer.Iface {
     private final HankResponse response;
-    private final HankBulkResponse bulkResponse;
     private Mode mode = Mode.NORMAL;
     private int numRequests = 0;
+    private int numBulkRequests = 0;
 
     private static enum Mode {
       NORMAL,
@@ -97,9 +97,6 @@ public class TestHankSmartClient extends BaseTestCase {
 
     public MockPartitionServerHandler(ByteBuffer result) {
       this.response = HankResponse.value(result);
-      List<HankResponse> responses = new ArrayList<HankResponse>();
-      responses.add(HankResponse.value(result));
-      this.bulkResponse = HankBulkResponse.responses(responses);
     }
 
     @Override
@@ -117,15 +114,29 @@ public class TestHankSmartClient extends BaseTestCase {
     public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
       applyMode();
       numRequests += keys.size();
-      return bulkResponse;
+      ++numBulkRequests;
+      List<HankResponse> responses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        if (key.equals(KEY_NOT_FOUND)) {
+          responses.add(HankResponse.not_found(true));
+        } else {
+          responses.add(response);
+        }
+      }
+      return HankBulkResponse.responses(responses);
     }
 
     public int getNumRequests() {
       return numRequests;
     }
 
+    public int getNumBulkRequests() {
+      return numBulkRequests;
+    }
+
     public void clearNumRequests() {
       numRequests = 0;
+      numBulkRequests = 0;
     }
 
     public void setMode(Mode mode) {
@@ -278,6 +289,90 @@ public class TestHankSmartClient extends BaseTestCase {
       bulkRequest1.add(KEY_2);
       assertEquals(bulkResponse1, client.getBulk("existent_domain", bulkRequest1));
 
+      // Test getBulk sends one request per host and preserves order
+      iface1.clearNumRequests();
+      iface2.clearNumRequests();
+      HankBulkResponse bulkResponse2 = HankBulkResponse.responses(new ArrayList<HankResponse>());
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_1));
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_2));
+      bulkResponse2.get_responses().add(HankResponse.not_found(true));
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_1));
+      List<ByteBuffer> bulkRequest2 = new ArrayList<ByteBuffer>();
+      bulkRequest2.add(KEY_1);
+      bulkRequest2.add(KEY_2);
+      bulkRequest2.add(KEY_NOT_FOUND);
+      bulkRequest2.add(KEY_1);
+      assertEquals(bulkResponse2, client.getBulk("existent_domain", bulkRequest2));
+      assertEquals(1, iface1.getNumBulkRequests());
+      assertEquals(3, iface1.getNumRequests());
+      assertEquals(1, iface2.getNumBulkRequests());
+      assertEquals(1, iface2.getNumRequests());
+
+      // Test getBulk splits large groups of keys
+      final HankSmartClient chunkingClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions()
+              .setQueryTimeoutMs(1000)
+              .setBulkQueryMaxNumKeys(2));
+      try {
+        iface1.clearNumRequests();
+        iface2.clearNumRequests();
+        assertEquals(bulkResponse2, chunkingClient.getBulk("existent_domain", bulkRequest2));
+        assertEquals(2, iface1.getNumBulkRequests());
+        assertEquals(3, iface1.getNumRequests());
+        assertEquals(1, iface2.getNumBulkRequests());
+        assertEquals(1, iface2.getNumRequests());
+      } finally {
+        chunkingClient.stop();
+      }
+
+      // Test concurrent gets through async connections
+      final HankSmartClient asyncClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions()
+              .setNumConnectionsPerHost(1)
+              .setQueryTimeoutMs(1000)
+              .setAsyncConnectionsEnabled(true));
+      try {
+        assertEquals(HankResponse.value(VALUE_1), asyncClient.concurrentGet("existent_domain", KEY_1).getResponse());
+        assertEquals(HankResponse.value(VALUE_2), asyncClient.concurrentGet("existent_domain", KEY_2).getResponse());
+        assertEquals(HankResponse.not_found(true), asyncClient.concurrentGet("existent_domain", KEY_NOT_FOUND).getResponse());
+        assertEquals(HankResponse.xception(HankException.no_such_domain(true)),
+            asyncClient.concurrentGet("nonexistent_domain", KEY_1).getResponse());
+
+        // Many requests in flight on a single connection per host
+        List<ByteBuffer> concurrentRequest = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 100; ++i) {
+          concurrentRequest.add(i % 2 == 0 ? KEY_1 : KEY_2);
+        }
+        List<FutureGet> futureGets = asyncClient.concurrentGet("existent_domain", concurrentRequest);
+        for (int i = 0; i < 100; ++i) {
+          assertEquals(HankResponse.value(i % 2 == 0 ? VALUE_1 : VALUE_2), futureGets.get(i).getResponse());
+        }
+
+        // Completion callback
+        final List<HankResponse> callbackResponses = new ArrayList<HankResponse>();
+        FutureGet futureGet = asyncClient.concurrentGet("existent_domain", KEY_1);
+        futureGet.addCallback(new GetCallback() {
+          @Override
+          public void onComplete(HankResponse response) {
+            synchronized (callbackResponses) {
+              callbackResponses.add(response);
+            }
+          }
+        });
+        futureGet.getResponse();
+        WaitUntil.orDie(new Condition() {
+          @Override
+          public boolean test() {
+            synchronized (callbackResponses) {
+              return callbackResponses.size() == 1;
+            }
+          }
+        });
+        assertEquals(HankResponse.value(VALUE_1), callbackResponses.get(0));
+      } finally {
+        asyncClient.stop();
+      }
+
       // Test get with null key
       try {
         client.get("existent_domain", null);
@@ -335,6 +430,12 @@ public class TestHankSmartClient extends BaseTestCase {
       assertTrue(client.get("existent_domain", KEY_1).get_xception().get_failed_retries() > 0);
       assertTrue(client.get("existent_domain", KEY_2).get_xception().get_failed_retries() > 0);
 
+      // Keys are retried individually when a bulk request fails
+      HankBulkResponse failedBulkResponse = client.getBulk("existent_domain", bulkRequest1);
+      assertEquals(2, failedBulkResponse.get_responses().size());
+      assertTrue(failedBulkResponse.get_responses().get(0).get_xception().get_failed_retries() > 0);
+      assertTrue(failedBulkResponse.get_responses().get(1).get_xception().get_failed_retries() > 0);
+
       // Simulate servers that throws an error
       iface1.setMode(MockPartitionServerHandler.Mode.THROWING_ERROR);
       iface2.setMode(MockPartitionServerHandler.Mode.THROWING_ERROR);
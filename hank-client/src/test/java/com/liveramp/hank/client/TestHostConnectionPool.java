@@ -125,6 +125,27 @@ public class TestHostConnectionPool extends BaseTestCase {
     }
   }
 
+  private static class SlowIface extends MockIface {
+
+    private final long sleepMs;
+    private final HankResponse response;
+
+    public SlowIface(long sleepMs, HankResponse response) {
+      this.sleepMs = sleepMs;
+      this.response = response;
+    }
+
+    @Override
+    public HankResponse getCore(int domain_id, ByteBuffer key) throws TException {
+      try {
+        Thread.sleep(sleepMs);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return response;
+    }
+  }
+
   private class HankExceptionIface extends MockIface {
 
     @Override
@@ -387,6 +408,207 @@ public class TestHostConnectionPool extends BaseTestCase {
     assertEquals("All keys should have been found", 10, numHits);
   }
 
+  @Test
+  public void testHedgedRequests() throws IOException, TException, InterruptedException {
+    Semaphore semaphore = new Semaphore(0);
+    final MockIface iface1 = new HangingIface(semaphore);
+    final MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    int tryLockTimeoutMs = 0;
+    int establishConnectionTimeoutMs = 0;
+    int queryTimeoutMs = 1000;
+    int bulkQueryTimeoutMs = 0;
+
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null);
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    HedgedRequestPolicy hedgedRequestPolicy = new HedgedRequestPolicy(50, 0);
+    try {
+      // Requests to the hanging host are answered by the hedge without waiting for the timeout
+      for (int i = 0; i < 4; ++i) {
+        long startTime = System.currentTimeMillis();
+        HankResponse response = hostConnectionPool.get(mockDomain, KEY_1, 2, null, hedgedRequestPolicy);
+        assertEquals(RESPONSE_1, response);
+        assertTrue(System.currentTimeMillis() - startTime < queryTimeoutMs);
+        if (iface1.numGets > 0) {
+          semaphore.release(iface1.numGets);
+          iface1.clearCounts();
+        }
+      }
+      assertEquals(4, iface2.numGets);
+      assertTrue(hedgedRequestPolicy.getNumHedgedRequests() > 0);
+      assertEquals(0, hedgedRequestPolicy.getNumSkippedHedgedRequests());
+    } finally {
+      semaphore.release(100);
+      hedgedRequestPolicy.stop();
+    }
+  }
+
+  @Test
+  public void testHedgedRequestsReturnFirstResponse() throws IOException, TException, InterruptedException {
+    final HankResponse slowResponse = HankResponse.value(ByteBuffer.wrap("2".getBytes()));
+    final MockIface iface1 = new SlowIface(1000, slowResponse);
+    final MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    int queryTimeoutMs = 5000;
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        0, 0, queryTimeoutMs, 0)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        0, 0, queryTimeoutMs, 0)));
+
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null);
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    HedgedRequestPolicy hedgedRequestPolicy = new HedgedRequestPolicy(50, 0);
+    try {
+      // The request sent to the slow host first is answered by the hedge, before the slow host responds
+      for (int i = 0; i < 2; ++i) {
+        long startTime = System.currentTimeMillis();
+        HankResponse response = hostConnectionPool.get(mockDomain, KEY_1, 1, null, hedgedRequestPolicy);
+        assertEquals(RESPONSE_1, response);
+        assertTrue(System.currentTimeMillis() - startTime < 500);
+      }
+      assertEquals(1, iface1.numGets);
+      assertEquals(2, iface2.numGets);
+      assertEquals(1, hedgedRequestPolicy.getNumHedgedRequests());
+    } finally {
+      hedgedRequestPolicy.stop();
+    }
+  }
+
+  @Test
+  public void testHedgedRequestsSkippedWhenHedgingThreadsAreBusy() throws IOException, TException, InterruptedException {
+    Semaphore semaphore = new Semaphore(0);
+    final MockIface iface1 = new HangingIface(semaphore);
+    final MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    int queryTimeoutMs = 500;
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        0, 0, queryTimeoutMs, 0)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        0, 0, queryTimeoutMs, 0)));
+
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null);
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    HedgedRequestPolicy hedgedRequestPolicy = new HedgedRequestPolicy(50, 0, 1);
+    final Semaphore hedgingThreadSemaphore = new Semaphore(0);
+    try {
+      // Occupy the only hedging thread
+      hedgedRequestPolicy.getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          hedgingThreadSemaphore.acquireUninterruptibly();
+        }
+      });
+      // Requests are performed by the caller. Requests to the hanging host are not hedged, and are retried
+      // with the other host after the timeout
+      for (int i = 0; i < 2; ++i) {
+        HankResponse response = hostConnectionPool.get(mockDomain, KEY_1, 2, null, hedgedRequestPolicy);
+        assertEquals(RESPONSE_1, response);
+        if (iface1.numGets > 0) {
+          semaphore.release(iface1.numGets);
+          iface1.clearCounts();
+        }
+      }
+      assertEquals(0, hedgedRequestPolicy.getNumHedgedRequests());
+      assertEquals(1, hedgedRequestPolicy.getNumSkippedHedgedRequests());
+      assertEquals(2, iface2.numGets);
+    } finally {
+      hedgingThreadSemaphore.release();
+      semaphore.release(100);
+      hedgedRequestPolicy.stop();
+    }
+  }
+
+  @Test
+  public void testHedgedRequestPolicyLatencyPercentile() {
+    HedgedRequestPolicy hedgedRequestPolicy = new HedgedRequestPolicy(0, 90);
+    try {
+      // No fixed delay and no measured latency yet: do not hedge
+      assertEquals(-1, hedgedRequestPolicy.getDelayNanos());
+      for (int i = 0; i < 1024; ++i) {
+        hedgedRequestPolicy.recordLatencyNanos(i);
+      }
+      assertEquals(920, hedgedRequestPolicy.getDelayNanos());
+    } finally {
+      hedgedRequestPolicy.stop();
+    }
+  }
+
+  @Test
+  public void testLatencyAwareHostSelection() throws IOException, TException, InterruptedException {
+    MockIface iface1 = new Response1Iface();
+    MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    HostLatencyTracker latencyTracker1 = new HostLatencyTracker();
+    HostLatencyTracker latencyTracker2 = new HostLatencyTracker();
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        0, 0, 0, 0, latencyTracker1)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        0, 0, 0, 0, latencyTracker2)));
+
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null, true);
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    // Hosts with the same latency: keys go to the host they are deterministic on
+    latencyTracker1.requestStarted();
+    latencyTracker1.requestCompleted(10000000, true);
+    latencyTracker2.requestStarted();
+    latencyTracker2.requestCompleted(10000000, true);
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(RESPONSE_1, hostConnectionPool.get(mockDomain, KEY_1, 1, i % 2));
+    }
+    assertEquals("Gets should be distributed accross hosts by key", 5, iface1.numGets);
+    assertEquals("Gets should be distributed accross hosts by key", 5, iface2.numGets);
+
+    iface1.clearCounts();
+    iface2.clearCounts();
+
+    // Host 1 is slow, it should not be queried
+    latencyTracker1.requestStarted();
+    latencyTracker1.requestCompleted(1000000000, true);
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(RESPONSE_1, hostConnectionPool.get(mockDomain, KEY_1, 1, null));
+      assertEquals(RESPONSE_1, hostConnectionPool.get(mockDomain, KEY_1, 1, i % 2));
+    }
+    assertEquals("Slow host should receive no query", 0, iface1.numGets);
+    assertEquals("Fast host should receive all queries", 20, iface2.numGets);
+  }
+
   @Test
   public void testDeterministicHostListShuffling() throws IOException, TException, InterruptedException {
 
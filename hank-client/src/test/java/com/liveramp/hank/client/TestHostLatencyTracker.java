@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHostLatencyTracker extends BaseTestCase {
+
+  @Test
+  public void testIt() {
+    HostLatencyTracker tracker = new HostLatencyTracker();
+
+    // Requests in flight increase the load
+    double idleLoad = tracker.getLoad();
+    tracker.requestStarted();
+    tracker.requestStarted();
+    assertEquals(2, tracker.getNumRequestsInFlight());
+    assertTrue(tracker.getLoad() > idleLoad);
+
+    // Latency increases are followed immediately
+    tracker.requestCompleted(1000000, true);
+    assertEquals(1, tracker.getNumRequestsInFlight());
+    assertEquals(1000000, tracker.getAverageLatencyNanos(), 1000);
+
+    // Latency decreases are smoothed
+    tracker.requestCompleted(0, true);
+    assertEquals(0, tracker.getNumRequestsInFlight());
+    double averageLatencyNanos = tracker.getAverageLatencyNanos();
+    assertTrue(averageLatencyNanos < 1000000);
+    assertTrue(averageLatencyNanos > 500000);
+
+    // Failures are penalized
+    tracker.requestStarted();
+    tracker.requestCompleted(0, false);
+    assertTrue(tracker.getAverageLatencyNanos() > 2 * averageLatencyNanos);
+  }
+
+  @Test
+  public void testBulkRequests() {
+    HostLatencyTracker tracker = new HostLatencyTracker();
+
+    // Bulk requests are tracked per key, separately from single requests
+    tracker.requestStarted();
+    assertEquals(1, tracker.getNumRequestsInFlight());
+    tracker.bulkRequestCompleted(1000000, 100, true);
+    assertEquals(0, tracker.getNumRequestsInFlight());
+    assertEquals(10000, tracker.getAverageBulkLatencyPerKeyNanos(), 10);
+    assertEquals(0, tracker.getAverageLatencyNanos(), 0);
+    assertTrue(tracker.getBulkLoad() > tracker.getLoad());
+  }
+}
@@ -166,6 +166,22 @@ public abstract class YamlConfigurator implements Serializable {
     }
   }
 
+  protected Boolean getRequiredBoolean(String... optionPath) throws InvalidConfigurationException {
+    Object option = getRequiredOption(optionPath);
+    if (option != null && !(option instanceof Boolean)) {
+      throw new InvalidConfigurationException("Option '" + Arrays.toString(optionPath) + "' must be of type Boolean in configuration '" + contentSource + "'");
+    }
+    return (Boolean) option;
+  }
+
+  protected Boolean getOptionalBoolean(String... optionPath) {
+    try {
+      return getRequiredBoolean(optionPath);
+    } catch (InvalidConfigurationException e) {
+      return null;
+    }
+  }
+
   protected List<String> getRequiredStringList(String... optionPath) throws InvalidConfigurationException {
     Object option = getRequiredOption(optionPath);
     if (option != null && !(option instanceof List)) {
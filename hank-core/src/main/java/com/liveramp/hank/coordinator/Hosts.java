@@ -16,7 +16,9 @@
 
 package com.liveramp.hank.coordinator;
 
+import com.liveramp.hank.partition_server.CacheStatistics;
 import com.liveramp.hank.partition_server.FilesystemStatisticsAggregator;
+import com.liveramp.hank.partition_server.MembershipFilterStatistics;
 import com.liveramp.hank.partition_server.RuntimeStatisticsAggregator;
 import org.apache.commons.lang.StringUtils;
 
@@ -264,7 +266,16 @@ public final class Hosts {
         }
         String[] tokens = statistics.split("\t");
         int domainId = Integer.parseInt(tokens[0]);
-        result.put(coordinator.getDomainById(domainId), RuntimeStatisticsAggregator.parse(tokens[1]));
+        RuntimeStatisticsAggregator runtimeStatisticsAggregator = RuntimeStatisticsAggregator.parse(tokens[1]);
+        // Cache statistics are optional
+        if (tokens.length > 2) {
+          runtimeStatisticsAggregator.setCacheStatistics(CacheStatistics.parse(tokens[2]));
+        }
+        // Membership filter statistics are optional
+        if (tokens.length > 3) {
+          runtimeStatisticsAggregator.setMembershipFilterStatistics(MembershipFilterStatistics.parse(tokens[3]));
+        }
+        result.put(coordinator.getDomainById(domainId), runtimeStatisticsAggregator);
       }
       return result;
     }
@@ -281,6 +292,10 @@ public final class Hosts {
       statistics.append(domain.getId());
       statistics.append('\t');
       statistics.append(RuntimeStatisticsAggregator.toString(runtimeStatisticsAggregator));
+      statistics.append('\t');
+      statistics.append(CacheStatistics.toString(runtimeStatisticsAggregator.getCacheStatistics()));
+      statistics.append('\t');
+      statistics.append(MembershipFilterStatistics.toString(runtimeStatisticsAggregator.getMembershipFilterStatistics()));
       statistics.append('\n');
     }
     host.setEphemeralStatistic(RUNTIME_STATISTICS_KEY, statistics.toString());
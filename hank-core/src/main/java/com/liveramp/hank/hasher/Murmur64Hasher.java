@@ -32,61 +32,53 @@ public final class Murmur64Hasher implements Hasher {
    */
   private static final int INITIAL_SEED = 952336;
 
-  public static long murmurHash64(final byte[] data, final int off, final int length, final int seed) {
-    final long m = 0xc6a4a7935bd1e995L;
-    final int r = 47;
+  private static final long M = 0xc6a4a7935bd1e995L;
+  private static final int R = 47;
+
+  // Mixed 8 byte words of the key being hashed, reused across the hashes of each output word
+  private static final ThreadLocal<long[]> mixedWordsThreadLocal = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[16];
+    }
+  };
 
-    long h = seed ^ (length * m);
+  public static long murmurHash64(final byte[] data, final int off, final int length, final int seed) {
+    long h = seed ^ (length * M);
 
     final int remainder = length & 7;
     final int end = off + length - remainder;
     for (int i = off; i < end; i += 8) {
-      long k = data[i + 7];
-      k = k << 8;
-      k = k | (data[i + 6] & 0xff);
-      k = k << 8;
-      k = k | (data[i + 5] & 0xff);
-      k = k << 8;
-      k = k | (data[i + 4] & 0xff);
-      k = k << 8;
-      k = k | (data[i + 3] & 0xff);
-      k = k << 8;
-      k = k | (data[i + 2] & 0xff);
-      k = k << 8;
-      k = k | (data[i + 1] & 0xff);
-      k = k << 8;
-      k = k | (data[i + 0] & 0xff);
-
-      k *= m;
-      k ^= k >>> r;
-      k *= m;
-
-      h ^= k;
-      h *= m;
+      h ^= mixWord(Bytes.getLongLittleEndian(data, i));
+      h *= M;
     }
-
-    switch (remainder) {
-      case 7:
-        h ^= (long) (data[end + 6] & 0xff) << 48;
-      case 6:
-        h ^= (long) (data[end + 5] & 0xff) << 40;
-      case 5:
-        h ^= (long) (data[end + 4] & 0xff) << 32;
-      case 4:
-        h ^= (long) (data[end + 3] & 0xff) << 24;
-      case 3:
-        h ^= (long) (data[end + 2] & 0xff) << 16;
-      case 2:
-        h ^= (long) (data[end + 1] & 0xff) << 8;
-      case 1:
-        h ^= (long) (data[end] & 0xff);
-        h *= m;
+    if (remainder > 0) {
+      h ^= getTail(data, end, remainder);
+      h *= M;
     }
+    return finish(h);
+  }
 
-    h ^= h >>> r;
-    h *= m;
-    h ^= h >>> r;
+  // Mixing a word does not depend on the seed
+  private static long mixWord(long k) {
+    k *= M;
+    k ^= k >>> R;
+    k *= M;
+    return k;
+  }
+
+  private static long getTail(final byte[] data, final int end, final int remainder) {
+    long tail = 0;
+    for (int i = remainder - 1; i >= 0; --i) {
+      tail = (tail << 8) | (data[end + i] & 0xff);
+    }
+    return tail;
+  }
 
+  private static long finish(long h) {
+    h ^= h >>> R;
+    h *= M;
+    h ^= h >>> R;
     return h;
   }
 
@@ -102,12 +94,29 @@ public final class Murmur64Hasher implements Hasher {
     return murmurHash64(data.array(), data.arrayOffset() + data.position(), data.remaining(), seed);
   }
 
+  // Each 8 bytes of the hash are the hash of the key seeded with the previous 8 bytes. Words of
+  // the key are read and mixed once, and only combined with each seed.
   @Override
   public void hash(ByteBuffer value, int hashSize, byte[] hashBytes) {
+    final byte[] data = value.array();
+    final int dataOff = value.arrayOffset() + value.position();
+    final int length = value.remaining();
+    final int remainder = length & 7;
+    final int numWords = length >>> 3;
+    long[] mixedWords = mixedWordsThreadLocal.get();
+    if (mixedWords.length < numWords) {
+      mixedWords = new long[numWords];
+      mixedWordsThreadLocal.set(mixedWords);
+    }
+    for (int i = 0; i < numWords; ++i) {
+      mixedWords[i] = mixWord(Bytes.getLongLittleEndian(data, dataOff + i * 8));
+    }
+    final long tail = remainder > 0 ? getTail(data, dataOff + numWords * 8, remainder) : 0;
+
     int seed = INITIAL_SEED;
     long hashValue;
     for (int i = 0; i <= hashSize - 8; i += 8) {
-      hashValue = murmurHash64(value, seed);
+      hashValue = combine(seed, length, mixedWords, numWords, tail, remainder);
       seed = (int) hashValue;
       hashBytes[i] = (byte) ((hashValue >> 56) & 0xff);
       hashBytes[i + 1] = (byte) ((hashValue >> 48) & 0xff);
@@ -121,7 +130,7 @@ public final class Murmur64Hasher implements Hasher {
 
     int shortHashBytes = hashSize % 8;
     if (shortHashBytes > 0) {
-      hashValue = murmurHash64(value, seed);
+      hashValue = combine(seed, length, mixedWords, numWords, tail, remainder);
       int off = hashSize - 1;
       switch (shortHashBytes) {
         case 7:
@@ -142,6 +151,20 @@ public final class Murmur64Hasher implements Hasher {
     }
   }
 
+  // Same as murmurHash64, with words of the key already mixed
+  private static long combine(int seed, int length, long[] mixedWords, int numWords, long tail, int remainder) {
+    long h = seed ^ (length * M);
+    for (int i = 0; i < numWords; ++i) {
+      h ^= mixedWords[i];
+      h *= M;
+    }
+    if (remainder > 0) {
+      h ^= tail;
+      h *= M;
+    }
+    return finish(h);
+  }
+
   @Override
   public String toString() {
     return Murmur64Hasher.class.getSimpleName();
@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Size of a value cache shared by the Readers of a domain (see OffHeapValueCache).
+ */
+public class CacheStatistics {
+
+  private static Logger LOG = Logger.getLogger(CacheStatistics.class);
+
+  private long numItems;
+  private long numManagedBytes;
+  private long numBytesCapacity;
+  private long numEvictions;
+
+  public CacheStatistics() {
+    numItems = 0;
+    numManagedBytes = 0;
+    numBytesCapacity = 0;
+    numEvictions = 0;
+  }
+
+  public CacheStatistics(long numItems, long numManagedBytes, long numBytesCapacity, long numEvictions) {
+    this.numItems = numItems;
+    this.numManagedBytes = numManagedBytes;
+    this.numBytesCapacity = numBytesCapacity;
+    this.numEvictions = numEvictions;
+  }
+
+  public long getNumItems() {
+    return numItems;
+  }
+
+  public long getNumManagedBytes() {
+    return numManagedBytes;
+  }
+
+  public long getNumBytesCapacity() {
+    return numBytesCapacity;
+  }
+
+  public long getNumEvictions() {
+    return numEvictions;
+  }
+
+  public double getUsedPercentage() {
+    if (numBytesCapacity == 0) {
+      return 0;
+    }
+    return (numManagedBytes * 100.0) / numBytesCapacity;
+  }
+
+  public void add(CacheStatistics other) {
+    numItems += other.numItems;
+    numManagedBytes += other.numManagedBytes;
+    numBytesCapacity += other.numBytesCapacity;
+    numEvictions += other.numEvictions;
+  }
+
+  public static String toString(CacheStatistics cacheStatistics) {
+    return cacheStatistics.numItems
+        + " " + cacheStatistics.numManagedBytes
+        + " " + cacheStatistics.numBytesCapacity
+        + " " + cacheStatistics.numEvictions;
+  }
+
+  public static CacheStatistics parse(String str) {
+    String[] tokens = str.split(" ");
+    if (tokens.length < 4) {
+      LOG.error("Failed to parse cache statistics with string: " + str);
+      return new CacheStatistics();
+    }
+    return new CacheStatistics(
+        Long.parseLong(tokens[0]),
+        Long.parseLong(tokens[1]),
+        Long.parseLong(tokens[2]),
+        Long.parseLong(tokens[3]));
+  }
+}
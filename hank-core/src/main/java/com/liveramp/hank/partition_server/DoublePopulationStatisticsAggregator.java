@@ -17,13 +17,19 @@
 package com.liveramp.hank.partition_server;
 
 import java.text.DecimalFormat;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Random;
 
+import com.liveramp.hank.util.LatencyHistogram;
+
+/**
+ * Statistics of a population of durations, in milliseconds. Minimum, maximum, count and total are exact.
+ * The distribution is kept in a log-bucketed histogram with microsecond resolution, so that
+ * percentiles are accurate to within 1% and aggregators can be combined without loss.
+ */
 public class DoublePopulationStatisticsAggregator {
 
-  private static int POPULATION_RANDOM_SAMPLE_MAX_SIZE = 100;
+  // Values are recorded in the histogram in microseconds
+  private static final double HISTOGRAM_UNITS_PER_VALUE = 1000.0;
 
   private static DecimalFormat format3 = new DecimalFormat("#.###");
   private static DecimalFormat format1 = new DecimalFormat("#.#");
@@ -33,10 +39,10 @@ public class DoublePopulationStatisticsAggregator {
   private double maximum;
   private long numValues;
   private double total;
-  private final ReservoirSample reservoirSample = new ReservoirSample(POPULATION_RANDOM_SAMPLE_MAX_SIZE);
-  private final Random random = new Random();
+  private final LatencyHistogram histogram;
 
   public DoublePopulationStatisticsAggregator() {
+    this.histogram = new LatencyHistogram();
     clear();
   }
 
@@ -44,12 +50,24 @@ public class DoublePopulationStatisticsAggregator {
                                               double maximum,
                                               long numValues,
                                               double total,
-                                              double[] randomSample) {
+                                              LatencyHistogram histogram) {
     this.minimum = minimum;
     this.maximum = maximum;
     this.numValues = numValues;
     this.total = total;
-    this.reservoirSample.sample(randomSample, random);
+    this.histogram = histogram;
+  }
+
+  // Build statistics from a random sample of the population (legacy serialization format)
+  public DoublePopulationStatisticsAggregator(double minimum,
+                                              double maximum,
+                                              long numValues,
+                                              double total,
+                                              double[] randomSample) {
+    this(minimum, maximum, numValues, total, new LatencyHistogram());
+    for (double value : randomSample) {
+      histogram.record(toHistogramValue(value));
+    }
   }
 
   public void clear() {
@@ -57,47 +75,38 @@ public class DoublePopulationStatisticsAggregator {
     maximum = Double.MIN_VALUE;
     numValues = 0;
     total = 0.0;
-    reservoirSample.clear();
+    histogram.clear();
   }
 
-  public void aggregate(double minimum, double maximum, long numValues, double total, double[] values) {
-    if (maximum > this.maximum) {
-      this.maximum = maximum;
+  public void record(double value) {
+    if (value > maximum) {
+      maximum = value;
     }
-    if (minimum < this.minimum) {
-      this.minimum = minimum;
+    if (value < minimum) {
+      minimum = value;
     }
-    this.numValues += numValues;
-    this.total += total;
-    this.reservoirSample.sample(values, random);
+    ++numValues;
+    total += value;
+    histogram.record(toHistogramValue(value));
+  }
+
+  public void aggregate(DoublePopulationStatisticsAggregator other) {
+    if (other.maximum > maximum) {
+      maximum = other.maximum;
+    }
+    if (other.minimum < minimum) {
+      minimum = other.minimum;
+    }
+    numValues += other.numValues;
+    total += other.total;
+    histogram.merge(other.histogram);
   }
 
   public static DoublePopulationStatisticsAggregator
   combine(Collection<DoublePopulationStatisticsAggregator> aggregators) {
-    Random random = new Random();
     DoublePopulationStatisticsAggregator result = new DoublePopulationStatisticsAggregator();
     for (DoublePopulationStatisticsAggregator aggregator : aggregators) {
-      if (aggregator.maximum > result.maximum) {
-        result.maximum = aggregator.maximum;
-      }
-      if (aggregator.minimum < result.minimum) {
-        result.minimum = aggregator.minimum;
-      }
-      result.numValues += aggregator.numValues;
-      result.total += aggregator.total;
-    }
-    // Now we can create a stream of values based on a
-    // random sample of the aggregators reservoirs but
-    // with the number of values in their streams a weight
-    // and reservoir sample that. This assumes that all given reservoirs
-    // have the same size.
-    for (DoublePopulationStatisticsAggregator aggregator : aggregators) {
-      double ratio = (double) aggregator.numValues / (double) result.numValues;
-      for (double value : aggregator.reservoirSample.getReservoir()) {
-        if ((Math.abs(random.nextDouble()) / Double.MAX_VALUE) < ratio) {
-          result.reservoirSample.sample(value, random);
-        }
-      }
+      result.aggregate(aggregator);
     }
     return result;
   }
@@ -116,6 +125,10 @@ public class DoublePopulationStatisticsAggregator {
     return minimum;
   }
 
+  public long getNumValues() {
+    return numValues;
+  }
+
   public double getMean() {
     if (numValues != 0) {
       return total / numValues;
@@ -124,16 +137,29 @@ public class DoublePopulationStatisticsAggregator {
     }
   }
 
+  /**
+   * @param percentile between 0 and 100
+   * @return the value below which the given percentile of the population falls, 0 if the population is empty
+   */
+  public double getValueAtPercentile(double percentile) {
+    if (histogram.getTotalCount() == 0) {
+      return 0;
+    }
+    double value = histogram.getValueAtPercentile(percentile) / HISTOGRAM_UNITS_PER_VALUE;
+    // Histogram values are approximate, make sure they stay within the exact bounds
+    if (getMaximum() != null && value > maximum) {
+      value = maximum;
+    }
+    if (getMinimum() != null && value < minimum) {
+      value = minimum;
+    }
+    return value;
+  }
+
   public double[] computeDeciles() {
     double[] result = new double[9];
-    Arrays.fill(result, 0.0);
-    if (reservoirSample.getSize() > 0) {
-      // Sort valid reservoir values first
-      Arrays.sort(reservoirSample.getReservoir(), 0, reservoirSample.getSize());
-      // Compute deciles
-      for (int i = 0; i < 9; ++i) {
-        result[i] = getSortedPopulationDecile(reservoirSample.getReservoir(), i + 1, reservoirSample.getSize());
-      }
+    for (int i = 0; i < 9; ++i) {
+      result[i] = getValueAtPercentile((i + 1) * 10);
     }
     return result;
   }
@@ -147,13 +173,33 @@ public class DoublePopulationStatisticsAggregator {
     result.append(populationStatistics.numValues);
     result.append(' ');
     result.append(populationStatistics.total);
-    for (int i = 0; i < populationStatistics.reservoirSample.getSize(); ++i) {
+    String buckets = populationStatistics.histogram.toBucketString();
+    if (buckets.length() > 0) {
       result.append(' ');
-      result.append(populationStatistics.reservoirSample.getReservoir()[i]);
+      result.append(buckets);
     }
     return result.toString();
   }
 
+  // Parse statistics written by toString(), starting at the given token.
+  // Statistics written in the legacy format (a random sample of values) are also supported.
+  public static DoublePopulationStatisticsAggregator parse(String[] tokens, int offset) {
+    double minimum = Double.parseDouble(tokens[offset]);
+    double maximum = Double.parseDouble(tokens[offset + 1]);
+    long numValues = Long.parseLong(tokens[offset + 2]);
+    double total = Double.parseDouble(tokens[offset + 3]);
+    if (tokens.length > offset + 4 && tokens[offset + 4].indexOf(':') >= 0) {
+      return new DoublePopulationStatisticsAggregator(minimum, maximum, numValues, total,
+          LatencyHistogram.parseBucketString(tokens[offset + 4]));
+    } else {
+      double[] randomSample = new double[Math.max(0, tokens.length - offset - 4)];
+      for (int i = 0; i < randomSample.length; ++i) {
+        randomSample[i] = Double.parseDouble(tokens[offset + 4 + i]);
+      }
+      return new DoublePopulationStatisticsAggregator(minimum, maximum, numValues, total, randomSample);
+    }
+  }
+
   public static String formatDouble(double value) {
     if (value < 1) {
       return format3.format(value);
@@ -165,67 +211,18 @@ public class DoublePopulationStatisticsAggregator {
   }
 
   public String format() {
-    double[] deciles = computeDeciles();
     StringBuilder result = new StringBuilder();
-    // Compute median
-    double median = numValues == 0 ? 0 : deciles[4];
-    // Compute 90% percentile
-    double ninetiethPercentile = numValues == 0 ? 0 : deciles[8];
     result.append(formatDouble(getMean()));
     result.append(" / ");
-    result.append(formatDouble(median));
+    result.append(formatDouble(getValueAtPercentile(50)));
     result.append(" / ");
-    result.append(formatDouble(ninetiethPercentile));
+    result.append(formatDouble(getValueAtPercentile(90)));
     result.append(" ms");
     return result.toString();
   }
 
-  public class ReservoirSample {
-
-    private final double[] reservoir;
-    private int size;
-    private int count;
-
-    public ReservoirSample(int reservoirMaxSize) {
-      reservoir = new double[reservoirMaxSize];
-      clear();
-    }
-
-    public void sample(double[] values, Random random) {
-      for (double value : values) {
-        sample(value, random);
-      }
-    }
-
-    public void sample(double value, Random random) {
-      if (count < reservoir.length) {
-        reservoir[size++] = value;
-      } else {
-        if (random.nextInt(count) < reservoir.length) {
-          reservoir[random.nextInt(reservoir.length)] = value;
-        }
-      }
-      ++count;
-    }
-
-    public void sample(ReservoirSample other, Random random) {
-      for (int i = 0; i < other.getSize(); ++i) {
-        sample(other.getReservoir()[i], random);
-      }
-    }
-
-    public double[] getReservoir() {
-      return reservoir;
-    }
-
-    public int getSize() {
-      return size;
-    }
-
-    public void clear() {
-      size = 0;
-      count = 0;
-    }
+  private static long toHistogramValue(double value) {
+    return Math.round(value * HISTOGRAM_UNITS_PER_VALUE);
   }
 
   public static double getSortedPopulationDecile(double[] population, int decile, int endIndex) {
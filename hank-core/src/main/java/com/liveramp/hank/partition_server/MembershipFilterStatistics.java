@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Effectiveness and size of the membership filters of the Readers of a domain
+ * (see MembershipFilteredReader).
+ */
+public class MembershipFilterStatistics {
+
+  private static Logger LOG = Logger.getLogger(MembershipFilterStatistics.class);
+
+  private long numNegatives;
+  private long numFalsePositives;
+  private long numBytes;
+
+  public MembershipFilterStatistics() {
+    numNegatives = 0;
+    numFalsePositives = 0;
+    numBytes = 0;
+  }
+
+  public MembershipFilterStatistics(long numNegatives, long numFalsePositives, long numBytes) {
+    this.numNegatives = numNegatives;
+    this.numFalsePositives = numFalsePositives;
+    this.numBytes = numBytes;
+  }
+
+  // Number of lookups answered by the filter
+  public long getNumNegatives() {
+    return numNegatives;
+  }
+
+  // Number of lookups of absent keys that passed the filter
+  public long getNumFalsePositives() {
+    return numFalsePositives;
+  }
+
+  public long getNumBytes() {
+    return numBytes;
+  }
+
+  // Fraction of lookups of absent keys that were not answered by the filter
+  public double getFalsePositiveRate() {
+    long numAbsent = numNegatives + numFalsePositives;
+    if (numAbsent == 0) {
+      return 0;
+    }
+    return (double) numFalsePositives / (double) numAbsent;
+  }
+
+  public void add(MembershipFilterStatistics other) {
+    numNegatives += other.numNegatives;
+    numFalsePositives += other.numFalsePositives;
+    numBytes += other.numBytes;
+  }
+
+  public static String toString(MembershipFilterStatistics membershipFilterStatistics) {
+    return membershipFilterStatistics.numNegatives
+        + " " + membershipFilterStatistics.numFalsePositives
+        + " " + membershipFilterStatistics.numBytes;
+  }
+
+  public static MembershipFilterStatistics parse(String str) {
+    String[] tokens = str.split(" ");
+    if (tokens.length < 3) {
+      LOG.error("Failed to parse membership filter statistics with string: " + str);
+      return new MembershipFilterStatistics();
+    }
+    return new MembershipFilterStatistics(
+        Long.parseLong(tokens[0]),
+        Long.parseLong(tokens[1]),
+        Long.parseLong(tokens[2]));
+  }
+}
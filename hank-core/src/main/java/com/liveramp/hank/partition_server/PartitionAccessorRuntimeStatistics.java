@@ -24,6 +24,7 @@ public class PartitionAccessorRuntimeStatistics {
   protected final double responseDataThroughput;
   protected final long numL1CacheHits;
   protected final long numL2CacheHits;
+  protected final MembershipFilterStatistics membershipFilterStatistics;
 
   public PartitionAccessorRuntimeStatistics(long numRequests,
                                             long numHits,
@@ -31,11 +32,23 @@ public class PartitionAccessorRuntimeStatistics {
                                             double responseDataThroughput,
                                             long numL1CacheHits,
                                             long numL2CacheHits) {
+    this(numRequests, numHits, throughput, responseDataThroughput, numL1CacheHits, numL2CacheHits,
+        new MembershipFilterStatistics());
+  }
+
+  public PartitionAccessorRuntimeStatistics(long numRequests,
+                                            long numHits,
+                                            double throughput,
+                                            double responseDataThroughput,
+                                            long numL1CacheHits,
+                                            long numL2CacheHits,
+                                            MembershipFilterStatistics membershipFilterStatistics) {
     this.numRequests = numRequests;
     this.numHits = numHits;
     this.throughput = throughput;
     this.responseDataThroughput = responseDataThroughput;
     this.numL1CacheHits = numL1CacheHits;
     this.numL2CacheHits = numL2CacheHits;
+    this.membershipFilterStatistics = membershipFilterStatistics;
   }
 }
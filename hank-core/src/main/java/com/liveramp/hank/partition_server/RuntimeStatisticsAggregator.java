@@ -33,6 +33,8 @@ public class RuntimeStatisticsAggregator {
   private long numL1CacheHitsTotal;
   private long numL2CacheHitsTotal;
   private DoublePopulationStatisticsAggregator getRequestsPopulationStatistics;
+  private CacheStatistics cacheStatistics;
+  private MembershipFilterStatistics membershipFilterStatistics;
 
   public RuntimeStatisticsAggregator() {
     throughputTotal = 0;
@@ -42,6 +44,8 @@ public class RuntimeStatisticsAggregator {
     numL1CacheHitsTotal = 0;
     numL2CacheHitsTotal = 0;
     getRequestsPopulationStatistics = new DoublePopulationStatisticsAggregator();
+    cacheStatistics = new CacheStatistics();
+    membershipFilterStatistics = new MembershipFilterStatistics();
   }
 
   public RuntimeStatisticsAggregator(double throughputTotal,
@@ -58,6 +62,8 @@ public class RuntimeStatisticsAggregator {
     this.numL1CacheHitsTotal = numL1CacheHitsTotal;
     this.numL2CacheHitsTotal = numL2CacheHitsTotal;
     this.getRequestsPopulationStatistics = getRequestsPopulationStatistics;
+    this.cacheStatistics = new CacheStatistics();
+    this.membershipFilterStatistics = new MembershipFilterStatistics();
   }
 
   public void add(PartitionAccessorRuntimeStatistics runtimeStatistics) {
@@ -67,6 +73,7 @@ public class RuntimeStatisticsAggregator {
     numHitsTotal += runtimeStatistics.numHits;
     numL1CacheHitsTotal += runtimeStatistics.numL1CacheHits;
     numL2CacheHitsTotal += runtimeStatistics.numL2CacheHits;
+    membershipFilterStatistics.add(runtimeStatistics.membershipFilterStatistics);
   }
 
   public static RuntimeStatisticsAggregator combine(Collection<RuntimeStatisticsAggregator> runtimeStatisticsAggregators) {
@@ -81,6 +88,8 @@ public class RuntimeStatisticsAggregator {
       result.numL1CacheHitsTotal += runtimeStatisticsAggregator.numL1CacheHitsTotal;
       result.numL2CacheHitsTotal += runtimeStatisticsAggregator.numL2CacheHitsTotal;
       doublePopulationStatisticsAggregators.add(runtimeStatisticsAggregator.getRequestsPopulationStatistics);
+      result.cacheStatistics.add(runtimeStatisticsAggregator.cacheStatistics);
+      result.membershipFilterStatistics.add(runtimeStatisticsAggregator.membershipFilterStatistics);
     }
     result.getRequestsPopulationStatistics = DoublePopulationStatisticsAggregator.combine(doublePopulationStatisticsAggregators);
     return result;
@@ -90,6 +99,14 @@ public class RuntimeStatisticsAggregator {
     this.getRequestsPopulationStatistics = populationStatistics;
   }
 
+  public void setCacheStatistics(CacheStatistics cacheStatistics) {
+    this.cacheStatistics = cacheStatistics;
+  }
+
+  public void setMembershipFilterStatistics(MembershipFilterStatistics membershipFilterStatistics) {
+    this.membershipFilterStatistics = membershipFilterStatistics;
+  }
+
   public double getThroughput() {
     return throughputTotal;
   }
@@ -126,6 +143,14 @@ public class RuntimeStatisticsAggregator {
     return getRequestsPopulationStatistics;
   }
 
+  public CacheStatistics getCacheStatistics() {
+    return cacheStatistics;
+  }
+
+  public MembershipFilterStatistics getMembershipFilterStatistics() {
+    return membershipFilterStatistics;
+  }
+
   public static String toString(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
     return runtimeStatisticsAggregator.throughputTotal
         + " " + runtimeStatisticsAggregator.responseDataThroughputTotal
@@ -150,17 +175,8 @@ public class RuntimeStatisticsAggregator {
     long numHitsTotal = Long.parseLong(tokens[3]);
     long numL1CacheHitsTotal = Long.parseLong(tokens[4]);
     long numL2CacheHitsTotal = Long.parseLong(tokens[5]);
-    int numRandomSample = tokens.length - 10;
-    double[] randomSample = new double[numRandomSample];
-    for (int i = 0; i < numRandomSample; ++i) {
-      randomSample[i] = Double.parseDouble(tokens[10 + i]);
-    }
-    DoublePopulationStatisticsAggregator getRequestsPopulationStatistics = new DoublePopulationStatisticsAggregator(
-        Double.parseDouble(tokens[6]),
-        Double.parseDouble(tokens[7]),
-        Long.parseLong(tokens[8]),
-        Double.parseDouble(tokens[9]),
-        randomSample);
+    DoublePopulationStatisticsAggregator getRequestsPopulationStatistics =
+        DoublePopulationStatisticsAggregator.parse(tokens, 6);
     return new RuntimeStatisticsAggregator(
         throughputTotal,
         responseDataThroughputTotal,
@@ -18,12 +18,21 @@ package com.liveramp.hank.partitioner;
 
 import java.nio.ByteBuffer;
 
-public class HashCodePartitioner implements Partitioner {
+public class HashCodePartitioner implements HashingPartitioner {
 
   @Override
   public int partition(ByteBuffer key, int numPartitions) {
-    int hashCode = 31 + (key != null ? bytesHashCode(key.array(), key.arrayOffset() + key.position(), key.remaining()) : 0);
-    return (hashCode & Integer.MAX_VALUE) % numPartitions;
+    return partition(hash(key), numPartitions);
+  }
+
+  @Override
+  public long hash(ByteBuffer key) {
+    return 31 + (key != null ? bytesHashCode(key.array(), key.arrayOffset() + key.position(), key.remaining()) : 0);
+  }
+
+  @Override
+  public int partition(long hash, int numPartitions) {
+    return ((int) hash & Integer.MAX_VALUE) % numPartitions;
   }
 
   private int bytesHashCode(byte[] bytes, int offset, int length) {
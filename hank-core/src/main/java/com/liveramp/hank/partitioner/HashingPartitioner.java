@@ -0,0 +1,34 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partitioner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Partitioner that derives partition numbers from a single hash of the key, so that the
+ * partitions of a key for different numbers of partitions are computed without hashing it again.
+ */
+public interface HashingPartitioner extends Partitioner {
+
+  public long hash(ByteBuffer key);
+
+  /**
+   * Must return the same value as partition(key, numPartitions)
+   * @param hash hash(key)
+   */
+  public int partition(long hash, int numPartitions);
+}
@@ -24,7 +24,7 @@ import java.nio.ByteBuffer;
  * Implementation of Partitioner that takes a 64-bit Murmur hash to produce the
  * partition number.
  */
-public class Murmur64Partitioner implements Partitioner {
+public class Murmur64Partitioner implements HashingPartitioner {
   /**
    * Note that we use a wacky, unique seed here in order to make sure that no
    * one else will accidentally use a matching MurmurHash somewhere that can
@@ -34,10 +34,20 @@ public class Murmur64Partitioner implements Partitioner {
 
   @Override
   public int partition(ByteBuffer key, int numPartitions) {
-    return Math.abs((int) Murmur64Hasher.murmurHash64(key.array(),
+    return partition(hash(key), numPartitions);
+  }
+
+  @Override
+  public long hash(ByteBuffer key) {
+    return Murmur64Hasher.murmurHash64(key.array(),
         key.arrayOffset() + key.position(),
         key.remaining(),
-        SEED)) % numPartitions;
+        SEED);
+  }
+
+  @Override
+  public int partition(long hash, int numPartitions) {
+    return Math.abs((int) hash) % numPartitions;
   }
 
   @Override
@@ -0,0 +1,48 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partitioner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compute several partitions of a key while hashing it only once, when the Partitioner supports it
+ * (see HashingPartitioner):
+ * <pre>
+ *   long hash = Partitioners.hash(partitioner, key);
+ *   int partition = Partitioners.partition(partitioner, key, hash, numPartitions);
+ * </pre>
+ */
+public final class Partitioners {
+
+  private Partitioners() {
+  }
+
+  // Return 0 if the partitioner does not hash keys once
+  public static long hash(Partitioner partitioner, ByteBuffer key) {
+    if (partitioner instanceof HashingPartitioner) {
+      return ((HashingPartitioner) partitioner).hash(key);
+    }
+    return 0;
+  }
+
+  public static int partition(Partitioner partitioner, ByteBuffer key, long hash, int numPartitions) {
+    if (partitioner instanceof HashingPartitioner) {
+      return ((HashingPartitioner) partitioner).partition(hash, numPartitions);
+    }
+    return partitioner.partition(key, numPartitions);
+  }
+}
@@ -0,0 +1,32 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A Reader that can look up many keys of the same partition at once, more efficiently than
+ * one at a time (for example by visiting its files in offset order).
+ */
+public interface BulkReader extends Reader {
+
+  // Look up all keys. The result for keys.get(i) is stored in results[i]. Results must
+  // have been cleared, and should not share their buffers.
+  public void getBulk(List<ByteBuffer> keys, ReaderResult[] results) throws IOException;
+}
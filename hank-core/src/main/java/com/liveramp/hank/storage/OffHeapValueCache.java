@@ -0,0 +1,367 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A value cache bounded by a number of bytes, that stores keys and values outside of the
+ * Java heap, in direct buffers. It is meant to be shared by all the Readers of a domain:
+ * each Reader gets its own namespace so that keys of different partitions and versions
+ * do not collide.
+ * <p/>
+ * The cache is split into independently locked segments. Each segment is a circular log of
+ * entries with an open addressing index made of primitive arrays, so that there is no Java
+ * object per cached entry. When a segment is full, its oldest entries are evicted first.
+ */
+public class OffHeapValueCache {
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+
+  // Each segment is backed by a single direct buffer
+  private static final long MAX_SEGMENT_NUM_BYTES = 1 << 30;
+
+  private final Segment[] segments;
+  private final long numBytesCapacity;
+  private final AtomicInteger nextNamespace = new AtomicInteger(0);
+
+  public OffHeapValueCache(long numBytesCapacity, int numSegments) {
+    if (numBytesCapacity <= 0) {
+      throw new IllegalArgumentException("Off heap cache capacity must be positive: " + numBytesCapacity);
+    }
+    numSegments = (int)Math.max(Math.max(numSegments, 1),
+        (numBytesCapacity + MAX_SEGMENT_NUM_BYTES - 1) / MAX_SEGMENT_NUM_BYTES);
+    int segmentNumBytes = (int)(numBytesCapacity / numSegments);
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      segments[i] = new Segment(segmentNumBytes);
+    }
+    this.numBytesCapacity = (long)segmentNumBytes * numSegments;
+  }
+
+  // Return a namespace that has never been returned by this cache
+  public int newNamespace() {
+    return nextNamespace.getAndIncrement();
+  }
+
+  // Return true if the key was found in the cache, in which case result was set
+  // (either found with the cached value, or not found)
+  public boolean get(int namespace, ByteBuffer key, ReaderResult result) {
+    int hash = hash(namespace, key);
+    return getSegment(hash).get(hash, namespace, key, result);
+  }
+
+  public void put(int namespace, ByteBuffer key, ByteBuffer value) {
+    int hash = hash(namespace, key);
+    getSegment(hash).put(hash, namespace, key, value);
+  }
+
+  // Cache the fact that the key was not found
+  public void putNotFound(int namespace, ByteBuffer key) {
+    int hash = hash(namespace, key);
+    getSegment(hash).put(hash, namespace, key, null);
+  }
+
+  public long getNumBytesCapacity() {
+    return numBytesCapacity;
+  }
+
+  // Number of bytes used by entries currently in the cache, including their keys and headers
+  public long getNumManagedBytes() {
+    long result = 0;
+    for (Segment segment : segments) {
+      result += segment.getNumManagedBytes();
+    }
+    return result;
+  }
+
+  public long getNumItems() {
+    long result = 0;
+    for (Segment segment : segments) {
+      result += segment.getNumItems();
+    }
+    return result;
+  }
+
+  public long getNumEvictions() {
+    long result = 0;
+    for (Segment segment : segments) {
+      result += segment.getNumEvictions();
+    }
+    return result;
+  }
+
+  private Segment getSegment(int hash) {
+    return segments[(hash & Integer.MAX_VALUE) % segments.length];
+  }
+
+  private static int hash(int namespace, ByteBuffer key) {
+    int h = namespace;
+    for (int i = key.position(); i < key.limit(); ++i) {
+      h = 31 * h + key.get(i);
+    }
+    // Final mix so that all bits are used when picking a segment and an index slot
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static class Segment {
+
+    // Entry header: namespace, hash, key length, value length (-1 for a not found marker)
+    private static final int HEADER_SIZE = 16;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final int GOLDEN_RATIO = 0x9e3779b9;
+
+    private final ByteBuffer log;
+    private final int capacity;
+    // Oldest entry, and where the next entry will be written
+    private int head = 0;
+    private int tail = 0;
+    // When the log has wrapped, entries between tail and end are older than entries before head
+    private int end = 0;
+    private boolean wrapped = false;
+    private int numLogEntries = 0;
+
+    // Index slots store the entry offset plus one (0 means empty) and the entry hash
+    private int[] indexOffsets;
+    private int[] indexHashes;
+    private int indexShift;
+    private int numItems = 0;
+    private long numManagedBytes = 0;
+    private long numEvictions = 0;
+
+    Segment(int capacity) {
+      this.capacity = capacity;
+      this.log = ByteBuffer.allocateDirect(capacity);
+      allocateIndex(INITIAL_INDEX_CAPACITY);
+    }
+
+    synchronized boolean get(int hash, int namespace, ByteBuffer key, ReaderResult result) {
+      int slot = findSlot(hash, namespace, key);
+      if (slot < 0) {
+        return false;
+      }
+      int offset = indexOffsets[slot] - 1;
+      int keyLength = log.getInt(offset + 8);
+      int valueLength = log.getInt(offset + 12);
+      if (valueLength < 0) {
+        result.notFound();
+      } else {
+        // Note: key might be backed by the result buffer, it is not used past this point
+        int valueOffset = offset + HEADER_SIZE + keyLength;
+        result.requiresBufferSize(valueLength);
+        ByteBuffer buffer = result.getBuffer();
+        buffer.clear();
+        log.limit(valueOffset + valueLength);
+        log.position(valueOffset);
+        buffer.put(log);
+        log.clear();
+        buffer.flip();
+        result.found();
+      }
+      return true;
+    }
+
+    synchronized void put(int hash, int namespace, ByteBuffer key, ByteBuffer value) {
+      int keyLength = key.remaining();
+      int valueLength = value == null ? -1 : value.remaining();
+      int entrySize = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+      if (entrySize > capacity) {
+        // Too large to be cached
+        return;
+      }
+      int existingSlot = findSlot(hash, namespace, key);
+      if (existingSlot >= 0) {
+        // Replace existing entry. Its bytes will be reclaimed when the log gets to them.
+        numManagedBytes -= getEntrySize(indexOffsets[existingSlot] - 1);
+        removeSlot(existingSlot);
+      }
+      int offset = allocate(entrySize);
+      log.putInt(offset, namespace);
+      log.putInt(offset + 4, hash);
+      log.putInt(offset + 8, keyLength);
+      log.putInt(offset + 12, valueLength);
+      log.position(offset + HEADER_SIZE);
+      log.put(key.duplicate());
+      if (value != null) {
+        log.put(value.duplicate());
+      }
+      log.clear();
+      insertSlot(hash, offset);
+      numManagedBytes += entrySize;
+    }
+
+    synchronized long getNumManagedBytes() {
+      return numManagedBytes;
+    }
+
+    synchronized long getNumItems() {
+      return numItems;
+    }
+
+    synchronized long getNumEvictions() {
+      return numEvictions;
+    }
+
+    // Return the offset at which an entry of the given size can be written, evicting
+    // the oldest entries as necessary
+    private int allocate(int entrySize) {
+      while (true) {
+        if (numLogEntries == 0) {
+          head = 0;
+          tail = 0;
+          end = 0;
+          wrapped = false;
+        }
+        if (!wrapped) {
+          if (head + entrySize <= capacity) {
+            break;
+          }
+          // Wrap around to the beginning of the log
+          end = head;
+          head = 0;
+          wrapped = true;
+        }
+        if (head + entrySize <= tail) {
+          break;
+        }
+        evictOldest();
+      }
+      int offset = head;
+      head += entrySize;
+      ++numLogEntries;
+      return offset;
+    }
+
+    private void evictOldest() {
+      int offset = tail;
+      int entrySize = getEntrySize(offset);
+      int hash = log.getInt(offset + 4);
+      // The entry might have been replaced by a newer one, in which case it is no longer indexed
+      int slot = home(hash);
+      while (indexOffsets[slot] != 0) {
+        if (indexOffsets[slot] == offset + 1) {
+          removeSlot(slot);
+          numManagedBytes -= entrySize;
+          ++numEvictions;
+          break;
+        }
+        slot = (slot + 1) & (indexOffsets.length - 1);
+      }
+      tail += entrySize;
+      --numLogEntries;
+      if (wrapped && tail >= end) {
+        tail = 0;
+        wrapped = false;
+      }
+    }
+
+    private int getEntrySize(int offset) {
+      return HEADER_SIZE + log.getInt(offset + 8) + Math.max(log.getInt(offset + 12), 0);
+    }
+
+    private int findSlot(int hash, int namespace, ByteBuffer key) {
+      int slot = home(hash);
+      while (indexOffsets[slot] != 0) {
+        if (indexHashes[slot] == hash && entryMatches(indexOffsets[slot] - 1, namespace, key)) {
+          return slot;
+        }
+        slot = (slot + 1) & (indexOffsets.length - 1);
+      }
+      return -1;
+    }
+
+    private boolean entryMatches(int offset, int namespace, ByteBuffer key) {
+      int keyLength = key.remaining();
+      if (log.getInt(offset) != namespace || log.getInt(offset + 8) != keyLength) {
+        return false;
+      }
+      int keyOffset = offset + HEADER_SIZE;
+      int keyPosition = key.position();
+      for (int i = 0; i < keyLength; ++i) {
+        if (log.get(keyOffset + i) != key.get(keyPosition + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int home(int hash) {
+      return (hash * GOLDEN_RATIO) >>> indexShift;
+    }
+
+    private void insertSlot(int hash, int offset) {
+      // Keep the load factor under one half
+      if (2 * (numItems + 1) > indexOffsets.length) {
+        int[] previousOffsets = indexOffsets;
+        int[] previousHashes = indexHashes;
+        allocateIndex(2 * indexOffsets.length);
+        for (int i = 0; i < previousOffsets.length; ++i) {
+          if (previousOffsets[i] != 0) {
+            doInsertSlot(previousHashes[i], previousOffsets[i]);
+          }
+        }
+      }
+      doInsertSlot(hash, offset + 1);
+      ++numItems;
+    }
+
+    private void doInsertSlot(int hash, int offsetPlusOne) {
+      int slot = home(hash);
+      while (indexOffsets[slot] != 0) {
+        slot = (slot + 1) & (indexOffsets.length - 1);
+      }
+      indexOffsets[slot] = offsetPlusOne;
+      indexHashes[slot] = hash;
+    }
+
+    // Remove a slot, shifting back following slots so that lookups never stop early
+    private void removeSlot(int slot) {
+      int mask = indexOffsets.length - 1;
+      int next = slot;
+      while (true) {
+        next = (next + 1) & mask;
+        if (indexOffsets[next] == 0) {
+          break;
+        }
+        int nextHome = home(indexHashes[next]);
+        // Leave the slot in place if its home is cyclically in (slot, next]
+        boolean inPlace = slot <= next
+            ? (slot < nextHome && nextHome <= next)
+            : (slot < nextHome || nextHome <= next);
+        if (!inPlace) {
+          indexOffsets[slot] = indexOffsets[next];
+          indexHashes[slot] = indexHashes[next];
+          slot = next;
+        }
+      }
+      indexOffsets[slot] = 0;
+      --numItems;
+    }
+
+    private void allocateIndex(int indexCapacity) {
+      indexOffsets = new int[indexCapacity];
+      indexHashes = new int[indexCapacity];
+      indexShift = 32 - Integer.numberOfTrailingZeros(indexCapacity);
+    }
+  }
+}
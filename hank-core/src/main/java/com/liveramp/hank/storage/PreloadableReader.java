@@ -0,0 +1,35 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.io.IOException;
+
+import com.liveramp.hank.util.WarmupBudget;
+
+/**
+ * A Reader that is able to bring its data into the page cache before it starts serving.
+ * Index data, needed by every lookup, is preloaded first across all partitions, and the
+ * remaining budget is then used for the rest of the data.
+ */
+public interface PreloadableReader extends Reader {
+
+  // Return the number of bytes preloaded
+  public long preloadIndex(WarmupBudget budget) throws IOException;
+
+  // Return the number of bytes preloaded
+  public long preloadData(WarmupBudget budget) throws IOException;
+}
@@ -15,6 +15,7 @@
  */
 package com.liveramp.hank.storage;
 
+import com.liveramp.hank.util.ByteBufferPool;
 import com.liveramp.hank.util.Bytes;
 
 import java.nio.ByteBuffer;
@@ -26,6 +27,8 @@ public class ReaderResult {
   private ByteBuffer buffer;
   private boolean l1CacheHit = false;
   private boolean l2CacheHit = false;
+  private boolean membershipFilterNegative = false;
+  private boolean membershipFilterFalsePositive = false;
 
   public ReaderResult() {
   }
@@ -38,6 +41,8 @@ public class ReaderResult {
     isFound = false;
     l1CacheHit = false;
     l2CacheHit = false;
+    membershipFilterNegative = false;
+    membershipFilterFalsePositive = false;
     if (buffer != null) {
       buffer.clear();
     }
@@ -55,12 +60,22 @@ public class ReaderResult {
     isFound = true;
   }
 
+  // The buffer is acquired from the shared pool, and may be larger than requested. When it needs to grow,
+  // its contents are not preserved and the previous buffer is given back to the pool.
   public void requiresBufferSize(int size) {
     if (buffer == null || buffer.capacity() < size) {
-      buffer = ByteBuffer.wrap(new byte[size]);
+      ByteBufferPool pool = ByteBufferPool.getShared();
+      pool.release(buffer);
+      buffer = pool.acquire(size);
     }
   }
 
+  // Give the buffer back to the shared pool. It must not be referenced anymore.
+  public void release() {
+    ByteBufferPool.getShared().release(buffer);
+    buffer = null;
+  }
+
   public ByteBuffer getBuffer() {
     return buffer;
   }
@@ -81,6 +96,24 @@ public class ReaderResult {
     this.l2CacheHit = l2CacheHit;
   }
 
+  // The key was found absent by a membership filter, without reading any data
+  public boolean getMembershipFilterNegative() {
+    return membershipFilterNegative;
+  }
+
+  public void setMembershipFilterNegative(boolean membershipFilterNegative) {
+    this.membershipFilterNegative = membershipFilterNegative;
+  }
+
+  // The key passed a membership filter but was not found
+  public boolean getMembershipFilterFalsePositive() {
+    return membershipFilterFalsePositive;
+  }
+
+  public void setMembershipFilterFalsePositive(boolean membershipFilterFalsePositive) {
+    this.membershipFilterFalsePositive = membershipFilterFalsePositive;
+  }
+
   public void deepCopyIntoResultBuffer(ByteBuffer value) {
     requiresBufferSize(value.remaining());
     buffer.clear();
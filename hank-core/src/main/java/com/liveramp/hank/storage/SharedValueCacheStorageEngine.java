@@ -0,0 +1,27 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+/**
+ * A StorageEngine whose Readers can share a single value cache across all partitions of the domain.
+ */
+public interface SharedValueCacheStorageEngine {
+
+  // Return the value cache shared by the Readers created by this storage engine instance,
+  // or null if no Reader is using one.
+  public OffHeapValueCache getSharedValueCache();
+}
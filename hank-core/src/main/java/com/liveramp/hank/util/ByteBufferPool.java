@@ -0,0 +1,111 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of heap buffers whose sizes are powers of two, shared by all threads. Buffers that are given back
+ * are kept until the pool holds maxNumBytes, so that memory used by many threads stays bounded and is reused,
+ * instead of every thread growing its own buffers to the largest size it ever needed. Buffers larger than
+ * the largest size class are allocated exactly and never pooled. A buffer that is not given back is simply
+ * garbage collected.
+ */
+public class ByteBufferPool {
+
+  private static final int MIN_SIZE_CLASS_BITS = 6;
+  private static final int MAX_SIZE_CLASS_BITS = 24;
+  public static final long DEFAULT_MAX_NUM_BYTES = 64L << 20;
+
+  private static final ByteBufferPool shared = new ByteBufferPool(DEFAULT_MAX_NUM_BYTES);
+
+  private final Queue<ByteBuffer>[] sizeClasses;
+  private final AtomicLong numBytes = new AtomicLong(0);
+  private volatile long maxNumBytes;
+
+  public static ByteBufferPool getShared() {
+    return shared;
+  }
+
+  @SuppressWarnings("unchecked")
+  public ByteBufferPool(long maxNumBytes) {
+    this.maxNumBytes = maxNumBytes;
+    sizeClasses = new Queue[MAX_SIZE_CLASS_BITS - MIN_SIZE_CLASS_BITS + 1];
+    for (int i = 0; i < sizeClasses.length; ++i) {
+      sizeClasses[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+  }
+
+  // Return a cleared buffer of at least the given capacity
+  public ByteBuffer acquire(int size) {
+    int sizeClassBits = getSizeClassBits(size);
+    if (sizeClassBits > MAX_SIZE_CLASS_BITS) {
+      return ByteBuffer.wrap(new byte[size]);
+    }
+    ByteBuffer buffer = sizeClasses[sizeClassBits - MIN_SIZE_CLASS_BITS].poll();
+    if (buffer == null) {
+      return ByteBuffer.wrap(new byte[1 << sizeClassBits]);
+    }
+    numBytes.addAndGet(-buffer.capacity());
+    buffer.clear();
+    return buffer;
+  }
+
+  // Give back a buffer, which must not be used anymore. Buffers that were not acquired from a pool are ignored.
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.hasArray() || buffer.arrayOffset() != 0) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    if (capacity != buffer.array().length || Integer.bitCount(capacity) != 1) {
+      return;
+    }
+    int sizeClassBits = Integer.numberOfTrailingZeros(capacity);
+    if (sizeClassBits < MIN_SIZE_CLASS_BITS || sizeClassBits > MAX_SIZE_CLASS_BITS) {
+      return;
+    }
+    if (numBytes.addAndGet(capacity) > maxNumBytes) {
+      numBytes.addAndGet(-capacity);
+      return;
+    }
+    sizeClasses[sizeClassBits - MIN_SIZE_CLASS_BITS].offer(buffer);
+  }
+
+  // Number of bytes held by pooled buffers
+  public long getNumBytes() {
+    return numBytes.get();
+  }
+
+  public long getMaxNumBytes() {
+    return maxNumBytes;
+  }
+
+  // Buffers given back beyond this limit are dropped. Lowering it does not evict pooled buffers.
+  public void setMaxNumBytes(long maxNumBytes) {
+    this.maxNumBytes = maxNumBytes;
+  }
+
+  private static int getSizeClassBits(int size) {
+    if (size <= (1 << MIN_SIZE_CLASS_BITS)) {
+      return MIN_SIZE_CLASS_BITS;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}
@@ -17,6 +17,7 @@ package com.liveramp.hank.util;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public final class Bytes {
   private static final String CHARSET = "utf-8";
@@ -24,11 +25,20 @@ public final class Bytes {
   private Bytes() {
   }
 
+  // Unsigned comparison, 8 bytes at a time
   public static int compareBytesUnsigned(byte[] a, int aOff, byte[] b, int bOff, int len) {
     if (len > a.length - aOff || len > b.length - bOff) {
       throw new RuntimeException("Not enough bytes left to compare!");
     }
-    for (int i = 0; i < len; i++) {
+    int i = 0;
+    for (; i <= len - 8; i += 8) {
+      final long aw = getLongBigEndian(a, aOff + i);
+      final long bw = getLongBigEndian(b, bOff + i);
+      if (aw != bw) {
+        return compareLongsUnsigned(aw, bw);
+      }
+    }
+    for (; i < len; i++) {
       // we want our comparison to be unsigned. if we just compare the bytes,
       // it will be a signed comparison. to drop the sign, we convert the byte
       // to an int, then mask off all the upper bits. if we don't do the
@@ -45,6 +55,64 @@ public final class Bytes {
     return 0;
   }
 
+  // Compare using absolute offsets in a. This works for direct and mapped buffers, and does
+  // not modify a's position.
+  public static int compareBytesUnsigned(ByteBuffer a, int aOff, byte[] b, int bOff, int len) {
+    if (len > a.limit() - aOff || len > b.length - bOff) {
+      throw new RuntimeException("Not enough bytes left to compare!");
+    }
+    final boolean bigEndian = a.order() == ByteOrder.BIG_ENDIAN;
+    int i = 0;
+    for (; i <= len - 8; i += 8) {
+      final long aw = bigEndian ? a.getLong(aOff + i) : Long.reverseBytes(a.getLong(aOff + i));
+      final long bw = getLongBigEndian(b, bOff + i);
+      if (aw != bw) {
+        return compareLongsUnsigned(aw, bw);
+      }
+    }
+    for (; i < len; i++) {
+      final int ab = a.get(aOff + i) & 0xff;
+      final int bb = b[bOff + i] & 0xff;
+      if (ab > bb) {
+        return 1;
+      } else if (ab < bb) {
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  // Read 8 bytes as a big endian long, so that comparing them as unsigned longs is the same as
+  // comparing them as unsigned bytes
+  public static long getLongBigEndian(byte[] bytes, int off) {
+    return ((long) bytes[off] << 56)
+        | ((bytes[off + 1] & 0xffL) << 48)
+        | ((bytes[off + 2] & 0xffL) << 40)
+        | ((bytes[off + 3] & 0xffL) << 32)
+        | ((bytes[off + 4] & 0xffL) << 24)
+        | ((bytes[off + 5] & 0xffL) << 16)
+        | ((bytes[off + 6] & 0xffL) << 8)
+        | (bytes[off + 7] & 0xffL);
+  }
+
+  public static long getLongLittleEndian(byte[] bytes, int off) {
+    return ((long) bytes[off + 7] << 56)
+        | ((bytes[off + 6] & 0xffL) << 48)
+        | ((bytes[off + 5] & 0xffL) << 40)
+        | ((bytes[off + 4] & 0xffL) << 32)
+        | ((bytes[off + 3] & 0xffL) << 24)
+        | ((bytes[off + 2] & 0xffL) << 16)
+        | ((bytes[off + 1] & 0xffL) << 8)
+        | (bytes[off] & 0xffL);
+  }
+
+  // Return -1, 0 or 1
+  public static int compareLongsUnsigned(long a, long b) {
+    a += Long.MIN_VALUE;
+    b += Long.MIN_VALUE;
+    return a < b ? -1 : (a == b ? 0 : 1);
+  }
+
   public static int compareBytesUnsigned(ByteBuffer a, ByteBuffer b) {
     if (a.remaining() != b.remaining()) {
       throw new RuntimeException("Cannot compare ByteBuffers that have a different number of remaining elements.");
@@ -16,42 +16,47 @@
 
 package com.liveramp.hank.util;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
 import org.apache.log4j.Logger;
 
+/**
+ * Aggregates timed events. Each thread records into its own population statistics so that
+ * recording never contends across threads. Per-thread statistics are swapped out and merged
+ * when population statistics are requested, and those of threads that have died are then dropped.
+ */
 public class HankTimerEventAggregator {
 
   private static Logger LOG = Logger.getLogger(HankTimerEventAggregator.class);
 
   private final String name;
-  private double[] durations;
-  private int count;
   private final int statsComputationWindow;
   private final boolean isActive;
-
-  private long statsComputationWindowStart;
-  private long statsComputationWindowEnd;
-  private long statsComputationWindowDuration;
-  private double minDuration;
-  private double maxDuration;
-  private double totalDuration;
-  private long totalUnderlyingCount;
-  private DoublePopulationStatisticsAggregator populationStatistics;
+  private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+  private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+    @Override
+    protected Recorder initialValue() {
+      Recorder result = new Recorder();
+      recorders.add(result);
+      return result;
+    }
+  };
   private DoublePopulationStatisticsAggregator previousPopulationStatistics;
 
   /**
    * @param name
-   * @param statsComputationWindow Number of timers to aggregate before computing and
+   * @param statsComputationWindow Number of timers to aggregate (per thread) before computing and
    *                               logging statistics. 0 means no timer aggregation.
    */
   public HankTimerEventAggregator(String name, int statsComputationWindow) {
     this.name = name;
     this.statsComputationWindow = statsComputationWindow;
     this.isActive = statsComputationWindow != 0;
-    this.populationStatistics = null;
     this.previousPopulationStatistics = new DoublePopulationStatisticsAggregator();
-    this.durations = new double[statsComputationWindow];
-    clear();
   }
 
   // Return a new HankTimer if active, null otherwise
@@ -67,101 +72,155 @@ public class HankTimerEventAggregator {
   }
 
   // Aggregate the given timer only if the aggregator is active
-  // Will not add synchronization overhead if not active.
+  // Will not add any overhead if not active.
   // underlyingCount is used when the timed event represent a number of underlying events
   public void add(HankTimer timer, int underlyingCount) {
     if (!isActive) {
       return;
     }
-    _add(timer.getStartTime(), timer.getDuration(), underlyingCount);
+    recorder.get().add(timer.getStartTime(), timer.getDuration(), underlyingCount);
   }
 
   public synchronized DoublePopulationStatisticsAggregator getAndResetPopulationStatistics() {
+    List<DoublePopulationStatisticsAggregator> populationStatistics =
+        new ArrayList<DoublePopulationStatisticsAggregator>(recorders.size());
+    List<Recorder> deadRecorders = new ArrayList<Recorder>();
+    for (Recorder recorder : recorders) {
+      // Checked before swapping, so that a dead thread's last statistics are collected
+      if (!recorder.isOwnerAlive()) {
+        deadRecorders.add(recorder);
+      }
+      populationStatistics.add(recorder.getAndResetPopulationStatistics());
+    }
+    if (!deadRecorders.isEmpty()) {
+      recorders.removeAll(deadRecorders);
+    }
+    DoublePopulationStatisticsAggregator result = DoublePopulationStatisticsAggregator.combine(populationStatistics);
     // If there are new statistics, return them and reset the current statistics
-    if (populationStatistics != null) {
-      previousPopulationStatistics = populationStatistics;
-      populationStatistics = null;
+    if (result.getNumValues() > 0) {
+      previousPopulationStatistics = result;
     }
     return previousPopulationStatistics;
   }
 
-  private synchronized void _add(long startTimeNanos, long durationNanos, int underlyingCount) {
-    ++count;
-    // Determine computation window start and end
-    if (startTimeNanos < statsComputationWindowStart) {
-      statsComputationWindowStart = startTimeNanos;
-    }
-    if ((startTimeNanos + durationNanos) > statsComputationWindowEnd) {
-      statsComputationWindowEnd = startTimeNanos + durationNanos;
+  int getNumRecorders() {
+    return recorders.size();
+  }
+
+  // Statistics recorded by a single thread. Only the owner thread records, other threads
+  // can concurrently swap out the population statistics.
+  private class Recorder {
+
+    // Recorders are created by their owner thread, and must not keep it from being collected
+    private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+    private volatile DoublePopulationStatisticsAggregator populationStatistics =
+        new DoublePopulationStatisticsAggregator();
+    // Odd while the owner thread is recording into the population statistics
+    private volatile long recordingEpoch = 0;
+
+    // Window statistics, only accessed by the owner thread
+    private int count;
+    private long statsComputationWindowStart;
+    private long statsComputationWindowEnd;
+    private double minDuration;
+    private double maxDuration;
+    private double totalDuration;
+    private long totalUnderlyingCount;
+
+    private Recorder() {
+      clear();
     }
-    // Compute statistics
-    double duration = durationNanos / 1000000d;
-    totalDuration += duration;
-    if (duration < minDuration) {
-      minDuration = duration;
+
+    private void add(long startTimeNanos, long durationNanos, int underlyingCount) {
+      double duration = durationNanos / 1000000d;
+      // Record population statistics
+      ++recordingEpoch;
+      populationStatistics.record(duration);
+      ++recordingEpoch;
+      // Compute window statistics
+      ++count;
+      if (startTimeNanos < statsComputationWindowStart) {
+        statsComputationWindowStart = startTimeNanos;
+      }
+      if ((startTimeNanos + durationNanos) > statsComputationWindowEnd) {
+        statsComputationWindowEnd = startTimeNanos + durationNanos;
+      }
+      totalDuration += duration;
+      if (duration < minDuration) {
+        minDuration = duration;
+      }
+      if (duration > maxDuration) {
+        maxDuration = duration;
+      }
+      totalUnderlyingCount += underlyingCount;
+      // Dump stats if needed
+      if (count == statsComputationWindow) {
+        logStats(Math.abs(statsComputationWindowEnd - statsComputationWindowStart));
+        clear();
+      }
     }
-    if (duration > maxDuration) {
-      maxDuration = duration;
+
+    // Swap out the population statistics and wait for a recording into them to complete, if any
+    private DoublePopulationStatisticsAggregator getAndResetPopulationStatistics() {
+      DoublePopulationStatisticsAggregator result = populationStatistics;
+      populationStatistics = new DoublePopulationStatisticsAggregator();
+      long epoch = recordingEpoch;
+      if ((epoch & 1) != 0) {
+        while (recordingEpoch == epoch) {
+          Thread.yield();
+        }
+      }
+      return result;
     }
-    durations[count - 1] = duration;
-    totalUnderlyingCount += underlyingCount;
-    // Dump stats if needed
-    if (count == statsComputationWindow) {
-      // Determine computation window duration
-      statsComputationWindowDuration = Math.abs(statsComputationWindowEnd - statsComputationWindowStart);
-      logStats();
-      clear();
+
+    private boolean isOwnerAlive() {
+      Thread thread = owner.get();
+      return thread != null && thread.isAlive();
     }
-  }
 
-  private void clear() {
-    // Durations doesn't need to be cleared
-    count = 0;
-    totalDuration = 0;
-    statsComputationWindowStart = Long.MAX_VALUE;
-    statsComputationWindowEnd = Long.MIN_VALUE;
-    minDuration = Double.MAX_VALUE;
-    maxDuration = Double.MIN_VALUE;
-    totalUnderlyingCount = 0;
-  }
+    private void clear() {
+      count = 0;
+      totalDuration = 0;
+      statsComputationWindowStart = Long.MAX_VALUE;
+      statsComputationWindowEnd = Long.MIN_VALUE;
+      minDuration = Double.MAX_VALUE;
+      maxDuration = Double.MIN_VALUE;
+      totalUnderlyingCount = 0;
+    }
 
-  private void logStats() {
-    // Build log string
-    StringBuilder logStr = new StringBuilder();
-    logStr.append("Statistics for Timer: ");
-    logStr.append(name);
-    logStr.append(", count: ");
-    logStr.append(count);
-    logStr.append(", underlying count: ");
-    logStr.append(totalUnderlyingCount);
-    logStr.append(", window duration: ");
-    logStr.append(statsComputationWindowDuration / 1000000d);
-    logStr.append("ms");
-    logStr.append(", min duration: ");
-    logStr.append(minDuration);
-    logStr.append("ms");
-    logStr.append(", avg duration: ");
-    logStr.append((totalDuration / (double) count));
-    logStr.append("ms");
-    if (totalUnderlyingCount != count) {
-      logStr.append(", underlying avg duration: ");
-      logStr.append((totalDuration / (double) totalUnderlyingCount));
+    private void logStats(long statsComputationWindowDuration) {
+      // Build log string
+      StringBuilder logStr = new StringBuilder();
+      logStr.append("Statistics for Timer: ");
+      logStr.append(name);
+      logStr.append(", count: ");
+      logStr.append(count);
+      logStr.append(", underlying count: ");
+      logStr.append(totalUnderlyingCount);
+      logStr.append(", window duration: ");
+      logStr.append(statsComputationWindowDuration / 1000000d);
       logStr.append("ms");
+      logStr.append(", min duration: ");
+      logStr.append(minDuration);
+      logStr.append("ms");
+      logStr.append(", avg duration: ");
+      logStr.append((totalDuration / (double) count));
+      logStr.append("ms");
+      if (totalUnderlyingCount != count) {
+        logStr.append(", underlying avg duration: ");
+        logStr.append((totalDuration / (double) totalUnderlyingCount));
+        logStr.append("ms");
+      }
+      logStr.append(", max duration: ");
+      logStr.append(maxDuration);
+      logStr.append("ms");
+      logStr.append(", QPS: ");
+      logStr.append(count / (statsComputationWindowDuration / 1000000000d));
+      if (totalUnderlyingCount != count) {
+        logStr.append(", Underlying QPS: ");
+        logStr.append(totalUnderlyingCount / (statsComputationWindowDuration / 1000000000d));
+      }
+      LOG.info(logStr.toString());
     }
-    logStr.append(", max duration: ");
-    logStr.append(maxDuration);
-    logStr.append("ms");
-    logStr.append(", QPS: ");
-    logStr.append(count / (statsComputationWindowDuration / 1000000000d));
-    if (totalUnderlyingCount != count) {
-      logStr.append(", Underlying QPS: ");
-      logStr.append(totalUnderlyingCount / (statsComputationWindowDuration / 1000000000d));
-    }
-    LOG.info(logStr.toString());
-    // Aggregate population statistics
-    if (populationStatistics == null) {
-      populationStatistics = new DoublePopulationStatisticsAggregator();
-    }
-    populationStatistics.aggregate(minDuration, maxDuration, count, totalDuration, durations);
   }
 }
@@ -0,0 +1,240 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+import java.util.Arrays;
+
+/**
+ * Log-bucketed histogram of non-negative values (typically durations in nanoseconds).
+ * Values smaller than 2^SUB_BUCKET_BITS are recorded exactly, larger values are
+ * recorded in buckets whose width is at most 1/128th of their lower bound, so that
+ * percentiles are accurate to within 1%. Minimum, maximum and mean are exact.
+ * Histograms can be merged without loss, which makes it possible to record into
+ * one histogram per thread and to combine them when reporting. Buckets are allocated
+ * lazily up to the largest value recorded, so that histograms of short durations stay small.
+ * This class is not thread safe.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+  private static final int MAX_VALUE_BITS = 40;
+
+  // Larger values are recorded as MAX_VALUE (about 18 minutes when recording nanoseconds)
+  public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+  static final int NUM_BUCKETS = SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+  private long[] counts;
+  private long totalCount;
+  private long minValue;
+  private long maxValue;
+  private double totalValue;
+
+  public LatencyHistogram() {
+    clear();
+  }
+
+  public void record(long value) {
+    record(value, 1);
+  }
+
+  public void record(long value, long count) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    int index = getBucketIndex(value);
+    if (index >= counts.length) {
+      grow(index + 1);
+    }
+    counts[index] += count;
+    totalCount += count;
+    totalValue += (double) value * count;
+    if (value < minValue) {
+      minValue = value;
+    }
+    if (value > maxValue) {
+      maxValue = value;
+    }
+  }
+
+  // Add all values recorded in the given histogram to this one
+  public void merge(LatencyHistogram other) {
+    if (other.totalCount == 0) {
+      return;
+    }
+    if (other.counts.length > counts.length) {
+      grow(other.counts.length);
+    }
+    for (int i = 0; i < other.counts.length; ++i) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    totalValue += other.totalValue;
+    if (other.minValue < minValue) {
+      minValue = other.minValue;
+    }
+    if (other.maxValue > maxValue) {
+      maxValue = other.maxValue;
+    }
+  }
+
+  public void clear() {
+    counts = new long[SUB_BUCKET_COUNT];
+    totalCount = 0;
+    totalValue = 0;
+    minValue = Long.MAX_VALUE;
+    maxValue = 0;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  public long getMinValue() {
+    return totalCount == 0 ? 0 : minValue;
+  }
+
+  public long getMaxValue() {
+    return maxValue;
+  }
+
+  public double getMean() {
+    return totalCount == 0 ? 0 : totalValue / totalCount;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the value below which the given percentile of recorded values fall, 0 if the histogram is empty
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+    if (rank >= totalCount) {
+      return maxValue;
+    }
+    long cumulativeCount = 0;
+    for (int i = 0; i < counts.length; ++i) {
+      cumulativeCount += counts[i];
+      if (cumulativeCount >= rank) {
+        long value = getBucketLowerBound(i) + (getBucketWidth(i) >> 1);
+        return Math.max(minValue, Math.min(maxValue, value));
+      }
+    }
+    return maxValue;
+  }
+
+  /**
+   * Encode non-empty buckets as comma separated "indexDelta:count" pairs, where indexDelta is
+   * the difference between the bucket's index and the previous non-empty bucket's index.
+   * Returns an empty string if the histogram is empty.
+   */
+  public String toBucketString() {
+    StringBuilder result = new StringBuilder();
+    int previousIndex = 0;
+    for (int i = 0; i < counts.length; ++i) {
+      if (counts[i] != 0) {
+        if (result.length() > 0) {
+          result.append(',');
+        }
+        result.append(i - previousIndex);
+        result.append(':');
+        result.append(counts[i]);
+        previousIndex = i;
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Decode buckets encoded by toBucketString(). Values are recorded at the middle of their bucket,
+   * hence minimum, maximum and mean of the decoded histogram are approximate.
+   */
+  public static LatencyHistogram parseBucketString(String str) {
+    LatencyHistogram result = new LatencyHistogram();
+    if (str.length() == 0) {
+      return result;
+    }
+    int index = 0;
+    for (String bucket : str.split(",")) {
+      int separator = bucket.indexOf(':');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Invalid histogram bucket: " + bucket);
+      }
+      index += Integer.parseInt(bucket.substring(0, separator));
+      if (index < 0 || index >= NUM_BUCKETS) {
+        throw new IllegalArgumentException("Invalid histogram bucket index: " + index);
+      }
+      long count = Long.parseLong(bucket.substring(separator + 1));
+      result.record(getBucketLowerBound(index) + (getBucketWidth(index) >> 1), count);
+    }
+    return result;
+  }
+
+  private void grow(int minNumBuckets) {
+    int numBuckets = counts.length;
+    while (numBuckets < minNumBuckets) {
+      numBuckets <<= 1;
+    }
+    counts = Arrays.copyOf(counts, Math.min(numBuckets, NUM_BUCKETS));
+  }
+
+  static int getBucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    int subBucketIndex = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucketIndex;
+  }
+
+  static long getBucketLowerBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    long subBucketIndex = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT;
+    return (SUB_BUCKET_HALF_COUNT + subBucketIndex) << shift;
+  }
+
+  static long getBucketWidth(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return 1;
+    }
+    return 1L << ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1);
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram [count=" + totalCount
+        + ", min=" + getMinValue()
+        + ", mean=" + getMean()
+        + ", p50=" + getValueAtPercentile(50)
+        + ", p99=" + getValueAtPercentile(99)
+        + ", p999=" + getValueAtPercentile(99.9)
+        + ", max=" + getMaxValue() + "]";
+  }
+}
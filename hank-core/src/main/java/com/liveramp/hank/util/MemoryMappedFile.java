@@ -0,0 +1,111 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a region of a file. Since a single mapping cannot
+ * exceed 2GB, the region is mapped as a sequence of fixed size segments.
+ * Reads that fall entirely within one segment can be served as a slice of the
+ * mapping, reads that straddle a segment boundary have to be copied.
+ * <p/>
+ * Note that the mappings are released when they are garbage collected, and not
+ * when the file is closed.
+ */
+public class MemoryMappedFile {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+  private final long length;
+  private final int segmentSize;
+  private final MappedByteBuffer[] segments;
+
+  public MemoryMappedFile(FileChannel channel, long length) throws IOException {
+    this(channel, length, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public MemoryMappedFile(FileChannel channel, long length, int segmentSize) throws IOException {
+    if (length < 0 || length > channel.size()) {
+      throw new IOException("Invalid length to map: " + length + ", file size is " + channel.size());
+    }
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+    }
+    this.length = length;
+    this.segmentSize = segmentSize;
+    int numSegments = (int) ((length + segmentSize - 1) / segmentSize);
+    segments = new MappedByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      long segmentOffset = (long) i * segmentSize;
+      long segmentLength = Math.min(segmentSize, length - segmentOffset);
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentOffset, segmentLength);
+    }
+  }
+
+  public long length() {
+    return length;
+  }
+
+  // Return a view of the given region of the file, or null if it spans more than one segment.
+  // The returned buffer's position is the start of the region and its limit the end of the region.
+  public ByteBuffer slice(long offset, int numBytes) {
+    checkBounds(offset, numBytes);
+    int segmentIndex = (int) (offset / segmentSize);
+    int offsetInSegment = (int) (offset % segmentSize);
+    ByteBuffer segment = segments[segmentIndex];
+    if (offsetInSegment + numBytes > segment.capacity()) {
+      return null;
+    }
+    // Note: duplicate so that concurrent readers do not share position and limit
+    ByteBuffer result = segment.duplicate();
+    result.limit(offsetInSegment + numBytes);
+    result.position(offsetInSegment);
+    return result;
+  }
+
+  // Copy the given region of the file into dst, across segment boundaries if necessary
+  public void read(long offset, byte[] dst, int dstOffset, int numBytes) {
+    checkBounds(offset, numBytes);
+    while (numBytes > 0) {
+      int segmentIndex = (int) (offset / segmentSize);
+      int offsetInSegment = (int) (offset % segmentSize);
+      ByteBuffer segment = segments[segmentIndex].duplicate();
+      int numBytesInSegment = Math.min(numBytes, segment.capacity() - offsetInSegment);
+      segment.position(offsetInSegment);
+      segment.get(dst, dstOffset, numBytesInSegment);
+      offset += numBytesInSegment;
+      dstOffset += numBytesInSegment;
+      numBytes -= numBytesInSegment;
+    }
+  }
+
+  public byte get(long offset) {
+    checkBounds(offset, 1);
+    return segments[(int) (offset / segmentSize)].get((int) (offset % segmentSize));
+  }
+
+  private void checkBounds(long offset, int numBytes) {
+    if (offset < 0 || numBytes < 0 || offset + numBytes > length) {
+      throw new IndexOutOfBoundsException("Cannot access " + numBytes + " bytes at offset " + offset
+          + " of a mapping of " + length + " bytes");
+    }
+  }
+}
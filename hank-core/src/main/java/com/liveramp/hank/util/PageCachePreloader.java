@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Brings file regions into the operating system's page cache. Since fadvise and madvise are not
+ * available to Java code, regions are read sequentially, which also triggers the kernel's
+ * read-ahead. Mapped regions are preloaded by touching one byte per page.
+ */
+public final class PageCachePreloader {
+
+  private static final int READ_BUFFER_SIZE = 1 << 20;
+  private static final int PAGE_SIZE = 4096;
+
+  // Written to so that page touches cannot be optimized away
+  private static volatile byte touchedBytesSink;
+
+  // Reused by successive preloads on the same thread, since direct buffers are costly to allocate
+  private static final ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    }
+  };
+
+  private PageCachePreloader() {
+  }
+
+  // Return the number of bytes preloaded
+  public static long preload(FileChannel channel, long offset, long length, WarmupBudget budget) throws IOException {
+    ByteBuffer buffer = readBuffer.get();
+    long end = Math.min(offset + length, channel.size());
+    long position = offset;
+    while (position < end) {
+      int numBytesToRead = (int) budget.acquire(Math.min(READ_BUFFER_SIZE, end - position));
+      if (numBytesToRead == 0) {
+        break;
+      }
+      buffer.clear();
+      buffer.limit(numBytesToRead);
+      int numBytesRead = channel.read(buffer, position);
+      if (numBytesRead < numBytesToRead) {
+        // Give back the bytes that were not read
+        budget.release(numBytesToRead - Math.max(numBytesRead, 0));
+      }
+      if (numBytesRead <= 0) {
+        break;
+      }
+      position += numBytesRead;
+    }
+    return position - offset;
+  }
+
+  // Return the number of bytes preloaded
+  public static long preload(MemoryMappedFile file, long offset, long length, WarmupBudget budget) {
+    long end = Math.min(offset + length, file.length());
+    long position = offset;
+    byte touchedBytes = 0;
+    while (position < end) {
+      long chunkEnd = position + budget.acquire(Math.min(READ_BUFFER_SIZE, end - position));
+      if (chunkEnd == position) {
+        break;
+      }
+      for (long page = position; page < chunkEnd; page += PAGE_SIZE) {
+        touchedBytes ^= file.get(page);
+      }
+      position = chunkEnd;
+    }
+    touchedBytesSink = touchedBytes;
+    return position - offset;
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream that writes into buffers acquired from a ByteBufferPool, and gives them back when it is
+ * released or when it needs to grow.
+ */
+public class PooledByteArrayOutputStream extends OutputStream {
+
+  private static final int MIN_BUFFER_SIZE = 4 << 10;
+
+  private final ByteBufferPool pool;
+  // Null until something is written, and after the stream is released
+  private ByteBuffer buffer;
+
+  public PooledByteArrayOutputStream(ByteBufferPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public void write(int b) {
+    requiresRemaining(1);
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    requiresRemaining(len);
+    buffer.put(b, off, len);
+  }
+
+  // Return the underlying buffer with at least length bytes remaining, so that they can be written
+  // directly into its array from its position. The caller then advances its position past them.
+  public ByteBuffer reserve(int length) {
+    requiresRemaining(length);
+    return buffer;
+  }
+
+  // Return a buffer wrapping the bytes written so far. It is valid until the stream is released.
+  public ByteBuffer getByteBuffer() {
+    if (buffer == null) {
+      return ByteBuffer.wrap(new byte[0]);
+    }
+    return ByteBuffer.wrap(buffer.array(), 0, buffer.position());
+  }
+
+  public int count() {
+    return buffer == null ? 0 : buffer.position();
+  }
+
+  // Discard the bytes written so far and give the buffer back to the pool
+  public void release() {
+    pool.release(buffer);
+    buffer = null;
+  }
+
+  private void requiresRemaining(int length) {
+    if (buffer == null) {
+      buffer = pool.acquire(Math.max(length, MIN_BUFFER_SIZE));
+    } else if (buffer.remaining() < length) {
+      ByteBuffer grownBuffer = pool.acquire(Math.max(buffer.position() + length, 2 * buffer.capacity()));
+      buffer.flip();
+      grownBuffer.put(buffer);
+      pool.release(buffer);
+      buffer = grownBuffer;
+    }
+  }
+}
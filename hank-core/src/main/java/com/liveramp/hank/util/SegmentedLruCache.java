@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+/**
+ * LRU cache that is split into a number of independently locked segments. Keys
+ * are assigned to segments by hash code and each segment evicts its own least
+ * recently used entries. Threads accessing keys in different segments do not
+ * contend with each other, at the cost of eviction being only approximately LRU
+ * across the whole cache.
+ */
+public class SegmentedLruCache<K, V> implements Cache<K, V> {
+
+  private final LruHashMap<K, V>[] segments;
+
+  // A disabled cache will not add any synchronization overhead
+  @SuppressWarnings("unchecked")
+  public SegmentedLruCache(boolean isEnabled, int cacheCapacity, int numSegments) {
+    if (isEnabled) {
+      if (numSegments <= 0) {
+        throw new IllegalArgumentException("Invalid number of segments: " + numSegments);
+      }
+      // Do not use more segments than there are entries
+      if (cacheCapacity > 0 && cacheCapacity < numSegments) {
+        numSegments = cacheCapacity;
+      }
+      int segmentCapacity = cacheCapacity < 0 ? -1 : (cacheCapacity + numSegments - 1) / numSegments;
+      segments = new LruHashMap[numSegments];
+      for (int i = 0; i < numSegments; ++i) {
+        segments[i] = new LruHashMap<K, V>(0, segmentCapacity);
+      }
+    } else {
+      segments = null;
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return segments != null;
+  }
+
+  @Override
+  public V get(K key) {
+    if (!isEnabled()) {
+      return null;
+    } else {
+      LruHashMap<K, V> segment = getSegment(key);
+      synchronized (segment) {
+        return segment.get(key);
+      }
+    }
+  }
+
+  @Override
+  public void put(K key, V value) {
+    if (isEnabled()) {
+      if (value == null) {
+        throw new IllegalArgumentException("Value to put in cache should not be null.");
+      }
+      LruHashMap<K, V> segment = getSegment(key);
+      synchronized (segment) {
+        segment.put(key, value);
+      }
+    }
+  }
+
+  public int size() {
+    int result = 0;
+    if (isEnabled()) {
+      for (LruHashMap<K, V> segment : segments) {
+        synchronized (segment) {
+          result += segment.size();
+        }
+      }
+    }
+    return result;
+  }
+
+  private LruHashMap<K, V> getSegment(K key) {
+    int hash = key.hashCode();
+    // Spread the high bits, since the low bits of some hash codes are poorly distributed
+    hash ^= (hash >>> 16);
+    return segments[(hash & Integer.MAX_VALUE) % segments.length];
+  }
+}
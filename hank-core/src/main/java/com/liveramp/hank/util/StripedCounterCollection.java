@@ -0,0 +1,114 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collection of long counters that can be incremented concurrently without contention.
+ * Each counter is striped over a number of cells, and threads increment the cells of
+ * the stripe selected by their id. Cells of different stripes are on different cache lines.
+ * Reading a counter sums its cells. Increments do not allocate.
+ */
+public class StripedCounterCollection {
+
+  // Number of longs in a cache line
+  private static final int CACHE_LINE_NUM_LONGS = 8;
+  private static final int MAX_NUM_STRIPES = 64;
+
+  private final int numCounters;
+  private final int stripeStride;
+  private final int stripeMask;
+  private final AtomicLongArray cells;
+
+  public StripedCounterCollection(int numCounters) {
+    this(numCounters, getDefaultNumStripes());
+  }
+
+  // numStripes is rounded up to a power of two
+  public StripedCounterCollection(int numCounters, int numStripes) {
+    if (numCounters < 1) {
+      throw new IllegalArgumentException("Number of counters must be positive: " + numCounters);
+    }
+    int actualNumStripes = 1;
+    while (actualNumStripes < numStripes) {
+      actualNumStripes <<= 1;
+    }
+    this.numCounters = numCounters;
+    this.stripeStride = ((numCounters + CACHE_LINE_NUM_LONGS - 1) / CACHE_LINE_NUM_LONGS) * CACHE_LINE_NUM_LONGS;
+    this.stripeMask = actualNumStripes - 1;
+    this.cells = new AtomicLongArray(actualNumStripes * stripeStride);
+  }
+
+  public int size() {
+    return numCounters;
+  }
+
+  public void increment(int index) {
+    add(index, 1);
+  }
+
+  public void add(int index, long delta) {
+    if (index < 0 || index >= numCounters) {
+      throw new IndexOutOfBoundsException("Invalid counter index: " + index);
+    }
+    if (delta != 0) {
+      cells.getAndAdd(getStripeOffset() + index, delta);
+    }
+  }
+
+  public long get(int index) {
+    if (index < 0 || index >= numCounters) {
+      throw new IndexOutOfBoundsException("Invalid counter index: " + index);
+    }
+    long result = 0;
+    for (int offset = index; offset < cells.length(); offset += stripeStride) {
+      result += cells.get(offset);
+    }
+    return result;
+  }
+
+  public long[] getAsArray() {
+    long[] result = new long[numCounters];
+    for (int i = 0; i < numCounters; ++i) {
+      result[i] = get(i);
+    }
+    return result;
+  }
+
+  // Return all counters and reset them to zero. Counters are not read atomically
+  // with respect to each other, but no concurrent increment is lost: it is either
+  // included in the result or kept in the counters.
+  public long[] getAsArrayAndReset() {
+    long[] result = new long[numCounters];
+    for (int i = 0; i < numCounters; ++i) {
+      for (int offset = i; offset < cells.length(); offset += stripeStride) {
+        result[i] += cells.getAndSet(offset, 0);
+      }
+    }
+    return result;
+  }
+
+  private int getStripeOffset() {
+    return ((int) Thread.currentThread().getId() & stripeMask) * stripeStride;
+  }
+
+  private static int getDefaultNumStripes() {
+    return Math.min(MAX_NUM_STRIPES, 2 * Runtime.getRuntime().availableProcessors());
+  }
+}
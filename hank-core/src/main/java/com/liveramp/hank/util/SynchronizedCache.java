@@ -16,7 +16,7 @@
 
 package com.liveramp.hank.util;
 
-public class SynchronizedCache<K, V> {
+public class SynchronizedCache<K, V> implements Cache<K, V> {
 
   private final LruHashMap<K, V> cache;
 
@@ -29,10 +29,12 @@ public class SynchronizedCache<K, V> {
     }
   }
 
+  @Override
   public boolean isEnabled() {
     return cache != null;
   }
 
+  @Override
   public V get(K key) {
     if (!isEnabled()) {
       return null;
@@ -49,6 +51,7 @@ public class SynchronizedCache<K, V> {
     }
   }
 
+  @Override
   public void put(K key, V value) {
     if (isEnabled()) {
       if (value == null) {
@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the time and the amount of data read when warming up. A budget is shared by all
+ * warm-up tasks of a server and is safe to use concurrently.
+ */
+public class WarmupBudget {
+
+  private final long deadlineMs;
+  private final AtomicLong remainingNumBytes;
+
+  public WarmupBudget(long maxDurationMs, long maxNumBytes) {
+    this.deadlineMs = System.currentTimeMillis() + maxDurationMs;
+    this.remainingNumBytes = new AtomicLong(maxNumBytes);
+  }
+
+  public boolean isExpired() {
+    return System.currentTimeMillis() >= deadlineMs;
+  }
+
+  public boolean isExhausted() {
+    return isExpired() || remainingNumBytes.get() <= 0;
+  }
+
+  // Reserve up to numBytes from the budget. Return the number of bytes that may be read, zero when
+  // the budget is exhausted.
+  public long acquire(long numBytes) {
+    if (isExpired()) {
+      return 0;
+    }
+    while (true) {
+      long remaining = remainingNumBytes.get();
+      if (remaining <= 0) {
+        return 0;
+      }
+      long acquired = Math.min(remaining, numBytes);
+      if (remainingNumBytes.compareAndSet(remaining, remaining - acquired)) {
+        return acquired;
+      }
+    }
+  }
+
+  // Give back bytes that were acquired but not read
+  public void release(long numBytes) {
+    remainingNumBytes.addAndGet(numBytes);
+  }
+
+  public long getRemainingNumBytes() {
+    return Math.max(0, remainingNumBytes.get());
+  }
+}
@@ -18,6 +18,9 @@ union HankException {
 
   /** There was some internal error in the server. This is pretty bad. */
   6: string internal_error;
+
+  /** The partition server is overloaded and rejected the request */
+  7: bool overloaded;
 }
 
 union HankResponse {
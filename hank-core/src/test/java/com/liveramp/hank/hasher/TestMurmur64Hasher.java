@@ -70,4 +70,16 @@ public class TestMurmur64Hasher extends TestCase {
     hsh.hash(buffer, 8, hash64);
     assertTrue(Arrays.equals(new byte[]{0x08, 0x51, 0x77, 0x72, 0x42, 0x6e, 0x7f, (byte) 0xa6}, hash64));
   }
+
+  public void testMultipleWords() {
+    // Keys longer than 8 bytes are read a word at a time, the hash must not change
+    byte[] key = new byte[20];
+    for (int i = 0; i < key.length; ++i) {
+      key[i] = (byte) (i * 13 + 1);
+    }
+    byte[] hash80 = new byte[10];
+    hsh.hash(ByteBuffer.wrap(key), 10, hash80);
+    assertTrue(Arrays.equals(new byte[]{(byte) 0xad, (byte) 0xa6, 0x38, (byte) 0x91, 0x6c, (byte) 0x99, 0x5a,
+        (byte) 0xda, (byte) 0xb0, (byte) 0x87}, hash80));
+  }
 }
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partitioner;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestPartitioners extends BaseTestCase {
+
+  @Test
+  public void testHashOnce() {
+    Random random = new Random(0);
+    Partitioner[] partitioners = new Partitioner[]{new Murmur64Partitioner(), new HashCodePartitioner(), new ConstantPartitioner()};
+    for (Partitioner partitioner : partitioners) {
+      for (int i = 0; i < 1000; ++i) {
+        byte[] bytes = new byte[1 + random.nextInt(20)];
+        random.nextBytes(bytes);
+        ByteBuffer key = ByteBuffer.wrap(bytes);
+        long hash = Partitioners.hash(partitioner, key);
+        for (int numPartitions : new int[]{1, 7, 1024, Integer.MAX_VALUE}) {
+          assertEquals(partitioner.partition(key, numPartitions),
+              Partitioners.partition(partitioner, key, hash, numPartitions));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapValueCache extends BaseTestCase {
+
+  @Test
+  public void testGetPut() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 16, 4);
+    int namespace1 = cache.newNamespace();
+    int namespace2 = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+
+    assertFalse(cache.get(namespace1, key(1), result));
+
+    cache.put(namespace1, key(1), value(1, 10));
+    assertTrue(cache.get(namespace1, key(1), result));
+    assertTrue(result.isFound());
+    assertEquals(value(1, 10), result.getBuffer());
+
+    // Namespaces are independent
+    assertFalse(cache.get(namespace2, key(1), result));
+
+    // Not found marker
+    cache.putNotFound(namespace2, key(1));
+    assertTrue(cache.get(namespace2, key(1), result));
+    assertFalse(result.isFound());
+
+    // Replace a value
+    cache.put(namespace1, key(1), value(2, 20));
+    assertTrue(cache.get(namespace1, key(1), result));
+    assertTrue(result.isFound());
+    assertEquals(value(2, 20), result.getBuffer());
+
+    assertEquals(2, cache.getNumItems());
+    assertEquals(2 * 16 + 2 * 4 + 20, cache.getNumManagedBytes());
+    assertEquals(1 << 16, cache.getNumBytesCapacity());
+  }
+
+  @Test
+  public void testEviction() {
+    // Single segment that can hold 10 entries of 100 bytes
+    OffHeapValueCache cache = new OffHeapValueCache(1000, 1);
+    int namespace = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+
+    for (int i = 0; i < 100; ++i) {
+      cache.put(namespace, key(i), value(i, 100 - 16 - 4));
+      assertTrue(cache.getNumManagedBytes() <= cache.getNumBytesCapacity());
+    }
+    assertEquals(10, cache.getNumItems());
+    assertEquals(90, cache.getNumEvictions());
+
+    // Oldest entries were evicted first
+    for (int i = 0; i < 90; ++i) {
+      assertFalse(cache.get(namespace, key(i), result));
+    }
+    for (int i = 90; i < 100; ++i) {
+      assertTrue(cache.get(namespace, key(i), result));
+      assertEquals(value(i, 100 - 16 - 4), result.getBuffer());
+    }
+
+    // Entries larger than the cache are ignored
+    cache.put(namespace, key(1000), value(0, 1000));
+    assertFalse(cache.get(namespace, key(1000), result));
+    assertTrue(cache.get(namespace, key(99), result));
+  }
+
+  @Test
+  public void testManyEntries() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 20, 2);
+    int namespace = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+
+    // Entries of variable size, forcing the index to grow and the log to wrap around
+    for (int i = 0; i < 100000; ++i) {
+      cache.put(namespace, key(i), value(i, i % 50));
+    }
+    long numItems = cache.getNumItems();
+    int numHits = 0;
+    for (int i = 0; i < 100000; ++i) {
+      if (cache.get(namespace, key(i), result)) {
+        assertEquals(value(i, i % 50), result.getBuffer());
+        ++numHits;
+      }
+    }
+    assertEquals(numItems, numHits);
+    // Most recent entries are cached
+    assertTrue(cache.get(namespace, key(99999), result));
+  }
+
+  private static ByteBuffer key(int i) {
+    return ByteBuffer.wrap(new byte[]{(byte)(i >>> 24), (byte)(i >>> 16), (byte)(i >>> 8), (byte)i});
+  }
+
+  private static ByteBuffer value(int i, int size) {
+    byte[] value = new byte[size];
+    for (int j = 0; j < size; ++j) {
+      value[j] = (byte)(i + j);
+    }
+    return ByteBuffer.wrap(value);
+  }
+}
@@ -16,6 +16,6 @@ public class TestEchoReader extends BaseTestCase {
     ReaderResult result = new ReaderResult();
     r.get(ByteBuffer.wrap(new byte[]{1, 2, 3}), result);
     assertTrue(result.isFound());
-    assertEquals("Original value: 01 02 03 Assigned to partition number: 57", new String(result.getBuffer().array()));
+    assertEquals("Original value: 01 02 03 Assigned to partition number: 57", new String(result.getBuffer().array(), 0, result.getBuffer().limit()));
   }
 }
@@ -0,0 +1,97 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.nio.ByteBuffer;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestByteBufferPool extends BaseTestCase {
+
+  @Test
+  public void testSizeClasses() throws Exception {
+    ByteBufferPool pool = new ByteBufferPool(1 << 20);
+    assertEquals(64, pool.acquire(0).capacity());
+    assertEquals(64, pool.acquire(64).capacity());
+    assertEquals(128, pool.acquire(65).capacity());
+    assertEquals(4096, pool.acquire(3000).capacity());
+    // Buffers larger than the largest size class are allocated exactly
+    assertEquals((32 << 20) + 1, pool.acquire((32 << 20) + 1).capacity());
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    ByteBufferPool pool = new ByteBufferPool(1 << 20);
+    ByteBuffer buffer = pool.acquire(1000);
+    buffer.put((byte) 1);
+    pool.release(buffer);
+    assertEquals(1024, pool.getNumBytes());
+
+    // A buffer of the same size class is reused, cleared
+    ByteBuffer reused = pool.acquire(600);
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(1024, reused.limit());
+    assertEquals(0, pool.getNumBytes());
+    // Other size classes are not
+    pool.release(reused);
+    assertNotSame(buffer, pool.acquire(100));
+  }
+
+  @Test
+  public void testBounds() throws Exception {
+    ByteBufferPool pool = new ByteBufferPool(2048);
+    ByteBuffer[] buffers = new ByteBuffer[]{pool.acquire(1024), pool.acquire(1024), pool.acquire(1024)};
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+    assertEquals(2048, pool.getNumBytes());
+
+    // Buffers that were not acquired from a pool are ignored
+    pool.setMaxNumBytes(1 << 20);
+    pool.release(ByteBuffer.wrap(new byte[1000]));
+    pool.release(ByteBuffer.wrap(new byte[2048], 1024, 1024).slice());
+    pool.release(ByteBuffer.allocateDirect(1024));
+    assertEquals(2048, pool.getNumBytes());
+  }
+
+  @Test
+  public void testOutputStream() throws Exception {
+    ByteBufferPool pool = new ByteBufferPool(1 << 20);
+    PooledByteArrayOutputStream outputStream = new PooledByteArrayOutputStream(pool);
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+    outputStream.write(data, 0, 3000);
+    outputStream.write(data[3000]);
+    // Growing gives the smaller buffer back
+    outputStream.write(data, 3001, data.length - 3001);
+    assertEquals(4096, pool.getNumBytes());
+    assertEquals(data.length, outputStream.count());
+    assertEquals(ByteBuffer.wrap(data), outputStream.getByteBuffer());
+
+    outputStream.release();
+    assertEquals(4096 + 16384, pool.getNumBytes());
+    assertEquals(0, outputStream.getByteBuffer().remaining());
+  }
+}
@@ -38,6 +38,18 @@ public class TestBytes extends TestCase {
     assertEquals(1, Bytes.compareBytesUnsigned(E, 0, A, 0, 3));
   }
 
+  public void testCompareBytesWordAtATime() throws Exception {
+    byte[] a = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    byte[] b = {1, 2, 3, 4, 5, 6, 7, (byte) 0x88, 9, 10, 11};
+    byte[] c = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12};
+    assertEquals(-1, Bytes.compareBytesUnsigned(a, 0, b, 0, 11));
+    assertEquals(1, Bytes.compareBytesUnsigned(b, 0, a, 0, 11));
+    assertEquals(-1, Bytes.compareBytesUnsigned(a, 0, c, 0, 11));
+    assertEquals(0, Bytes.compareBytesUnsigned(a, 0, c, 0, 10));
+    assertEquals(1, Bytes.compareBytesUnsigned(ByteBuffer.wrap(c), 0, a, 0, 11));
+    assertEquals(1, Bytes.compareBytesUnsigned(ByteBuffer.allocateDirect(11).put(b), 0, a, 0, 11));
+  }
+
   public void testException() {
     try {
       Bytes.compareBytesUnsigned(A, 1, B, 0, 3);
@@ -0,0 +1,109 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestHankTimerEventAggregator extends BaseTestCase {
+
+  private static final int NUM_THREADS = 4;
+  private static final int NUM_TIMERS_PER_THREAD = 20000;
+
+  @Test
+  public void testInactive() {
+    HankTimerEventAggregator aggregator = new HankTimerEventAggregator("test", 0);
+    assertNull(aggregator.getTimer());
+    aggregator.add(null);
+    assertEquals(0, aggregator.getAndResetPopulationStatistics().getNumValues());
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final HankTimerEventAggregator aggregator = new HankTimerEventAggregator("test", 1000);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    Thread[] threads = new Thread[NUM_THREADS];
+    for (int i = 0; i < NUM_THREADS; ++i) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < NUM_TIMERS_PER_THREAD; ++j) {
+              aggregator.add(aggregator.getTimer(), 2);
+            }
+          } catch (RuntimeException e) {
+            failed.set(true);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    // Collect statistics while threads are recording, no timer should be lost
+    long numValues = 0;
+    DoublePopulationStatisticsAggregator previousStatistics = null;
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      DoublePopulationStatisticsAggregator statistics = aggregator.getAndResetPopulationStatistics();
+      // Previous statistics are returned again when nothing new was recorded
+      if (statistics != previousStatistics) {
+        numValues += statistics.getNumValues();
+      }
+      previousStatistics = statistics;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(false, failed.get());
+    assertEquals(NUM_THREADS * NUM_TIMERS_PER_THREAD, numValues);
+    DoublePopulationStatisticsAggregator statistics = aggregator.getAndResetPopulationStatistics();
+    assertSame(statistics, aggregator.getAndResetPopulationStatistics());
+  }
+
+  @Test
+  public void testRecordersOfDeadThreadsAreDropped() throws Exception {
+    final HankTimerEventAggregator aggregator = new HankTimerEventAggregator("test", 1000);
+    aggregator.add(aggregator.getTimer());
+    for (int i = 0; i < NUM_THREADS; ++i) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          aggregator.add(aggregator.getTimer());
+        }
+      });
+      thread.start();
+      thread.join();
+    }
+    assertEquals(NUM_THREADS + 1, aggregator.getNumRecorders());
+    // Statistics of dead threads are still collected once
+    assertEquals(NUM_THREADS + 1, aggregator.getAndResetPopulationStatistics().getNumValues());
+    assertEquals(1, aggregator.getNumRecorders());
+    aggregator.add(aggregator.getTimer());
+    assertEquals(1, aggregator.getAndResetPopulationStatistics().getNumValues());
+  }
+}
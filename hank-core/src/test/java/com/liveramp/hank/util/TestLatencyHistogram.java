@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram extends BaseTestCase {
+
+  @Test
+  public void testBuckets() {
+    // Buckets are contiguous and cover all values up to MAX_VALUE
+    long expectedLowerBound = 0;
+    for (int i = 0; i < LatencyHistogram.NUM_BUCKETS; ++i) {
+      assertEquals(expectedLowerBound, LatencyHistogram.getBucketLowerBound(i));
+      assertEquals(i, LatencyHistogram.getBucketIndex(expectedLowerBound));
+      long upperBound = expectedLowerBound + LatencyHistogram.getBucketWidth(i) - 1;
+      assertEquals(i, LatencyHistogram.getBucketIndex(upperBound));
+      // Relative precision
+      assertTrue(LatencyHistogram.getBucketWidth(i) == 1
+          || LatencyHistogram.getBucketWidth(i) * 128 <= expectedLowerBound);
+      expectedLowerBound = upperBound + 1;
+    }
+    assertEquals(LatencyHistogram.MAX_VALUE + 1, expectedLowerBound);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    for (int i = 1; i <= 100000; ++i) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(100000, histogram.getTotalCount());
+    assertEquals(1000, histogram.getMinValue());
+    assertEquals(100000000, histogram.getMaxValue());
+    assertEquals(50000500.0, histogram.getMean(), 0.1);
+    assertWithinOnePercent(50000000, histogram.getValueAtPercentile(50));
+    assertWithinOnePercent(99000000, histogram.getValueAtPercentile(99));
+    assertWithinOnePercent(99900000, histogram.getValueAtPercentile(99.9));
+    assertEquals(100000000, histogram.getValueAtPercentile(100));
+    assertWithinOnePercent(1000, histogram.getValueAtPercentile(0));
+
+    // Out of range values are clamped
+    histogram.clear();
+    histogram.record(-1);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(0, histogram.getMinValue());
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMaxValue());
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = new Random(0);
+    LatencyHistogram merged = new LatencyHistogram();
+    LatencyHistogram all = new LatencyHistogram();
+    for (int i = 0; i < 4; ++i) {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (int j = 0; j < 10000; ++j) {
+        long value = (long) (Math.abs(random.nextGaussian()) * 1000000 * (i + 1));
+        histogram.record(value);
+        all.record(value);
+      }
+      merged.merge(histogram);
+    }
+    assertEquals(all.getTotalCount(), merged.getTotalCount());
+    assertEquals(all.getMinValue(), merged.getMinValue());
+    assertEquals(all.getMaxValue(), merged.getMaxValue());
+    assertEquals(all.getMean(), merged.getMean(), 0.001);
+    for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+      assertEquals(all.getValueAtPercentile(percentile), merged.getValueAtPercentile(percentile));
+    }
+  }
+
+  @Test
+  public void testBucketString() {
+    assertEquals("", new LatencyHistogram().toBucketString());
+    assertEquals(0, LatencyHistogram.parseBucketString("").getTotalCount());
+
+    Random random = new Random(0);
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 10000; ++i) {
+      histogram.record((long) (Math.abs(random.nextGaussian()) * 1000000));
+    }
+    histogram.record(3, 2);
+    String str = histogram.toBucketString();
+    LatencyHistogram parsed = LatencyHistogram.parseBucketString(str);
+    assertEquals(str, parsed.toBucketString());
+    assertEquals(histogram.getTotalCount(), parsed.getTotalCount());
+    assertEquals(3, parsed.getMinValue());
+    for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+      assertWithinOnePercent(histogram.getValueAtPercentile(percentile), parsed.getValueAtPercentile(percentile));
+    }
+  }
+
+  private static void assertWithinOnePercent(long expected, long actual) {
+    assertTrue("Expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 100);
+  }
+}
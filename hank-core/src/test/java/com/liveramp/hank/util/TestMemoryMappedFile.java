@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestMemoryMappedFile extends BaseTestCase {
+
+  @Test
+  public void testSegments() throws Exception {
+    String path = localTmpDir + "/file";
+    byte[] data = new byte[100];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+    FileOutputStream os = new FileOutputStream(path);
+    os.write(data);
+    os.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    // Only map the first 90 bytes, in segments of 16 bytes
+    MemoryMappedFile file = new MemoryMappedFile(channel, 90, 16);
+    assertEquals(90, file.length());
+
+    // Within a segment
+    ByteBuffer slice = file.slice(17, 4);
+    assertEquals(4, slice.remaining());
+    assertEquals(ByteBuffer.wrap(new byte[]{17, 18, 19, 20}), slice);
+
+    // Across segments
+    assertNull(file.slice(30, 4));
+    byte[] dst = new byte[40];
+    file.read(30, dst, 2, 38);
+    for (int i = 0; i < 38; ++i) {
+      assertEquals((byte) (30 + i), dst[2 + i]);
+    }
+
+    assertEquals((byte) 89, file.get(89));
+
+    // Out of bounds
+    boolean failed = false;
+    try {
+      file.get(90);
+    } catch (IndexOutOfBoundsException e) {
+      failed = true;
+    }
+    assertTrue(failed);
+
+    channel.close();
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestPageCachePreloader extends BaseTestCase {
+
+  @Test
+  public void testBudget() throws Exception {
+    WarmupBudget budget = new WarmupBudget(60000, 10);
+    assertFalse(budget.isExhausted());
+    assertEquals(4, budget.acquire(4));
+    assertEquals(6, budget.acquire(8));
+    assertEquals(0, budget.acquire(1));
+    assertTrue(budget.isExhausted());
+    budget.release(3);
+    assertFalse(budget.isExhausted());
+    assertEquals(3, budget.acquire(8));
+
+    WarmupBudget expiredBudget = new WarmupBudget(0, 10);
+    assertTrue(expiredBudget.isExpired());
+    assertEquals(0, expiredBudget.acquire(1));
+  }
+
+  @Test
+  public void testPreload() throws Exception {
+    String path = localTmpDir + "/file";
+    FileOutputStream os = new FileOutputStream(path);
+    os.write(new byte[3 << 20]);
+    os.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    MemoryMappedFile file = new MemoryMappedFile(channel, channel.size(), 1 << 20);
+
+    // Whole file
+    assertEquals(3 << 20, PageCachePreloader.preload(channel, 0, channel.size(), new WarmupBudget(60000, 4 << 20)));
+    assertEquals(3 << 20, PageCachePreloader.preload(file, 0, file.length(), new WarmupBudget(60000, 4 << 20)));
+
+    // Region past the end of the file
+    assertEquals(1 << 20, PageCachePreloader.preload(channel, 2 << 20, 2 << 20, new WarmupBudget(60000, 4 << 20)));
+    assertEquals(1 << 20, PageCachePreloader.preload(file, 2 << 20, 2 << 20, new WarmupBudget(60000, 4 << 20)));
+
+    // Bounded by the budget
+    WarmupBudget budget = new WarmupBudget(60000, 1500000);
+    assertEquals(1000000, PageCachePreloader.preload(channel, 0, 1000000, budget));
+    assertEquals(500000, PageCachePreloader.preload(file, 0, channel.size(), budget));
+    assertEquals(0, PageCachePreloader.preload(channel, 0, channel.size(), budget));
+
+    // Bytes past the end of the file are not taken from the budget
+    budget = new WarmupBudget(60000, 4 << 20);
+    assertEquals(1 << 20, PageCachePreloader.preload(channel, 2 << 20, 2 << 20, budget));
+    assertEquals(3 << 20, budget.getRemainingNumBytes());
+
+    channel.close();
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TestSegmentedLruCache extends BaseTestCase {
+
+  @Test
+  public void testDisabled() {
+    SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(false, 10, 4);
+    assertFalse(cache.isEnabled());
+    cache.put(1, "1");
+    assertNull(cache.get(1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testSingleSegment() {
+    SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(true, 2, 1);
+    cache.put(1, "1");
+    cache.put(2, "2");
+    // Access 1 so that 2 is the least recently used
+    assertEquals("1", cache.get(1));
+    cache.put(3, "3");
+    assertEquals("1", cache.get(1));
+    assertNull(cache.get(2));
+    assertEquals("3", cache.get(3));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testCapacity() {
+    SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(true, 100, 8);
+    for (int i = 0; i < 1000; ++i) {
+      cache.put(i, Integer.toString(i));
+    }
+    // Each segment holds at most ceil(100 / 8) entries
+    assertEquals(true, cache.size() <= 8 * 13);
+    // Most recently added entry is always present
+    assertEquals("999", cache.get(999));
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<Integer, Integer>(true, 64, 4);
+    Thread[] threads = new Thread[4];
+    final boolean[] failed = new boolean[1];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; ++i) {
+            int key = i % 128;
+            cache.put(key, key);
+            Integer value = cache.get(key);
+            if (value != null && value != key) {
+              failed[0] = true;
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed[0]);
+    assertEquals(true, cache.size() <= 64);
+  }
+}
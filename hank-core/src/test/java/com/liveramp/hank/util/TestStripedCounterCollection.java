@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestStripedCounterCollection extends BaseTestCase {
+
+  private static final int NUM_THREADS = 8;
+  private static final int NUM_INCREMENTS_PER_THREAD = 100000;
+
+  @Test
+  public void testCounters() {
+    StripedCounterCollection counters = new StripedCounterCollection(3, 5);
+    assertEquals(3, counters.size());
+    counters.increment(0);
+    counters.add(1, 10);
+    counters.add(1, -3);
+    counters.add(2, 0);
+    assertEquals(1, counters.get(0));
+    assertEquals(7, counters.get(1));
+    assertArrayEquals(new long[]{1, 7, 0}, counters.getAsArray());
+    assertArrayEquals(new long[]{1, 7, 0}, counters.getAsArrayAndReset());
+    assertArrayEquals(new long[]{0, 0, 0}, counters.getAsArray());
+
+    boolean failed = false;
+    try {
+      counters.increment(3);
+    } catch (IndexOutOfBoundsException e) {
+      failed = true;
+    }
+    assertEquals(true, failed);
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    final StripedCounterCollection counters = new StripedCounterCollection(2);
+    Thread[] threads = new Thread[NUM_THREADS];
+    for (int i = 0; i < NUM_THREADS; ++i) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < NUM_INCREMENTS_PER_THREAD; ++j) {
+            counters.increment(0);
+            counters.add(1, 2);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    // Reset counters while threads are incrementing, no increment should be lost
+    long[] totals = new long[2];
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      long[] values = counters.getAsArrayAndReset();
+      totals[0] += values[0];
+      totals[1] += values[1];
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(NUM_THREADS * NUM_INCREMENTS_PER_THREAD, totals[0]);
+    assertEquals(2L * NUM_THREADS * NUM_INCREMENTS_PER_THREAD, totals[1]);
+  }
+}
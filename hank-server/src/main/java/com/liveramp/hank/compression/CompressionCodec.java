@@ -17,6 +17,7 @@
 package com.liveramp.hank.compression;
 
 import com.liveramp.hank.compression.deflate.DeflateCompressionFactory;
+import com.liveramp.hank.compression.lz4.Lz4CompressionFactory;
 import com.liveramp.hank.compression.none.SlowNoCompressionCompressionFactory;
 import com.liveramp.hank.compression.snappy.SnappyCompressionFactory;
 import com.liveramp.hank.compression.zip.GzipCompressionFactory;
@@ -25,9 +26,20 @@ public enum CompressionCodec {
   DEFLATE,
   GZIP,
   SNAPPY,
-  SLOW_NO_COMPRESSION;
+  SLOW_NO_COMPRESSION,
+  LZ4;
 
   public CompressionFactory getFactory() {
+    return getFactory(null);
+  }
+
+  /**
+   * @param dictionary dictionary that blocks are compressed against, or null. Only LZ4 supports one.
+   */
+  public CompressionFactory getFactory(byte[] dictionary) {
+    if (dictionary != null && this != LZ4) {
+      throw new IllegalArgumentException(this + " compression does not support dictionaries");
+    }
     switch (this) {
       case DEFLATE:
         return new DeflateCompressionFactory();
@@ -37,6 +49,8 @@ public enum CompressionCodec {
         return new SnappyCompressionFactory();
       case SLOW_NO_COMPRESSION:
         return new SlowNoCompressionCompressionFactory();
+      case LZ4:
+        return new Lz4CompressionFactory(dictionary);
       default:
         throw new IllegalStateException();
     }
@@ -1,50 +1,88 @@
 package com.liveramp.hank.compression.cueball;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import com.liveramp.hank.compression.zip.GzipFormat;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class GzipCueballCompressionCodec implements CueballCompressionCodec {
+
+  // Codecs are shared by concurrent writers and readers, so each thread reuses its own Deflater or
+  // Inflater. They are created on first use, so that reader threads never hold a Deflater, and their
+  // native memory is released when they are collected along with their thread.
+  private static final ThreadLocal<CompressionContext> compressionContext = new ThreadLocal<CompressionContext>() {
+    @Override
+    protected CompressionContext initialValue() {
+      return new CompressionContext();
+    }
+  };
+
+  private static final ThreadLocal<Inflater> threadLocalInflater = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater(true);
+    }
+  };
+
+  private static class CompressionContext {
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+  }
+
   @Override
   public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
-    if (srcLength - srcOffset == 0) {
+    if (srcLength == 0) {
       return 0;
     }
-    try {
-      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(srcLength - srcOffset);
-      GZIPOutputStream gzip = new GZIPOutputStream(bytesOut);
-      gzip.write(src, srcOffset, srcLength);
-      gzip.flush();
-      gzip.close();
-      byte[] compressed = bytesOut.toByteArray();
-      System.arraycopy(compressed, 0, dst, dstOff, compressed.length);
-      return compressed.length;
-    } catch (IOException e) {
-      throw new RuntimeException("Unexpected IOException while compressing!", e);
+    CompressionContext context = compressionContext.get();
+    Deflater deflater = context.deflater;
+    deflater.reset();
+    deflater.setInput(src, srcOffset, srcLength);
+    deflater.finish();
+    GzipFormat.writeHeader(dst, dstOff);
+    int curOff = dstOff + GzipFormat.HEADER_SIZE;
+    while (!deflater.finished()) {
+      if (curOff == dst.length) {
+        throw new RuntimeException("Compressed block does not fit in the destination buffer!");
+      }
+      curOff += deflater.deflate(dst, curOff, dst.length - curOff);
+    }
+    if (curOff + GzipFormat.TRAILER_SIZE > dst.length) {
+      throw new RuntimeException("Compressed block does not fit in the destination buffer!");
     }
+    context.crc.reset();
+    context.crc.update(src, srcOffset, srcLength);
+    GzipFormat.writeTrailer(context.crc.getValue(), srcLength, dst, curOff);
+    return curOff + GzipFormat.TRAILER_SIZE - dstOff;
   }
 
+  // Readers may pass more bytes than the compressed block, including the beginning of the next
+  // blocks. Only the first gzip member is decompressed, and trailing bytes are ignored.
   @Override
   public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
-    if (srcLength - srcOffset == 0) {
+    if (srcLength == 0) {
       return 0;
     }
+    if (!GzipFormat.isSimpleHeader(src, srcOffset, srcLength)) {
+      throw new RuntimeException("Unexpected gzip header while decompressing!");
+    }
+    Inflater inflater = threadLocalInflater.get();
+    inflater.reset();
     try {
-      ByteArrayInputStream bytesIn = new ByteArrayInputStream(src, srcOffset, srcLength);
-      GZIPInputStream gzip = new GZIPInputStream(bytesIn);
+      inflater.setInput(src, srcOffset + GzipFormat.HEADER_SIZE, srcLength - GzipFormat.HEADER_SIZE);
       int curOff = dstOff;
-      while (curOff < dst.length - dstOff) {
-        int amtRead = gzip.read(dst, curOff, dst.length - curOff);
-        if (amtRead == -1) {
-          break;
+      while (curOff < dst.length && !inflater.finished()) {
+        int amtInflated = inflater.inflate(dst, curOff, dst.length - curOff);
+        if (amtInflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new RuntimeException("Truncated gzip data while decompressing!");
         }
-        curOff += amtRead;
+        curOff += amtInflated;
       }
-      return curOff;
-    } catch (IOException e) {
-      throw new RuntimeException("Unexpected IOException while decompressing!", e);
+      return curOff - dstOff;
+    } catch (DataFormatException e) {
+      throw new RuntimeException("Unexpected DataFormatException while decompressing!", e);
     }
   }
 
@@ -0,0 +1,59 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.cueball;
+
+import com.liveramp.hank.compression.lz4.Lz4BlockCompressor;
+import com.liveramp.hank.compression.lz4.Lz4BlockDecompressor;
+
+import java.io.IOException;
+
+// Blocks are raw LZ4 blocks, since readers pass exactly the bytes of a block
+public class Lz4CueballCompressionCodec implements CueballCompressionCodec {
+
+  // Codecs are shared by concurrent writers, so each thread reuses its own compressor
+  private static final ThreadLocal<Lz4BlockCompressor> compressor = new ThreadLocal<Lz4BlockCompressor>() {
+    @Override
+    protected Lz4BlockCompressor initialValue() {
+      return new Lz4BlockCompressor();
+    }
+  };
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    if (srcLength == 0) {
+      return 0;
+    }
+    return compressor.get().compress(src, srcOffset, srcLength, dst, dstOff);
+  }
+
+  @Override
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    if (srcLength == 0) {
+      return 0;
+    }
+    try {
+      return Lz4BlockDecompressor.decompress(src, srcOffset, srcLength, dst, dstOff, dst.length - dstOff, null);
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected IOException while decompressing!", e);
+    }
+  }
+
+  @Override
+  public int getMaxCompressBufferSize(int length) {
+    return Lz4BlockCompressor.getMaxCompressedLength(length);
+  }
+}
@@ -22,13 +22,19 @@ import java.io.OutputStream;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
+// The Deflater is reused by successive output streams, which must not be used concurrently
 public class DeflateCompressor implements Compressor {
 
-  @Override
-  public OutputStream getOutputStream(OutputStream outputStream) {
-    Deflater deflater = new Deflater();
+  private final Deflater deflater = new Deflater();
+
+  public DeflateCompressor() {
     deflater.setLevel(Deflater.BEST_COMPRESSION);
     deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+  }
+
+  @Override
+  public OutputStream getOutputStream(OutputStream outputStream) {
+    deflater.reset();
     return new DeflaterOutputStream(outputStream, deflater);
   }
 }
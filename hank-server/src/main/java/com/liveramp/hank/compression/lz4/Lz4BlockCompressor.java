@@ -0,0 +1,201 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import java.util.Arrays;
+
+/**
+ * Compresses arrays into the LZ4 block format, optionally against a dictionary that decompression must be
+ * given too. The hash table, and the window when a dictionary is used, are reused from one block to the
+ * next, so an instance must not be used concurrently.
+ */
+public final class Lz4BlockCompressor {
+
+  static final int MIN_MATCH = 4;
+  static final int MAX_OFFSET = 65535;
+  // The last literals of a block, and the distance from the end of a block at which the last match starts
+  static final int LAST_LITERALS = 5;
+  static final int MF_LIMIT = 12;
+  static final int RUN_MASK = 15;
+  static final int ML_MASK = 15;
+
+  private static final int HASH_LOG = 12;
+  private static final int SKIP_TRIGGER = 6;
+
+  private final int[] hashTable = new int[1 << HASH_LOG];
+  // Last bytes of the dictionary, which precede every block in the window
+  private final byte[] dictionary;
+  // Hash table after the dictionary was loaded
+  private final int[] dictionaryHashTable;
+  private byte[] window;
+
+  public Lz4BlockCompressor() {
+    this(null);
+  }
+
+  public Lz4BlockCompressor(byte[] dictionary) {
+    if (dictionary == null || dictionary.length == 0) {
+      this.dictionary = null;
+      this.dictionaryHashTable = null;
+    } else {
+      this.dictionary = dictionary.length > MAX_OFFSET
+          ? Arrays.copyOfRange(dictionary, dictionary.length - MAX_OFFSET, dictionary.length)
+          : dictionary;
+      this.dictionaryHashTable = new int[hashTable.length];
+      Arrays.fill(dictionaryHashTable, -1);
+      for (int i = 0; i + MIN_MATCH <= this.dictionary.length; ++i) {
+        dictionaryHashTable[hash(readInt(this.dictionary, i))] = i;
+      }
+      this.window = new byte[this.dictionary.length];
+      System.arraycopy(this.dictionary, 0, window, 0, this.dictionary.length);
+    }
+  }
+
+  public static int getMaxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  // Compress length bytes of src into dst, which must hold getMaxCompressedLength(length) bytes
+  // from dstOff. Return the compressed length.
+  public int compress(byte[] src, int srcOff, int length, byte[] dst, int dstOff) {
+    if (dst.length - dstOff < getMaxCompressedLength(length)) {
+      throw new IllegalArgumentException("Destination buffer is too small: " + (dst.length - dstOff)
+          + " bytes for " + length + " input bytes");
+    }
+    if (dictionary == null) {
+      Arrays.fill(hashTable, -1);
+      return compress(src, srcOff, srcOff, srcOff + length, dst, dstOff);
+    }
+    // The block follows the dictionary in the window, so that matches can reach into it
+    int start = dictionary.length;
+    if (window.length < start + length) {
+      window = Arrays.copyOf(window, Math.max(start + length, 2 * window.length));
+    }
+    System.arraycopy(src, srcOff, window, start, length);
+    System.arraycopy(dictionaryHashTable, 0, hashTable, 0, hashTable.length);
+    return compress(window, 0, start, start + length, dst, dstOff);
+  }
+
+  // Compress in[start, end[, with matches that may start as early as in[low]
+  private int compress(byte[] in, int low, int start, int end, byte[] dst, int dstOff) {
+    int anchor = start;
+    int op = dstOff;
+    if (end - start >= MF_LIMIT + 1) {
+      final int matchLimit = end - LAST_LITERALS;
+      final int mfLimit = end - MF_LIMIT;
+      int ip = start;
+      hashTable[hash(readInt(in, ip))] = ip;
+      ++ip;
+      while (ip < mfLimit) {
+        // Find a match, skipping faster over incompressible bytes
+        int ref;
+        int searchMatchNb = 1 << SKIP_TRIGGER;
+        while (true) {
+          int h = hash(readInt(in, ip));
+          ref = hashTable[h];
+          hashTable[h] = ip;
+          if (ref >= low && ip - ref <= MAX_OFFSET && readInt(in, ref) == readInt(in, ip)) {
+            break;
+          }
+          ip += searchMatchNb++ >>> SKIP_TRIGGER;
+          if (ip >= mfLimit) {
+            return writeLastLiterals(in, anchor, end, dst, op) - dstOff;
+          }
+        }
+        // Extend the match backwards
+        while (ip > anchor && ref > low && in[ip - 1] == in[ref - 1]) {
+          --ip;
+          --ref;
+        }
+        // Extend the match forwards
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < matchLimit && in[ip + matchLength] == in[ref + matchLength]) {
+          ++matchLength;
+        }
+        op = writeSequence(in, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+        ip += matchLength;
+        anchor = ip;
+        if (ip < mfLimit) {
+          hashTable[hash(readInt(in, ip - 2))] = ip - 2;
+        }
+      }
+    }
+    return writeLastLiterals(in, anchor, end, dst, op) - dstOff;
+  }
+
+  private static int writeSequence(byte[] in,
+                                   int literalsOff,
+                                   int literalLength,
+                                   int offset,
+                                   int matchLength,
+                                   byte[] dst,
+                                   int op) {
+    int tokenOff = op++;
+    int token;
+    if (literalLength >= RUN_MASK) {
+      token = RUN_MASK << 4;
+      op = writeLengthExtension(literalLength - RUN_MASK, dst, op);
+    } else {
+      token = literalLength << 4;
+    }
+    System.arraycopy(in, literalsOff, dst, op, literalLength);
+    op += literalLength;
+    dst[op++] = (byte) offset;
+    dst[op++] = (byte) (offset >>> 8);
+    int matchLengthCode = matchLength - MIN_MATCH;
+    if (matchLengthCode >= ML_MASK) {
+      token |= ML_MASK;
+      op = writeLengthExtension(matchLengthCode - ML_MASK, dst, op);
+    } else {
+      token |= matchLengthCode;
+    }
+    dst[tokenOff] = (byte) token;
+    return op;
+  }
+
+  private static int writeLastLiterals(byte[] in, int anchor, int end, byte[] dst, int op) {
+    int literalLength = end - anchor;
+    if (literalLength >= RUN_MASK) {
+      dst[op++] = (byte) (RUN_MASK << 4);
+      op = writeLengthExtension(literalLength - RUN_MASK, dst, op);
+    } else {
+      dst[op++] = (byte) (literalLength << 4);
+    }
+    System.arraycopy(in, anchor, dst, op, literalLength);
+    return op + literalLength;
+  }
+
+  private static int writeLengthExtension(int length, byte[] dst, int op) {
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length -= 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static int readInt(byte[] buffer, int off) {
+    return (buffer[off] & 0xff)
+        | (buffer[off + 1] & 0xff) << 8
+        | (buffer[off + 2] & 0xff) << 16
+        | (buffer[off + 3] & 0xff) << 24;
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import java.io.IOException;
+
+import static com.liveramp.hank.compression.lz4.Lz4BlockCompressor.MIN_MATCH;
+import static com.liveramp.hank.compression.lz4.Lz4BlockCompressor.ML_MASK;
+import static com.liveramp.hank.compression.lz4.Lz4BlockCompressor.RUN_MASK;
+
+/**
+ * Decompresses LZ4 blocks from array to array. It holds no state, and checks all bounds so that a
+ * corrupted block fails instead of reading or writing outside of the given ranges.
+ */
+public final class Lz4BlockDecompressor {
+
+  private Lz4BlockDecompressor() {
+  }
+
+  /**
+   * Decompress the block in src[srcOff, srcOff + srcLength[ into dst[dstOff, dstOff + maxDstLength[
+   * and return the decompressed length.
+   *
+   * @param dictionary the dictionary the block was compressed against, or null
+   */
+  public static int decompress(byte[] src,
+                               int srcOff,
+                               int srcLength,
+                               byte[] dst,
+                               int dstOff,
+                               int maxDstLength,
+                               byte[] dictionary) throws IOException {
+    final int srcEnd = srcOff + srcLength;
+    final int dstEnd = dstOff + maxDstLength;
+    final int dictionaryLength = dictionary == null ? 0 : dictionary.length;
+    int ip = srcOff;
+    int op = dstOff;
+    while (true) {
+      if (ip >= srcEnd) {
+        throw new IOException("Truncated LZ4 block");
+      }
+      int token = src[ip++] & 0xff;
+
+      // Literals
+      int literalLength = token >>> 4;
+      if (literalLength == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) {
+            throw new IOException("Truncated LZ4 block");
+          }
+          b = src[ip++] & 0xff;
+          literalLength += b;
+        } while (b == 255);
+      }
+      if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+        throw new IOException("Malformed LZ4 block: literals out of bounds");
+      }
+      System.arraycopy(src, ip, dst, op, literalLength);
+      ip += literalLength;
+      op += literalLength;
+      // The last sequence only has literals
+      if (ip == srcEnd) {
+        return op - dstOff;
+      }
+
+      // Match
+      if (srcEnd - ip < 2) {
+        throw new IOException("Truncated LZ4 block");
+      }
+      int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+      ip += 2;
+      int matchLength = token & ML_MASK;
+      if (matchLength == ML_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) {
+            throw new IOException("Truncated LZ4 block");
+          }
+          b = src[ip++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (offset == 0 || offset > op - dstOff + dictionaryLength) {
+        throw new IOException("Malformed LZ4 block: match offset " + offset + " out of bounds");
+      }
+      if (matchLength > dstEnd - op) {
+        throw new IOException("Malformed LZ4 block: match out of bounds");
+      }
+      int ref = op - offset;
+      if (ref < dstOff) {
+        // The match starts in the dictionary, and may continue in the block
+        int dictionaryRef = dictionaryLength - (dstOff - ref);
+        int numDictionaryBytes = Math.min(matchLength, dstOff - ref);
+        System.arraycopy(dictionary, dictionaryRef, dst, op, numDictionaryBytes);
+        op += numDictionaryBytes;
+        matchLength -= numDictionaryBytes;
+        ref = dstOff;
+      }
+      if (op - ref >= matchLength) {
+        System.arraycopy(dst, ref, dst, op, matchLength);
+        op += matchLength;
+      } else {
+        // Overlapping match, which repeats the last offset bytes
+        for (int i = 0; i < matchLength; ++i) {
+          dst[op++] = dst[ref++];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import com.liveramp.hank.compression.Compressor;
+import com.liveramp.hank.util.EncodingHelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Buffers a block and compresses it in one pass when the stream is closed. The block is written as its
+ * uncompressed length (var int), the checksum of the dictionary it is compressed against (see
+ * getDictionaryChecksum) and the LZ4 block. Buffers are reused by successive output streams, which must
+ * not be used concurrently.
+ */
+public class Lz4Compressor implements Compressor {
+
+  private static final int INITIAL_BUFFER_SIZE = 4 << 10;
+  public static final int DICTIONARY_CHECKSUM_NUM_BYTES = 4;
+
+  private final Lz4BlockCompressor blockCompressor;
+  private final byte[] dictionaryChecksum = new byte[DICTIONARY_CHECKSUM_NUM_BYTES];
+  private byte[] uncompressed = new byte[INITIAL_BUFFER_SIZE];
+  private byte[] compressed = new byte[Lz4BlockCompressor.getMaxCompressedLength(INITIAL_BUFFER_SIZE)];
+  private final byte[] lengthBuffer = new byte[EncodingHelper.MAX_VARINT_SIZE];
+
+  public Lz4Compressor(byte[] dictionary) {
+    this.blockCompressor = new Lz4BlockCompressor(dictionary);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(getDictionaryChecksum(dictionary), dictionaryChecksum, 0,
+        DICTIONARY_CHECKSUM_NUM_BYTES);
+  }
+
+  // CRC32 of the dictionary, which is 0 without dictionary. Readers check it, since blocks decompressed
+  // against another dictionary than the one they were compressed against would silently be corrupted.
+  public static long getDictionaryChecksum(byte[] dictionary) {
+    CRC32 crc = new CRC32();
+    if (dictionary != null) {
+      crc.update(dictionary);
+    }
+    return crc.getValue();
+  }
+
+  @Override
+  public OutputStream getOutputStream(OutputStream outputStream) {
+    return new Lz4OutputStream(outputStream);
+  }
+
+  private class Lz4OutputStream extends OutputStream {
+
+    private final OutputStream outputStream;
+    private int length = 0;
+    private boolean closed = false;
+
+    private Lz4OutputStream(OutputStream outputStream) {
+      this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(int b) {
+      requiresRemaining(1);
+      uncompressed[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      requiresRemaining(len);
+      System.arraycopy(b, off, uncompressed, length, len);
+      length += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      int maxCompressedLength = Lz4BlockCompressor.getMaxCompressedLength(length);
+      if (compressed.length < maxCompressedLength) {
+        compressed = new byte[maxCompressedLength];
+      }
+      int compressedLength = blockCompressor.compress(uncompressed, 0, length, compressed, 0);
+      int lengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(length, lengthBuffer);
+      outputStream.write(lengthBuffer, 0, lengthNumBytes);
+      outputStream.write(dictionaryChecksum);
+      outputStream.write(compressed, 0, compressedLength);
+      outputStream.close();
+    }
+
+    private void requiresRemaining(int numBytes) {
+      if (length + numBytes > uncompressed.length) {
+        uncompressed = Arrays.copyOf(uncompressed, Math.max(length + numBytes, 2 * uncompressed.length));
+      }
+    }
+  }
+}
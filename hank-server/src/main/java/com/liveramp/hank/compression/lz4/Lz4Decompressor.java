@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import com.liveramp.hank.compression.Decompressor;
+import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.PooledByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses blocks written by Lz4Compressor. Blocks are decompressed straight into pooled output
+ * streams, and through a reused buffer into other streams.
+ */
+public class Lz4Decompressor implements Decompressor {
+
+  private final byte[] dictionary;
+  private final long dictionaryChecksum;
+  private byte[] buffer = new byte[0];
+
+  public Lz4Decompressor(byte[] dictionary) {
+    this.dictionary = dictionary;
+    this.dictionaryChecksum = Lz4Compressor.getDictionaryChecksum(dictionary);
+  }
+
+  // Check that the given block, or its beginning, was compressed against the given dictionary
+  public static void checkDictionary(byte[] block, int offset, int length, byte[] dictionary) throws IOException {
+    ByteBuffer blockBuffer = ByteBuffer.wrap(block, offset, length);
+    EncodingHelper.decodeLittleEndianVarInt(blockBuffer);
+    checkDictionaryChecksum(Lz4Compressor.getDictionaryChecksum(dictionary), block, blockBuffer.position(),
+        offset + length);
+  }
+
+  private static void checkDictionaryChecksum(long expectedChecksum, byte[] block, int off, int end)
+      throws IOException {
+    if (off + Lz4Compressor.DICTIONARY_CHECKSUM_NUM_BYTES > end) {
+      throw new IOException("Truncated LZ4 block");
+    }
+    long checksum = EncodingHelper.decodeLittleEndianFixedWidthLong(block, off,
+        Lz4Compressor.DICTIONARY_CHECKSUM_NUM_BYTES);
+    if (checksum != expectedChecksum) {
+      throw new IOException("LZ4 block was compressed against a dictionary with checksum " + checksum
+          + ", but is decompressed against a dictionary with checksum " + expectedChecksum);
+    }
+  }
+
+  @Override
+  public void decompressBlock(byte[] block, int offset, int length, OutputStream outputStream) throws IOException {
+    ByteBuffer blockBuffer = ByteBuffer.wrap(block, offset, length);
+    int uncompressedLength = EncodingHelper.decodeLittleEndianVarInt(blockBuffer);
+    checkDictionaryChecksum(dictionaryChecksum, block, blockBuffer.position(), offset + length);
+    int srcOff = blockBuffer.position() + Lz4Compressor.DICTIONARY_CHECKSUM_NUM_BYTES;
+    int srcLength = offset + length - srcOff;
+    if (outputStream instanceof PooledByteArrayOutputStream) {
+      ByteBuffer dst = ((PooledByteArrayOutputStream) outputStream).reserve(uncompressedLength);
+      int dstOff = dst.arrayOffset() + dst.position();
+      checkLength(uncompressedLength, Lz4BlockDecompressor.decompress(block, srcOff, srcLength, dst.array(), dstOff,
+          uncompressedLength, dictionary));
+      dst.position(dst.position() + uncompressedLength);
+    } else {
+      if (buffer.length < uncompressedLength) {
+        buffer = new byte[uncompressedLength];
+      }
+      checkLength(uncompressedLength, Lz4BlockDecompressor.decompress(block, srcOff, srcLength, buffer, 0,
+          uncompressedLength, dictionary));
+      outputStream.write(buffer, 0, uncompressedLength);
+    }
+  }
+
+  private static void checkLength(int expectedLength, int length) throws IOException {
+    if (length != expectedLength) {
+      throw new IOException("Decompressed " + length + " bytes from an LZ4 block of " + expectedLength + " bytes");
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.util.EncodingHelper;
+import org.apache.commons.io.FileUtils;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a compression dictionary from sample values, out of the segments that occur in the most samples.
+ * Small values that are similar to each other then compress against the dictionary instead of against
+ * the few bytes that precede them in their block.
+ *
+ * Usage: Lz4DictionaryTrainer &lt;max dictionary size&gt; &lt;sample file&gt;...
+ * Each sample file is a sequence of values, each preceded by its length (little endian var int), such as the
+ * record file of a Curly version written without block compression. The dictionary is printed as the
+ * block_compression_dictionary option of Curly, to be added to the storage engine options of the domain.
+ */
+public final class Lz4DictionaryTrainer {
+
+  private static final int SEGMENT_SIZE = 16;
+  private static final int SEGMENT_STEP = 4;
+  private static final int OVERLAP_WINDOW_SIZE = 8;
+
+  private Lz4DictionaryTrainer() {
+  }
+
+  // Return a dictionary of at most maxSize bytes, or an empty one when no segment occurs in two samples
+  public static byte[] train(List<byte[]> samples, int maxSize) {
+    maxSize = Math.min(maxSize, Lz4BlockCompressor.MAX_OFFSET);
+    // Number of samples each segment occurs in
+    final Map<ByteBuffer, Integer> segmentCounts = new HashMap<ByteBuffer, Integer>();
+    for (byte[] sample : samples) {
+      Set<ByteBuffer> sampleSegments = new HashSet<ByteBuffer>();
+      for (int off = 0; off + SEGMENT_SIZE <= sample.length; off += SEGMENT_STEP) {
+        sampleSegments.add(ByteBuffer.wrap(sample, off, SEGMENT_SIZE).slice());
+      }
+      for (ByteBuffer segment : sampleSegments) {
+        Integer count = segmentCounts.get(segment);
+        segmentCounts.put(segment, count == null ? 1 : count + 1);
+      }
+    }
+    List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    for (Map.Entry<ByteBuffer, Integer> entry : segmentCounts.entrySet()) {
+      if (entry.getValue() > 1) {
+        segments.add(entry.getKey());
+      }
+    }
+    Collections.sort(segments, new Comparator<ByteBuffer>() {
+      @Override
+      public int compare(ByteBuffer a, ByteBuffer b) {
+        int result = segmentCounts.get(b).compareTo(segmentCounts.get(a));
+        return result != 0 ? result : a.compareTo(b);
+      }
+    });
+    // Skip segments whose both ends overlap selected ones, such as the same string shifted by a step
+    List<ByteBuffer> selectedSegments = new ArrayList<ByteBuffer>();
+    Set<ByteBuffer> coveredWindows = new HashSet<ByteBuffer>();
+    for (ByteBuffer segment : segments) {
+      if (selectedSegments.size() == maxSize / SEGMENT_SIZE) {
+        break;
+      }
+      if (coveredWindows.contains(getWindow(segment, 0))
+          && coveredWindows.contains(getWindow(segment, SEGMENT_SIZE - OVERLAP_WINDOW_SIZE))) {
+        continue;
+      }
+      selectedSegments.add(segment);
+      for (int off = 0; off + OVERLAP_WINDOW_SIZE <= SEGMENT_SIZE; ++off) {
+        coveredWindows.add(getWindow(segment, off));
+      }
+    }
+    // The most frequent segments go last, where they are the closest to the blocks
+    int numSegments = selectedSegments.size();
+    byte[] dictionary = new byte[numSegments * SEGMENT_SIZE];
+    for (int i = 0; i < numSegments; ++i) {
+      selectedSegments.get(i).duplicate().get(dictionary, (numSegments - 1 - i) * SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+    return dictionary;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: " + Lz4DictionaryTrainer.class.getName()
+          + " <max dictionary size> <sample file>...");
+      System.exit(1);
+    }
+    int maxSize = Integer.parseInt(args[0]);
+    List<byte[]> samples = new ArrayList<byte[]>();
+    for (int i = 1; i < args.length; ++i) {
+      readSamples(new File(args[i]), samples);
+    }
+    byte[] dictionary = train(samples, maxSize);
+    System.err.println("Trained a dictionary of " + dictionary.length + " bytes from " + samples.size() + " samples");
+    System.out.print(toYaml(dictionary));
+  }
+
+  // Return the block_compression_dictionary option, with the dictionary as a !!binary value
+  public static String toYaml(byte[] dictionary) {
+    DumperOptions options = new DumperOptions();
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+    return new Yaml(options).dump(Collections.singletonMap(Curly.Factory.BLOCK_COMPRESSION_DICTIONARY, dictionary));
+  }
+
+  static void readSamples(File file, List<byte[]> samples) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(FileUtils.readFileToByteArray(file));
+    while (buffer.hasRemaining()) {
+      int length;
+      try {
+        length = EncodingHelper.decodeLittleEndianVarInt(buffer);
+      } catch (BufferUnderflowException e) {
+        throw new IOException("Truncated sample length at the end of " + file);
+      }
+      if (length < 0 || length > buffer.remaining()) {
+        throw new IOException("Invalid sample length " + length + " at offset " + buffer.position() + " in " + file);
+      }
+      byte[] sample = new byte[length];
+      buffer.get(sample);
+      samples.add(sample);
+    }
+  }
+
+  private static ByteBuffer getWindow(ByteBuffer segment, int off) {
+    return ByteBuffer.wrap(segment.array(), segment.arrayOffset() + off, OVERLAP_WINDOW_SIZE).slice();
+  }
+}
@@ -20,12 +20,51 @@ import com.liveramp.hank.compression.Compressor;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
+// The Deflater is reused by successive output streams, which must not be used concurrently
 public class GzipCompressor implements Compressor {
 
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final CRC32 crc = new CRC32();
+
   @Override
   public OutputStream getOutputStream(OutputStream outputStream) throws IOException {
-    return new GZIPOutputStream(outputStream);
+    deflater.reset();
+    crc.reset();
+    return new GzipOutputStream(outputStream);
+  }
+
+  // Same output as GZIPOutputStream, but with the shared Deflater
+  private class GzipOutputStream extends DeflaterOutputStream {
+
+    private boolean finished = false;
+
+    private GzipOutputStream(OutputStream outputStream) throws IOException {
+      super(outputStream, deflater);
+      byte[] header = new byte[GzipFormat.HEADER_SIZE];
+      GzipFormat.writeHeader(header, 0);
+      outputStream.write(header);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      super.write(buffer, offset, length);
+      crc.update(buffer, offset, length);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      super.finish();
+      byte[] trailer = new byte[GzipFormat.TRAILER_SIZE];
+      GzipFormat.writeTrailer(crc.getValue(), deflater.getBytesRead(), trailer, 0);
+      out.write(trailer);
+      finished = true;
+    }
   }
 }
@@ -18,13 +18,64 @@ package com.liveramp.hank.compression.zip;
 
 import com.liveramp.hank.compression.common.StreamCopyDecompressor;
 import com.liveramp.hank.compression.Decompressor;
+import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.IOStreamUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
 
 public class GzipDecompressor extends StreamCopyDecompressor implements Decompressor {
 
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] copyBuffer = new byte[IOStreamUtils.DEFAULT_BUFFER_SIZE];
+
+  // Members without optional header fields are inflated with the reused Inflater, others are streamed
+  @Override
+  public void decompressBlock(byte[] buffer, int offset, int length, OutputStream outputStream) throws IOException {
+    if (!GzipFormat.isSimpleHeader(buffer, offset, length)) {
+      super.decompressBlock(buffer, offset, length, outputStream);
+      return;
+    }
+    final int end = offset + length;
+    int memberOffset = offset;
+    while (memberOffset < end) {
+      if (!GzipFormat.isSimpleHeader(buffer, memberOffset, end - memberOffset)) {
+        throw new IOException("Unexpected gzip header while decompressing block");
+      }
+      inflater.reset();
+      crc.reset();
+      inflater.setInput(buffer, memberOffset + GzipFormat.HEADER_SIZE, end - memberOffset - GzipFormat.HEADER_SIZE);
+      while (!inflater.finished()) {
+        int numBytes;
+        try {
+          numBytes = inflater.inflate(copyBuffer);
+        } catch (DataFormatException e) {
+          throw new IOException(e);
+        }
+        if (numBytes > 0) {
+          outputStream.write(copyBuffer, 0, numBytes);
+          crc.update(copyBuffer, 0, numBytes);
+        } else if (inflater.needsInput() || inflater.needsDictionary()) {
+          throw new IOException("Truncated gzip block");
+        }
+      }
+      int trailerOffset = end - inflater.getRemaining();
+      if (trailerOffset + GzipFormat.TRAILER_SIZE > end
+          || EncodingHelper.decodeLittleEndianFixedWidthLong(buffer, trailerOffset, 4) != crc.getValue()
+          || EncodingHelper.decodeLittleEndianFixedWidthLong(buffer, trailerOffset + 4, 4)
+          != (inflater.getBytesWritten() & 0xffffffffL)) {
+        throw new IOException("Corrupt gzip trailer");
+      }
+      memberOffset = trailerOffset + GzipFormat.TRAILER_SIZE;
+    }
+  }
+
   @Override
   protected InputStream getBlockDecompressionInputStream(InputStream inputStream) throws IOException {
     return new GZIPInputStream(inputStream);
@@ -0,0 +1,54 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.zip;
+
+import com.liveramp.hank.util.EncodingHelper;
+
+/**
+ * Header and trailer of a gzip member, as written by GZIPOutputStream, so that raw deflate
+ * streams produced with a reused Deflater can be framed without allocating a new stream.
+ */
+public final class GzipFormat {
+
+  // Magic, deflate method, no flag, no modification time, no extra flags, OS 0
+  private static final byte[] HEADER = new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0};
+
+  public static final int HEADER_SIZE = HEADER.length;
+  // CRC32 and size of the uncompressed data
+  public static final int TRAILER_SIZE = 8;
+
+  private GzipFormat() {
+  }
+
+  public static void writeHeader(byte[] dst, int dstOff) {
+    System.arraycopy(HEADER, 0, dst, dstOff, HEADER_SIZE);
+  }
+
+  public static void writeTrailer(long crc, long uncompressedSize, byte[] dst, int dstOff) {
+    EncodingHelper.encodeLittleEndianFixedWidthLong(crc, dst, dstOff, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(uncompressedSize, dst, dstOff + 4, 4);
+  }
+
+  // Whether the given bytes start with a header that does not set any optional field
+  public static boolean isSimpleHeader(byte[] src, int srcOff, int length) {
+    return length >= HEADER_SIZE
+        && src[srcOff] == HEADER[0]
+        && src[srcOff + 1] == HEADER[1]
+        && src[srcOff + 2] == HEADER[2]
+        && src[srcOff + 3] == 0;
+  }
+}
@@ -32,5 +32,23 @@ public interface PartitionServerConfigurator extends CoordinatorConfigurator, Da
 
   public int getGetBulkTaskSize();
 
+  // Either "fixed" (FIFO thread pool) or "fair" (round-robin across requests)
+  public String getGetBulkTaskExecutorType();
+
+  // Maximum number of queued GET BULK tasks before requests are rejected. Zero means no limit.
+  public int getMaxQueuedGetBulkTasks();
+
   public int getGetTimerAggregatorWindow();
+
+  // Maximum time spent warming up data before serving
+  public int getWarmupMaxDurationMs();
+
+  // Maximum amount of data preloaded into the page cache when warming up
+  public int getWarmupMaxPreloadMB();
+
+  // Number of hottest keys tracked per partition and replayed to fill caches. Zero disables sampling.
+  public int getWarmupKeySampleSize();
+
+  // Maximum amount of memory held by the buffer pool shared by Readers and responses
+  public int getBufferPoolMaxMB();
 }
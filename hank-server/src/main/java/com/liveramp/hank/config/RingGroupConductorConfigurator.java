@@ -27,4 +27,7 @@ public interface RingGroupConductorConfigurator extends CoordinatorConfigurator
   public int getMinRingFullyServingObservations();
 
   public RingGroupConductorMode getInitialMode();
+
+  // Whether hosts should be updated while serving rather than going idle first
+  public boolean getOnlineUpdates();
 }
@@ -36,7 +36,19 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   public static final String MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY = "max_concurrent_updates_per_data_directory";
   public static final String NUM_CONCURRENT_GET_BULK_TASKS = "num_concurrent_get_bulk_tasks";
   public static final String GET_BULK_TASK_SIZE = "get_bulk_task_size";
+  public static final String GET_BULK_TASK_EXECUTOR_TYPE_KEY = "get_bulk_task_executor";
+  public static final String MAX_QUEUED_GET_BULK_TASKS_KEY = "max_queued_get_bulk_tasks";
+  public static final String GET_BULK_TASK_EXECUTOR_TYPE_DEFAULT = "fixed";
+  public static final int MAX_QUEUED_GET_BULK_TASKS_DEFAULT = 0;
   public static final String GET_TIMER_AGGREGATOR_WINDOW_KEY = "get_timer_aggregator_window";
+  public static final String WARMUP_MAX_DURATION_MS_KEY = "warmup_max_duration_ms";
+  public static final String WARMUP_MAX_PRELOAD_MB_KEY = "warmup_max_preload_mb";
+  public static final String WARMUP_KEY_SAMPLE_SIZE_KEY = "warmup_key_sample_size";
+  public static final int WARMUP_MAX_DURATION_MS_DEFAULT = 60000;
+  public static final int WARMUP_MAX_PRELOAD_MB_DEFAULT = 1024;
+  public static final int WARMUP_KEY_SAMPLE_SIZE_DEFAULT = 0;
+  public static final String BUFFER_POOL_MAX_MB_KEY = "buffer_pool_max_mb";
+  public static final int BUFFER_POOL_MAX_MB_DEFAULT = 64;
 
   public YamlPartitionServerConfigurator(String path) throws IOException,
       InvalidConfigurationException {
@@ -101,12 +113,54 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
     return getInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, GET_BULK_TASK_SIZE);
   }
 
+  @Override
+  public String getGetBulkTaskExecutorType() {
+    String type = getOptionalString(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        GET_BULK_TASK_EXECUTOR_TYPE_KEY);
+    return type == null ? GET_BULK_TASK_EXECUTOR_TYPE_DEFAULT : type;
+  }
+
+  @Override
+  public int getMaxQueuedGetBulkTasks() {
+    Integer maxQueuedTasks = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        MAX_QUEUED_GET_BULK_TASKS_KEY);
+    return maxQueuedTasks == null ? MAX_QUEUED_GET_BULK_TASKS_DEFAULT : maxQueuedTasks;
+  }
+
   @Override
   public int getGetTimerAggregatorWindow() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
         GET_TIMER_AGGREGATOR_WINDOW_KEY);
   }
 
+  @Override
+  public int getWarmupMaxDurationMs() {
+    Integer maxDurationMs = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        WARMUP_MAX_DURATION_MS_KEY);
+    return maxDurationMs == null ? WARMUP_MAX_DURATION_MS_DEFAULT : maxDurationMs;
+  }
+
+  @Override
+  public int getWarmupMaxPreloadMB() {
+    Integer maxPreloadMB = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        WARMUP_MAX_PRELOAD_MB_KEY);
+    return maxPreloadMB == null ? WARMUP_MAX_PRELOAD_MB_DEFAULT : maxPreloadMB;
+  }
+
+  @Override
+  public int getWarmupKeySampleSize() {
+    Integer keySampleSize = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        WARMUP_KEY_SAMPLE_SIZE_KEY);
+    return keySampleSize == null ? WARMUP_KEY_SAMPLE_SIZE_DEFAULT : keySampleSize;
+  }
+
+  @Override
+  public int getBufferPoolMaxMB() {
+    Integer maxMB = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        BUFFER_POOL_MAX_MB_KEY);
+    return maxMB == null ? BUFFER_POOL_MAX_MB_DEFAULT : maxMB;
+  }
+
   @Override
   public int getNumConcurrentUpdates() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, NUM_CONCURRENT_UPDATES_KEY);
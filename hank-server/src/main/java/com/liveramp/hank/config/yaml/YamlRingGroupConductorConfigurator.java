@@ -29,6 +29,7 @@ public class YamlRingGroupConductorConfigurator extends YamlCoordinatorConfigura
   public static final String MIN_RING_FULLY_SERVING_OBSERVATIONS_KEY = "min_ring_fully_serving_observations";
   public static final String RING_GROUP_NAME_KEY = "ring_group_name";
   public static final String INITIAL_MODE_KEY = "initial_mode";
+  public static final String ONLINE_UPDATES_KEY = "online_updates";
 
   public YamlRingGroupConductorConfigurator(String configPath) throws IOException, InvalidConfigurationException {
     super(configPath);
@@ -54,6 +55,12 @@ public class YamlRingGroupConductorConfigurator extends YamlCoordinatorConfigura
     return RingGroupConductorMode.valueOf(getString(RING_GROUP_CONDUCTOR_SECTION_KEY, INITIAL_MODE_KEY));
   }
 
+  @Override
+  public boolean getOnlineUpdates() {
+    Boolean onlineUpdates = getOptionalBoolean(RING_GROUP_CONDUCTOR_SECTION_KEY, ONLINE_UPDATES_KEY);
+    return onlineUpdates != null && onlineUpdates;
+  }
+
   @Override
   protected void validate() throws InvalidConfigurationException {
     super.validate();
@@ -0,0 +1,480 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.liveramp.hank.config.PartitionServerConfigurator;
+import com.liveramp.hank.coordinator.Coordinator;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainGroup;
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.HostCommand;
+import com.liveramp.hank.coordinator.HostState;
+import com.liveramp.hank.coordinator.PartitionServerAddress;
+import com.liveramp.hank.coordinator.Ring;
+import com.liveramp.hank.coordinator.RingGroup;
+import com.liveramp.hank.coordinator.mock.MockCoordinator;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.coordinator.mock.MockDomainGroup;
+import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.partition_server.PartitionServer;
+import com.liveramp.hank.partitioner.Partitioner;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.PartitionRemoteFileOps;
+import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.storage.StorageEngineFactory;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+import com.liveramp.hank.test.coordinator.MockHost;
+import com.liveramp.hank.test.coordinator.MockRing;
+import com.liveramp.hank.test.coordinator.MockRingGroup;
+import com.liveramp.hank.util.Bytes;
+
+/**
+ * A ring group of partition servers running in the current process, with all coordinator
+ * metadata held in memory. Domains are written locally by their storage engine and deployed to
+ * the local data directory of the hosts that serve them, then all partition servers are started
+ * and asked to serve data.
+ * <p/>
+ * Each partition server gets its own copy of the domain metadata, and thus its own storage engine
+ * instances, so that servers do not share caches. Every ring serves all partitions of every domain,
+ * and partitions are assigned to the hosts of a ring in a round robin fashion.
+ */
+public class InProcessCluster {
+
+  private static final Logger LOG = Logger.getLogger(InProcessCluster.class);
+
+  private static final int VERSION_NUMBER = 0;
+  private static final long WAIT_FOR_STATE_SLEEP_MS = 100;
+
+  private final String rootDir;
+  private final String ringGroupName;
+  private final int numHostsPerRing;
+  private final int numConcurrentQueries;
+  private final int numConcurrentGetBulkTasks;
+  private final int getBulkTaskSize;
+  private final String getBulkTaskExecutorType;
+
+  private final List<MockHost> hosts = new ArrayList<MockHost>();
+  private final List<InProcessCoordinator> hostCoordinators = new ArrayList<InProcessCoordinator>();
+  private final InProcessCoordinator coordinator;
+  private final List<PartitionServer> partitionServers = new ArrayList<PartitionServer>();
+  private final List<Thread> partitionServerThreads = new ArrayList<Thread>();
+
+  public InProcessCluster(String rootDir,
+                          String ringGroupName,
+                          int numRings,
+                          int numHostsPerRing,
+                          int firstServicePort,
+                          int numConcurrentQueries,
+                          int numConcurrentGetBulkTasks,
+                          int getBulkTaskSize,
+                          String getBulkTaskExecutorType) {
+    this.rootDir = rootDir;
+    this.ringGroupName = ringGroupName;
+    this.numHostsPerRing = numHostsPerRing;
+    this.numConcurrentQueries = numConcurrentQueries;
+    this.numConcurrentGetBulkTasks = numConcurrentGetBulkTasks;
+    this.getBulkTaskSize = getBulkTaskSize;
+    this.getBulkTaskExecutorType = getBulkTaskExecutorType;
+
+    // Hosts are shared by all coordinators so that state changes of partition servers are seen by clients
+    int port = firstServicePort;
+    for (int ringNumber = 0; ringNumber < numRings; ++ringNumber) {
+      for (int hostNumber = 0; hostNumber < numHostsPerRing; ++hostNumber) {
+        hosts.add(new MockHost(new PartitionServerAddress("localhost", port++)));
+      }
+    }
+    coordinator = new InProcessCoordinator(ringGroupName);
+    for (int ringNumber = 0; ringNumber < numRings; ++ringNumber) {
+      coordinator.ringGroup.addRing(ringNumber, getRingHosts(ringNumber));
+    }
+    for (int i = 0; i < hosts.size(); ++i) {
+      InProcessCoordinator hostCoordinator = new InProcessCoordinator(ringGroupName);
+      int ringNumber = i / numHostsPerRing;
+      hostCoordinator.ringGroup.addRing(ringNumber, getRingHosts(ringNumber));
+      hostCoordinators.add(hostCoordinator);
+    }
+  }
+
+  // The coordinator that clients should use
+  public Coordinator getCoordinator() {
+    return coordinator;
+  }
+
+  public String getRingGroupName() {
+    return ringGroupName;
+  }
+
+  public List<? extends Host> getHosts() {
+    return hosts;
+  }
+
+  // Where the storage engines of the given domain should expect remote data
+  public String getRemoteDomainRoot(String domainName) {
+    return rootDir + "/remote/" + domainName;
+  }
+
+  public String getDataDirectory(Host host) {
+    return rootDir + "/" + host.getAddress().getHostName() + "." + host.getAddress().getPortNumber();
+  }
+
+  /**
+   * Write the given records with the given storage engine and deploy them to all hosts.
+   * Storage engine options should set the remote domain root to getRemoteDomainRoot(domainName)
+   * and use LocalPartitionRemoteFileOps.
+   */
+  public void addDomain(String domainName,
+                        int numPartitions,
+                        StorageEngineFactory storageEngineFactory,
+                        Map<String, Object> storageEngineOptions,
+                        Partitioner partitioner,
+                        LoadTestRecords records) throws IOException {
+    int domainId = coordinator.domains.size();
+    InProcessDomain domain = new InProcessDomain(domainName, domainId, numPartitions, partitioner,
+        storageEngineFactory, storageEngineOptions);
+    coordinator.addDomain(domain);
+    for (InProcessCoordinator hostCoordinator : hostCoordinators) {
+      hostCoordinator.addDomain(new InProcessDomain(domainName, domainId, numPartitions, partitioner,
+          storageEngineFactory, storageEngineOptions));
+    }
+
+    // Write all partitions
+    String remoteDomainRoot = getRemoteDomainRoot(domainName);
+    LOG.info("Writing " + records + " to domain " + domainName + " in " + remoteDomainRoot);
+    writeDomain(domain, records, remoteDomainRoot);
+
+    // Deploy partitions and assign them to hosts
+    for (int i = 0; i < hosts.size(); ++i) {
+      MockHost host = hosts.get(i);
+      int hostNumber = i % numHostsPerRing;
+      List<Integer> partitionNumberAndVersionPairs = new ArrayList<Integer>();
+      for (int partitionNumber = hostNumber; partitionNumber < numPartitions; partitionNumber += numHostsPerRing) {
+        String localPartitionRoot = getDataDirectory(host) + "/" + domainName + "/" + partitionNumber;
+        PartitionRemoteFileOps fileOps = new LocalPartitionRemoteFileOps(remoteDomainRoot, partitionNumber);
+        for (String fileName : new File(fileOps.getRemoteAbsolutePath("")).list()) {
+          fileOps.copyToLocalRoot(fileName, localPartitionRoot);
+        }
+        partitionNumberAndVersionPairs.add(partitionNumber);
+        partitionNumberAndVersionPairs.add(VERSION_NUMBER);
+      }
+      int[] pairs = new int[partitionNumberAndVersionPairs.size()];
+      for (int j = 0; j < pairs.length; ++j) {
+        pairs[j] = partitionNumberAndVersionPairs.get(j);
+      }
+      host.addMockDomain(domain, pairs);
+    }
+  }
+
+  private void writeDomain(InProcessDomain domain, LoadTestRecords records, String remoteDomainRoot) throws IOException {
+    StorageEngine storageEngine = domain.getStorageEngine();
+    // Partition records and sort them in the order expected by the storage engine
+    List<List<SortableRecord>> partitions = new ArrayList<List<SortableRecord>>(domain.getNumParts());
+    for (int i = 0; i < domain.getNumParts(); ++i) {
+      partitions.add(new ArrayList<SortableRecord>());
+    }
+    for (long index = 0; index < records.getNumRecords(); ++index) {
+      ByteBuffer key = records.getKey(index);
+      int partitionNumber = domain.getPartitioner().partition(key, domain.getNumParts());
+      partitions.get(partitionNumber).add(
+          new SortableRecord(Bytes.byteBufferDeepCopy(storageEngine.getComparableKey(key)), index));
+    }
+    MockDomainVersion domainVersion = new MockDomainVersion(VERSION_NUMBER, 0L, new IncrementalDomainVersionProperties.Base());
+    for (int partitionNumber = 0; partitionNumber < partitions.size(); ++partitionNumber) {
+      List<SortableRecord> partition = partitions.get(partitionNumber);
+      Collections.sort(partition);
+      Writer writer = storageEngine.getWriter(domainVersion,
+          new LocalPartitionRemoteFileOps(remoteDomainRoot, partitionNumber), partitionNumber);
+      for (SortableRecord record : partition) {
+        writer.write(records.getKey(record.index), records.getValue(record.index));
+      }
+      writer.close();
+      partitions.set(partitionNumber, null);
+    }
+  }
+
+  // Start all partition servers and wait for them to serve data
+  public void start() throws IOException, InterruptedException {
+    for (int i = 0; i < hosts.size(); ++i) {
+      final MockHost host = hosts.get(i);
+      final PartitionServer partitionServer = new PartitionServer(new InProcessPartitionServerConfigurator(
+          host.getAddress().getPortNumber(), hostCoordinators.get(i), getDataDirectory(host)), "localhost");
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            partitionServer.run();
+          } catch (Exception e) {
+            LOG.error("Partition server " + host.getAddress() + " failed", e);
+          }
+        }
+      }, "Partition server " + host.getAddress());
+      partitionServers.add(partitionServer);
+      partitionServerThreads.add(thread);
+      thread.start();
+    }
+    for (int i = 0; i < hosts.size(); ++i) {
+      waitForState(i, HostState.IDLE);
+      hosts.get(i).enqueueCommand(HostCommand.SERVE_DATA);
+    }
+    for (int i = 0; i < hosts.size(); ++i) {
+      waitForState(i, HostState.SERVING);
+    }
+    LOG.info("All " + hosts.size() + " partition servers are serving data.");
+  }
+
+  private void waitForState(int hostIndex, HostState state) throws IOException, InterruptedException {
+    Host host = hosts.get(hostIndex);
+    while (host.getState() != state) {
+      if (!partitionServerThreads.get(hostIndex).isAlive()) {
+        throw new IOException("Partition server " + host.getAddress() + " stopped while waiting for state " + state);
+      }
+      Thread.sleep(WAIT_FOR_STATE_SLEEP_MS);
+    }
+  }
+
+  public void stop() throws InterruptedException {
+    for (PartitionServer partitionServer : partitionServers) {
+      partitionServer.stopSynchronized();
+    }
+    for (Thread thread : partitionServerThreads) {
+      thread.join();
+    }
+    partitionServers.clear();
+    partitionServerThreads.clear();
+  }
+
+  private Set<Host> getRingHosts(int ringNumber) {
+    return new HashSet<Host>(hosts.subList(ringNumber * numHostsPerRing, (ringNumber + 1) * numHostsPerRing));
+  }
+
+  private static class SortableRecord implements Comparable<SortableRecord> {
+
+    private final ByteBuffer comparableKey;
+    private final long index;
+
+    private SortableRecord(ByteBuffer comparableKey, long index) {
+      this.comparableKey = comparableKey;
+      this.index = index;
+    }
+
+    @Override
+    public int compareTo(SortableRecord other) {
+      return Bytes.compareBytesUnsigned(comparableKey, other.comparableKey);
+    }
+  }
+
+  private static class InProcessDomain extends MockDomain {
+
+    private final StorageEngine storageEngine;
+
+    public InProcessDomain(String name,
+                           int id,
+                           int numParts,
+                           Partitioner partitioner,
+                           StorageEngineFactory storageEngineFactory,
+                           Map<String, Object> storageEngineOptions) throws IOException {
+      super(name, id, numParts, partitioner, null, storageEngineOptions,
+          new MockDomainVersion(VERSION_NUMBER, 0L, new IncrementalDomainVersionProperties.Base()));
+      this.storageEngine = storageEngineFactory.getStorageEngine(storageEngineOptions, this);
+    }
+
+    @Override
+    public StorageEngine getStorageEngine() {
+      return storageEngine;
+    }
+  }
+
+  private static class InProcessRingGroup extends MockRingGroup {
+
+    private final Set<Ring> rings;
+
+    public InProcessRingGroup(DomainGroup domainGroup, String name, Set<Ring> rings) {
+      super(domainGroup, name, rings);
+      this.rings = rings;
+    }
+
+    public void addRing(int ringNumber, Set<Host> hosts) {
+      rings.add(new MockRing(hosts, this, ringNumber));
+    }
+
+    @Override
+    public Ring getRing(int ringNumber) {
+      for (Ring ring : rings) {
+        if (ring.getRingNumber() == ringNumber) {
+          return ring;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Ring getRingForHost(PartitionServerAddress hostAddress) {
+      for (Ring ring : rings) {
+        if (ring.getHostByAddress(hostAddress) != null) {
+          return ring;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class InProcessCoordinator extends MockCoordinator {
+
+    private final MockDomainGroup domainGroup;
+    private final InProcessRingGroup ringGroup;
+    private final Map<String, Domain> domains = new HashMap<String, Domain>();
+    private final Map<Integer, Domain> domainsById = new HashMap<Integer, Domain>();
+
+    public InProcessCoordinator(String ringGroupName) {
+      domainGroup = new MockDomainGroup(ringGroupName);
+      ringGroup = new InProcessRingGroup(domainGroup, ringGroupName, new HashSet<Ring>());
+    }
+
+    public void addDomain(Domain domain) {
+      domains.put(domain.getName(), domain);
+      domainsById.put(domain.getId(), domain);
+      domainGroup.setDomainVersion(domain, VERSION_NUMBER);
+    }
+
+    @Override
+    public Domain getDomain(String domainName) {
+      return domains.get(domainName);
+    }
+
+    @Override
+    public Domain getDomainById(int domainId) {
+      return domainsById.get(domainId);
+    }
+
+    @Override
+    public Set<Domain> getDomains() {
+      return new HashSet<Domain>(domains.values());
+    }
+
+    @Override
+    public RingGroup getRingGroup(String ringGroupName) {
+      return ringGroup.getName().equals(ringGroupName) ? ringGroup : null;
+    }
+  }
+
+  private class InProcessPartitionServerConfigurator implements PartitionServerConfigurator {
+
+    private final int servicePort;
+    private final Coordinator coordinator;
+    private final String dataDirectory;
+
+    public InProcessPartitionServerConfigurator(int servicePort, Coordinator coordinator, String dataDirectory) {
+      this.servicePort = servicePort;
+      this.coordinator = coordinator;
+      this.dataDirectory = dataDirectory;
+    }
+
+    @Override
+    public Set<String> getDataDirectories() {
+      return Collections.singleton(dataDirectory);
+    }
+
+    @Override
+    public int getServicePort() {
+      return servicePort;
+    }
+
+    @Override
+    public Coordinator createCoordinator() {
+      return coordinator;
+    }
+
+    @Override
+    public String getRingGroupName() {
+      return ringGroupName;
+    }
+
+    @Override
+    public int getNumConcurrentQueries() {
+      return numConcurrentQueries;
+    }
+
+    @Override
+    public int getNumConcurrentGetBulkTasks() {
+      return numConcurrentGetBulkTasks;
+    }
+
+    @Override
+    public int getGetBulkTaskSize() {
+      return getBulkTaskSize;
+    }
+
+    @Override
+    public String getGetBulkTaskExecutorType() {
+      return getBulkTaskExecutorType;
+    }
+
+    @Override
+    public int getMaxQueuedGetBulkTasks() {
+      return 0;
+    }
+
+    @Override
+    public int getGetTimerAggregatorWindow() {
+      return 0;
+    }
+
+    @Override
+    public int getWarmupMaxDurationMs() {
+      return 10000;
+    }
+
+    @Override
+    public int getWarmupMaxPreloadMB() {
+      return 1024;
+    }
+
+    @Override
+    public int getWarmupKeySampleSize() {
+      return 0;
+    }
+
+    @Override
+    public int getBufferPoolMaxMB() {
+      return 64;
+    }
+
+    @Override
+    public int getNumConcurrentUpdates() {
+      return 1;
+    }
+
+    @Override
+    public int getMaxConcurrentUpdatesPerDataDirectory() {
+      return 1;
+    }
+  }
+}
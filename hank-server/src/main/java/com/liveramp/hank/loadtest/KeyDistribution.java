@@ -0,0 +1,166 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.loadtest;
+
+import java.util.Random;
+
+/**
+ * Distribution of the indices of the keys requested during a load test.
+ */
+public abstract class KeyDistribution {
+
+  protected final long numKeys;
+
+  protected KeyDistribution(long numKeys) {
+    if (numKeys <= 0) {
+      throw new IllegalArgumentException("Number of keys must be positive: " + numKeys);
+    }
+    this.numKeys = numKeys;
+  }
+
+  // Return the index of the next key to request, between 0 (inclusive) and numKeys (exclusive)
+  public abstract long nextKeyIndex(Random random);
+
+  public static KeyDistribution create(String name,
+                                       long numKeys,
+                                       double zipfianExponent,
+                                       double hotSetFraction,
+                                       double hotSetRequestFraction) {
+    if ("uniform".equals(name)) {
+      return new Uniform(numKeys);
+    } else if ("zipfian".equals(name)) {
+      return new Zipfian(numKeys, zipfianExponent);
+    } else if ("hotset".equals(name)) {
+      return new HotSet(numKeys, hotSetFraction, hotSetRequestFraction);
+    } else {
+      throw new IllegalArgumentException("Unknown key distribution: " + name + ". Valid values are: uniform, zipfian, hotset");
+    }
+  }
+
+  // Uniform long between 0 (inclusive) and n (exclusive)
+  protected static long nextLong(Random random, long n) {
+    return Math.min(n - 1, (long) (random.nextDouble() * n));
+  }
+
+  public static class Uniform extends KeyDistribution {
+
+    public Uniform(long numKeys) {
+      super(numKeys);
+    }
+
+    @Override
+    public long nextKeyIndex(Random random) {
+      return nextLong(random, numKeys);
+    }
+
+    @Override
+    public String toString() {
+      return "Uniform [numKeys=" + numKeys + "]";
+    }
+  }
+
+  /**
+   * Key #i is requested with a probability proportional to 1 / (i + 1)^exponent.
+   * Uses the generator described in "Quickly Generating Billion-Record Synthetic Databases"
+   * (Gray et al.), which requires the exponent to be in ]0, 1[ and runs in O(numKeys) on creation.
+   */
+  public static class Zipfian extends KeyDistribution {
+
+    private final double exponent;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final double secondKeyThreshold;
+
+    public Zipfian(long numKeys, double exponent) {
+      super(numKeys);
+      if (exponent <= 0 || exponent >= 1) {
+        throw new IllegalArgumentException("Zipfian exponent must be strictly between 0 and 1: " + exponent);
+      }
+      this.exponent = exponent;
+      this.zetaN = zeta(numKeys, exponent);
+      double zeta2 = zeta(2, exponent);
+      this.alpha = 1.0 / (1.0 - exponent);
+      this.eta = (1 - Math.pow(2.0 / numKeys, 1 - exponent)) / (1 - zeta2 / zetaN);
+      this.secondKeyThreshold = 1.0 + Math.pow(0.5, exponent);
+    }
+
+    private static double zeta(long n, double exponent) {
+      double result = 0;
+      for (long i = 1; i <= n; ++i) {
+        result += 1.0 / Math.pow(i, exponent);
+      }
+      return result;
+    }
+
+    @Override
+    public long nextKeyIndex(Random random) {
+      double u = random.nextDouble();
+      double uz = u * zetaN;
+      if (uz < 1.0) {
+        return 0;
+      }
+      if (uz < secondKeyThreshold) {
+        return Math.min(1, numKeys - 1);
+      }
+      return Math.min(numKeys - 1, (long) (numKeys * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    @Override
+    public String toString() {
+      return "Zipfian [numKeys=" + numKeys + ", exponent=" + exponent + "]";
+    }
+  }
+
+  /**
+   * A fraction of the requests are for keys in a small hot set, the other requests are
+   * uniformly distributed over the remaining keys.
+   */
+  public static class HotSet extends KeyDistribution {
+
+    private final long hotSetSize;
+    private final double hotSetRequestFraction;
+
+    public HotSet(long numKeys, double hotSetFraction, double hotSetRequestFraction) {
+      super(numKeys);
+      if (hotSetFraction <= 0 || hotSetFraction > 1) {
+        throw new IllegalArgumentException("Hot set fraction must be in ]0, 1]: " + hotSetFraction);
+      }
+      if (hotSetRequestFraction < 0 || hotSetRequestFraction > 1) {
+        throw new IllegalArgumentException("Hot set request fraction must be in [0, 1]: " + hotSetRequestFraction);
+      }
+      this.hotSetSize = Math.max(1, (long) (numKeys * hotSetFraction));
+      this.hotSetRequestFraction = hotSetRequestFraction;
+    }
+
+    @Override
+    public long nextKeyIndex(Random random) {
+      if (hotSetSize == numKeys || random.nextDouble() < hotSetRequestFraction) {
+        return nextLong(random, hotSetSize);
+      } else {
+        return hotSetSize + nextLong(random, numKeys - hotSetSize);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "HotSet [numKeys=" + numKeys + ", hotSetSize=" + hotSetSize
+          + ", hotSetRequestFraction=" + hotSetRequestFraction + "]";
+    }
+  }
+}
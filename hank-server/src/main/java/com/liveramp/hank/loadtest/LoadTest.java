@@ -0,0 +1,500 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.yaml.snakeyaml.Yaml;
+
+import com.liveramp.hank.client.FutureGet;
+import com.liveramp.hank.client.GetCallback;
+import com.liveramp.hank.client.HankSmartClient;
+import com.liveramp.hank.client.HankSmartClientOptions;
+import com.liveramp.hank.generated.HankBulkResponse;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.StorageEngineFactory;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.util.CliUtils;
+import com.liveramp.hank.util.FsUtils;
+import com.liveramp.hank.util.LatencyHistogram;
+
+/**
+ * Self contained load test. Starts a ring group of partition servers in the current process,
+ * writes a domain locally with the Curly or Cueball storage engine, and drives a HankSmartClient
+ * with a configurable key distribution. Reports throughput and latency percentiles of GET,
+ * GET BULK and concurrent GET requests.
+ */
+public class LoadTest {
+
+  private static final Logger LOG = Logger.getLogger(LoadTest.class);
+
+  private static final String DOMAIN_NAME = "load_test_domain";
+  private static final String RING_GROUP_NAME = "load_test_ring_group";
+
+  public static enum Operation {
+    GET("get"),
+    GET_BULK("getBulk"),
+    CONCURRENT_GET("concurrentGet");
+
+    private final String name;
+
+    Operation(String name) {
+      this.name = name;
+    }
+
+    public static Operation parse(String name) {
+      for (Operation operation : values()) {
+        if (operation.name.equals(name)) {
+          return operation;
+        }
+      }
+      throw new IllegalArgumentException("Unknown operation: " + name + ". Valid values are: get, getBulk, concurrentGet");
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  public static class Result {
+
+    private final Operation operation;
+    private final int numThreads;
+    private final long durationNanos;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long numRequests = 0;
+    private long numKeys = 0;
+    private long numFound = 0;
+    private long numNotFound = 0;
+    private long numErrors = 0;
+
+    public Result(Operation operation, int numThreads, long durationNanos) {
+      this.operation = operation;
+      this.numThreads = numThreads;
+      this.durationNanos = durationNanos;
+    }
+
+    private void aggregate(LoadThread thread) {
+      latencies.merge(thread.latencies);
+      numRequests += thread.numRequests;
+      numKeys += thread.numKeys;
+      numFound += thread.numFound;
+      numNotFound += thread.numNotFound;
+      numErrors += thread.numErrors;
+    }
+
+    public LatencyHistogram getLatencies() {
+      return latencies;
+    }
+
+    public long getNumRequests() {
+      return numRequests;
+    }
+
+    public long getNumKeys() {
+      return numKeys;
+    }
+
+    public long getNumFound() {
+      return numFound;
+    }
+
+    public long getNumNotFound() {
+      return numNotFound;
+    }
+
+    public long getNumErrors() {
+      return numErrors;
+    }
+
+    public double getRequestThroughput() {
+      return numRequests / (durationNanos / 1000000000d);
+    }
+
+    public double getKeyThroughput() {
+      return numKeys / (durationNanos / 1000000000d);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Operation: %s, threads: %d, duration: %.1fs%n"
+          + "  requests: %d (%.1f req/s), keys: %d (%.1f keys/s)%n"
+          + "  found: %d, not found: %d, errors: %d%n"
+          + "  latency (ms): mean: %.3f, p50: %.3f, p99: %.3f, p999: %.3f, max: %.3f",
+          operation, numThreads, durationNanos / 1000000000d,
+          numRequests, getRequestThroughput(), numKeys, getKeyThroughput(),
+          numFound, numNotFound, numErrors,
+          latencies.getMean() / 1000000d,
+          latencies.getValueAtPercentile(50) / 1000000d,
+          latencies.getValueAtPercentile(99) / 1000000d,
+          latencies.getValueAtPercentile(99.9) / 1000000d,
+          latencies.getMaxValue() / 1000000d);
+    }
+  }
+
+  /**
+   * Performs requests as fast as possible until the end of the measurement window.
+   * Requests starting before the beginning of the measurement window are not measured.
+   */
+  private static class LoadThread extends Thread {
+
+    private final HankSmartClient client;
+    private final Operation operation;
+    private final LoadTestRecords records;
+    private final KeyDistribution keyDistribution;
+    private final int bulkSize;
+    private final boolean verifyValues;
+    private final long measurementStartNanos;
+    private final long measurementEndNanos;
+    private final Random random;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long numRequests = 0;
+    private long numKeys = 0;
+    private long numFound = 0;
+    private long numNotFound = 0;
+    private long numErrors = 0;
+
+    public LoadThread(int threadNumber,
+                      HankSmartClient client,
+                      Operation operation,
+                      LoadTestRecords records,
+                      KeyDistribution keyDistribution,
+                      int bulkSize,
+                      boolean verifyValues,
+                      long measurementStartNanos,
+                      long measurementEndNanos) {
+      super("Load Thread #" + threadNumber);
+      this.client = client;
+      this.operation = operation;
+      this.records = records;
+      this.keyDistribution = keyDistribution;
+      this.bulkSize = bulkSize;
+      this.verifyValues = verifyValues;
+      this.measurementStartNanos = measurementStartNanos;
+      this.measurementEndNanos = measurementEndNanos;
+      this.random = new Random(threadNumber);
+    }
+
+    @Override
+    public void run() {
+      long[] indices = new long[operation == Operation.GET ? 1 : bulkSize];
+      List<ByteBuffer> keys = new ArrayList<ByteBuffer>(indices.length);
+      try {
+        while (true) {
+          // Pick keys
+          keys.clear();
+          for (int i = 0; i < indices.length; ++i) {
+            indices[i] = keyDistribution.nextKeyIndex(random);
+            keys.add(records.getKey(indices[i]));
+          }
+          long startNanos = System.nanoTime();
+          if (startNanos >= measurementEndNanos) {
+            break;
+          }
+          boolean measured = startNanos >= measurementStartNanos;
+          switch (operation) {
+            case GET:
+              HankResponse response = client.get(DOMAIN_NAME, keys.get(0));
+              if (measured) {
+                latencies.record(System.nanoTime() - startNanos);
+                processResponse(response, indices[0]);
+              }
+              break;
+            case GET_BULK:
+              HankBulkResponse bulkResponse = client.getBulk(DOMAIN_NAME, keys);
+              if (measured) {
+                latencies.record(System.nanoTime() - startNanos);
+                if (bulkResponse.is_set_xception()) {
+                  logError(bulkResponse.toString());
+                  numErrors += keys.size();
+                } else {
+                  for (int i = 0; i < keys.size(); ++i) {
+                    processResponse(bulkResponse.get_responses().get(i), indices[i]);
+                  }
+                }
+              }
+              break;
+            case CONCURRENT_GET:
+              performConcurrentGet(keys, indices, startNanos, measured);
+              break;
+          }
+          if (measured) {
+            ++numRequests;
+            numKeys += keys.size();
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.error("Interrupted while performing requests", e);
+      }
+    }
+
+    // Each concurrent GET is timed from the time all requests are issued to its own completion
+    private void performConcurrentGet(List<ByteBuffer> keys, long[] indices, final long startNanos, boolean measured)
+        throws InterruptedException {
+      final long[] endNanos = new long[keys.size()];
+      final CountDownLatch latch = new CountDownLatch(keys.size());
+      List<FutureGet> futureGets = client.concurrentGet(DOMAIN_NAME, keys);
+      for (int i = 0; i < futureGets.size(); ++i) {
+        final int index = i;
+        futureGets.get(i).addCallback(new GetCallback() {
+          @Override
+          public void onComplete(HankResponse response) {
+            endNanos[index] = System.nanoTime();
+            latch.countDown();
+          }
+        });
+      }
+      latch.await();
+      if (measured) {
+        for (int i = 0; i < futureGets.size(); ++i) {
+          latencies.record(endNanos[i] - startNanos);
+          processResponse(futureGets.get(i).getResponse(), indices[i]);
+        }
+      }
+    }
+
+    private void processResponse(HankResponse response, long index) {
+      if (response.is_set_value()) {
+        if (verifyValues && !records.getValue(index).equals(ByteBuffer.wrap(response.get_value()))) {
+          logError("Unexpected value for key #" + index);
+          ++numErrors;
+        } else {
+          ++numFound;
+        }
+      } else if (response.is_set_not_found()) {
+        ++numNotFound;
+      } else {
+        logError(response.toString());
+        ++numErrors;
+      }
+    }
+
+    // Only log the first error of each thread
+    private void logError(String error) {
+      if (numErrors == 0) {
+        LOG.error("Request failed: " + error);
+      }
+    }
+  }
+
+  public static Result run(HankSmartClient client,
+                           Operation operation,
+                           LoadTestRecords records,
+                           KeyDistribution keyDistribution,
+                           int numThreads,
+                           int bulkSize,
+                           boolean verifyValues,
+                           long warmUpDurationMs,
+                           long durationMs) throws InterruptedException {
+    long measurementStartNanos = System.nanoTime() + warmUpDurationMs * 1000000L;
+    long measurementEndNanos = measurementStartNanos + durationMs * 1000000L;
+    List<LoadThread> threads = new ArrayList<LoadThread>();
+    for (int i = 0; i < numThreads; ++i) {
+      LoadThread thread = new LoadThread(i, client, operation, records, keyDistribution, bulkSize, verifyValues,
+          measurementStartNanos, measurementEndNanos);
+      threads.add(thread);
+      thread.start();
+    }
+    Result result = new Result(operation, numThreads, measurementEndNanos - measurementStartNanos);
+    for (LoadThread thread : threads) {
+      thread.join();
+      result.aggregate(thread);
+    }
+    return result;
+  }
+
+  private static Options getOptions() {
+    Options options = new Options();
+    options.addOption(CliUtils.buildOneArgOption("d", "local directory under which a temporary directory is created to write and serve domains from", "dir", false, "local-dir"));
+    options.addOption(CliUtils.buildOneArgOption("r", "number of rings (1)", "n", false, "num-rings"));
+    options.addOption(CliUtils.buildOneArgOption("h", "number of partition servers per ring (2)", "n", false, "num-hosts-per-ring"));
+    options.addOption(CliUtils.buildOneArgOption("port", "service port of the first partition server (12300)", "port", false, "first-port"));
+    options.addOption(CliUtils.buildOneArgOption("q", "number of concurrent queries per partition server (8)", "n", false, "num-concurrent-queries"));
+    options.addOption(CliUtils.buildOneArgOption("bt", "number of concurrent GET BULK tasks per partition server (8)", "n", false, "num-concurrent-get-bulk-tasks"));
+    options.addOption(CliUtils.buildOneArgOption("bts", "GET BULK task size (16)", "n", false, "get-bulk-task-size"));
+    options.addOption(CliUtils.buildOneArgOption("bte", "GET BULK task executor: fixed or fair (fixed)", "type", false, "get-bulk-task-executor"));
+    options.addOption(CliUtils.buildOneArgOption("e", "storage engine: curly or cueball (curly)", "engine", false, "storage-engine"));
+    options.addOption(CliUtils.buildOneArgOption("o", "YAML file of storage engine options overriding the defaults", "file", false, "storage-engine-options"));
+    options.addOption(CliUtils.buildOneArgOption("p", "number of partitions (8)", "n", false, "num-partitions"));
+    options.addOption(CliUtils.buildOneArgOption("n", "number of records (1000000)", "n", false, "num-records"));
+    options.addOption(CliUtils.buildOneArgOption("k", "key length in bytes, at least 8 (16)", "n", false, "key-length"));
+    options.addOption(CliUtils.buildOneArgOption("v", "value length in bytes (64)", "n", false, "value-length"));
+    options.addOption(CliUtils.buildOneArgOption("ops", "comma separated operations: get, getBulk, concurrentGet (get,getBulk,concurrentGet)", "operations", false, "operations"));
+    options.addOption(CliUtils.buildOneArgOption("t", "number of client threads (8)", "n", false, "num-threads"));
+    options.addOption(CliUtils.buildOneArgOption("b", "number of keys per GET BULK or batch of concurrent GETs (100)", "n", false, "bulk-size"));
+    options.addOption(CliUtils.buildOneArgOption("w", "warm up duration of each operation in seconds (5)", "s", false, "warm-up-seconds"));
+    options.addOption(CliUtils.buildOneArgOption("s", "measured duration of each operation in seconds (30)", "s", false, "duration-seconds"));
+    options.addOption(CliUtils.buildOneArgOption("kd", "key distribution: uniform, zipfian or hotset (uniform)", "distribution", false, "key-distribution"));
+    options.addOption(CliUtils.buildOneArgOption("ze", "zipfian exponent, in ]0, 1[ (0.99)", "x", false, "zipfian-exponent"));
+    options.addOption(CliUtils.buildOneArgOption("hf", "fraction of keys in the hot set (0.01)", "x", false, "hot-set-fraction"));
+    options.addOption(CliUtils.buildOneArgOption("hrf", "fraction of requests for keys in the hot set (0.9)", "x", false, "hot-set-request-fraction"));
+    options.addOption(CliUtils.buildOneArgOption("c", "number of client connections per host (4)", "n", false, "num-connections-per-host"));
+    options.addOption(CliUtils.buildOneArgOption("qt", "client query timeout in ms (1000)", "ms", false, "query-timeout-ms"));
+    options.addOption(CliUtils.buildOneArgOption("bqt", "client bulk query timeout in ms (10000)", "ms", false, "bulk-query-timeout-ms"));
+    options.addOption(CliUtils.buildOneArgOption("hd", "client hedged requests delay in ms, 0 to disable (0)", "ms", false, "hedged-requests-delay-ms"));
+    options.addOption("async", "async-connections", false, "use pipelined non blocking client connections");
+    options.addOption("la", "latency-aware-host-selection", false, "use latency aware host selection in the client");
+    options.addOption("verify", "verify-values", false, "verify the values returned by the partition servers");
+    return options;
+  }
+
+  private static int getIntOption(CommandLine line, String name, int defaultValue) {
+    return line.hasOption(name) ? Integer.parseInt(line.getOptionValue(name)) : defaultValue;
+  }
+
+  private static double getDoubleOption(CommandLine line, String name, double defaultValue) {
+    return line.hasOption(name) ? Double.parseDouble(line.getOptionValue(name)) : defaultValue;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getStorageEngineOptions(String storageEngine,
+                                                             String storageEngineOptionsPath,
+                                                             String remoteDomainRoot,
+                                                             int valueLength) throws IOException {
+    Map<String, Object> options = new HashMap<String, Object>();
+    options.put(Cueball.Factory.REMOTE_DOMAIN_ROOT_KEY, remoteDomainRoot);
+    options.put(Cueball.Factory.FILE_OPS_FACTORY_KEY, LocalPartitionRemoteFileOps.Factory.class.getName());
+    options.put(Cueball.Factory.HASHER_KEY, Murmur64Hasher.class.getName());
+    options.put(Cueball.Factory.KEY_HASH_SIZE_KEY, 10);
+    options.put(Cueball.Factory.HASH_INDEX_BITS_KEY, 12);
+    options.put(Cueball.Factory.NUM_REMOTE_LEAF_VERSIONS_TO_KEEP, 0);
+    if ("cueball".equals(storageEngine)) {
+      options.put(Cueball.Factory.VALUE_SIZE_KEY, valueLength);
+    } else if ("curly".equals(storageEngine)) {
+      options.put(Curly.Factory.MAX_ALLOWED_PART_SIZE_KEY, 1L << 32);
+      options.put(Curly.Factory.RECORD_FILE_READ_BUFFER_BYTES_KEY, 32 * 1024);
+    } else {
+      throw new IllegalArgumentException("Unknown storage engine: " + storageEngine + ". Valid values are: curly, cueball");
+    }
+    if (storageEngineOptionsPath != null) {
+      FileInputStream inputStream = new FileInputStream(storageEngineOptionsPath);
+      try {
+        Map<String, Object> overrides = (Map<String, Object>) new Yaml().load(inputStream);
+        if (overrides != null) {
+          options.putAll(overrides);
+        }
+      } finally {
+        inputStream.close();
+      }
+    }
+    return options;
+  }
+
+  private static File createLocalDir(String parentDir) throws IOException {
+    File parent = new File(parentDir);
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Failed to create directory " + parent);
+    }
+    File dir = File.createTempFile("hank_load_test_", "", parent);
+    if (!dir.delete() || !dir.mkdir()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    return dir;
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLine line = CliUtils.parseAndHelp(LoadTest.class.getSimpleName(), getOptions(), args);
+
+    Logger.getLogger("com.liveramp.hank").setLevel(Level.WARN);
+
+    String localParentDir = line.getOptionValue("local-dir", System.getProperty("java.io.tmpdir"));
+    String storageEngine = line.getOptionValue("storage-engine", "curly");
+    int numPartitions = getIntOption(line, "num-partitions", 8);
+    LoadTestRecords records = new LoadTestRecords(getIntOption(line, "num-records", 1000000),
+        getIntOption(line, "key-length", 16),
+        getIntOption(line, "value-length", 64));
+    KeyDistribution keyDistribution = KeyDistribution.create(line.getOptionValue("key-distribution", "uniform"),
+        records.getNumRecords(),
+        getDoubleOption(line, "zipfian-exponent", 0.99),
+        getDoubleOption(line, "hot-set-fraction", 0.01),
+        getDoubleOption(line, "hot-set-request-fraction", 0.9));
+    List<Operation> operations = new ArrayList<Operation>();
+    for (String operation : line.getOptionValue("operations", "get,getBulk,concurrentGet").split(",")) {
+      operations.add(Operation.parse(operation.trim()));
+    }
+    int numThreads = getIntOption(line, "num-threads", 8);
+    int bulkSize = getIntOption(line, "bulk-size", 100);
+    long warmUpDurationMs = getIntOption(line, "warm-up-seconds", 5) * 1000L;
+    long durationMs = getIntOption(line, "duration-seconds", 30) * 1000L;
+    boolean verifyValues = line.hasOption("verify-values");
+
+    // Domains are written to a new directory under the given one, and only that directory is deleted
+    File localDir = createLocalDir(localParentDir);
+    try {
+      // Start the cluster
+      InProcessCluster cluster = new InProcessCluster(localDir.getPath(),
+          RING_GROUP_NAME,
+          getIntOption(line, "num-rings", 1),
+          getIntOption(line, "num-hosts-per-ring", 2),
+          getIntOption(line, "first-port", 12300),
+          getIntOption(line, "num-concurrent-queries", 8),
+          getIntOption(line, "num-concurrent-get-bulk-tasks", 8),
+          getIntOption(line, "get-bulk-task-size", 16),
+          line.getOptionValue("get-bulk-task-executor", "fixed"));
+      StorageEngineFactory storageEngineFactory = "cueball".equals(storageEngine) ? new Cueball.Factory() : new Curly.Factory();
+      cluster.addDomain(DOMAIN_NAME, numPartitions, storageEngineFactory,
+          getStorageEngineOptions(storageEngine, line.getOptionValue("storage-engine-options"),
+              cluster.getRemoteDomainRoot(DOMAIN_NAME), records.getValueLength()),
+          new Murmur64Partitioner(), records);
+      cluster.start();
+
+      HankSmartClient client = null;
+      try {
+        client = new HankSmartClient(cluster.getCoordinator(), cluster.getRingGroupName(), new HankSmartClientOptions()
+            .setNumConnectionsPerHost(getIntOption(line, "num-connections-per-host", 4))
+            .setQueryTimeoutMs(getIntOption(line, "query-timeout-ms", 1000))
+            .setBulkQueryTimeoutMs(getIntOption(line, "bulk-query-timeout-ms", 10000))
+            .setHedgedRequestsDelayMs(getIntOption(line, "hedged-requests-delay-ms", 0))
+            .setAsyncConnectionsEnabled(line.hasOption("async-connections"))
+            .setLatencyAwareHostSelectionEnabled(line.hasOption("latency-aware-host-selection")));
+        System.out.println("Storage engine: " + storageEngine + ", " + numPartitions + " partitions, " + records);
+        System.out.println("Key distribution: " + keyDistribution);
+        for (Operation operation : operations) {
+          System.out.println(run(client, operation, records, keyDistribution, numThreads, bulkSize, verifyValues,
+              warmUpDurationMs, durationMs));
+        }
+      } finally {
+        if (client != null) {
+          client.stop();
+        }
+        cluster.stop();
+      }
+    } finally {
+      FsUtils.rmrf(localDir.getPath());
+    }
+  }
+}
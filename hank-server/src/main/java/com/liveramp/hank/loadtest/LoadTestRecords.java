@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.loadtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Deterministic load test data set. The key and value of record #i are computed from i,
+ * so that clients can pick keys to request without holding the data set in memory.
+ */
+public class LoadTestRecords {
+
+  private final long numRecords;
+  private final int keyLength;
+  private final int valueLength;
+
+  public LoadTestRecords(long numRecords, int keyLength, int valueLength) {
+    if (keyLength < 8) {
+      throw new IllegalArgumentException("Key length must be at least 8 bytes: " + keyLength);
+    }
+    this.numRecords = numRecords;
+    this.keyLength = keyLength;
+    this.valueLength = valueLength;
+  }
+
+  public long getNumRecords() {
+    return numRecords;
+  }
+
+  public int getKeyLength() {
+    return keyLength;
+  }
+
+  public int getValueLength() {
+    return valueLength;
+  }
+
+  // The index is encoded in the last 8 bytes of the key
+  public ByteBuffer getKey(long index) {
+    ByteBuffer key = ByteBuffer.allocate(keyLength);
+    key.putLong(keyLength - 8, index);
+    return key;
+  }
+
+  public ByteBuffer getValue(long index) {
+    byte[] value = new byte[valueLength];
+    long seed = index * 0x9E3779B97F4A7C15L;
+    for (int i = 0; i < valueLength; ++i) {
+      value[i] = (byte) (seed >>> ((i & 7) << 3));
+      if ((i & 7) == 7) {
+        seed = seed * 6364136223846793005L + 1442695040888963407L;
+      }
+    }
+    return ByteBuffer.wrap(value);
+  }
+
+  @Override
+  public String toString() {
+    return "LoadTestRecords [numRecords=" + numRecords
+        + ", keyLength=" + keyLength
+        + ", valueLength=" + valueLength + "]";
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * A compact protocol that can also write binary fields from buffers that are not backed by an array,
+ * such as direct buffers or memory mapped slices, by copying them to the transport in chunks.
+ */
+public class DirectBufferCompactProtocol extends TCompactProtocol {
+
+  private static final int CHUNK_SIZE = 8 << 10;
+
+  // Allocated the first time a buffer without an array is written
+  private byte[] chunk;
+  private final byte[] varint = new byte[5];
+
+  public static class Factory implements TProtocolFactory {
+
+    @Override
+    public TProtocol getProtocol(TTransport transport) {
+      return new DirectBufferCompactProtocol(transport);
+    }
+  }
+
+  public DirectBufferCompactProtocol(TTransport transport) {
+    super(transport);
+  }
+
+  @Override
+  public void writeBinary(ByteBuffer buffer) throws TException {
+    if (buffer.hasArray()) {
+      super.writeBinary(buffer);
+      return;
+    }
+    int length = buffer.remaining();
+    writeVarint32(length);
+    if (chunk == null) {
+      chunk = new byte[CHUNK_SIZE];
+    }
+    ByteBuffer source = buffer.duplicate();
+    while (source.hasRemaining()) {
+      int chunkLength = Math.min(chunk.length, source.remaining());
+      source.get(chunk, 0, chunkLength);
+      trans_.write(chunk, 0, chunkLength);
+    }
+  }
+
+  private void writeVarint32(int n) throws TException {
+    int length = 0;
+    while ((n & ~0x7F) != 0) {
+      varint[length++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    varint[length++] = (byte) n;
+    trans_.write(varint, 0, length);
+  }
+}
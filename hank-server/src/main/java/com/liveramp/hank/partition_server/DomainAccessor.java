@@ -20,6 +20,7 @@ import com.liveramp.hank.coordinator.HostDomain;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.partitioner.Partitioner;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.util.Bytes;
 import com.liveramp.hank.util.HankTimer;
@@ -28,6 +29,8 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class that manages accessing data on behalf of a particular Domain.
@@ -41,16 +44,27 @@ public class DomainAccessor {
   private final PartitionAccessor[] partitionAccessors;
   private final Partitioner partitioner;
   private final HankTimerEventAggregator getRequestsTimerAggregator;
+  // Value cache shared by the Readers of all partitions, if any
+  private final OffHeapValueCache sharedValueCache;
 
   DomainAccessor(HostDomain hostDomain,
                  PartitionAccessor[] partitionAccessors,
                  Partitioner partitioner,
                  int getTimerAggregatorWindow) throws IOException {
+    this(hostDomain, partitionAccessors, partitioner, getTimerAggregatorWindow, null);
+  }
+
+  DomainAccessor(HostDomain hostDomain,
+                 PartitionAccessor[] partitionAccessors,
+                 Partitioner partitioner,
+                 int getTimerAggregatorWindow,
+                 OffHeapValueCache sharedValueCache) throws IOException {
     this.hostDomain = hostDomain;
     this.partitionAccessors = partitionAccessors;
     this.partitioner = partitioner;
     this.getRequestsTimerAggregator = new HankTimerEventAggregator("GET " + hostDomain.getDomain().getName(),
         getTimerAggregatorWindow);
+    this.sharedValueCache = sharedValueCache;
   }
 
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
@@ -69,6 +83,82 @@ public class DomainAccessor {
     }
   }
 
+  // Perform gets for the given keys, grouped by partition so that each partition's Reader can look up its
+  // keys in bulk. Responses are stored in the same order as keys. If a lookup fails, no key is counted in
+  // statistics.
+  public HankResponse[] getBulk(List<ByteBuffer> keys) throws IOException {
+    return getBulk(keys, null, null);
+  }
+
+  // Same as above, but the ReaderResults whose buffers are kept by responses are acquired from the given pool
+  // and added to readerResults, so that they can be released once the responses have been written out.
+  public HankResponse[] getBulk(List<ByteBuffer> keys,
+                                ReaderResultPool readerResultPool,
+                                List<ReaderResult> readerResults) throws IOException {
+    HankTimer timer = getRequestsTimerAggregator.getTimer();
+    HankResponse[] responses = new HankResponse[keys.size()];
+    // Group keys by partition
+    List<List<ByteBuffer>> partitionToKeys = new ArrayList<List<ByteBuffer>>(partitionAccessors.length);
+    List<List<Integer>> partitionToKeyIndices = new ArrayList<List<Integer>>(partitionAccessors.length);
+    for (int i = 0; i < partitionAccessors.length; ++i) {
+      partitionToKeys.add(null);
+      partitionToKeyIndices.add(null);
+    }
+    for (int keyIndex = 0; keyIndex < keys.size(); ++keyIndex) {
+      ByteBuffer key = keys.get(keyIndex);
+      int partition = partitioner.partition(key, partitionAccessors.length);
+      if (partitionAccessors[partition] == null) {
+        LOG.error("Failed to perform get because of an Exception: wrong host for domain: " + hostDomain.getDomain().getName()
+            + ", partition: " + partition + ", key: " + Bytes.bytesToHexString(key) + ", response: " + WRONG_HOST);
+        responses[keyIndex] = WRONG_HOST;
+        continue;
+      }
+      List<ByteBuffer> partitionKeys = partitionToKeys.get(partition);
+      if (partitionKeys == null) {
+        partitionKeys = new ArrayList<ByteBuffer>();
+        partitionToKeys.set(partition, partitionKeys);
+        partitionToKeyIndices.set(partition, new ArrayList<Integer>());
+      }
+      partitionKeys.add(key);
+      partitionToKeyIndices.get(partition).add(keyIndex);
+    }
+    // Look up keys partition by partition. Nothing is counted until all lookups have succeeded, so that
+    // callers can fall back to looking up keys individually when one fails.
+    int[][] partitionToResponseIndices = new int[partitionAccessors.length][];
+    ReaderResult[][] partitionToResults = new ReaderResult[partitionAccessors.length][];
+    for (int partition = 0; partition < partitionAccessors.length; ++partition) {
+      List<ByteBuffer> partitionKeys = partitionToKeys.get(partition);
+      if (partitionKeys != null) {
+        List<Integer> keyIndices = partitionToKeyIndices.get(partition);
+        int[] responseIndices = new int[keyIndices.size()];
+        for (int i = 0; i < responseIndices.length; ++i) {
+          responseIndices[i] = keyIndices.get(i);
+        }
+        ReaderResult[] results = new ReaderResult[responseIndices.length];
+        for (int i = 0; i < results.length; ++i) {
+          if (readerResultPool == null) {
+            results[i] = new ReaderResult();
+          } else {
+            results[i] = readerResultPool.acquire();
+            readerResults.add(results[i]);
+          }
+        }
+        if (partitionAccessors[partition].lookUpBulk(partitionKeys, responses, responseIndices, results)) {
+          partitionToResponseIndices[partition] = responseIndices;
+          partitionToResults[partition] = results;
+        }
+      }
+    }
+    for (int partition = 0; partition < partitionAccessors.length; ++partition) {
+      if (partitionToResults[partition] != null) {
+        partitionAccessors[partition].completeBulk(partitionToKeys.get(partition), responses,
+            partitionToResponseIndices[partition], partitionToResults[partition]);
+      }
+    }
+    getRequestsTimerAggregator.add(timer, keys.size());
+    return responses;
+  }
+
   public String getName() {
     return hostDomain.getDomain().getName();
   }
@@ -77,6 +167,14 @@ public class DomainAccessor {
     return hostDomain;
   }
 
+  // Return the accessor of the given partition, null if the partition is not served
+  PartitionAccessor getPartitionAccessor(int partitionNumber) {
+    if (partitionNumber < 0 || partitionNumber >= partitionAccessors.length) {
+      return null;
+    }
+    return partitionAccessors[partitionNumber];
+  }
+
   public void shutDown() {
     // Shutdown partition accessors
     for (PartitionAccessor partitionAccessor : partitionAccessors) {
@@ -95,6 +193,13 @@ public class DomainAccessor {
     }
     runtimeStatisticsAggregator.setGetRequestsPopulationStatistics(
         getRequestsTimerAggregator.getAndResetPopulationStatistics());
+    if (sharedValueCache != null) {
+      runtimeStatisticsAggregator.setCacheStatistics(new CacheStatistics(
+          sharedValueCache.getNumItems(),
+          sharedValueCache.getNumManagedBytes(),
+          sharedValueCache.getNumBytesCapacity(),
+          sharedValueCache.getNumEvictions()));
+    }
     return runtimeStatisticsAggregator;
   }
 }
@@ -0,0 +1,142 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs GET BULK tasks with per-request fairness. Each request gets its own queue of
+ * tasks, and worker threads take one task at a time from each request in round-robin
+ * order. A large request therefore cannot delay the tasks of smaller requests that
+ * arrive after it, as it would with a single FIFO queue.
+ * When maxQueuedTasks is positive, requests that would bring the total number of queued
+ * tasks above it are rejected.
+ */
+public class FairGetBulkTaskExecutor implements GetBulkTaskExecutor {
+
+  private static final Logger LOG = Logger.getLogger(FairGetBulkTaskExecutor.class);
+
+  private final Object lock = new Object();
+  // Queues of requests that have tasks left to run, in round-robin order
+  private final LinkedList<LinkedList<Runnable>> requestQueues = new LinkedList<LinkedList<Runnable>>();
+  private final int maxQueuedTasks;
+  private int numQueuedTasks = 0;
+  private boolean isShutDown = false;
+  private final Thread[] workers;
+
+  public FairGetBulkTaskExecutor(int numThreads, int maxQueuedTasks) {
+    this.maxQueuedTasks = maxQueuedTasks;
+    workers = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      workers[i] = new Thread(new Worker(), "GET BULK Thread " + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  @Override
+  public void execute(List<? extends Runnable> tasks) {
+    if (tasks.isEmpty()) {
+      return;
+    }
+    synchronized (lock) {
+      if (isShutDown) {
+        throw new RejectedExecutionException("GET BULK task executor is shut down");
+      }
+      // A request is always admitted when nothing is queued, so that requests larger
+      // than the limit can still be served.
+      if (maxQueuedTasks > 0 && numQueuedTasks > 0 && numQueuedTasks + tasks.size() > maxQueuedTasks) {
+        throw new RejectedExecutionException("Too many queued GET BULK tasks: " + numQueuedTasks
+            + " queued, " + tasks.size() + " submitted, max is " + maxQueuedTasks);
+      }
+      requestQueues.addLast(new LinkedList<Runnable>(tasks));
+      numQueuedTasks += tasks.size();
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public int getNumQueuedTasks() {
+    synchronized (lock) {
+      return numQueuedTasks;
+    }
+  }
+
+  // Return the next task to run, or null if the executor is shut down and no task is left
+  private Runnable takeTask() throws InterruptedException {
+    synchronized (lock) {
+      while (requestQueues.isEmpty()) {
+        if (isShutDown) {
+          return null;
+        }
+        lock.wait();
+      }
+      // Take one task from the request at the head, and move it to the tail if it has more
+      LinkedList<Runnable> requestQueue = requestQueues.removeFirst();
+      Runnable task = requestQueue.removeFirst();
+      if (!requestQueue.isEmpty()) {
+        requestQueues.addLast(requestQueue);
+      }
+      --numQueuedTasks;
+      return task;
+    }
+  }
+
+  @Override
+  public void shutDown() {
+    synchronized (lock) {
+      isShutDown = true;
+      lock.notifyAll();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        LOG.debug("Interrupted while waiting for termination of GET BULK task executor during shutdown.");
+        return;
+      }
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      while (true) {
+        Runnable task;
+        try {
+          task = takeTask();
+        } catch (InterruptedException e) {
+          LOG.debug("GET BULK worker interrupted. Exiting.");
+          return;
+        }
+        if (task == null) {
+          return;
+        }
+        try {
+          task.run();
+        } catch (Throwable t) {
+          LOG.error("Throwable while running GET BULK task", t);
+        }
+      }
+    }
+  }
+}
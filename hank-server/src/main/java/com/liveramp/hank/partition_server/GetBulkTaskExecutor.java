@@ -0,0 +1,38 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes the tasks that a GET BULK request is split into. Implementations
+ * bound the number of queued tasks and reject whole requests when that bound
+ * would be exceeded, so that the server can report that it is overloaded
+ * instead of queuing without limit.
+ */
+public interface GetBulkTaskExecutor {
+
+  // Queue all tasks of one request, or none of them. Throws RejectedExecutionException
+  // if the executor is overloaded or shut down.
+  public void execute(List<? extends Runnable> tasks) throws RejectedExecutionException;
+
+  public int getNumQueuedTasks();
+
+  // Stop accepting tasks, run the ones that are queued and wait for termination
+  public void shutDown();
+}
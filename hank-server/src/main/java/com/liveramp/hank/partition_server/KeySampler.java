@@ -0,0 +1,234 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.util.Bytes;
+
+/**
+ * Tracks the hottest keys of a partition, so that they can be replayed to warm up caches the next
+ * time the partition is loaded, even at a newer version. Only one request out of samplingPeriod
+ * is recorded, which keeps the cost on the request path negligible. Frequencies of sampled keys
+ * are estimated with a count-min sketch, and the keys with the highest estimates are kept as
+ * candidates. Decaying halves all frequencies, so that keys that are not requested anymore fade out.
+ */
+public class KeySampler {
+
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH_PER_KEY = 8;
+  private static final int MIN_SKETCH_WIDTH = 1024;
+  // Each row hashes keys with its own seed, so that keys colliding in one row do not collide in the others
+  private static final int[] SKETCH_SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+  private final int capacity;
+  private final int samplingPeriod;
+  // Rows are updated without locking, so that concurrent requests do not contend on the sampler
+  private final AtomicIntegerArray[] sketch;
+  private final int sketchMask;
+  // Candidate hot keys and their estimated frequencies. Pruned to capacity when it grows twice as large.
+  private final ConcurrentMap<ByteBuffer, Integer> candidates = new ConcurrentHashMap<ByteBuffer, Integer>();
+  private volatile int minCandidateFrequency = 0;
+  // Held to prune, decay and list candidates, which are infrequent
+  private final Object candidatesLock = new Object();
+  private final ThreadLocal<int[]> numRequestsUntilSample = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[]{0};
+    }
+  };
+
+  public KeySampler(int capacity, int samplingPeriod) {
+    if (capacity <= 0 || samplingPeriod <= 0) {
+      throw new IllegalArgumentException("Invalid key sampler capacity " + capacity + " or sampling period " + samplingPeriod);
+    }
+    this.capacity = capacity;
+    this.samplingPeriod = samplingPeriod;
+    int sketchWidth = Integer.highestOneBit(Math.max(MIN_SKETCH_WIDTH, capacity * SKETCH_WIDTH_PER_KEY) - 1) << 1;
+    this.sketch = new AtomicIntegerArray[SKETCH_DEPTH];
+    for (int i = 0; i < SKETCH_DEPTH; ++i) {
+      sketch[i] = new AtomicIntegerArray(sketchWidth);
+    }
+    this.sketchMask = sketchWidth - 1;
+  }
+
+  public void record(ByteBuffer key) {
+    int[] counter = numRequestsUntilSample.get();
+    if (counter[0]-- > 0) {
+      return;
+    }
+    counter[0] = samplingPeriod - 1;
+    recordSampled(key);
+  }
+
+  private void recordSampled(ByteBuffer key) {
+    // Increment the sketch and estimate the key's frequency
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < SKETCH_DEPTH; ++i) {
+      int index = (int) Murmur64Hasher.murmurHash64(key, SKETCH_SEEDS[i]) & sketchMask;
+      frequency = Math.min(frequency, increment(sketch[i], index));
+    }
+    // Keep the key as a candidate if it could be among the hottest
+    if (candidates.replace(key, frequency) == null
+        && (candidates.size() < capacity || frequency > minCandidateFrequency)) {
+      candidates.put(Bytes.byteBufferDeepCopy(key), frequency);
+      if (candidates.size() >= 2 * capacity) {
+        pruneCandidates();
+      }
+    }
+  }
+
+  // Return the incremented count, which saturates instead of overflowing
+  private static int increment(AtomicIntegerArray row, int index) {
+    while (true) {
+      int count = row.get(index);
+      if (count == Integer.MAX_VALUE) {
+        return count;
+      }
+      if (row.compareAndSet(index, count, count + 1)) {
+        return count + 1;
+      }
+    }
+  }
+
+  // Keep the capacity candidates with the highest frequencies
+  private void pruneCandidates() {
+    synchronized (candidatesLock) {
+      if (candidates.size() < 2 * capacity) {
+        // Another thread pruned them first
+        return;
+      }
+      List<Map.Entry<ByteBuffer, Integer>> entries = getSortedCandidates();
+      for (Map.Entry<ByteBuffer, Integer> entry : entries.subList(Math.min(capacity, entries.size()), entries.size())) {
+        candidates.remove(entry.getKey());
+      }
+      minCandidateFrequency = entries.isEmpty() ? 0 : entries.get(Math.min(capacity, entries.size()) - 1).getValue();
+    }
+  }
+
+  private List<Map.Entry<ByteBuffer, Integer>> getSortedCandidates() {
+    List<Map.Entry<ByteBuffer, Integer>> entries = new ArrayList<Map.Entry<ByteBuffer, Integer>>();
+    for (Map.Entry<ByteBuffer, Integer> entry : candidates.entrySet()) {
+      // Copy entries, since their values change concurrently
+      entries.add(new AbstractMap.SimpleImmutableEntry<ByteBuffer, Integer>(entry.getKey(), entry.getValue()));
+    }
+    Collections.sort(entries, new Comparator<Map.Entry<ByteBuffer, Integer>>() {
+      @Override
+      public int compare(Map.Entry<ByteBuffer, Integer> a, Map.Entry<ByteBuffer, Integer> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+    return entries;
+  }
+
+  // Halve all frequencies. Increments racing with the decay may be lost, which is fine for estimates.
+  public void decay() {
+    synchronized (candidatesLock) {
+      for (AtomicIntegerArray row : sketch) {
+        for (int i = 0; i < row.length(); ++i) {
+          row.set(i, row.get(i) >>> 1);
+        }
+      }
+      for (Map.Entry<ByteBuffer, Integer> entry : candidates.entrySet()) {
+        int frequency = entry.getValue() >>> 1;
+        if (frequency == 0) {
+          candidates.remove(entry.getKey(), entry.getValue());
+        } else {
+          candidates.replace(entry.getKey(), entry.getValue(), frequency);
+        }
+      }
+      minCandidateFrequency >>>= 1;
+    }
+  }
+
+  // Return the hottest keys, hottest first
+  public List<ByteBuffer> getKeys() {
+    List<Map.Entry<ByteBuffer, Integer>> entries;
+    synchronized (candidatesLock) {
+      entries = getSortedCandidates();
+    }
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>(Math.min(capacity, entries.size()));
+    for (Map.Entry<ByteBuffer, Integer> entry : entries.subList(0, Math.min(capacity, entries.size()))) {
+      result.add(entry.getKey());
+    }
+    return result;
+  }
+
+  // Keys are written to a temporary file first, so that a sample file is never partially written
+  public static void write(List<ByteBuffer> keys, File file) throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    try {
+      for (ByteBuffer key : keys) {
+        outputStream.writeInt(key.remaining());
+        outputStream.write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+      }
+    } finally {
+      outputStream.close();
+    }
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Failed to rename " + tmpFile + " to " + file);
+    }
+  }
+
+  public static List<ByteBuffer> read(File file) throws IOException {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+    // Key lengths are bounded by the size of the file, so that a corrupt length does not allocate a huge key
+    long numBytesRemaining = file.length();
+    DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      while (true) {
+        int length;
+        try {
+          length = inputStream.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        numBytesRemaining -= 4;
+        if (length < 0 || length > numBytesRemaining) {
+          throw new IOException("Corrupt key sample file " + file + ": invalid key length " + length);
+        }
+        byte[] key = new byte[length];
+        inputStream.readFully(key);
+        numBytesRemaining -= length;
+        result.add(ByteBuffer.wrap(key));
+      }
+    } finally {
+      inputStream.close();
+    }
+    return result;
+  }
+}
@@ -17,44 +17,67 @@
 package com.liveramp.hank.partition_server;
 
 import com.liveramp.hank.coordinator.HostDomainPartition;
+import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.storage.BulkReader;
+import com.liveramp.hank.storage.MembershipFilteredReader;
+import com.liveramp.hank.storage.PreloadableReader;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
-import com.liveramp.hank.util.AtomicLongCollection;
 import com.liveramp.hank.util.HankTimer;
+import com.liveramp.hank.util.StripedCounterCollection;
+import com.liveramp.hank.util.WarmupBudget;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Wrapper class that stores: 1. HostDomainPartition 2. Reader: The Reader
- * associated with the HostDomainPartition 3. AtomicLongCollection: counters
+ * associated with the HostDomainPartition 3. StripedCounterCollection: counters
  * for number of requests and hits in a given time window
+ * <p/>
+ * The Reader can be swapped while requests are being served (when the partition is updated
+ * online). Requests use the Reader that was current when they started, and a swapped out Reader
+ * is closed once the last request using it has completed.
  */
 public class PartitionAccessor {
 
   private static final HankResponse NOT_FOUND = HankResponse.not_found(true);
+  private static final HankResponse WRONG_HOST = HankResponse.xception(HankException.wrong_host(true));
   private static final Logger LOG = Logger.getLogger(PartitionAccessor.class);
+  private static final long SWAPPED_READER_CLOSE_CHECK_SLEEP_MS = 1;
 
   private final HostDomainPartition partition;
-  private final Reader reader;
+  // Null when the partition is not served anymore
+  private volatile ReaderReference readerReference;
   private final HankTimer windowTimer = new HankTimer();
-  //0: num requests
-  //1: num hits
-  //2: responses data num bytes
-  //3: num L1 cache hits
-  //4: num L2 cache hits
-  private final AtomicLongCollection countersWindow;
+  private static final int NUM_REQUESTS = 0;
+  private static final int NUM_HITS = 1;
+  private static final int RESPONSES_NUM_BYTES = 2;
+  private static final int NUM_L1_CACHE_HITS = 3;
+  private static final int NUM_L2_CACHE_HITS = 4;
+  private static final int NUM_MEMBERSHIP_FILTER_NEGATIVES = 5;
+  private static final int NUM_MEMBERSHIP_FILTER_FALSE_POSITIVES = 6;
+  private static final int NUM_COUNTERS = 7;
+  private final StripedCounterCollection countersWindow;
+  // Null when keys are not sampled
+  private final KeySampler keySampler;
 
   public PartitionAccessor(HostDomainPartition partition, Reader reader) {
+    this(partition, reader, null);
+  }
+
+  public PartitionAccessor(HostDomainPartition partition, Reader reader, KeySampler keySampler) {
     if (reader == null) {
       throw new IllegalArgumentException("Reader may not be null!");
     }
     this.partition = partition;
-    this.reader = reader;
+    this.readerReference = new ReaderReference(reader);
+    this.keySampler = keySampler;
     windowTimer.restart();
-    countersWindow = new AtomicLongCollection(5, new long[]{0, 0, 0, 0, 0});
+    countersWindow = new StripedCounterCollection(NUM_COUNTERS);
   }
 
   public HostDomainPartition getHostDomainPartition() {
@@ -64,29 +87,200 @@ public class PartitionAccessor {
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
     // Increment requests counter
     LOG.trace("Partition GET");
-    reader.get(key, result);
-    int l1CacheHit = result.getL1CacheHit() ? 1 : 0;
-    int l2CacheHit = result.getL2CacheHit() ? 1 : 0;
+    ReaderReference readerReference = acquireReader();
+    if (readerReference == null) {
+      return WRONG_HOST;
+    }
+    try {
+      readerReference.getReader().get(key, result);
+    } finally {
+      readerReference.release();
+    }
+    if (keySampler != null) {
+      keySampler.record(key);
+    }
+    countRequest(result);
     if (result.isFound()) {
-      countersWindow.increment(1, 1, result.getBuffer().remaining(), l1CacheHit, l2CacheHit);
       return HankResponse.value(result.getBuffer());
     } else {
-      countersWindow.increment(1, 0, 0, l1CacheHit, l2CacheHit);
       return NOT_FOUND;
     }
   }
 
+  // Perform gets for all keys, which belong to this partition. The response for keys.get(i) is stored
+  // in responses[responseIndices[i]]. Each key gets its own cleared ReaderResult results[i], whose buffer
+  // is kept by the response.
+  public void getBulk(List<ByteBuffer> keys,
+                      HankResponse[] responses,
+                      int[] responseIndices,
+                      ReaderResult[] results) throws IOException {
+    if (lookUpBulk(keys, responses, responseIndices, results)) {
+      completeBulk(keys, responses, responseIndices, results);
+    }
+  }
+
+  // First half of getBulk: look up the keys into results, without counting them in statistics, so that
+  // callers can give up on the lookup and retry it. Return false if the partition is not served, in which
+  // case responses are set and there is nothing to complete.
+  boolean lookUpBulk(List<ByteBuffer> keys,
+                     HankResponse[] responses,
+                     int[] responseIndices,
+                     ReaderResult[] results) throws IOException {
+    LOG.trace("Partition GET BULK");
+    ReaderReference readerReference = acquireReader();
+    if (readerReference == null) {
+      for (int responseIndex : responseIndices) {
+        responses[responseIndex] = WRONG_HOST;
+      }
+      return false;
+    }
+    try {
+      Reader reader = readerReference.getReader();
+      if (reader instanceof BulkReader) {
+        ((BulkReader) reader).getBulk(keys, results);
+      } else {
+        for (int i = 0; i < results.length; ++i) {
+          reader.get(keys.get(i), results[i]);
+        }
+      }
+    } finally {
+      readerReference.release();
+    }
+    return true;
+  }
+
+  // Second half of getBulk: count the looked up keys and set their responses
+  void completeBulk(List<ByteBuffer> keys,
+                    HankResponse[] responses,
+                    int[] responseIndices,
+                    ReaderResult[] results) {
+    if (keySampler != null) {
+      for (ByteBuffer key : keys) {
+        keySampler.record(key);
+      }
+    }
+    for (int i = 0; i < results.length; ++i) {
+      ReaderResult result = results[i];
+      countRequest(result);
+      if (result.isFound()) {
+        responses[responseIndices[i]] = HankResponse.value(result.getBuffer());
+      } else {
+        responses[responseIndices[i]] = NOT_FOUND;
+      }
+    }
+  }
+
+  /**
+   * Atomically replace the Reader used to serve this partition. Requests that started before the swap
+   * complete with the previous Reader, which is closed once they are done. This method blocks until then.
+   *
+   * @param reader the new Reader, or null to stop serving the partition
+   */
+  public void swapReader(Reader reader) throws IOException {
+    ReaderReference previousReaderReference = readerReference;
+    readerReference = reader == null ? null : new ReaderReference(reader);
+    if (previousReaderReference != null) {
+      previousReaderReference.retireAndClose();
+    }
+  }
+
+  // Return the number of bytes preloaded
+  public long preload(WarmupBudget budget, boolean index) throws IOException {
+    ReaderReference readerReference = acquireReader();
+    if (readerReference == null) {
+      return 0;
+    }
+    try {
+      Reader reader = readerReference.getReader();
+      if (!(reader instanceof PreloadableReader)) {
+        return 0;
+      }
+      if (index) {
+        return ((PreloadableReader) reader).preloadIndex(budget);
+      } else {
+        return ((PreloadableReader) reader).preloadData(budget);
+      }
+    } finally {
+      readerReference.release();
+    }
+  }
+
+  // Look up the given keys to fill the Reader's caches, until the budget expires. The lookups are
+  // not counted in runtime statistics. The Reader is acquired for each key, so that warming up caches
+  // does not hold back a swap. Return the number of keys that were looked up.
+  public int warmUpCaches(List<ByteBuffer> keys, WarmupBudget budget) throws IOException {
+    int numKeys = 0;
+    ReaderResult result = new ReaderResult();
+    for (ByteBuffer key : keys) {
+      if (budget.isExpired()) {
+        break;
+      }
+      ReaderReference readerReference = acquireReader();
+      if (readerReference == null) {
+        break;
+      }
+      try {
+        result.clear();
+        readerReference.getReader().get(key, result);
+      } finally {
+        readerReference.release();
+      }
+      ++numKeys;
+    }
+    return numKeys;
+  }
+
+  // Null when keys are not sampled
+  public KeySampler getKeySampler() {
+    return keySampler;
+  }
+
+  // Return the current Reader reference, acquired, or null if the partition is not served anymore
+  private ReaderReference acquireReader() {
+    while (true) {
+      ReaderReference result = readerReference;
+      if (result == null || result.tryAcquire()) {
+        return result;
+      }
+      // The Reader was swapped out concurrently, use the new one
+    }
+  }
+
+  private void countRequest(ReaderResult result) {
+    countersWindow.increment(NUM_REQUESTS);
+    if (result.isFound()) {
+      countersWindow.increment(NUM_HITS);
+      countersWindow.add(RESPONSES_NUM_BYTES, result.getBuffer().remaining());
+    }
+    if (result.getL1CacheHit()) {
+      countersWindow.increment(NUM_L1_CACHE_HITS);
+    }
+    if (result.getL2CacheHit()) {
+      countersWindow.increment(NUM_L2_CACHE_HITS);
+    }
+    if (result.getMembershipFilterNegative()) {
+      countersWindow.increment(NUM_MEMBERSHIP_FILTER_NEGATIVES);
+    }
+    if (result.getMembershipFilterFalsePositive()) {
+      countersWindow.increment(NUM_MEMBERSHIP_FILTER_FALSE_POSITIVES);
+    }
+  }
+
   public PartitionAccessorRuntimeStatistics getRuntimeStatistics() {
     // Copy duration and counts
     long windowDurationNanos = windowTimer.getDuration();
     windowTimer.restart();
-    // Get atomic counters
-    long[] counters = countersWindow.getAsArrayAndSet(0, 0, 0, 0, 0);
-    long numRequestsInWindow = counters[0];
-    long numHitsInWindow = counters[1];
-    long responsesNumBytesInWindow = counters[2];
-    long numL1CacheHitsInWindow = counters[3];
-    long numL2CacheHitsInWindow = counters[4];
+    // Get and reset counters
+    long[] counters = countersWindow.getAsArrayAndReset();
+    long numRequestsInWindow = counters[NUM_REQUESTS];
+    long numHitsInWindow = counters[NUM_HITS];
+    long responsesNumBytesInWindow = counters[RESPONSES_NUM_BYTES];
+    long numL1CacheHitsInWindow = counters[NUM_L1_CACHE_HITS];
+    long numL2CacheHitsInWindow = counters[NUM_L2_CACHE_HITS];
+    MembershipFilterStatistics membershipFilterStatistics = new MembershipFilterStatistics(
+        counters[NUM_MEMBERSHIP_FILTER_NEGATIVES],
+        counters[NUM_MEMBERSHIP_FILTER_FALSE_POSITIVES],
+        getMembershipFilterNumBytes());
     double throughput = 0;
     double responseDataThroughput = 0;
     if (windowDurationNanos != 0) {
@@ -98,16 +292,81 @@ public class PartitionAccessor {
         throughput,
         responseDataThroughput,
         numL1CacheHitsInWindow,
-        numL2CacheHitsInWindow);
+        numL2CacheHitsInWindow,
+        membershipFilterStatistics);
+  }
+
+  private long getMembershipFilterNumBytes() {
+    ReaderReference readerReference = acquireReader();
+    if (readerReference == null) {
+      return 0;
+    }
+    try {
+      Reader reader = readerReference.getReader();
+      if (reader instanceof MembershipFilteredReader) {
+        return ((MembershipFilteredReader) reader).getMembershipFilterNumBytes();
+      }
+      return 0;
+    } finally {
+      readerReference.release();
+    }
   }
 
   public void shutDown() {
-    if (reader != null) {
+    ReaderReference currentReaderReference = readerReference;
+    readerReference = null;
+    if (currentReaderReference != null) {
       try {
-        reader.close();
+        currentReaderReference.getReader().close();
       } catch (IOException e) {
         LOG.error("Exception while closing Reader", e);
       }
     }
   }
+
+  // A Reader and the number of requests that are using it. Acquiring and releasing only
+  // touch the calling thread's counter stripe, so that requests do not contend.
+  private static class ReaderReference {
+
+    private final Reader reader;
+    private final StripedCounterCollection numRequestsInFlight = new StripedCounterCollection(1);
+    private volatile boolean retired = false;
+
+    private ReaderReference(Reader reader) {
+      this.reader = reader;
+    }
+
+    public Reader getReader() {
+      return reader;
+    }
+
+    // Return false if the Reader was retired, in which case it must not be used
+    public boolean tryAcquire() {
+      numRequestsInFlight.increment(0);
+      // Both the increment above and the write of the retired flag are volatile, hence either
+      // this request observes the retirement, or the retiring thread observes this request.
+      if (retired) {
+        numRequestsInFlight.add(0, -1);
+        return false;
+      }
+      return true;
+    }
+
+    public void release() {
+      numRequestsInFlight.add(0, -1);
+    }
+
+    // Wait for requests using the Reader to complete, and close it
+    public void retireAndClose() throws IOException {
+      retired = true;
+      while (numRequestsInFlight.get(0) != 0) {
+        try {
+          Thread.sleep(SWAPPED_READER_CLOSE_CHECK_SLEEP_MS);
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while waiting for requests to complete before closing Reader", e);
+        }
+      }
+      reader.close();
+    }
+  }
 }
@@ -18,7 +18,6 @@ package com.liveramp.hank.partition_server;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.nio.ByteBuffer;
 import java.nio.channels.Selector;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -30,13 +29,9 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
-import org.apache.thrift.TException;
-import org.apache.thrift.protocol.TCompactProtocol;
-import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.TProcessor;
 import org.apache.thrift.server.TThreadedSelectorServer;
-import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TNonblockingServerSocket;
-import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransportException;
 
 import com.liveramp.hank.config.InvalidConfigurationException;
@@ -54,6 +49,7 @@ import com.liveramp.hank.coordinator.RingGroup;
 import com.liveramp.hank.util.CommandLineChecker;
 import com.liveramp.hank.util.HankTimer;
 import com.liveramp.hank.util.UpdateStatisticsRunnable;
+import com.liveramp.hank.util.WarmupBudget;
 import com.liveramp.hank.zookeeper.WatchedNodeListener;
 
 import static com.liveramp.hank.util.LocalHostUtils.getHostName;
@@ -64,8 +60,6 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
   private static final long MAIN_THREAD_STEP_SLEEP_MS = 1000;
   private static final int UPDATE_FILESYSTEM_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT = 2 * 60 * 1000;
 
-  private static final int NUM_WARMUP_QUERIES_PER_THREAD = 100;
-
   private final PartitionServerConfigurator configurator;
   private final Coordinator coordinator;
 
@@ -80,6 +74,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
 
   private TThreadedSelectorServer dataServer;
   private Thread dataServerThread;
+  private volatile IfaceWithShutdown dataServerHandler;
   private boolean waitForDataServer;
 
   private final RingGroup ringGroup;
@@ -178,6 +173,10 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     return new UpdateManager(configurator, host, ringGroup);
   }
 
+  protected IUpdateManager getOnlineUpdateManager(PartitionSwapper partitionSwapper) throws IOException {
+    return new UpdateManager(configurator, host, ringGroup, partitionSwapper);
+  }
+
   @Override
   public synchronized void onCommandQueueChange(Host host) {
     LOG.info("Command queue changed.");
@@ -288,7 +287,22 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     switch (state) {
       case IDLE:
         host.setState(HostState.UPDATING); // In case of exception, server will stop and state will be coherent.
-        executeUpdate();
+        executeUpdate(null);
+        // Next command is set by the updater thread
+        break;
+      case SERVING:
+        // Update while serving if the data server is able to swap in updated partitions
+        IfaceWithShutdown handler = dataServerHandler;
+        if (handler instanceof PartitionSwapper && ((PartitionSwapper)handler).canSwapPartitions()) {
+          LOG.info("Executing update while serving data.");
+          executeUpdate((PartitionSwapper)handler);
+        } else {
+          LOG.info("Data server cannot swap in updated partitions. Stopping to serve data before updating.");
+          host.setState(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
+          stopServingData();
+          host.setState(HostState.UPDATING); // In case of exception, server will stop and state will be coherent.
+          executeUpdate(null);
+        }
         // Next command is set by the updater thread
         break;
       default:
@@ -310,7 +324,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     }
   }
 
-  private void executeUpdate() {
+  // When a partition swapper is given, the update is performed while serving and the host keeps serving afterwards
+  private void executeUpdate(final PartitionSwapper partitionSwapper) {
     if (updateThread != null) {
       LOG.error("Update got called while one is already running!");
       return;
@@ -319,17 +334,24 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       @Override
       public void run() {
         try {
-          IUpdateManager updateManager = getUpdateManager();
+          IUpdateManager updateManager;
+          if (partitionSwapper == null) {
+            updateManager = getUpdateManager();
+          } else {
+            updateManager = getOnlineUpdateManager(partitionSwapper);
+          }
           updateManager.update();
           LOG.info("Update succeeded.");
         } catch (Throwable e) {
           LOG.fatal("Update failed. Updater encountered a fatal error:", e);
         }
-        // Go back to IDLE even in case of failure
-        try {
-          setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
-        } catch (IOException e) {
-          LOG.fatal("Failed to record state change.", e);
+        // Go back to IDLE even in case of failure, unless the update was performed while serving
+        if (partitionSwapper == null) {
+          try {
+            setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
+          } catch (IOException e) {
+            LOG.fatal("Failed to record state change.", e);
+          }
         }
         // Move on to next command
         try {
@@ -358,13 +380,18 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     try {
       // Set up the service handler
       handler = getHandler();
+      dataServerHandler = handler;
       // Launch the thrift server
       TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getServicePort());
       TThreadedSelectorServer.Args options = new TThreadedSelectorServer.Args(serverSocket);
-      options.processor(new com.liveramp.hank.generated.PartitionServer.Processor(handler));
+      TProcessor processor = new com.liveramp.hank.generated.PartitionServer.Processor(handler);
+      if (handler instanceof PartitionServerHandler) {
+        processor = new ResponseRecyclingProcessor(processor, (PartitionServerHandler) handler);
+      }
+      options.processor(processor);
       options.workerThreads(configurator.getNumConcurrentQueries());
       options.selectorThreads(4);
-      options.protocolFactory(new TCompactProtocol.Factory());
+      options.protocolFactory(new DirectBufferCompactProtocol.Factory());
       dataServer = new TThreadedSelectorServer(options);
       LOG.info("Launching Thrift server.");
       dataServer.serve();
@@ -378,6 +405,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       serverSocket.close();
     } finally {
       // Always shut down the handler
+      dataServerHandler = null;
       if (handler != null) {
         LOG.debug("Shutting down Partition Server handler.");
         handler.shutDown();
@@ -486,23 +514,15 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
   }
 
   private void warmUp() throws IOException {
-    LOG.info("Warming up data server...");
-    List<Thread> threads = new ArrayList<Thread>();
-    for (int i = 0; i < configurator.getNumConcurrentQueries(); ++i) {
-      threads.add(new Thread(new WarmupRunnable(), "Warmup Thread #" + i));
+    IfaceWithShutdown handler = dataServerHandler;
+    if (!(handler instanceof DataWarmer)) {
+      return;
     }
+    LOG.info("Warming up data server...");
     HankTimer timer = new HankTimer();
-    for (Thread thread : threads) {
-      thread.start();
-    }
-    for (Thread thread : threads) {
-      try {
-        thread.join();
-      } catch (InterruptedException e) {
-        LOG.error("Failed to warm up data server", e);
-        throw new IOException("Failed to warm up data server", e);
-      }
-    }
+    WarmupBudget budget = new WarmupBudget(configurator.getWarmupMaxDurationMs(),
+        (long) configurator.getWarmupMaxPreloadMB() << 20);
+    ((DataWarmer) handler).warmUp(budget);
     long warmupDurationMs = timer.getDurationMs();
     LOG.info("Warming up data server took " + warmupDurationMs + " ms");
   }
@@ -607,34 +627,4 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
 
     new PartitionServer(configurator, getHostName()).run();
   }
-
-  private class WarmupRunnable implements Runnable {
-
-    @Override
-    public void run() {
-      TSocket socket = null;
-      TFramedTransport transport = null;
-      try {
-        socket = new TSocket(host.getAddress().getHostName(), host.getAddress().getPortNumber(), 0);
-        transport = new TFramedTransport(socket);
-        transport.open();
-        TProtocol proto = new TCompactProtocol(transport);
-        com.liveramp.hank.generated.PartitionServer.Client client = new com.liveramp.hank.generated.PartitionServer.Client(proto);
-        // Perform queries
-        for (int i = 0; i < NUM_WARMUP_QUERIES_PER_THREAD; i++) {
-          client.get(0, ByteBuffer.wrap(new byte[0]));
-        }
-      } catch (TException e) {
-        LOG.error("Failed to warm up data server", e);
-        throw new RuntimeException("Failed to warm up data server", e);
-      } finally {
-        if (transport != null) {
-          transport.close();
-        }
-        if (socket != null) {
-          socket.close();
-        }
-      }
-    }
-  }
 }
@@ -20,62 +20,83 @@ import com.liveramp.hank.coordinator.*;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.storage.SharedValueCacheStorageEngine;
 import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.util.ByteBufferPool;
 import com.liveramp.hank.util.Bytes;
 import com.liveramp.hank.util.UpdateStatisticsRunnable;
+import com.liveramp.hank.util.WarmupBudget;
 import org.apache.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implements the actual data serving logic of the PartitionServer
  */
-public class PartitionServerHandler implements IfaceWithShutdown {
+public class PartitionServerHandler implements IfaceWithShutdown, PartitionSwapper, DataWarmer {
 
   private final static Logger LOG = Logger.getLogger(PartitionServerHandler.class);
 
+  private final PartitionServerConfigurator configurator;
+  private final RingGroup ringGroup;
   private final Host host;
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
+  private static final HankBulkResponse OVERLOADED_BULK = HankBulkResponse.xception(HankException.overloaded(true));
   private final int getBulkTaskSize;
-  private static final long GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_VALUE = 1;
-  private static final TimeUnit GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_UNIT = TimeUnit.DAYS;
 
   private static final ReaderResultThreadLocal readerResultThreadLocal = new ReaderResultThreadLocal();
   private final DomainAccessor[] domainAccessors;
-  private final ThreadPoolExecutor getBulkTaskExecutor;
-  private static final long GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
-  private static final TimeUnit GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
-  private static final double USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY = 0.75;
+  private final GetBulkTaskExecutor getBulkTaskExecutor;
+  private final AtomicLong numRejectedGetBulkRequests = new AtomicLong(0);
+  // Results of bulk responses are pooled and reused once the responses have been written out
+  private static final int READER_RESULT_POOL_MAX_NUM_RESULTS = 4096;
+  private final ReaderResultPool readerResultPool = new ReaderResultPool(READER_RESULT_POOL_MAX_NUM_RESULTS);
+  // ReaderResults whose buffers are held by the response being handled by the current thread
+  private static final ReaderResultListThreadLocal responseReaderResults = new ReaderResultListThreadLocal();
 
   private final UpdateStatisticsRunnable updateRuntimeStatisticsRunnable;
   private final Thread updateRuntimeStatisticsThread;
   private static final int UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT = 30000;
+  private static final int KEY_SAMPLING_PERIOD = 16;
+  private static final String KEY_SAMPLE_DIRECTORY_NAME = "warmup";
+  private static final String KEY_SAMPLE_FILE_NAME = "key_sample";
+  // Key samples are written and decayed every this many runtime statistics updates
+  private static final int KEY_SAMPLES_WRITE_PERIOD = 10;
+  private final ExecutorService cachePrefillExecutor;
 
   // The coordinator is supplied and not created from the configurator to allow caching
   public PartitionServerHandler(PartitionServerAddress address,
                                 PartitionServerConfigurator configurator,
                                 Coordinator coordinator) throws IOException {
+    this.configurator = configurator;
+
+    // Bound the memory held by buffers shared by Readers and responses
+    ByteBufferPool.getShared().setMaxNumBytes((long) configurator.getBufferPoolMaxMB() << 20);
 
     // Create the GET executor
-    getBulkTaskExecutor = new ThreadPoolExecutor(
-        configurator.getNumConcurrentGetBulkTasks(),
-        configurator.getNumConcurrentGetBulkTasks(),
-        GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_VALUE,
-        GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_UNIT,
-        new LinkedBlockingQueue<Runnable>(),
-        new GetBulkThreadFactory());
+    getBulkTaskExecutor = createGetBulkTaskExecutor(configurator);
+
+    // Caches of swapped in Readers are prefilled in the background, one partition at a time
+    cachePrefillExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Cache prefill");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
 
     getBulkTaskSize = configurator.getGetBulkTaskSize();
 
-    // Prestart core threads
-    getBulkTaskExecutor.prestartAllCoreThreads();
-
     // Find the ring
     Ring ring = coordinator.getRingGroup(configurator.getRingGroupName()).getRingForHost(address);
     if (ring == null) {
@@ -83,7 +104,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
 
     // Get the domain group for the ring
-    DomainGroup domainGroup = ring.getRingGroup().getDomainGroup();
+    ringGroup = ring.getRingGroup();
+    DomainGroup domainGroup = ringGroup.getDomainGroup();
     if (domainGroup == null) {
       throw new IOException(String.format("Could not get DomainGroup of Ring %s", ring));
     }
@@ -138,39 +160,36 @@ public class PartitionServerHandler implements IfaceWithShutdown {
 
         Reader reader;
         try {
-          reader = engine.getReader(configurator, partition.getPartitionNumber());
+          reader = loadReader(domain, partition.getPartitionNumber(), partition.getCurrentDomainVersion());
         } catch (IOException e) {
           // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
           if (!partition.isDeletable()) {
             partition.setDeletable(true);
           }
-          final String msg = String.format("Could not load Reader for partition #%d of domain %s because of an exception.",
-              partition.getPartitionNumber(), domain.getName());
-          LOG.error(msg, e);
-          exceptions.add(new IOException(msg, e));
-          continue;
-        }
-        // Check that Reader's version number and current domain group version number match
-        if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(partition.getCurrentDomainVersion())) {
-          // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
-          partition.setDeletable(true);
-          final String msg = String.format("Could not load Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by metadata (%d) differ.",
-              partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), partition.getCurrentDomainVersion());
-          LOG.error(msg);
-          exceptions.add(new IOException(msg));
+          LOG.error(e.getMessage(), e.getCause());
+          exceptions.add(e);
           continue;
         }
         LOG.info(String.format("Loaded Reader for domain %s, partition #%d",
             domain.getName(), partition.getPartitionNumber()));
-        partitionAccessors[partition.getPartitionNumber()] = new PartitionAccessor(partition, reader);
+        KeySampler keySampler = null;
+        if (configurator.getWarmupKeySampleSize() > 0
+            && getKeySampleFile(domain, partition.getPartitionNumber()) != null) {
+          keySampler = new KeySampler(configurator.getWarmupKeySampleSize(), KEY_SAMPLING_PERIOD);
+        }
+        partitionAccessors[partition.getPartitionNumber()] = new PartitionAccessor(partition, reader, keySampler);
         // Loading succeeded, if the partition was deletable, it should not be
         if (partition.isDeletable()) {
           partition.setDeletable(false);
         }
       }
       // configure and store the DomainAccessors
+      OffHeapValueCache sharedValueCache = null;
+      if (engine instanceof SharedValueCacheStorageEngine) {
+        sharedValueCache = ((SharedValueCacheStorageEngine)engine).getSharedValueCache();
+      }
       domainAccessors[domainId] = new DomainAccessor(hostDomain, partitionAccessors, domain.getPartitioner(),
-          configurator.getGetTimerAggregatorWindow());
+          configurator.getGetTimerAggregatorWindow(), sharedValueCache);
     }
     // If there was a failure, abort and skip current command.
     if (!exceptions.isEmpty()) {
@@ -183,6 +202,192 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     updateRuntimeStatisticsThread.start();
   }
 
+  // Load the Reader of a partition and check that it is for the expected version
+  private Reader loadReader(Domain domain, int partitionNumber, int versionNumber) throws IOException {
+    Reader reader;
+    try {
+      reader = domain.getStorageEngine().getReader(configurator, partitionNumber);
+    } catch (IOException e) {
+      throw new IOException(String.format("Could not load Reader for partition #%d of domain %s because of an exception.",
+          partitionNumber, domain.getName()), e);
+    }
+    // Check that Reader's version number and expected version number match
+    if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(versionNumber)) {
+      reader.close();
+      throw new IOException(String.format("Could not load Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by metadata (%d) differ.",
+          partitionNumber, domain.getName(), reader.getVersionNumber(), versionNumber));
+    }
+    return reader;
+  }
+
+  @Override
+  public boolean canSwapPartitions() throws IOException {
+    DomainGroup domainGroup = ringGroup.getDomainGroup();
+    if (domainGroup == null) {
+      return false;
+    }
+    for (HostDomain hostDomain : host.getAssignedDomains()) {
+      Domain domain = hostDomain.getDomain();
+      // Partitions of domains that are not in the domain group will be deleted
+      if (domainGroup.getDomainVersion(domain) == null) {
+        continue;
+      }
+      DomainAccessor domainAccessor = getDomainAccessor(domain.getId());
+      for (HostDomainPartition partition : hostDomain.getPartitions()) {
+        if (!partition.isDeletable()
+            && (domainAccessor == null || domainAccessor.getPartitionAccessor(partition.getPartitionNumber()) == null)) {
+          LOG.info(String.format("Partition #%d of domain %s is not being served and cannot be swapped in.",
+              partition.getPartitionNumber(), domain.getName()));
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void swapPartition(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException {
+    PartitionAccessor partitionAccessor = getPartitionAccessor(domain, partition.getPartitionNumber());
+    if (partitionAccessor == null) {
+      throw new IOException(String.format("Could not swap in partition #%d of domain %s because it is not being served.",
+          partition.getPartitionNumber(), domain.getName()));
+    }
+    partitionAccessor.swapReader(loadReader(domain, partition.getPartitionNumber(), versionNumber));
+    LOG.info(String.format("Swapped in Reader for domain %s, partition #%d, version %d",
+        domain.getName(), partition.getPartitionNumber(), versionNumber));
+    if (partitionAccessor.getKeySampler() != null) {
+      prefillCache(domain, partitionAccessor);
+    }
+  }
+
+  // Replay the hottest keys of the partition against its current Reader, in the background
+  private void prefillCache(final Domain domain, final PartitionAccessor partitionAccessor) {
+    final List<ByteBuffer> keys = partitionAccessor.getKeySampler().getKeys();
+    if (keys.isEmpty()) {
+      return;
+    }
+    cachePrefillExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        int partitionNumber = partitionAccessor.getHostDomainPartition().getPartitionNumber();
+        try {
+          int numKeys = partitionAccessor.warmUpCaches(keys,
+              new WarmupBudget(configurator.getWarmupMaxDurationMs(), 0));
+          LOG.info(String.format("Prefilled cache of domain %s, partition #%d with %d keys",
+              domain.getName(), partitionNumber, numKeys));
+        } catch (IOException e) {
+          LOG.error(String.format("Failed to prefill cache of domain %s, partition #%d",
+              domain.getName(), partitionNumber), e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void unloadPartition(Domain domain, int partitionNumber) throws IOException {
+    PartitionAccessor partitionAccessor = getPartitionAccessor(domain, partitionNumber);
+    if (partitionAccessor != null) {
+      partitionAccessor.swapReader(null);
+      LOG.info(String.format("Unloaded Reader for domain %s, partition #%d", domain.getName(), partitionNumber));
+    }
+  }
+
+  // Preload index data of all partitions first, then the rest of the data, and finally replay the
+  // key samples recorded the last time partitions were served. All steps share the budget.
+  @Override
+  public void warmUp(WarmupBudget budget) throws IOException {
+    List<PartitionAccessor> partitionAccessors = new ArrayList<PartitionAccessor>();
+    List<Domain> partitionAccessorDomains = new ArrayList<Domain>();
+    for (DomainAccessor domainAccessor : domainAccessors) {
+      if (domainAccessor != null) {
+        Domain domain = domainAccessor.getHostDomain().getDomain();
+        for (int partitionNumber = 0; partitionNumber < domain.getNumParts(); ++partitionNumber) {
+          PartitionAccessor partitionAccessor = domainAccessor.getPartitionAccessor(partitionNumber);
+          if (partitionAccessor != null) {
+            partitionAccessors.add(partitionAccessor);
+            partitionAccessorDomains.add(domain);
+          }
+        }
+      }
+    }
+    long numIndexBytesPreloaded = 0;
+    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+      numIndexBytesPreloaded += partitionAccessor.preload(budget, true);
+    }
+    long numDataBytesPreloaded = 0;
+    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+      numDataBytesPreloaded += partitionAccessor.preload(budget, false);
+    }
+    long numKeysReplayed = 0;
+    for (int i = 0; i < partitionAccessors.size(); ++i) {
+      if (budget.isExpired()) {
+        break;
+      }
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
+      File keySampleFile = getKeySampleFile(partitionAccessorDomains.get(i),
+          partitionAccessor.getHostDomainPartition().getPartitionNumber());
+      if (partitionAccessor.getKeySampler() != null && keySampleFile.isFile()) {
+        try {
+          numKeysReplayed += partitionAccessor.warmUpCaches(KeySampler.read(keySampleFile), budget);
+        } catch (IOException e) {
+          LOG.error("Failed to replay key sample " + keySampleFile, e);
+        }
+      }
+    }
+    LOG.info(String.format("Warmed up %d partitions: preloaded %d bytes of index data and %d bytes of data, replayed %d keys.",
+        partitionAccessors.size(), numIndexBytesPreloaded, numDataBytesPreloaded, numKeysReplayed));
+  }
+
+  private void writeKeySamples(DomainAccessor domainAccessor) {
+    Domain domain = domainAccessor.getHostDomain().getDomain();
+    for (int partitionNumber = 0; partitionNumber < domain.getNumParts(); ++partitionNumber) {
+      PartitionAccessor partitionAccessor = domainAccessor.getPartitionAccessor(partitionNumber);
+      if (partitionAccessor == null || partitionAccessor.getKeySampler() == null) {
+        continue;
+      }
+      List<ByteBuffer> keys = partitionAccessor.getKeySampler().getKeys();
+      if (keys.isEmpty()) {
+        continue;
+      }
+      File keySampleFile = getKeySampleFile(domain, partitionNumber);
+      try {
+        keySampleFile.getParentFile().mkdirs();
+        KeySampler.write(keys, keySampleFile);
+      } catch (IOException e) {
+        LOG.error("Failed to write key sample " + keySampleFile, e);
+      }
+    }
+  }
+
+  private void decayKeySamples(DomainAccessor domainAccessor) {
+    Domain domain = domainAccessor.getHostDomain().getDomain();
+    for (int partitionNumber = 0; partitionNumber < domain.getNumParts(); ++partitionNumber) {
+      PartitionAccessor partitionAccessor = domainAccessor.getPartitionAccessor(partitionNumber);
+      if (partitionAccessor != null && partitionAccessor.getKeySampler() != null) {
+        partitionAccessor.getKeySampler().decay();
+      }
+    }
+  }
+
+  // Key samples are stored in a directory of the partition's root, which is left alone by updates.
+  // Return null when the storage engine has no local data directory.
+  private File getKeySampleFile(Domain domain, int partitionNumber) {
+    String dataDirectory = domain.getStorageEngine().getDataDirectory(configurator, partitionNumber);
+    if (dataDirectory == null) {
+      return null;
+    }
+    return new File(dataDirectory + "/" + domain.getName() + "/" + partitionNumber
+        + "/" + KEY_SAMPLE_DIRECTORY_NAME + "/" + KEY_SAMPLE_FILE_NAME);
+  }
+
+  private PartitionAccessor getPartitionAccessor(Domain domain, int partitionNumber) {
+    DomainAccessor domainAccessor = getDomainAccessor(domain.getId());
+    if (domainAccessor == null) {
+      return null;
+    }
+    return domainAccessor.getPartitionAccessor(partitionNumber);
+  }
+
   @Override
   public HankResponse get(int domainId, ByteBuffer key) {
     ReaderResult result = readerResultThreadLocal.get();
@@ -192,6 +397,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
 
   @Override
   public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) {
+    // The previous response handled by this thread has been written out by now
+    releaseResponseBuffers();
     try {
       DomainAccessor domainAccessor = getDomainAccessor(domainId);
       if (domainAccessor == null) {
@@ -202,14 +409,21 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       GetBulkTask[] tasks = new GetBulkTask[(keys.size() / getBulkTaskSize) + 1];
       int maxTaskIndex = 0;
       for (int i = 0; i < keys.size(); i += getBulkTaskSize) {
-        GetBulkTask task = new GetBulkTask(new GetBulkRunnable(domainId, keys, i));
-        // No need to synchronize since ThreadPoolExecutor's execute() is thread-safe
-        getBulkTaskExecutor.execute(task);
-        tasks[maxTaskIndex++] = task;
+        tasks[maxTaskIndex++] = new GetBulkTask(new GetBulkRunnable(domainId, keys, i));
+      }
+      // Tasks are admitted all together or not at all.
+      // No need to synchronize since the executor's execute() is thread-safe
+      try {
+        getBulkTaskExecutor.execute(Arrays.asList(tasks).subList(0, maxTaskIndex));
+      } catch (RejectedExecutionException e) {
+        numRejectedGetBulkRequests.incrementAndGet();
+        return OVERLOADED_BULK;
       }
       // Wait for all get tasks and retrieve responses
+      List<ReaderResult> readerResults = responseReaderResults.get();
       for (int taskIndex = 0; taskIndex < maxTaskIndex; ++taskIndex) {
         HankResponse[] responses = tasks[taskIndex].getResponses();
+        readerResults.addAll(tasks[taskIndex].getReaderResults());
         for (HankResponse response : responses) {
           // Check if we have retrieved all responses
           if (bulkResponse.get_responses().size() == keys.size()) {
@@ -228,6 +442,16 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
+  // Give the buffers held by the last response handled by the current thread back to the pool.
+  // Must be called only once that response has been serialized.
+  public void releaseResponseBuffers() {
+    List<ReaderResult> readerResults = responseReaderResults.get();
+    for (ReaderResult readerResult : readerResults) {
+      readerResultPool.release(readerResult);
+    }
+    readerResults.clear();
+  }
+
   private HankResponse _get(PartitionServerHandler partitionServerHandler, int domainId, ByteBuffer key, ReaderResult result) {
     DomainAccessor domainAccessor = partitionServerHandler.getDomainAccessor(domainId);
     if (domainAccessor == null) {
@@ -258,20 +482,26 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
-  private static class GetThread extends Thread {
+  private static class ReaderResultListThreadLocal extends ThreadLocal<List<ReaderResult>> {
 
-    public GetThread(Runnable runnable, String name) {
-      super(runnable, name);
+    @Override
+    protected List<ReaderResult> initialValue() {
+      return new ArrayList<ReaderResult>();
     }
   }
 
-  private static class GetBulkThreadFactory implements ThreadFactory {
-
-    private int threadId = 0;
-
-    @Override
-    public Thread newThread(Runnable runnable) {
-      return new GetThread(runnable, "GET BULK Thread " + threadId++);
+  private static GetBulkTaskExecutor createGetBulkTaskExecutor(PartitionServerConfigurator configurator) throws IOException {
+    String type = configurator.getGetBulkTaskExecutorType();
+    int numThreads = configurator.getNumConcurrentGetBulkTasks();
+    int maxQueuedTasks = configurator.getMaxQueuedGetBulkTasks();
+    LOG.info(String.format("Creating GET BULK task executor of type %s with %d threads and at most %d queued tasks",
+        type, numThreads, maxQueuedTasks));
+    if (type == null || type.equals("fixed")) {
+      return new ThreadPoolGetBulkTaskExecutor(numThreads, maxQueuedTasks);
+    } else if (type.equals("fair")) {
+      return new FairGetBulkTaskExecutor(numThreads, maxQueuedTasks);
+    } else {
+      throw new IOException("Unknown GET BULK task executor type: " + type);
     }
   }
 
@@ -281,6 +511,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     private final List<ByteBuffer> keys;
     private final int firstKeyIndex;
     private HankResponse[] responses;
+    // Pooled results whose buffers may be held by responses
+    private final List<ReaderResult> readerResults = new ArrayList<ReaderResult>();
 
     // Perform GET requests for keys starting at firstKeyIndex and in a window of size GET_BULK_TASK_SIZE
     public GetBulkRunnable(int domainId, List<ByteBuffer> keys, int firstKeyIndex) {
@@ -291,43 +523,58 @@ public class PartitionServerHandler implements IfaceWithShutdown {
 
     @Override
     public void run() {
-      ReaderResult result = readerResultThreadLocal.get();
-      result.clear();
       responses = new HankResponse[getBulkTaskSize];
+      int numKeys = Math.min(getBulkTaskSize, keys.size() - firstKeyIndex);
+      // Look up keys in bulk, sorted by location, when possible.
+      // Values are not copied: each one stays in its pooled buffer until the response has been written out.
+      DomainAccessor domainAccessor = getDomainAccessor(domainId);
+      if (domainAccessor != null) {
+        try {
+          HankResponse[] bulkResponses = domainAccessor.getBulk(keys.subList(firstKeyIndex, firstKeyIndex + numKeys),
+              readerResultPool, readerResults);
+          System.arraycopy(bulkResponses, 0, responses, 0, numKeys);
+          return;
+        } catch (Throwable t) {
+          LOG.error("Failed to perform bulk lookup of " + numKeys + " keys in domain " + domainAccessor.getName()
+              + ". Looking up keys individually.", t);
+          // A failed bulk lookup does not count any key, so keys are only counted by the individual lookups
+          for (ReaderResult readerResult : readerResults) {
+            readerResultPool.release(readerResult);
+          }
+          readerResults.clear();
+        }
+      }
+      getIndividually(numKeys);
+    }
+
+    private void getIndividually(int numKeys) {
+      ReaderResult result = null;
       // Perform GET requests for keys starting at firstKeyIndex up to GET_BULK_TASK_SIZE keys or until the last key
-      for (int keyOffset = 0; keyOffset < getBulkTaskSize
-          && (firstKeyIndex + keyOffset) < keys.size(); keyOffset++) {
+      for (int keyOffset = 0; keyOffset < numKeys; keyOffset++) {
+        if (result == null) {
+          result = readerResultPool.acquire();
+          readerResults.add(result);
+        } else {
+          result.clear();
+        }
         HankResponse response =
             _get(PartitionServerHandler.this, domainId, keys.get(firstKeyIndex + keyOffset), result);
-        // If a value was found, we have the choice to keep the buffer that was used to read the value, or do a deep
-        // copy into the response. This decision is based on a size difference threshold.
-        // This allows us to do bulk requests that are large even when the read buffer ends up being much larger
-        // than the stored value (since in that case we will just do a deep copy of the value
-        // in an appropriately-sized buffer).
+        // If a value was found, the response keeps the result's buffer. Otherwise it can be used for the next key.
         if (response.is_set_value()) {
-          ByteBuffer valueBuffer = response.buffer_for_value();
-          // If buffer used space is less than a threshold times its capacity, do a deep copy.
-          if (((double) valueBuffer.limit())
-              < (USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY * valueBuffer.capacity())) {
-            // Deep copy the value. Hence we can reuse the result buffer.
-            response.set_value(Bytes.byteBufferDeepCopy(valueBuffer));
-            result.clear();
-          } else {
-            // Keep the ReaderResult's buffer in the response. Hence we need to create a new result buffer.
-            // Initialize it with the same capacity we had.
-            result = new ReaderResult(valueBuffer.capacity());
-          }
+          result = null;
         }
         // Store response
         responses[keyOffset] = response;
       }
-      // Update the thread local result buffer to point to the latest one used (which is valid for reuse)
-      readerResultThreadLocal.set(result);
     }
 
     public HankResponse[] getResponses() {
       return responses;
     }
+
+    public List<ReaderResult> getReaderResults() {
+      return readerResults;
+    }
   }
 
   private class GetBulkTask extends FutureTask<Object> {
@@ -344,6 +591,10 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       this.get();
       return runnable.getResponses();
     }
+
+    public List<ReaderResult> getReaderResults() {
+      return runnable.getReaderResults();
+    }
   }
 
   private DomainAccessor getDomainAccessor(int domainId) {
@@ -359,6 +610,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
    */
   private class UpdateRuntimeStatisticsRunnable extends UpdateStatisticsRunnable implements Runnable {
 
+    private int numRuns = 0;
+
     public UpdateRuntimeStatisticsRunnable() {
       super(UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT);
     }
@@ -376,6 +629,20 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       }
       // Set statistics
       Hosts.setRuntimeStatistics(host, runtimeStatisticsAggregators);
+      // Periodically persist key samples, so that they are not lost if the server stops unexpectedly
+      if (++numRuns % KEY_SAMPLES_WRITE_PERIOD == 0) {
+        for (DomainAccessor domainAccessor : domainAccessors) {
+          if (domainAccessor != null) {
+            writeKeySamples(domainAccessor);
+            decayKeySamples(domainAccessor);
+          }
+        }
+      }
+      long numRejected = numRejectedGetBulkRequests.getAndSet(0);
+      if (numRejected > 0) {
+        LOG.warn("Rejected " + numRejected + " GET BULK requests because the server was overloaded."
+            + " Queued GET BULK tasks: " + getBulkTaskExecutor.getNumQueuedTasks());
+      }
     }
 
     @Override
@@ -399,21 +666,15 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     } catch (InterruptedException e) {
       LOG.info("Interrupted while waiting for update runtime statistics thread to terminate during shutdown.");
     }
-    // Shut down domain accessors
+    cachePrefillExecutor.shutdownNow();
+    // Shut down domain accessors, keeping their key samples for the next warm-up
     for (DomainAccessor domainAccessor : domainAccessors) {
       if (domainAccessor != null) {
+        writeKeySamples(domainAccessor);
         domainAccessor.shutDown();
       }
     }
     // Shut down GET tasks
-    getBulkTaskExecutor.shutdown();
-    try {
-      while (!getBulkTaskExecutor.awaitTermination(GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE,
-          GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT)) {
-        LOG.debug("Waiting for termination of GET BULK task executor during shutdown.");
-      }
-    } catch (InterruptedException e) {
-      LOG.debug("Interrupted while waiting for termination of GET BULK task executor during shutdown.");
-    }
+    getBulkTaskExecutor.shutDown();
   }
 }
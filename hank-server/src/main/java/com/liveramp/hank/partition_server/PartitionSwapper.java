@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.partition_server;
+
+import java.io.IOException;
+
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.HostDomainPartition;
+
+/**
+ * Implemented by handlers that can swap updated partitions in while serving data,
+ * which makes it possible to update a host without it going idle.
+ */
+interface PartitionSwapper {
+
+  // Return true iff all partitions that should be served after the update are currently being served
+  public boolean canSwapPartitions() throws IOException;
+
+  // Start serving the given version of a partition that was just updated
+  public void swapPartition(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException;
+
+  // Stop serving a partition that is about to be deleted
+  public void unloadPartition(Domain domain, int partitionNumber) throws IOException;
+}
@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.liveramp.hank.storage.ReaderResult;
+
+/**
+ * A bounded pool of ReaderResults, so that bulk responses do not allocate a result for every key. The buffers
+ * of released results are given back to the shared ByteBufferPool, which bounds the memory they use, and pooled
+ * results acquire new buffers from it as needed.
+ */
+public class ReaderResultPool {
+
+  private final Queue<ReaderResult> results = new ConcurrentLinkedQueue<ReaderResult>();
+  private final AtomicInteger numResults = new AtomicInteger(0);
+  private final int maxNumResults;
+
+  public ReaderResultPool(int maxNumResults) {
+    this.maxNumResults = maxNumResults;
+  }
+
+  // Return a cleared result, pooled if possible
+  public ReaderResult acquire() {
+    ReaderResult result = results.poll();
+    if (result == null) {
+      return new ReaderResult();
+    }
+    numResults.decrementAndGet();
+    result.clear();
+    return result;
+  }
+
+  // Give back a result. Its buffer must not be referenced anymore.
+  public void release(ReaderResult result) {
+    result.release();
+    if (numResults.incrementAndGet() > maxNumResults) {
+      numResults.decrementAndGet();
+      return;
+    }
+    results.offer(result);
+  }
+
+  public int getNumResults() {
+    return numResults.get();
+  }
+}
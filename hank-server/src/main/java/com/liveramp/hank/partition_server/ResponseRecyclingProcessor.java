@@ -0,0 +1,45 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * Wraps the processor of the Thrift server so that the value buffers held by a response are given
+ * back to the handler as soon as the response has been serialized into the frame's output buffer.
+ */
+public class ResponseRecyclingProcessor implements TProcessor {
+
+  private final TProcessor processor;
+  private final PartitionServerHandler handler;
+
+  public ResponseRecyclingProcessor(TProcessor processor, PartitionServerHandler handler) {
+    this.processor = processor;
+    this.handler = handler;
+  }
+
+  @Override
+  public boolean process(TProtocol in, TProtocol out) throws TException {
+    try {
+      return processor.process(in, out);
+    } finally {
+      handler.releaseResponseBuffers();
+    }
+  }
+}
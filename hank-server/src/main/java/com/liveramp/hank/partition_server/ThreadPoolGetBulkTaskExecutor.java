@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs GET BULK tasks in a fixed size thread pool, in submission order.
+ * When maxQueuedTasks is positive, requests that would bring the number of queued
+ * tasks above it are rejected.
+ */
+public class ThreadPoolGetBulkTaskExecutor implements GetBulkTaskExecutor {
+
+  private static final Logger LOG = Logger.getLogger(ThreadPoolGetBulkTaskExecutor.class);
+
+  private static final long KEEP_ALIVE_VALUE = 1;
+  private static final TimeUnit KEEP_ALIVE_UNIT = TimeUnit.DAYS;
+  private static final long AWAIT_TERMINATION_VALUE = 1;
+  private static final TimeUnit AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
+
+  private final ThreadPoolExecutor executor;
+  private final int maxQueuedTasks;
+  private final AtomicInteger numQueuedTasks = new AtomicInteger(0);
+
+  public ThreadPoolGetBulkTaskExecutor(int numThreads, int maxQueuedTasks) {
+    this.maxQueuedTasks = maxQueuedTasks;
+    executor = new ThreadPoolExecutor(
+        numThreads,
+        numThreads,
+        KEEP_ALIVE_VALUE,
+        KEEP_ALIVE_UNIT,
+        new LinkedBlockingQueue<Runnable>(),
+        new GetBulkThreadFactory());
+    // Prestart core threads
+    executor.prestartAllCoreThreads();
+  }
+
+  @Override
+  public void execute(List<? extends Runnable> tasks) {
+    reserve(tasks.size());
+    for (final Runnable task : tasks) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          numQueuedTasks.decrementAndGet();
+          task.run();
+        }
+      });
+    }
+  }
+
+  // Admit a request only if it fits under the limit. A request is always admitted when nothing
+  // is queued, so that requests larger than the limit can still be served.
+  private void reserve(int numTasks) {
+    while (true) {
+      int current = numQueuedTasks.get();
+      if (maxQueuedTasks > 0 && current > 0 && current + numTasks > maxQueuedTasks) {
+        throw new RejectedExecutionException("Too many queued GET BULK tasks: " + current
+            + " queued, " + numTasks + " submitted, max is " + maxQueuedTasks);
+      }
+      if (numQueuedTasks.compareAndSet(current, current + numTasks)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public int getNumQueuedTasks() {
+    return numQueuedTasks.get();
+  }
+
+  @Override
+  public void shutDown() {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(AWAIT_TERMINATION_VALUE, AWAIT_TERMINATION_UNIT)) {
+        LOG.debug("Waiting for termination of GET BULK task executor during shutdown.");
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted while waiting for termination of GET BULK task executor during shutdown.");
+    }
+  }
+
+  private static class GetBulkThreadFactory implements ThreadFactory {
+
+    private int threadId = 0;
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, "GET BULK Thread " + threadId++);
+    }
+  }
+}
@@ -205,6 +205,9 @@ public class UpdateManager implements IUpdateManager {
         // If unable to determine the version, this partition is deletable (the corresponding domain is not in the
         // target domain group version)
         if (partition.isDeletable() || targetDomainGroupDomainVersion == null) {
+          if (partitionSwapper != null) {
+            partitionSwapper.unloadPartition(domain, partition.getPartitionNumber());
+          }
           deletePartition(hostDomain, partition);
         } else {
           // Determine Domain Version
@@ -222,14 +225,29 @@ public class UpdateManager implements IUpdateManager {
 
           // Mark the beginning of the update by first unsetting the partition's current version number.
           // That way, if the update fails, we will have to update it again, and won't be able to serve it.
-          partition.setCurrentDomainVersion(null);
+          // When updating online, the current version is still being served until the new one is swapped in.
+          if (partitionSwapper == null) {
+            partition.setCurrentDomainVersion(null);
+          }
 
           // Perform update
           StorageEngine storageEngine = domain.getStorageEngine();
           LOG.info(String.format(
               "Starting partition update of domain %s partition %d to version %d in %s.",
               domain.getName(), partition.getPartitionNumber(), targetDomainVersion.getVersionNumber(), getDataDirectory()));
-          storageEngine.getUpdater(configurator, partition.getPartitionNumber()).updateTo(targetDomainVersion, statistics);
+          if (partitionSwapper == null) {
+            storageEngine.getUpdater(configurator, partition.getPartitionNumber()).updateTo(targetDomainVersion, statistics);
+          } else {
+            try {
+              storageEngine.getUpdater(configurator, partition.getPartitionNumber()).updateTo(targetDomainVersion, statistics);
+              // Start serving the new version
+              partitionSwapper.swapPartition(domain, partition, targetDomainVersion.getVersionNumber());
+            } catch (IOException e) {
+              // Files on disk might not match the current version anymore
+              partition.setCurrentDomainVersion(null);
+              throw e;
+            }
+          }
 
           // Record update success
           partition.setCurrentDomainVersion(targetDomainVersion.getVersionNumber());
@@ -311,11 +329,24 @@ public class UpdateManager implements IUpdateManager {
   private final PartitionServerConfigurator configurator;
   private final Host host;
   private final RingGroup ringGroup;
+  private final PartitionSwapper partitionSwapper;
 
   public UpdateManager(PartitionServerConfigurator configurator, Host host, RingGroup ringGroup) throws IOException {
+    this(configurator, host, ringGroup, null);
+  }
+
+  /**
+   * When a partition swapper is given, the update is performed while the host is serving: each updated
+   * partition is swapped in as soon as it is ready, and deleted partitions are unloaded before being deleted.
+   */
+  public UpdateManager(PartitionServerConfigurator configurator,
+                       Host host,
+                       RingGroup ringGroup,
+                       PartitionSwapper partitionSwapper) throws IOException {
     this.configurator = configurator;
     this.host = host;
     this.ringGroup = ringGroup;
+    this.partitionSwapper = partitionSwapper;
   }
 
   @Override
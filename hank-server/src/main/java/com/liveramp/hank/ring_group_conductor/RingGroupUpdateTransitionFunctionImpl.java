@@ -43,12 +43,24 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
 
   private final PartitionAssigner partitionAssigner;
   private final int minRingFullyServingObservations;
+  private final boolean onlineUpdates;
   private final Map<String, Integer> hostToFullyServingObservations = new HashMap<String, Integer>();
 
   public RingGroupUpdateTransitionFunctionImpl(PartitionAssigner partitionAssigner,
                                                int minRingFullyServingObservations) throws IOException {
+    this(partitionAssigner, minRingFullyServingObservations, false);
+  }
+
+  /**
+   * When online updates are enabled, hosts that are serving and not up-to-date are told to update
+   * while serving instead of going idle first.
+   */
+  public RingGroupUpdateTransitionFunctionImpl(PartitionAssigner partitionAssigner,
+                                               int minRingFullyServingObservations,
+                                               boolean onlineUpdates) throws IOException {
     this.partitionAssigner = partitionAssigner;
     this.minRingFullyServingObservations = minRingFullyServingObservations;
+    this.onlineUpdates = onlineUpdates;
   }
 
   private static boolean isServingAndAboutToServe(Host host) throws IOException {
@@ -161,6 +173,14 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
       return;
     }
 
+    if (onlineUpdates && isFullyServing && isAssigned && !isUpToDate && numReplicasFullyServing > minNumReplicasFullyServing) {
+      // Host is serving, assigned, not up-to-date and there are more than enough replicas serving. Update while serving.
+      LOG.info("Host " + host.getAddress() + " is serving, assigned, not up-to-date, and there are more than enough replicas serving. Update while serving.");
+      Hosts.enqueueCommandIfNotPresent(host, HostCommand.EXECUTE_UPDATE);
+      removeFromReplicasFullyServing(domainToPartitionToHostsFullyServing, host);
+      return;
+    }
+
     if (isFullyServing && isAssigned && !isUpToDate && numReplicasFullyServing > minNumReplicasFullyServing) {
       // Host is serving, assigned, not up-to-date and there are more than enough replicas serving. Go idle.
       LOG.info("Host " + host.getAddress() + " is serving, assigned, not up-to-date, and there are more than enough replicas serving. Go idle.");
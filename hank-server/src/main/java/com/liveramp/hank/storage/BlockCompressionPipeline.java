@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compresses the blocks of a Writer on a small pool of threads, and hands them back to the writing
+ * thread in the order they were submitted. Blocks are recycled from a fixed ring, so that at most
+ * that many blocks are in flight and no buffer is allocated once the ring has been filled.
+ * All methods must be called from the writing thread.
+ */
+public final class BlockCompressionPipeline<T extends BlockCompressionPipeline.Block> {
+
+  public interface Block {
+
+    // Called on a compression thread
+    public void compress() throws IOException;
+  }
+
+  public interface BlockWriter<T> {
+
+    // Called on the writing thread, in submission order
+    public void write(T block) throws IOException;
+  }
+
+  private final List<T> blocks;
+  private final Future<?>[] futures;
+  private final BlockWriter<T> blockWriter;
+  private final ExecutorService executor;
+  private long numSubmitted = 0;
+  private long numWritten = 0;
+
+  /**
+   * @param blocks           ring of blocks to recycle, usually a couple per thread
+   * @param numThreads       number of compression threads
+   * @param blockWriter      writes compressed blocks
+   */
+  public BlockCompressionPipeline(List<T> blocks, int numThreads, BlockWriter<T> blockWriter) {
+    this.blocks = blocks;
+    this.futures = new Future<?>[blocks.size()];
+    this.blockWriter = blockWriter;
+    this.executor = Executors.newFixedThreadPool(numThreads, new BlockCompressionThreadFactory());
+  }
+
+  // Return the next block to fill, once it has been written out if it was in flight
+  public T acquire() throws IOException {
+    if (numSubmitted - numWritten == blocks.size()) {
+      writeOldest();
+    }
+    return blocks.get((int) (numSubmitted % blocks.size()));
+  }
+
+  // Compress the last acquired block
+  public void submit() throws IOException {
+    final T block = blocks.get((int) (numSubmitted % blocks.size()));
+    futures[(int) (numSubmitted % blocks.size())] = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        block.compress();
+        return null;
+      }
+    });
+    ++numSubmitted;
+    // Write out blocks that are already compressed
+    while (numWritten < numSubmitted && futures[(int) (numWritten % blocks.size())].isDone()) {
+      writeOldest();
+    }
+  }
+
+  // Write out all submitted blocks
+  public void flush() throws IOException {
+    while (numWritten < numSubmitted) {
+      writeOldest();
+    }
+  }
+
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void writeOldest() throws IOException {
+    int index = (int) (numWritten % blocks.size());
+    try {
+      futures[index].get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while compressing block", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to compress block", e.getCause());
+    }
+    futures[index] = null;
+    ++numWritten;
+    blockWriter.write(blocks.get(index));
+  }
+
+  private static class BlockCompressionThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread result = new Thread(runnable, "BlockCompressionThread");
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
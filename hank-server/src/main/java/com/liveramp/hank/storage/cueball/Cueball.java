@@ -39,12 +39,14 @@ import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.hasher.IdentityHasher;
 import com.liveramp.hank.storage.Compactor;
 import com.liveramp.hank.storage.Deleter;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.PartitionRemoteFileOps;
 import com.liveramp.hank.storage.PartitionRemoteFileOpsFactory;
 import com.liveramp.hank.storage.PartitionUpdater;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.RemoteDomainCleaner;
 import com.liveramp.hank.storage.RemoteDomainVersionDeleter;
+import com.liveramp.hank.storage.SharedValueCacheStorageEngine;
 import com.liveramp.hank.storage.StorageEngine;
 import com.liveramp.hank.storage.StorageEngineFactory;
 import com.liveramp.hank.storage.Writer;
@@ -56,7 +58,7 @@ import com.liveramp.hank.util.FsUtils;
 /**
  * Cueball is a storage engine optimized for small, fixed-size values.
  */
-public class Cueball extends IncrementalStorageEngine implements StorageEngine {
+public class Cueball extends IncrementalStorageEngine implements StorageEngine, SharedValueCacheStorageEngine {
 
   private static final Pattern BASE_OR_DELTA_PATTERN = Pattern.compile(".*(\\d{5})\\.((base)|(delta))\\.cueball");
   static final String BASE_REGEX = ".*\\d{5}\\.base\\.cueball";
@@ -73,6 +75,12 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     public static final String COMPRESSION_CODEC = "compression_codec";
     public static final String NUM_REMOTE_LEAF_VERSIONS_TO_KEEP = "num_remote_leaf_versions_to_keep";
     public static final String PARTITION_CACHE_CAPACITY = "partition_cache_capacity";
+    public static final String MEMORY_MAPPED_READS = "memory_mapped_reads";
+    public static final String PARTITION_CACHE_NUM_SEGMENTS = "partition_cache_num_segments";
+    public static final String OFF_HEAP_CACHE_NUM_BYTES = "off_heap_cache_num_bytes";
+    public static final String MEMBERSHIP_FILTER_BITS_PER_KEY = "membership_filter_bits_per_key";
+    public static final String NUM_MERGE_THREADS = "num_merge_threads";
+    public static final String NUM_COMPRESSION_THREADS = "num_compression_threads";
 
     private static final Set<String> REQUIRED_KEYS =
         new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY,
@@ -123,6 +131,44 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         partitionCacheCapacity = -1;
       }
 
+      // Memory mapped reads
+      Boolean memoryMappedReads = (Boolean)options.get(MEMORY_MAPPED_READS);
+      if (memoryMappedReads == null) {
+        memoryMappedReads = false;
+      }
+
+      // Number of independently locked cache segments
+      Integer partitionCacheNumSegments = (Integer)options.get(PARTITION_CACHE_NUM_SEGMENTS);
+      if (partitionCacheNumSegments == null) {
+        partitionCacheNumSegments = -1;
+      }
+
+      // Off heap cache shared by all partitions, bounded by a number of bytes
+      long offHeapCacheNumBytes = -1;
+      Object offHeapCacheNumBytesOption = options.get(OFF_HEAP_CACHE_NUM_BYTES);
+      if (offHeapCacheNumBytesOption != null) {
+        offHeapCacheNumBytes = offHeapCacheNumBytesOption instanceof Long ? (Long)offHeapCacheNumBytesOption
+            : ((Integer)offHeapCacheNumBytesOption).longValue();
+      }
+
+      // Membership filter written with each base and delta, disabled by default
+      Integer membershipFilterBitsPerKey = (Integer)options.get(MEMBERSHIP_FILTER_BITS_PER_KEY);
+      if (membershipFilterBitsPerKey == null) {
+        membershipFilterBitsPerKey = 0;
+      }
+
+      // Number of ranges of the hash index merged concurrently when compacting
+      Integer numMergeThreads = (Integer)options.get(NUM_MERGE_THREADS);
+      if (numMergeThreads == null) {
+        numMergeThreads = 1;
+      }
+
+      // Number of threads compressing blocks in the background when writing, blocks are compressed inline by default
+      Integer numCompressionThreads = (Integer)options.get(NUM_COMPRESSION_THREADS);
+      if (numCompressionThreads == null) {
+        numCompressionThreads = 0;
+      }
+
       return new Cueball((Integer)options.get(KEY_HASH_SIZE_KEY),
           hasher,
           (Integer)options.get(VALUE_SIZE_KEY),
@@ -132,7 +178,13 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
           compressionCodecClass,
           domain,
           numRemoteLeafVersionsToKeep,
-          partitionCacheCapacity);
+          partitionCacheCapacity,
+          memoryMappedReads,
+          partitionCacheNumSegments,
+          offHeapCacheNumBytes,
+          membershipFilterBitsPerKey,
+          numMergeThreads,
+          numCompressionThreads);
     }
 
     @Override
@@ -157,6 +209,14 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
   private final ByteBuffer keyHashBuffer;
   private final int numRemoteLeafVersionsToKeep;
   private final int partitionCacheCapacity;
+  private final boolean memoryMappedReads;
+  private final int partitionCacheNumSegments;
+  private final long offHeapCacheNumBytes;
+  private final int membershipFilterBitsPerKey;
+  private final int numMergeThreads;
+  private final int numCompressionThreads;
+  // Created when the first Reader is, and shared by all Readers
+  private OffHeapValueCache sharedValueCache;
 
   private final Class<? extends CueballCompressionCodec> compressionCodecClass;
 
@@ -170,6 +230,40 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
                  Domain domain,
                  int numRemoteLeafVersionsToKeep,
                  int partitionCacheCapacity) {
+    this(keyHashSize,
+        hasher,
+        valueSize,
+        hashIndexBits,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        compressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        partitionCacheCapacity,
+        false,
+        -1,
+        -1,
+        0,
+        1,
+        0);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String remoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 int partitionCacheCapacity,
+                 boolean memoryMappedReads,
+                 int partitionCacheNumSegments,
+                 long offHeapCacheNumBytes,
+                 int membershipFilterBitsPerKey,
+                 int numMergeThreads,
+                 int numCompressionThreads) {
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
@@ -181,6 +275,12 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     this.domain = domain;
     this.numRemoteLeafVersionsToKeep = numRemoteLeafVersionsToKeep;
     this.partitionCacheCapacity = partitionCacheCapacity;
+    this.memoryMappedReads = memoryMappedReads;
+    this.partitionCacheNumSegments = partitionCacheNumSegments;
+    this.offHeapCacheNumBytes = offHeapCacheNumBytes;
+    this.membershipFilterBitsPerKey = membershipFilterBitsPerKey;
+    this.numMergeThreads = numMergeThreads;
+    this.numCompressionThreads = numCompressionThreads;
     // Sanity check
     if (hashIndexBits > 32) {
       throw new RuntimeException("hashIndexBits is much too large (" + hashIndexBits + ")");
@@ -190,7 +290,21 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
   @Override
   public Reader getReader(DataDirectoriesConfigurator configurator, int partitionNumber) throws IOException {
     return new CueballReader(getTargetDirectory(configurator, partitionNumber),
-        keyHashSize, hasher, valueSize, hashIndexBits, getCompressionCodec(), partitionCacheCapacity);
+        keyHashSize, hasher, valueSize, hashIndexBits, getCompressionCodec(), partitionCacheCapacity,
+        memoryMappedReads, partitionCacheNumSegments, getSharedValueCacheForReader());
+  }
+
+  @Override
+  public synchronized OffHeapValueCache getSharedValueCache() {
+    return sharedValueCache;
+  }
+
+  private synchronized OffHeapValueCache getSharedValueCacheForReader() {
+    if (offHeapCacheNumBytes > 0 && sharedValueCache == null) {
+      sharedValueCache = new OffHeapValueCache(offHeapCacheNumBytes,
+          partitionCacheNumSegments > 1 ? partitionCacheNumSegments : OffHeapValueCache.DEFAULT_NUM_SEGMENTS);
+    }
+    return sharedValueCache;
   }
 
   private CueballCompressionCodec getCompressionCodec() throws IOException {
@@ -208,7 +322,8 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     IncrementalDomainVersionProperties domainVersionProperties = getDomainVersionProperties(domainVersion);
     return new CueballWriter(partitionRemoteFileOps.getOutputStream(getName(domainVersion.getVersionNumber(),
         domainVersionProperties.isBase())),
-        keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits);
+        keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits, membershipFilterBitsPerKey,
+        numCompressionThreads);
   }
 
   private IncrementalDomainVersionProperties getDomainVersionProperties(DomainVersion domainVersion) throws IOException {
@@ -234,7 +349,7 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     String localDir = getTargetDirectory(configurator, partitionNumber);
     return new CueballPartitionUpdater(domain,
         getPartitionRemoteFileOps(partitionNumber),
-        new CueballMerger(),
+        new CueballMerger(membershipFilterBitsPerKey, numMergeThreads),
         keyHashSize,
         valueSize,
         hashIndexBits,
@@ -260,7 +375,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         new IdentityHasher(),
         valueSize,
         getCompressionCodec(),
-        hashIndexBits);
+        hashIndexBits,
+        membershipFilterBitsPerKey,
+        numCompressionThreads);
   }
 
   @Override
@@ -380,6 +497,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         + ", remoteDomainRoot=" + remoteDomainRoot
         + ", valueSize=" + valueSize
         + ", numRemoteLeafVersionsToKeep=" + numRemoteLeafVersionsToKeep
+        + ", memoryMappedReads=" + memoryMappedReads
+        + ", partitionCacheNumSegments=" + partitionCacheNumSegments
+        + ", offHeapCacheNumBytes=" + offHeapCacheNumBytes
         + "]";
   }
 }
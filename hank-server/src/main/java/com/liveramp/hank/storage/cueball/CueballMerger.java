@@ -16,52 +16,292 @@
 package com.liveramp.hank.storage.cueball;
 
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.util.EncodingHelper;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-
+/**
+ * Merges a base and its deltas into a new base. The hash index is split into contiguous ranges of
+ * blocks that are merged and compressed concurrently into temporary files, which are then
+ * concatenated. The result is identical to a sequential merge.
+ */
 public final class CueballMerger implements ICueballMerger {
 
+  private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+  private final int membershipFilterBitsPerKey;
+  private final int numThreads;
+
+  public CueballMerger() {
+    this(0);
+  }
+
+  /**
+   * @param membershipFilterBitsPerKey size of the membership filter of the new base, or 0 to not write one
+   */
+  public CueballMerger(int membershipFilterBitsPerKey) {
+    this(membershipFilterBitsPerKey, 1);
+  }
+
+  /**
+   * @param membershipFilterBitsPerKey size of the membership filter of the new base, or 0 to not write one
+   * @param numThreads                 number of ranges of the hash index to merge concurrently
+   */
+  public CueballMerger(int membershipFilterBitsPerKey, int numThreads) {
+    this.membershipFilterBitsPerKey = membershipFilterBitsPerKey;
+    this.numThreads = Math.max(1, numThreads);
+  }
+
   @Override
   public void merge(final CueballFilePath base,
                     final List<CueballFilePath> deltas,
                     final String newBasePath,
                     final int keyHashSize,
                     final int valueSize,
-                    ValueTransformer transformer,
-                    int hashIndexBits,
-                    CueballCompressionCodec compressionCodec) throws IOException {
+                    final ValueTransformer transformer,
+                    final int hashIndexBits,
+                    final CueballCompressionCodec compressionCodec) throws IOException {
+    final int hashIndexSize = 1 << hashIndexBits;
+    final int numRanges = Math.min(numThreads, hashIndexSize);
+    // Blocks of every stream are read ahead while the previous ones are being merged
+    ExecutorService readAheadExecutor = Executors.newCachedThreadPool(new MergeThreadFactory("CueballReadAheadThread"));
+    try {
+      if (numRanges == 1) {
+        mergeRange(base, deltas, newBasePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec,
+            0, hashIndexSize, readAheadExecutor);
+        return;
+      }
+      ExecutorService mergeExecutor = Executors.newFixedThreadPool(numRanges, new MergeThreadFactory("CueballMergeThread"));
+      List<String> rangePaths = new ArrayList<String>(numRanges);
+      try {
+        List<Future<Void>> rangeMerges = new ArrayList<Future<Void>>(numRanges);
+        for (int i = 0; i < numRanges; ++i) {
+          final String rangePath = newBasePath + ".range" + i;
+          final int firstHashIndexIdx = (int) ((long) hashIndexSize * i / numRanges);
+          final int endHashIndexIdx = (int) ((long) hashIndexSize * (i + 1) / numRanges);
+          final ExecutorService rangeReadAheadExecutor = readAheadExecutor;
+          rangePaths.add(rangePath);
+          rangeMerges.add(mergeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              mergeRange(base, deltas, rangePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec,
+                  firstHashIndexIdx, endHashIndexIdx, rangeReadAheadExecutor);
+              return null;
+            }
+          }));
+        }
+        for (Future<Void> rangeMerge : rangeMerges) {
+          waitFor(rangeMerge);
+        }
+        concatenateRanges(rangePaths, newBasePath, hashIndexBits);
+      } finally {
+        mergeExecutor.shutdownNow();
+        for (String rangePath : rangePaths) {
+          new File(rangePath).delete();
+        }
+      }
+    } finally {
+      readAheadExecutor.shutdownNow();
+    }
+  }
 
+  private void mergeRange(CueballFilePath base,
+                          List<CueballFilePath> deltas,
+                          String newBasePath,
+                          int keyHashSize,
+                          int valueSize,
+                          ValueTransformer transformer,
+                          int hashIndexBits,
+                          CueballCompressionCodec compressionCodec,
+                          int firstHashIndexIdx,
+                          int endHashIndexIdx,
+                          ExecutorService readAheadExecutor) throws IOException {
     CueballStreamBufferMergeSort cueballStreamBufferMergeSort = new CueballStreamBufferMergeSort(base,
         deltas,
         keyHashSize,
         valueSize,
         hashIndexBits,
         compressionCodec,
-        transformer);
+        transformer,
+        firstHashIndexIdx,
+        endHashIndexIdx,
+        readAheadExecutor);
+
+    try {
+      // Output stream for the new base to be written. intentionally unbuffered, the writer below will do that on its own.
+      OutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
+
+      // Note that we intentionally omit the hasher here, since it will *not* be used
+      CueballWriter newCueballBaseWriter =
+          new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits,
+              membershipFilterBitsPerKey);
+
+      while (cueballStreamBufferMergeSort.next()) {
+        // Write next key hash and value, straight from the buffer of the stream they come from
+        byte[] buffer = cueballStreamBufferMergeSort.getBuffer();
+        newCueballBaseWriter.writeHash(buffer, cueballStreamBufferMergeSort.getKeyHashOffset(),
+            buffer, cueballStreamBufferMergeSort.getValueOffset());
+      }
+
+      newCueballBaseWriter.close();
+    } finally {
+      // Close all buffers
+      cueballStreamBufferMergeSort.close();
+    }
+  }
+
+  // Concatenate the blocks and membership filters of files that each contain a contiguous range of the
+  // hash index, in order, and write the footer of the result.
+  private void concatenateRanges(List<String> rangePaths, String newBasePath, int hashIndexBits) throws IOException {
+    final int hashIndexSize = 1 << hashIndexBits;
+    List<Footer> footers = new ArrayList<Footer>(rangePaths.size());
+    for (String rangePath : rangePaths) {
+      FileInputStream rangeInputStream = new FileInputStream(rangePath);
+      try {
+        footers.add(new Footer(rangeInputStream.getChannel(), hashIndexBits));
+      } finally {
+        rangeInputStream.close();
+      }
+    }
+
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(newBasePath), COPY_BUFFER_SIZE);
+    try {
+      byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+
+      // Blocks
+      long[] hashIndex = new long[hashIndexSize];
+      Arrays.fill(hashIndex, -1);
+      int maxUncompressedBlockSize = 0;
+      int maxCompressedBlockSize = 0;
+      long numBytesWritten = 0;
+      for (int i = 0; i < rangePaths.size(); ++i) {
+        Footer footer = footers.get(i);
+        long[] rangeHashIndex = footer.getHashIndex();
+        for (int j = 0; j < hashIndexSize; ++j) {
+          if (rangeHashIndex[j] != -1) {
+            hashIndex[j] = numBytesWritten + rangeHashIndex[j];
+          }
+        }
+        maxUncompressedBlockSize = Math.max(maxUncompressedBlockSize, footer.getMaxUncompressedBufferSize());
+        maxCompressedBlockSize = Math.max(maxCompressedBlockSize, footer.getMaxCompressedBufferSize());
+        copy(rangePaths.get(i), 0, footer.getDataLength(), outputStream, copyBuffer);
+        numBytesWritten += footer.getDataLength();
+      }
+
+      // Membership filter
+      if (membershipFilterBitsPerKey > 0) {
+        int[] blockStarts = new int[hashIndexSize + 1];
+        long numWords = 0;
+        long numKeys = 0;
+        for (int i = 0; i < rangePaths.size(); ++i) {
+          Footer footer = footers.get(i);
+          int firstHashIndexIdx = (int) ((long) hashIndexSize * i / rangePaths.size());
+          int endHashIndexIdx = (int) ((long) hashIndexSize * (i + 1) / rangePaths.size());
+          int[] rangeBlockStarts = readMembershipFilterBlockStarts(rangePaths.get(i), footer, hashIndexSize);
+          for (int j = firstHashIndexIdx; j < endHashIndexIdx; ++j) {
+            blockStarts[j] = (int) numWords + rangeBlockStarts[j];
+          }
+          copy(rangePaths.get(i), footer.getMembershipFilterOffset(), footer.getMembershipFilterNumWords() * 8,
+              outputStream, copyBuffer);
+          numWords += footer.getMembershipFilterNumWords();
+          numKeys += footer.getMembershipFilterNumKeys();
+        }
+        blockStarts[hashIndexSize] = (int) numWords;
+        MembershipFilterBuilder.writeBlockStartsAndTrailer(outputStream, blockStarts, numWords, numKeys,
+            MembershipFilter.getNumHashes(membershipFilterBitsPerKey), membershipFilterBitsPerKey);
+      }
+
+      CueballWriter.writeFooter(outputStream, hashIndex, maxUncompressedBlockSize, maxCompressedBlockSize);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private static int[] readMembershipFilterBlockStarts(String path, Footer footer, int hashIndexSize) throws IOException {
+    byte[] bytes = new byte[(hashIndexSize + 1) * 4];
+    FileInputStream inputStream = new FileInputStream(path);
+    try {
+      FileChannel channel = inputStream.getChannel();
+      channel.position(footer.getMembershipFilterOffset() + footer.getMembershipFilterNumWords() * 8);
+      readFully(inputStream, bytes, bytes.length);
+    } finally {
+      inputStream.close();
+    }
+    int[] result = new int[hashIndexSize + 1];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, i * 4, 4);
+    }
+    return result;
+  }
 
-    // Output stream for the new base to be written. intentionally unbuffered, the writer below will do that on its own.
-    OutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
+  private static void copy(String path, long offset, long length, OutputStream outputStream, byte[] buffer) throws IOException {
+    FileInputStream inputStream = new FileInputStream(path);
+    try {
+      inputStream.getChannel().position(offset);
+      while (length > 0) {
+        int chunkLength = (int) Math.min(buffer.length, length);
+        readFully(inputStream, buffer, chunkLength);
+        outputStream.write(buffer, 0, chunkLength);
+        length -= chunkLength;
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
 
-    // Note that we intentionally omit the hasher here, since it will *not* be used
-    CueballWriter newCueballBaseWriter =
-        new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits);
+  private static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      int numRead = inputStream.read(buffer, offset, length - offset);
+      if (numRead < 0) {
+        throw new IOException("Unexpected end of file after " + offset + " of " + length + " bytes");
+      }
+      offset += numRead;
+    }
+  }
 
-    while (true) {
-      KeyHashAndValueAndStreamIndex keyValuePair = cueballStreamBufferMergeSort.nextKeyHashAndValueAndStreamIndex();
-      if (keyValuePair == null) {
-        break;
+  private static void waitFor(Future<Void> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while merging", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw new IOException("Failed to merge", e.getCause());
+    }
+  }
 
-      // Write next key hash and value
-      newCueballBaseWriter.writeHash(keyValuePair.keyHash, keyValuePair.value);
+  private static class MergeThreadFactory implements ThreadFactory {
+
+    private final String name;
+
+    private MergeThreadFactory(String name) {
+      this.name = name;
     }
 
-    // Close all buffers and the base writer
-    cueballStreamBufferMergeSort.close();
-    newCueballBaseWriter.close();
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread result = new Thread(runnable, name);
+      result.setDaemon(true);
+      return result;
+    }
   }
 }
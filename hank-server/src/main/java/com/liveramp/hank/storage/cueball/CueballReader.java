@@ -19,16 +19,29 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
 import com.liveramp.hank.hasher.Hasher;
-import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.BulkReader;
+import com.liveramp.hank.storage.MembershipFilteredReader;
+import com.liveramp.hank.storage.OffHeapValueCache;
+import com.liveramp.hank.storage.PreloadableReader;
 import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.util.ByteBufferPool;
 import com.liveramp.hank.util.Bytes;
+import com.liveramp.hank.util.Cache;
+import com.liveramp.hank.util.MemoryMappedFile;
+import com.liveramp.hank.util.PageCachePreloader;
+import com.liveramp.hank.util.SegmentedLruCache;
 import com.liveramp.hank.util.SynchronizedCache;
+import com.liveramp.hank.util.WarmupBudget;
 
-public class CueballReader implements Reader {
+public class CueballReader implements BulkReader, PreloadableReader, MembershipFilteredReader {
 
   private static final KeyHashBufferThreadLocal keyHashBufferThreadLocal = new KeyHashBufferThreadLocal();
   private static final ByteBuffer NOT_FOUND_MARKER = ByteBuffer.wrap(new byte[]{});
@@ -36,15 +49,26 @@ public class CueballReader implements Reader {
   private final Hasher hasher;
   private final int valueSize;
   private final long[] hashIndex;
+  // Compressed size of each block, read from the hash index
+  private final int[] blockSizes;
   private final FileChannel channel;
   private final int keyHashSize;
-  private final int fullRecordSize;
+  private final KeyHashSearcher searcher;
   private final CueballCompressionCodec compressionCodec;
   private int maxUncompressedBufferSize;
   private int maxCompressedBufferSize;
   private final HashPrefixCalculator prefixer;
   private final int versionNumber;
-  private SynchronizedCache<ByteBuffer, ByteBuffer> cache;
+  private Cache<ByteBuffer, ByteBuffer> cache;
+  // Only set when using a value cache shared with other Readers, instead of cache
+  private OffHeapValueCache sharedCache;
+  private final int sharedCacheNamespace;
+  // Only set when reading from a memory mapping of the data region
+  private MemoryMappedFile mappedData;
+  private final long dataLength;
+  private final boolean scanMappedBlocks;
+  // Null when the file does not have a membership filter
+  private MembershipFilter membershipFilter;
 
   public CueballReader(String partitionRoot,
                        int keyHashSize,
@@ -53,6 +77,19 @@ public class CueballReader implements Reader {
                        int hashIndexBits,
                        CueballCompressionCodec compressionCodec,
                        int cacheCapacity) throws IOException {
+    this(partitionRoot, keyHashSize, hasher, valueSize, hashIndexBits, compressionCodec, cacheCapacity, false, -1, null);
+  }
+
+  public CueballReader(String partitionRoot,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       int hashIndexBits,
+                       CueballCompressionCodec compressionCodec,
+                       int cacheCapacity,
+                       boolean memoryMapped,
+                       int cacheNumSegments,
+                       OffHeapValueCache sharedCache) throws IOException {
     SortedSet<CueballFilePath> bases = Cueball.getBases(partitionRoot);
     if (bases == null || bases.size() == 0) {
       throw new IOException("Could not detect any Cueball base in " + partitionRoot);
@@ -62,7 +99,7 @@ public class CueballReader implements Reader {
     this.hasher = hasher;
     this.valueSize = valueSize;
     this.compressionCodec = compressionCodec;
-    this.fullRecordSize = valueSize + keyHashSize;
+    this.searcher = new KeyHashSearcher(keyHashSize, valueSize);
     this.prefixer = new HashPrefixCalculator(hashIndexBits);
     this.versionNumber = latestBase.getVersion();
 
@@ -71,14 +108,31 @@ public class CueballReader implements Reader {
     hashIndex = footer.getHashIndex();
     maxUncompressedBufferSize = footer.getMaxUncompressedBufferSize();
     maxCompressedBufferSize = footer.getMaxCompressedBufferSize();
-    cache = new SynchronizedCache<ByteBuffer, ByteBuffer>(cacheCapacity > 0, cacheCapacity);
+    dataLength = footer.getDataLength();
+    blockSizes = getBlockSizes(hashIndex, dataLength);
+    membershipFilter = MembershipFilter.read(channel, footer, hashIndexBits);
+    this.sharedCache = sharedCache;
+    this.sharedCacheNamespace = sharedCache == null ? -1 : sharedCache.newNamespace();
+    if (sharedCache != null) {
+      // The shared cache replaces the partition cache
+      cache = new SynchronizedCache<ByteBuffer, ByteBuffer>(false, 0);
+    } else if (cacheNumSegments > 1) {
+      cache = new SegmentedLruCache<ByteBuffer, ByteBuffer>(cacheCapacity > 0, cacheCapacity, cacheNumSegments);
+    } else {
+      cache = new SynchronizedCache<ByteBuffer, ByteBuffer>(cacheCapacity > 0, cacheCapacity);
+    }
+    if (memoryMapped) {
+      mappedData = new MemoryMappedFile(channel, dataLength);
+    }
+    // Uncompressed blocks can be scanned in place, there is no need to copy them out of the mapping
+    scanMappedBlocks = memoryMapped && compressionCodec instanceof NoCueballCompressionCodec;
   }
 
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
     // Note: keyHash buffer might be larger than keyHashSize
     byte[] keyHash = computeKeyHash(key);
-    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash);
+    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash, 0, keyHashSize);
 
     int hashPrefix = prefixer.getHashPrefix(keyHash, 0);
     long baseOffset = hashIndex[hashPrefix];
@@ -88,73 +142,231 @@ public class CueballReader implements Reader {
 
     // baseOffset of -1 means that our hashPrefix doesn't map to any blocks
     if (baseOffset >= 0) {
+      // Most absent keys are ruled out by the membership filter
+      if (isRuledOutByMembershipFilter(hashPrefix, keyHash, result)) {
+        return;
+      }
       // Attempt to load value from the cache
       if (loadValueFromCache(keyHashByteBuffer, result)) {
         return;
       }
-      // We will read the compressed buffer and decompress it in the same buffer.
-      result.requiresBufferSize(maxCompressedBufferSize + maxUncompressedBufferSize);
-      // set up to read a chunk from the datafile
-      ByteBuffer buffer = result.getBuffer();
-      buffer.rewind();
-      buffer.limit(maxCompressedBufferSize);
-      int bytesRead = channel.read(buffer, baseOffset);
-
-      // decompress from the beginning of the buffer into the unoccupied end of
-      // the buffer
-      final int uncompressedStart = bytesRead;
-      int decompressedLength = compressionCodec.decompress(buffer.array(),
-          0,
-          bytesRead, buffer.array(),
-          uncompressedStart);
-
-      // scan the chunk we read to find a matching key, if there is one,
-      // returning the recordfile offset
-      int bufferOffset = getValueOffset(buffer.array(),
-          uncompressedStart,
-          uncompressedStart + decompressedLength,
-          keyHash);
-
-      // -1 means that we didn't find the key
-      if (bufferOffset > -1) {
-        result.found();
-        buffer.limit(bufferOffset + valueSize);
-        buffer.position(bufferOffset);
-        addValueToCache(keyHashByteBuffer, buffer);
-      } else {
-        // key not found
-        addNotFoundToCache(keyHashByteBuffer);
+      final int blockSize = blockSizes[hashPrefix];
+      // Attempt to scan the block directly in the mapping
+      if (scanMappedBlocks && loadValueFromMappedBlock(keyHash, keyHashByteBuffer, baseOffset, blockSize, result)) {
+        return;
+      }
+      // Read and decompress the block in a pooled buffer, and copy the value out of it
+      ByteBuffer buffer = ByteBufferPool.getShared().acquire(blockSize + maxUncompressedBufferSize);
+      try {
+        ByteBuffer block = readBlock(baseOffset, blockSize, buffer);
+        // search the block we read to find a matching key, if there is one,
+        // returning the offset of its value
+        int valueOffset = searcher.getValueOffset(block, block.position(), block.limit(), keyHash);
+        // -1 means that we didn't find the key
+        if (valueOffset > -1) {
+          loadValue(block, valueOffset, keyHashByteBuffer, result);
+        } else {
+          // key not found
+          countMembershipFilterFalsePositive(result);
+          addNotFoundToCache(keyHashByteBuffer);
+        }
+      } finally {
+        ByteBufferPool.getShared().release(buffer);
       }
     }
   }
 
+  // Keys are sorted by the offset of the block they belong to, so that each block is read and
+  // decompressed only once, and blocks are read in file order.
+  @Override
+  public void getBulk(List<ByteBuffer> keys, ReaderResult[] results) throws IOException {
+    final int numKeys = keys.size();
+    final byte[][] keyHashes = new byte[numKeys][];
+    final int[] hashPrefixes = new int[numKeys];
+    final long[] baseOffsets = new long[numKeys];
+    Integer[] keyIndices = new Integer[numKeys];
+    for (int i = 0; i < numKeys; ++i) {
+      keyHashes[i] = new byte[keyHashSize];
+      hasher.hash(keys.get(i), keyHashSize, keyHashes[i]);
+      hashPrefixes[i] = prefixer.getHashPrefix(keyHashes[i], 0);
+      baseOffsets[i] = hashIndex[hashPrefixes[i]];
+      keyIndices[i] = i;
+    }
+    Arrays.sort(keyIndices, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        long offsetA = baseOffsets[a];
+        long offsetB = baseOffsets[b];
+        return offsetA < offsetB ? -1 : (offsetA == offsetB ? 0 : 1);
+      }
+    });
+
+    // Currently loaded block, the uncompressed records are in [blockStart, blockEnd[
+    long blockOffset = -1;
+    ByteBuffer block = null;
+    int blockStart = 0;
+    int blockEnd = 0;
+    // Pooled buffer in which blocks are read and decompressed, acquired when first needed
+    ByteBuffer blockBuffer = null;
+    try {
+      for (Integer keyIndex : keyIndices) {
+        byte[] keyHash = keyHashes[keyIndex];
+        long baseOffset = baseOffsets[keyIndex];
+        ReaderResult result = results[keyIndex];
+        result.notFound();
+        // baseOffset of -1 means that our hashPrefix doesn't map to any blocks
+        if (baseOffset < 0) {
+          continue;
+        }
+        if (isRuledOutByMembershipFilter(hashPrefixes[keyIndex], keyHash, result)) {
+          continue;
+        }
+        ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash, 0, keyHashSize);
+        if (loadValueFromCache(keyHashByteBuffer, result)) {
+          continue;
+        }
+        // Load the block if it is not loaded yet
+        if (block == null || blockOffset != baseOffset) {
+          int blockSize = blockSizes[hashPrefixes[keyIndex]];
+          block = scanMappedBlocks ? mappedData.slice(baseOffset, blockSize) : null;
+          if (block == null) {
+            if (blockBuffer == null) {
+              blockBuffer = ByteBufferPool.getShared().acquire(maxCompressedBufferSize + maxUncompressedBufferSize);
+            }
+            block = readBlock(baseOffset, blockSize, blockBuffer);
+          }
+          blockStart = block.position();
+          blockEnd = block.limit();
+          blockOffset = baseOffset;
+        }
+        int valueOffset = searcher.getValueOffset(block, blockStart, blockEnd, keyHash);
+        if (valueOffset > -1) {
+          // Copy the value since the block is shared by other keys
+          loadValue(block, valueOffset, keyHashByteBuffer, result);
+        } else {
+          countMembershipFilterFalsePositive(result);
+          addNotFoundToCache(keyHashByteBuffer);
+        }
+      }
+    } finally {
+      ByteBufferPool.getShared().release(blockBuffer);
+    }
+  }
+
+  // Read and decompress the block at the given offset into buffer, which must hold at least blockSize plus
+  // maxUncompressedBufferSize bytes. The returned buffer's position and limit delimit the uncompressed records.
+  private ByteBuffer readBlock(long baseOffset, int blockSize, ByteBuffer buffer) throws IOException {
+    buffer.clear();
+    buffer.limit(blockSize);
+    int bytesRead;
+    if (mappedData != null) {
+      bytesRead = blockSize;
+      mappedData.read(baseOffset, buffer.array(), 0, bytesRead);
+    } else {
+      bytesRead = channel.read(buffer, baseOffset);
+    }
+    int decompressedLength = compressionCodec.decompress(buffer.array(), 0, bytesRead, buffer.array(), bytesRead);
+    buffer.limit(bytesRead + decompressedLength);
+    buffer.position(bytesRead);
+    return buffer;
+  }
+
+  // Return true if the membership filter proves that the key is absent, in which case result was set
+  private boolean isRuledOutByMembershipFilter(int hashPrefix, byte[] keyHash, ReaderResult result) {
+    if (membershipFilter != null && !membershipFilter.mightContain(hashPrefix, keyHash, keyHashSize)) {
+      result.setMembershipFilterNegative(true);
+      return true;
+    }
+    return false;
+  }
+
+  private void countMembershipFilterFalsePositive(ReaderResult result) {
+    if (membershipFilter != null) {
+      result.setMembershipFilterFalsePositive(true);
+    }
+  }
+
+  // Off-heap memory used by the membership filter, 0 if there is none
+  @Override
+  public long getMembershipFilterNumBytes() {
+    MembershipFilter filter = membershipFilter;
+    return filter == null ? 0 : filter.getNumBytes();
+  }
+
   public Integer getVersionNumber() {
     return versionNumber;
   }
 
+  // The blocks of key hashes are needed by every lookup
+  @Override
+  public long preloadIndex(WarmupBudget budget) throws IOException {
+    if (mappedData != null) {
+      return PageCachePreloader.preload(mappedData, 0, dataLength, budget);
+    } else {
+      return PageCachePreloader.preload(channel, 0, dataLength, budget);
+    }
+  }
+
+  @Override
+  public long preloadData(WarmupBudget budget) throws IOException {
+    return 0;
+  }
+
   @Override
   public void close() throws IOException {
     channel.close();
+    mappedData = null;
+    membershipFilter = null;
     cache = null;
+    sharedCache = null;
   }
 
-  private int getValueOffset(byte[] keyfileBufferChunk, int off, int limit, byte[] key) {
-    for (; off < limit; off += fullRecordSize) {
-      int comparison = Bytes.compareBytesUnsigned(keyfileBufferChunk, off,
-          key, 0, keyHashSize);
-      // found match
-      if (comparison == 0) {
-        return off + keyHashSize;
+  // A block ends where the next non empty block starts, or at the end of the data region
+  private static int[] getBlockSizes(long[] hashIndex, long dataLength) {
+    int[] blockSizes = new int[hashIndex.length];
+    long blockEnd = dataLength;
+    for (int i = hashIndex.length - 1; i >= 0; --i) {
+      if (hashIndex[i] >= 0) {
+        blockSizes[i] = (int) (blockEnd - hashIndex[i]);
+        blockEnd = hashIndex[i];
       }
+    }
+    return blockSizes;
+  }
 
-      // passed the spot where our key could have been found, so not going to
-      // find it
-      if (comparison == 1) {
-        break;
-      }
+  // Return true if the block could be scanned in place, in which case result was set
+  private boolean loadValueFromMappedBlock(byte[] keyHash,
+                                           ByteBuffer keyHashByteBuffer,
+                                           long baseOffset,
+                                           int blockSize,
+                                           ReaderResult result) {
+    ByteBuffer block = mappedData.slice(baseOffset, blockSize);
+    if (block == null) {
+      // Block straddles two segments of the mapping and needs to be copied
+      return false;
+    }
+    int valueOffset = searcher.getValueOffset(block, block.position(), block.limit(), keyHash);
+    if (valueOffset > -1) {
+      loadValue(block, valueOffset, keyHashByteBuffer, result);
+    } else {
+      countMembershipFilterFalsePositive(result);
+      addNotFoundToCache(keyHashByteBuffer);
     }
-    // looked everywhere, didn't find it!
-    return -1;
+    return true;
+  }
+
+  // Copy the value at the given offset of the block into result
+  private void loadValue(ByteBuffer block, int valueOffset, ByteBuffer keyHashByteBuffer, ReaderResult result) {
+    result.requiresBufferSize(valueSize);
+    ByteBuffer buffer = result.getBuffer();
+    buffer.clear();
+    ByteBuffer value = block.duplicate();
+    value.limit(valueOffset + valueSize);
+    value.position(valueOffset);
+    buffer.put(value);
+    buffer.flip();
+    result.found();
+    addValueToCache(keyHashByteBuffer, buffer);
   }
 
   private static class KeyHashBufferThreadLocal extends ThreadLocal<byte[]> {
@@ -185,15 +397,30 @@ public class CueballReader implements Reader {
   }
 
   private void addValueToCache(ByteBuffer keyHash, ByteBuffer value) {
+    if (sharedCache != null) {
+      sharedCache.put(sharedCacheNamespace, keyHash, value);
+      return;
+    }
     cache.put(Bytes.byteBufferDeepCopy(keyHash), Bytes.byteBufferDeepCopy(value));
   }
 
   private void addNotFoundToCache(ByteBuffer keyHash) {
+    if (sharedCache != null) {
+      sharedCache.putNotFound(sharedCacheNamespace, keyHash);
+      return;
+    }
     cache.put(Bytes.byteBufferDeepCopy(keyHash), NOT_FOUND_MARKER);
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
   private boolean loadValueFromCache(ByteBuffer keyHash, ReaderResult result) {
+    if (sharedCache != null) {
+      if (sharedCache.get(sharedCacheNamespace, keyHash, result)) {
+        result.setL1CacheHit(true);
+        return true;
+      }
+      return false;
+    }
     ByteBuffer value;
     value = cache.get(keyHash);
     if (value != null) {
@@ -23,10 +23,20 @@ import com.liveramp.hank.util.Bytes;
 import com.liveramp.hank.util.IOStreamUtils;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+/**
+ * Reads the records of a Cueball file in order, one block at a time. Reading can be restricted to the blocks
+ * of a range of the hash index. When given an executor, the next block is read and decompressed in the
+ * background while the records of the current one are consumed.
+ */
 public final class CueballStreamBuffer {
   private final int relativeIndex;
   private final int keyHashSize;
@@ -38,13 +48,21 @@ public final class CueballStreamBuffer {
   private final InputStream stream;
 
   private final long[] hashIndex;
-  private final byte[] uncompressedBuffer;
+  private byte[] uncompressedBuffer;
   private final byte[] compressedBuffer;
 
-  private int currentHashIndexIdx = -1;
+  private int currentHashIndexIdx;
+  private final int endHashIndexIdx;
   private final CueballCompressionCodec compressionCodec;
   private final long dataLength;
 
+  // Null when blocks are read on demand
+  private final ExecutorService readAheadExecutor;
+  // Buffer in which the next block is decompressed in the background
+  private byte[] nextUncompressedBuffer;
+  // Decompressed size of the next block, -1 if there is none
+  private Future<Integer> nextBlock;
+
   public CueballStreamBuffer(String filePath,
                              int relativeIndex,
                              int keyHashSize,
@@ -52,10 +70,29 @@ public final class CueballStreamBuffer {
                              int hashIndexBits,
                              CueballCompressionCodec compressionCodec)
       throws IOException {
+    this(filePath, relativeIndex, keyHashSize, valueSize, hashIndexBits, compressionCodec, 0, 1 << hashIndexBits, null);
+  }
+
+  /**
+   * @param firstHashIndexIdx first block of the range to read
+   * @param endHashIndexIdx   end (exclusive) of the range to read
+   * @param readAheadExecutor executor used to read blocks ahead, or null to read them on demand
+   */
+  public CueballStreamBuffer(String filePath,
+                             int relativeIndex,
+                             int keyHashSize,
+                             int valueSize,
+                             int hashIndexBits,
+                             CueballCompressionCodec compressionCodec,
+                             int firstHashIndexIdx,
+                             int endHashIndexIdx,
+                             ExecutorService readAheadExecutor)
+      throws IOException {
     this.relativeIndex = relativeIndex;
     this.compressionCodec = compressionCodec;
+    this.readAheadExecutor = readAheadExecutor;
+    this.endHashIndexIdx = endHashIndexIdx;
     FileInputStream fileInputStream = new FileInputStream(filePath);
-    this.stream = new BufferedInputStream(fileInputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
 
     this.keyHashSize = keyHashSize;
     this.fullRecordSize = valueSize + keyHashSize;
@@ -65,6 +102,17 @@ public final class CueballStreamBuffer {
     hashIndex = footer.getHashIndex();
     uncompressedBuffer = new byte[footer.getMaxUncompressedBufferSize()];
     compressedBuffer = new byte[footer.getMaxCompressedBufferSize()];
+    if (readAheadExecutor != null) {
+      nextUncompressedBuffer = new byte[footer.getMaxUncompressedBufferSize()];
+    }
+
+    // Start reading at the first block of the range
+    currentHashIndexIdx = firstHashIndexIdx - 1;
+    int firstBlockIdx = getNextBlockIdx(currentHashIndexIdx);
+    if (firstBlockIdx < endHashIndexIdx) {
+      fileInputStream.getChannel().position(hashIndex[firstBlockIdx]);
+    }
+    this.stream = new BufferedInputStream(fileInputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
   }
 
   public boolean anyRemaining() throws IOException {
@@ -76,62 +124,98 @@ public final class CueballStreamBuffer {
     }
 
     // refill the buffer
-
-    // advance to the next non-empty block
-    currentHashIndexIdx++;
-    while (currentHashIndexIdx < hashIndex.length) {
-      if (hashIndex[currentHashIndexIdx] != -1) {
-        break;
+    int decompressedSize;
+    if (readAheadExecutor == null) {
+      decompressedSize = readNextBlock(uncompressedBuffer);
+    } else {
+      if (nextBlock == null) {
+        readNextBlockAhead();
+      }
+      decompressedSize = getNextBlock();
+      // The next block becomes the current one, and the next one is read in the previous buffer
+      byte[] previousUncompressedBuffer = uncompressedBuffer;
+      uncompressedBuffer = nextUncompressedBuffer;
+      nextUncompressedBuffer = previousUncompressedBuffer;
+      if (decompressedSize >= 0) {
+        readNextBlockAhead();
       }
-      currentHashIndexIdx++;
     }
 
-    if (currentHashIndexIdx >= hashIndex.length) {
+    if (decompressedSize < 0) {
       // there are no more blocks. we're all done
       complete = true;
       return false;
     }
 
-    // there's at least one block left.
+    // adjust the pointers
+    currentOffset = 0;
+    currentLimit = decompressedSize;
+    return true;
+  }
 
-    long upperOffset;
-    if (currentHashIndexIdx == hashIndex.length - 1) {
-      // actually, there's *exactly* one block left. we need to compare the
-      // current offset to the data length to determine the compressed block
-      // size.
-      upperOffset = dataLength;
-    } else {
-      // so this isn't the last block in the index, but it might still be the
-      // last block in the file.
-      int nextHashIndexIdx = currentHashIndexIdx + 1;
-      while (nextHashIndexIdx < hashIndex.length) {
-        if (hashIndex[nextHashIndexIdx] != -1) {
-          break;
-        }
-        nextHashIndexIdx++;
-      }
-      // need to examine the "next" we got back...
-      if (nextHashIndexIdx == hashIndex.length) {
-        // turns out that it was the last block in the file, so we should
-        // compare against the end of the data length.
-        upperOffset = dataLength;
-      } else {
-        // sweet, there's another block there somewhere. use that offset as the
-        // one to determine our compressed block length.
-        upperOffset = hashIndex[nextHashIndexIdx];
-      }
+  // Read and decompress the next non-empty block of the range into the given buffer, and return its
+  // decompressed size, or -1 if there are no more blocks
+  private int readNextBlock(byte[] buffer) throws IOException {
+    // advance to the next non-empty block
+    currentHashIndexIdx = getNextBlockIdx(currentHashIndexIdx);
+    if (currentHashIndexIdx >= endHashIndexIdx) {
+      return -1;
     }
 
+    // the block ends where the next non-empty block of the file starts, or at the end of the data
+    int nextHashIndexIdx = getNextBlockIdx(currentHashIndexIdx);
+    long upperOffset = nextHashIndexIdx < hashIndex.length ? hashIndex[nextHashIndexIdx] : dataLength;
+
     final int blockLength = (int) (upperOffset - hashIndex[currentHashIndexIdx]);
     // read the compressed block from disk into the compressed buffer
-    final int compressedBytesRead = stream.read(compressedBuffer, 0, blockLength);
+    readFully(compressedBuffer, blockLength);
     // decompress the compressed block into the uncompressed buffer
-    final int decompressedSize = compressionCodec.decompress(compressedBuffer, 0, compressedBytesRead, uncompressedBuffer, 0);
+    return compressionCodec.decompress(compressedBuffer, 0, blockLength, buffer, 0);
+  }
 
-    // adjust the pointers
-    currentOffset = 0;
-    currentLimit = decompressedSize;
-    return true;
+  private void readNextBlockAhead() {
+    final byte[] buffer = nextUncompressedBuffer;
+    nextBlock = readAheadExecutor.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        return readNextBlock(buffer);
+      }
+    });
+  }
+
+  private int getNextBlock() throws IOException {
+    try {
+      return nextBlock.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while reading a block ahead", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to read a block ahead", e.getCause());
+    } finally {
+      nextBlock = null;
+    }
+  }
+
+  // Index of the first non-empty block after the given one, or the size of the hash index if there is none
+  private int getNextBlockIdx(int hashIndexIdx) {
+    int nextHashIndexIdx = hashIndexIdx + 1;
+    while (nextHashIndexIdx < hashIndex.length && hashIndex[nextHashIndexIdx] == -1) {
+      nextHashIndexIdx++;
+    }
+    return nextHashIndexIdx;
+  }
+
+  private void readFully(byte[] buffer, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      int bytesRead = stream.read(buffer, offset, length - offset);
+      if (bytesRead < 0) {
+        throw new EOFException("Reached the end of the file while reading a block of " + length + " bytes");
+      }
+      offset += bytesRead;
+    }
   }
 
   /**
@@ -165,6 +249,14 @@ public final class CueballStreamBuffer {
   }
 
   public void close() throws IOException {
+    // Wait for the block being read ahead, since it uses the stream
+    if (nextBlock != null) {
+      try {
+        getNextBlock();
+      } catch (IOException e) {
+        // Ignore, the stream is being closed
+      }
+    }
     stream.close();
   }
 }
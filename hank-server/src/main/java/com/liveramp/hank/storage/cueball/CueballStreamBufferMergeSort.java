@@ -17,11 +17,19 @@
 package com.liveramp.hank.storage.cueball;
 
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.util.Bytes;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+/**
+ * Merges the records of a Cueball base and its deltas in key hash order. Stream buffers are kept in a binary
+ * heap ordered by their current key hash, and by decreasing stream index for equal key hashes, so that the
+ * most recent value of a key hash comes first. Once positioned with next(), the current record is accessed
+ * in place, which does not allocate anything per record.
+ */
 public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSort {
 
   private final CueballStreamBuffer[] cueballStreamBuffers;
@@ -29,6 +37,12 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
   private final int valueSize;
   private final ValueTransformer transformer;
 
+  // Heap of the stream buffers with remaining records, other than the current one
+  private final CueballStreamBuffer[] heap;
+  private int heapSize = 0;
+  // Stream buffer of the current record, which is consumed when moving to the next one
+  private CueballStreamBuffer current = null;
+
   public static class Factory implements ICueballStreamBufferMergeSortFactory {
     private final int keyHashSize;
     private final int valueSize;
@@ -70,6 +84,25 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
                                       int hashIndexBits,
                                       CueballCompressionCodec compressionCodec,
                                       ValueTransformer transformer) throws IOException {
+    this(cueballBase, cueballDeltas, keyHashSize, valueSize, hashIndexBits, compressionCodec, transformer,
+        0, 1 << hashIndexBits, null);
+  }
+
+  /**
+   * Merge only the blocks in [firstHashIndexIdx, endHashIndexIdx[ of the hash index
+   *
+   * @param readAheadExecutor executor used to read blocks ahead, or null to read them on demand
+   */
+  public CueballStreamBufferMergeSort(CueballFilePath cueballBase,
+                                      List<CueballFilePath> cueballDeltas,
+                                      int keyHashSize,
+                                      int valueSize,
+                                      int hashIndexBits,
+                                      CueballCompressionCodec compressionCodec,
+                                      ValueTransformer transformer,
+                                      int firstHashIndexIdx,
+                                      int endHashIndexIdx,
+                                      ExecutorService readAheadExecutor) throws IOException {
     this.keyHashSize = keyHashSize;
     this.valueSize = valueSize;
     this.transformer = transformer;
@@ -78,69 +111,149 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
 
     // Open the base
     CueballStreamBuffer cueballBaseStreamBuffer = new CueballStreamBuffer(cueballBase.getPath(), 0,
-        keyHashSize, valueSize, hashIndexBits, compressionCodec);
+        keyHashSize, valueSize, hashIndexBits, compressionCodec, firstHashIndexIdx, endHashIndexIdx, readAheadExecutor);
     cueballStreamBuffers[0] = cueballBaseStreamBuffer;
 
     // Open all the deltas
     int i = 1;
     for (CueballFilePath delta : cueballDeltas) {
-      CueballStreamBuffer cueballStreamBuffer =
-          new CueballStreamBuffer(delta.getPath(), i, keyHashSize, valueSize, hashIndexBits, compressionCodec);
+      CueballStreamBuffer cueballStreamBuffer = new CueballStreamBuffer(delta.getPath(), i, keyHashSize, valueSize,
+          hashIndexBits, compressionCodec, firstHashIndexIdx, endHashIndexIdx, readAheadExecutor);
       cueballStreamBuffers[i++] = cueballStreamBuffer;
     }
+
+    // Build the heap
+    heap = new CueballStreamBuffer[cueballStreamBuffers.length];
+    for (CueballStreamBuffer cueballStreamBuffer : cueballStreamBuffers) {
+      if (cueballStreamBuffer.anyRemaining()) {
+        push(cueballStreamBuffer);
+      }
+    }
   }
 
   // Return null when there is nothing more to use
   @Override
   public KeyHashAndValueAndStreamIndex nextKeyHashAndValueAndStreamIndex() throws IOException {
-
-    // Find the stream buffer with the next smallest key hash
-    CueballStreamBuffer cueballStreamBufferToUse = null;
-    int cueballStreamBufferToUseIndex = -1;
-
-    for (int i = 0; i < cueballStreamBuffers.length; i++) {
-      if (cueballStreamBuffers[i].anyRemaining()) {
-        if (cueballStreamBufferToUse == null) {
-          cueballStreamBufferToUse = cueballStreamBuffers[i];
-          cueballStreamBufferToUseIndex = i;
-        } else {
-          int comparison = cueballStreamBufferToUse.compareTo(cueballStreamBuffers[i]);
-          if (comparison == 0) {
-            // If two equal key hashes are found, use the most recent value (i.e. the one from the lastest delta)
-            // and skip (consume) the older ones
-            cueballStreamBufferToUse.consume();
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          } else if (comparison == 1) {
-            // Found a stream buffer with a smaller key hash
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          }
-        }
-      }
-    }
-
-    if (cueballStreamBufferToUse == null) {
+    if (!next()) {
       // Nothing more to read
       return null;
     }
+    final ByteBuffer keyHash = ByteBuffer.wrap(getBuffer(), getKeyHashOffset(), keyHashSize);
+    final ByteBuffer valueBytes = ByteBuffer.wrap(getBuffer(), getValueOffset(), valueSize);
+    return new KeyHashAndValueAndStreamIndex(keyHash, valueBytes, getStreamIndex());
+  }
 
+  /**
+   * Move to the record with the next smallest key hash. When several streams contain that key hash, the
+   * record of the most recent one (i.e. the latest delta) is used and the older ones are skipped.
+   * The current record is only valid until the next call.
+   *
+   * @return false when there are no more records
+   */
+  public boolean next() throws IOException {
+    // Consume the previous record
+    if (current != null) {
+      current.consume();
+      if (current.anyRemaining()) {
+        push(current);
+      }
+      current = null;
+    }
+    if (heapSize == 0) {
+      return false;
+    }
+    current = pop();
+    // Skip (consume) older records with the same key hash, which are now at the top of the heap
+    while (heapSize > 0 && Bytes.compareBytesUnsigned(heap[0].getBuffer(), heap[0].getCurrentOffset(),
+        current.getBuffer(), current.getCurrentOffset(), keyHashSize) == 0) {
+      CueballStreamBuffer older = heap[0];
+      older.consume();
+      if (older.anyRemaining()) {
+        siftDown(0);
+      } else {
+        pop();
+      }
+    }
     // Transform if necessary
     if (transformer != null) {
-      transformer.transform(cueballStreamBufferToUse.getBuffer(),
-          cueballStreamBufferToUse.getCurrentOffset() + keyHashSize,
-          cueballStreamBufferToUse.getIndex());
+      transformer.transform(current.getBuffer(), getValueOffset(), current.getIndex());
+    }
+    return true;
+  }
+
+  // Buffer containing the current record
+  public byte[] getBuffer() {
+    return current.getBuffer();
+  }
+
+  public int getKeyHashOffset() {
+    return current.getCurrentOffset();
+  }
+
+  public int getValueOffset() {
+    return current.getCurrentOffset() + keyHashSize;
+  }
+
+  // Index of the stream of the current record, 0 for the base
+  public int getStreamIndex() {
+    return current.getIndex();
+  }
+
+  private void push(CueballStreamBuffer cueballStreamBuffer) {
+    int i = heapSize++;
+    heap[i] = cueballStreamBuffer;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (compare(heap[i], heap[parent]) >= 0) {
+        break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private CueballStreamBuffer pop() {
+    CueballStreamBuffer top = heap[0];
+    heap[0] = heap[--heapSize];
+    heap[heapSize] = null;
+    if (heapSize > 0) {
+      siftDown(0);
     }
+    return top;
+  }
 
-    // Get next key hash and value
-    final ByteBuffer keyHash = ByteBuffer.wrap(cueballStreamBufferToUse.getBuffer(),
-        cueballStreamBufferToUse.getCurrentOffset(), keyHashSize);
-    final ByteBuffer valueBytes = ByteBuffer.wrap(cueballStreamBufferToUse.getBuffer(),
-        cueballStreamBufferToUse.getCurrentOffset() + keyHashSize, valueSize);
+  private void siftDown(int i) {
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < heapSize && compare(heap[left], heap[smallest]) < 0) {
+        smallest = left;
+      }
+      if (right < heapSize && compare(heap[right], heap[smallest]) < 0) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap(i, smallest);
+      i = smallest;
+    }
+  }
 
-    cueballStreamBufferToUse.consume();
+  private void swap(int i, int j) {
+    CueballStreamBuffer tmp = heap[i];
+    heap[i] = heap[j];
+    heap[j] = tmp;
+  }
 
-    return new KeyHashAndValueAndStreamIndex(keyHash, valueBytes, cueballStreamBufferToUseIndex);
+  // Order by key hash, and by decreasing stream index for equal key hashes
+  private static int compare(CueballStreamBuffer a, CueballStreamBuffer b) {
+    int comparison = a.compareTo(b);
+    if (comparison != 0) {
+      return comparison;
+    }
+    return b.getIndex() - a.getIndex();
   }
 
   @Override
@@ -17,6 +17,7 @@ package com.liveramp.hank.storage.cueball;
 
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
 import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.storage.BlockCompressionPipeline;
 import com.liveramp.hank.storage.Writer;
 import com.liveramp.hank.util.Bytes;
 import com.liveramp.hank.util.EncodingHelper;
@@ -26,7 +27,9 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Note that the current implementation does not support writing partitions with
@@ -38,10 +41,10 @@ public class CueballWriter implements Writer {
   private final int keyHashSize;
   private final Hasher hasher;
   private final int valueSize;
-  private final CueballCompressionCodec compressionCodec;
-
-  private final byte[] uncompressedBuffer;
-  private final byte[] compressedBuffer;
+  // Block being filled
+  private CompressedBlock block;
+  // Null when blocks are compressed inline
+  private final BlockCompressionPipeline<CompressedBlock> compressionPipeline;
   private final byte[] keyHashBytes;
   private final byte[] previousKeyHashBytes;
   private ByteBuffer previousKey = null;
@@ -49,6 +52,8 @@ public class CueballWriter implements Writer {
   private final long[] hashIndex;
 
   private final HashPrefixCalculator prefixer;
+  // Null when no membership filter is written
+  private final MembershipFilterBuilder membershipFilterBuilder;
   private int lastHashPrefix = -1;
   private int uncompressedOffset = 0;
   private int numEntriesInBlock = 0;
@@ -64,21 +69,72 @@ public class CueballWriter implements Writer {
                        int valueSize,
                        CueballCompressionCodec compressionCodec,
                        int hashIndexBits) {
+    this(outputStream, keyHashSize, hasher, valueSize, compressionCodec, hashIndexBits, 0);
+  }
+
+  /**
+   * @param membershipFilterBitsPerKey size of the membership filter written along the blocks,
+   *                                   or 0 to not write one
+   */
+  public CueballWriter(OutputStream outputStream,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       CueballCompressionCodec compressionCodec,
+                       int hashIndexBits,
+                       int membershipFilterBitsPerKey) {
+    this(outputStream, keyHashSize, hasher, valueSize, compressionCodec, hashIndexBits, membershipFilterBitsPerKey, 0);
+  }
+
+  /**
+   * @param membershipFilterBitsPerKey size of the membership filter written along the blocks,
+   *                                   or 0 to not write one
+   * @param numCompressionThreads      number of threads compressing filled blocks while the next ones are
+   *                                   being filled, or 0 to compress them inline
+   */
+  public CueballWriter(OutputStream outputStream,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       CueballCompressionCodec compressionCodec,
+                       int hashIndexBits,
+                       int membershipFilterBitsPerKey,
+                       int numCompressionThreads) {
     // Buffer output
     this.stream = new BufferedOutputStream(outputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
-    this.compressionCodec = compressionCodec;
 
-    uncompressedBuffer = new byte[(keyHashSize + valueSize)
-        * DEFAULT_NUMBER_OF_ENTRIES];
-    compressedBuffer = new byte[compressionCodec.getMaxCompressBufferSize(uncompressedBuffer.length)];
+    int uncompressedBufferSize = (keyHashSize + valueSize) * DEFAULT_NUMBER_OF_ENTRIES;
+    if (numCompressionThreads > 0) {
+      List<CompressedBlock> blocks = new ArrayList<CompressedBlock>();
+      for (int i = 0; i < 2 * numCompressionThreads; ++i) {
+        blocks.add(new CompressedBlock(compressionCodec, uncompressedBufferSize));
+      }
+      compressionPipeline = new BlockCompressionPipeline<CompressedBlock>(blocks, numCompressionThreads,
+          new BlockCompressionPipeline.BlockWriter<CompressedBlock>() {
+            @Override
+            public void write(CompressedBlock block) throws IOException {
+              writeBlock(block);
+            }
+          });
+      // The pipeline hands out its blocks in order, starting with the first one
+      block = blocks.get(0);
+    } else {
+      compressionPipeline = null;
+      block = new CompressedBlock(compressionCodec, uncompressedBufferSize);
+    }
     keyHashBytes = new byte[keyHashSize];
     previousKeyHashBytes = new byte[keyHashSize];
     Arrays.fill(previousKeyHashBytes, (byte) 0);
 
     prefixer = new HashPrefixCalculator(hashIndexBits);
+    if (membershipFilterBitsPerKey > 0) {
+      membershipFilterBuilder = new MembershipFilterBuilder(membershipFilterBitsPerKey, keyHashSize, hashIndexBits);
+    } else {
+      membershipFilterBuilder = null;
+    }
 
     hashIndex = new long[1 << hashIndexBits];
     Arrays.fill(hashIndex, -1);
@@ -131,9 +187,21 @@ public class CueballWriter implements Writer {
   }
 
   public void writeHash(ByteBuffer hashedKey, ByteBuffer value) throws IOException {
+    if (hashedKey.arrayOffset() + hashedKey.position() + keyHashSize > hashedKey.array().length) {
+      throw new IOException("Need to copy " + keyHashSize
+          + " from key, but there weren't enough bytes left! key buffer size: "
+          + hashedKey.array().length + ", offset: " + hashedKey.arrayOffset()
+          + hashedKey.position() + ", num entries written in block: "
+          + numEntriesInBlock);
+    }
+    writeHash(hashedKey.array(), hashedKey.arrayOffset() + hashedKey.position(),
+        value.array(), value.arrayOffset() + value.position());
+  }
+
+  // Write the key hash and the value starting at the given offsets
+  public void writeHash(byte[] hashedKey, int hashedKeyOff, byte[] value, int valueOff) throws IOException {
     // check the first hashIndexBits of the hashedKey
-    int thisPrefix = prefixer.getHashPrefix(hashedKey.array(), hashedKey.arrayOffset()
-        + hashedKey.position());
+    int thisPrefix = prefixer.getHashPrefix(hashedKey, hashedKeyOff);
 
     // if this prefix and the last one don't match, then it's time to clear the
     // buffer.
@@ -142,19 +210,16 @@ public class CueballWriter implements Writer {
       clearUncompressed();
 
       lastHashPrefix = thisPrefix;
-
-      // record the start index of the next block
-      hashIndex[thisPrefix] = numBytesWritten;
     }
 
     // at this point, we're guaranteed to be ready to write to the buffer.
 
     // write a subsequence of the key hash's bytes
-    if (uncompressedOffset + keyHashSize > uncompressedBuffer.length) {
+    if (uncompressedOffset + keyHashSize + valueSize > block.uncompressed.length) {
       throw new IOException("Out of room to write to uncompressed buffer for block "
           + Integer.toString(thisPrefix, 16)
           + "! Buffer size: "
-          + uncompressedBuffer.length
+          + block.uncompressed.length
           + ", offset: "
           + uncompressedOffset
           + ", hash size: "
@@ -162,41 +227,76 @@ public class CueballWriter implements Writer {
           + ", num entries written in block: "
           + numEntriesInBlock);
     }
-    if (hashedKey.arrayOffset() + hashedKey.position() + keyHashSize > hashedKey.array().length) {
-      throw new IOException("Need to copy " + keyHashSize
-          + " from key, but there weren't enough bytes left! key buffer size: "
-          + hashedKey.array().length + ", offset: " + hashedKey.arrayOffset()
-          + hashedKey.position() + ", num entries written in block: "
-          + numEntriesInBlock);
-    }
-    System.arraycopy(hashedKey.array(), hashedKey.arrayOffset()
-        + hashedKey.position(), uncompressedBuffer, uncompressedOffset, keyHashSize);
+    System.arraycopy(hashedKey, hashedKeyOff, block.uncompressed, uncompressedOffset, keyHashSize);
 
     // encode the value offset and write it out
-    System.arraycopy(value.array(), value.arrayOffset() + value.position(), uncompressedBuffer, uncompressedOffset
-        + keyHashSize, valueSize);
+    System.arraycopy(value, valueOff, block.uncompressed, uncompressedOffset + keyHashSize, valueSize);
     uncompressedOffset += keyHashSize + valueSize;
     ++numEntriesInBlock;
+
+    if (membershipFilterBuilder != null) {
+      membershipFilterBuilder.add(thisPrefix, hashedKey, hashedKeyOff);
+    }
   }
 
   private void clearUncompressed() throws IOException {
-    // compress the block
-    int compressedSize = compressionCodec.compress(uncompressedBuffer, 0, uncompressedOffset, compressedBuffer, 0);
+    // nothing to do before the first block
+    if (uncompressedOffset == 0) {
+      return;
+    }
+    block.uncompressedSize = uncompressedOffset;
+    block.hashPrefix = lastHashPrefix;
+    if (compressionPipeline == null) {
+      // compress the block and write it right away
+      block.compress();
+      writeBlock(block);
+    } else {
+      // compress the block in the background, and fill the next one in the meantime
+      compressionPipeline.submit();
+      block = compressionPipeline.acquire();
+    }
+    // Reset offset and counter
+    uncompressedOffset = 0;
+    numEntriesInBlock = 0;
+  }
+
+  // Blocks are written in order
+  private void writeBlock(CompressedBlock block) throws IOException {
+    // record the start index of the block
+    hashIndex[block.hashPrefix] = numBytesWritten;
     // write the compressed block to the data stream
-    stream.write(compressedBuffer, 0, compressedSize);
-    numBytesWritten += compressedSize;
+    stream.write(block.compressed, 0, block.compressedSize);
+    numBytesWritten += block.compressedSize;
 
     // keep track of the max block sizes
-    if (uncompressedOffset > maxUncompressedBlockSize) {
-      maxUncompressedBlockSize = uncompressedOffset;
+    if (block.uncompressedSize > maxUncompressedBlockSize) {
+      maxUncompressedBlockSize = block.uncompressedSize;
     }
 
-    if (compressedSize > maxCompressedBlockSize) {
-      maxCompressedBlockSize = compressedSize;
+    if (block.compressedSize > maxCompressedBlockSize) {
+      maxCompressedBlockSize = block.compressedSize;
+    }
+  }
+
+  private static class CompressedBlock implements BlockCompressionPipeline.Block {
+
+    private final CueballCompressionCodec compressionCodec;
+    private final byte[] uncompressed;
+    private final byte[] compressed;
+    private int uncompressedSize;
+    private int compressedSize;
+    private int hashPrefix;
+
+    private CompressedBlock(CueballCompressionCodec compressionCodec, int uncompressedBufferSize) {
+      this.compressionCodec = compressionCodec;
+      this.uncompressed = new byte[uncompressedBufferSize];
+      this.compressed = new byte[compressionCodec.getMaxCompressBufferSize(uncompressedBufferSize)];
+    }
+
+    @Override
+    public void compress() {
+      compressedSize = compressionCodec.compress(uncompressed, 0, uncompressedSize, compressed, 0);
     }
-    // Reset offset and counter
-    uncompressedOffset = 0;
-    numEntriesInBlock = 0;
   }
 
   @Override
@@ -205,8 +305,28 @@ public class CueballWriter implements Writer {
     if (uncompressedOffset > 0) {
       clearUncompressed();
     }
+    if (compressionPipeline != null) {
+      compressionPipeline.flush();
+      compressionPipeline.close();
+    }
+
+    // write the membership filter between the blocks and the footer
+    if (membershipFilterBuilder != null) {
+      numBytesWritten += membershipFilterBuilder.write(stream);
+    }
+
+    numBytesWritten += writeFooter(stream, hashIndex, maxUncompressedBlockSize, maxCompressedBlockSize);
+
+    // flush everything and close
+    stream.flush();
+    stream.close();
+  }
 
-    // serialize the footer
+  // Serialize the footer: the hash index followed by the buffer size hints. Return the number of bytes written.
+  static int writeFooter(OutputStream stream,
+                         long[] hashIndex,
+                         long maxUncompressedBlockSize,
+                         long maxCompressedBlockSize) throws IOException {
     byte[] footer = new byte[8 * hashIndex.length + 4 + 4];
 
     for (int i = 0; i < hashIndex.length; i++) {
@@ -218,12 +338,7 @@ public class CueballWriter implements Writer {
     EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBlockSize, footer, footer.length - 4, 4);
 
     stream.write(footer);
-
-    numBytesWritten += footer.length;
-
-    // flush everything and close
-    stream.flush();
-    stream.close();
+    return footer.length;
   }
 
   @Override
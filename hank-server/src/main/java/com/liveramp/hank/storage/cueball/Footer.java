@@ -12,6 +12,11 @@ final class Footer {
   private final int maxCompressedBufferSize;
   private final long fileSize;
   private final int footerLength;
+  // Offset of the membership filter, or -1 if there is none
+  private final long membershipFilterOffset;
+  private final long membershipFilterNumWords;
+  private final long membershipFilterNumKeys;
+  private final int membershipFilterNumHashes;
 
   public Footer(FileChannel channel, int hashIndexBits) throws IOException {
     fileSize = channel.size();
@@ -45,6 +50,28 @@ final class Footer {
     if (maxCompressedBufferSize < 0) {
       throw new IOException(String.format("Read an invalid max uncompressed buffer size of %d!", maxCompressedBufferSize));
     }
+
+    // The membership filter, when there is one, ends with a trailer right before the footer
+    final long trailerOffset = fileSize - footerLength - MembershipFilter.TRAILER_SIZE;
+    byte[] trailer = new byte[MembershipFilter.TRAILER_SIZE];
+    if (trailerOffset >= 0
+        && channel.read(ByteBuffer.wrap(trailer), trailerOffset) == trailer.length
+        && EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 24, 8) == MembershipFilter.MAGIC) {
+      membershipFilterNumWords = EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 0, 8);
+      membershipFilterNumKeys = EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 8, 8);
+      membershipFilterNumHashes = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 16, 4);
+      membershipFilterOffset = trailerOffset - (1 << hashIndexBits) * 4L - 4 - membershipFilterNumWords * 8;
+      if (membershipFilterNumWords < 0 || membershipFilterOffset < 0
+          || membershipFilterNumHashes < 1 || membershipFilterNumHashes > MembershipFilter.MAX_NUM_HASHES) {
+        throw new IOException(String.format("Read an invalid membership filter trailer (%d words, %d hashes)!",
+            membershipFilterNumWords, membershipFilterNumHashes));
+      }
+    } else {
+      membershipFilterOffset = -1;
+      membershipFilterNumWords = 0;
+      membershipFilterNumKeys = 0;
+      membershipFilterNumHashes = 0;
+    }
   }
 
   public long[] getHashIndex() {
@@ -67,7 +94,31 @@ final class Footer {
     return footerLength;
   }
   
+  // Blocks end where the membership filter starts, if there is one
   public long getDataLength() {
+    if (hasMembershipFilter()) {
+      return membershipFilterOffset;
+    }
     return getFileSize() - getFooterLength();
   }
+
+  public boolean hasMembershipFilter() {
+    return membershipFilterOffset >= 0;
+  }
+
+  public long getMembershipFilterOffset() {
+    return membershipFilterOffset;
+  }
+
+  public long getMembershipFilterNumWords() {
+    return membershipFilterNumWords;
+  }
+
+  public long getMembershipFilterNumKeys() {
+    return membershipFilterNumKeys;
+  }
+
+  public int getMembershipFilterNumHashes() {
+    return membershipFilterNumHashes;
+  }
 }
@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.cueball;
+
+import java.nio.ByteBuffer;
+
+import com.liveramp.hank.util.Bytes;
+
+/**
+ * Finds a key hash in a block of sorted, fixed-size records. Key hashes are uniformly distributed,
+ * so the position of a key hash in a large block is first guessed by interpolating between the
+ * key hashes at both ends of the search range, and the search falls back to a binary search when
+ * interpolation does not converge quickly. Small blocks are scanned linearly.
+ * <p/>
+ * Key hashes are compared 8 bytes at a time, as unsigned big endian longs. Blocks must be big
+ * endian buffers (the default), and are accessed with absolute offsets.
+ */
+final class KeyHashSearcher {
+
+  // Blocks with fewer records are scanned linearly
+  static final int MIN_NUM_RECORDS_FOR_SEARCH = 16;
+  // Number of interpolation steps before falling back to a binary search
+  private static final int MAX_NUM_INTERPOLATION_STEPS = 4;
+
+  private final int keyHashSize;
+  private final int fullRecordSize;
+
+  public KeyHashSearcher(int keyHashSize, int valueSize) {
+    this.keyHashSize = keyHashSize;
+    this.fullRecordSize = keyHashSize + valueSize;
+  }
+
+  // Return the absolute offset of the value corresponding to the given key hash in the block
+  // of records [start, end[, or -1 if it is not found.
+  public int getValueOffset(ByteBuffer block, int start, int end, byte[] keyHash) {
+    final int numRecords = (end - start) / fullRecordSize;
+    if (numRecords < MIN_NUM_RECORDS_FOR_SEARCH) {
+      return scan(block, start, end, keyHash);
+    }
+    final long target = readWord(keyHash, 0);
+    int low = 0;
+    int high = numRecords - 1;
+    long lowWord = readWord(block, start);
+    long highWord = readWord(block, start + high * fullRecordSize);
+    int numInterpolationSteps = 0;
+    while (low <= high) {
+      int middle;
+      if (numInterpolationSteps < MAX_NUM_INTERPOLATION_STEPS && Bytes.compareLongsUnsigned(lowWord, highWord) < 0) {
+        // The key hash is out of the range that is left
+        if (Bytes.compareLongsUnsigned(target, lowWord) < 0 || Bytes.compareLongsUnsigned(target, highWord) > 0) {
+          return -1;
+        }
+        double fraction = toUnsignedDouble(target - lowWord) / toUnsignedDouble(highWord - lowWord);
+        middle = low + (int) ((high - low) * fraction);
+        ++numInterpolationSteps;
+      } else {
+        middle = (low + high) >>> 1;
+      }
+      final int recordOffset = start + middle * fullRecordSize;
+      final int comparison = compareKeyHash(block, recordOffset, keyHash, target);
+      if (comparison == 0) {
+        return recordOffset + keyHashSize;
+      } else if (comparison < 0) {
+        low = middle + 1;
+        if (low <= high) {
+          lowWord = readWord(block, start + low * fullRecordSize);
+        }
+      } else {
+        high = middle - 1;
+        if (low <= high) {
+          highWord = readWord(block, start + high * fullRecordSize);
+        }
+      }
+    }
+    return -1;
+  }
+
+  private int scan(ByteBuffer block, int off, int end, byte[] keyHash) {
+    final long target = readWord(keyHash, 0);
+    for (; off < end; off += fullRecordSize) {
+      int comparison = compareKeyHash(block, off, keyHash, target);
+      // found match
+      if (comparison == 0) {
+        return off + keyHashSize;
+      }
+      // passed the spot where our key could have been found
+      if (comparison > 0) {
+        break;
+      }
+    }
+    return -1;
+  }
+
+  // Compare the key hash of the record at the given offset to keyHash, whose first word is given
+  private int compareKeyHash(ByteBuffer block, int off, byte[] keyHash, long firstWord) {
+    int comparison = Bytes.compareLongsUnsigned(readWord(block, off), firstWord);
+    for (int i = 8; comparison == 0 && i < keyHashSize; i += 8) {
+      comparison = Bytes.compareLongsUnsigned(readWord(block, off + i, i), readWord(keyHash, i));
+    }
+    return comparison;
+  }
+
+  // Read the word of the key hash starting at the given offset of the record
+  private long readWord(ByteBuffer block, int recordOffset) {
+    return readWord(block, recordOffset, 0);
+  }
+
+  // Bytes past the end of the key hash are read as zeros
+  private long readWord(ByteBuffer block, int off, int keyHashOffset) {
+    final int numBytes = Math.min(8, keyHashSize - keyHashOffset);
+    if (numBytes == 8) {
+      return block.getLong(off);
+    }
+    long word = 0;
+    for (int i = 0; i < numBytes; ++i) {
+      word |= (block.get(off + i) & 0xffL) << (56 - 8 * i);
+    }
+    return word;
+  }
+
+  private long readWord(byte[] keyHash, int off) {
+    final int numBytes = Math.min(8, keyHashSize - off);
+    long word = 0;
+    for (int i = 0; i < numBytes; ++i) {
+      word |= (keyHash[off + i] & 0xffL) << (56 - 8 * i);
+    }
+    return word;
+  }
+
+  private static double toUnsignedDouble(long value) {
+    if (value >= 0) {
+      return value;
+    }
+    return (double) (value >>> 1) * 2.0;
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Blocked Bloom filter over the key hashes of a Cueball file, used to answer most lookups of
+ * absent keys without reading a block. There is one segment of bits per hash index block, sized
+ * for the number of keys in that block, so that a lookup only touches the segment of its block.
+ * <p/>
+ * The filter is stored between the blocks and the footer:
+ * [segment words (little endian longs)][segment start word of each block, and the total number of
+ * words (little endian ints)][trailer]. The trailer holds the number of words, the number of keys,
+ * the number of hash functions, the number of bits per key and a magic number.
+ * <p/>
+ * The filter is loaded off-heap, in a direct buffer.
+ */
+final class MembershipFilter {
+
+  static final long MAGIC = 0x4d656d6246696c74L;
+  static final int TRAILER_SIZE = 8 + 8 + 4 + 4 + 8;
+  static final int MAX_NUM_HASHES = 16;
+
+  private final ByteBuffer buffer;
+  private final int blockStartsOffset;
+  private final int numHashes;
+  private final long numKeys;
+
+  private MembershipFilter(ByteBuffer buffer, int blockStartsOffset, int numHashes, long numKeys) {
+    this.buffer = buffer;
+    this.blockStartsOffset = blockStartsOffset;
+    this.numHashes = numHashes;
+    this.numKeys = numKeys;
+  }
+
+  // Load the filter described by the given footer, or return null if the file does not have one
+  public static MembershipFilter read(FileChannel channel, Footer footer, int hashIndexBits) throws IOException {
+    if (!footer.hasMembershipFilter()) {
+      return null;
+    }
+    int numBlocks = 1 << hashIndexBits;
+    long wordsLength = footer.getMembershipFilterNumWords() * 8;
+    long length = wordsLength + (numBlocks + 1) * 4L;
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Membership filter is too large to be loaded: " + length + " bytes");
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    long offset = footer.getMembershipFilterOffset();
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset + buffer.position());
+      if (read < 0) {
+        throw new IOException("Reached end of file while reading membership filter at offset " + offset);
+      }
+    }
+    buffer.clear();
+    return new MembershipFilter(buffer, (int) wordsLength, footer.getMembershipFilterNumHashes(),
+        footer.getMembershipFilterNumKeys());
+  }
+
+  // Return false if the key hash is definitely not in the given block
+  public boolean mightContain(int block, byte[] keyHash, int keyHashSize) {
+    int start = buffer.getInt(blockStartsOffset + block * 4);
+    int numWords = buffer.getInt(blockStartsOffset + (block + 1) * 4) - start;
+    if (numWords == 0) {
+      return false;
+    }
+    long hash = hash(keyHash, 0, keyHashSize);
+    long numBits = numWords * 64L;
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    for (int i = 0; i < numHashes; ++i) {
+      long bit = ((h1 + i * h2) & 0xffffffffL) % numBits;
+      long word = buffer.getLong((start + (int) (bit >>> 6)) * 8);
+      if ((word & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public long getNumBytes() {
+    return buffer.capacity();
+  }
+
+  public long getNumKeys() {
+    return numKeys;
+  }
+
+  // Number of hash functions that minimizes the false positive rate for the given number of bits per key
+  static int getNumHashes(int bitsPerKey) {
+    return Math.max(1, Math.min(MAX_NUM_HASHES, (int) Math.round(bitsPerKey * Math.log(2))));
+  }
+
+  // Mix all bytes of the key hash, since the first ones are shared by all keys of a block
+  static long hash(byte[] keyHash, int off, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = off; i < off + length; ++i) {
+      h = (h ^ (keyHash[i] & 0xff)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
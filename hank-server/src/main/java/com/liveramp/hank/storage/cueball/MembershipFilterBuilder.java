@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.liveramp.hank.util.EncodingHelper;
+
+/**
+ * Builds the MembershipFilter of a Cueball file as key hashes are written, in increasing order.
+ * The segment of a block is built once all its key hashes are known.
+ */
+final class MembershipFilterBuilder {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final int bitsPerKey;
+  private final int numHashes;
+  private final int keyHashSize;
+  // Segment start word of each block, followed by the total number of words
+  private final int[] blockStarts;
+  private int numBlocksStarted = 0;
+  private int currentBlock = -1;
+
+  private long[] words = new long[INITIAL_CAPACITY];
+  private int numWords = 0;
+  // Hashes of the keys of the current block
+  private long[] blockHashes = new long[INITIAL_CAPACITY];
+  private int numBlockHashes = 0;
+  private long numKeys = 0;
+
+  public MembershipFilterBuilder(int bitsPerKey, int keyHashSize, int hashIndexBits) {
+    this.bitsPerKey = bitsPerKey;
+    this.numHashes = MembershipFilter.getNumHashes(bitsPerKey);
+    this.keyHashSize = keyHashSize;
+    this.blockStarts = new int[(1 << hashIndexBits) + 1];
+  }
+
+  public void add(int block, byte[] keyHash, int off) {
+    if (block != currentBlock) {
+      buildBlock();
+      startBlocks(block);
+      currentBlock = block;
+    }
+    if (numBlockHashes == blockHashes.length) {
+      long[] newBlockHashes = new long[blockHashes.length * 2];
+      System.arraycopy(blockHashes, 0, newBlockHashes, 0, numBlockHashes);
+      blockHashes = newBlockHashes;
+    }
+    blockHashes[numBlockHashes++] = MembershipFilter.hash(keyHash, off, keyHashSize);
+    ++numKeys;
+  }
+
+  // Write the filter and return the number of bytes written
+  public long write(OutputStream stream) throws IOException {
+    buildBlock();
+    startBlocks(blockStarts.length - 1);
+    byte[] buffer = new byte[8];
+    for (int i = 0; i < numWords; ++i) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(words[i], buffer, 0, 8);
+      stream.write(buffer, 0, 8);
+    }
+    return numWords * 8L + writeBlockStartsAndTrailer(stream, blockStarts, numWords, numKeys, numHashes, bitsPerKey);
+  }
+
+  // Write what follows the words of a filter, and return the number of bytes written
+  static long writeBlockStartsAndTrailer(OutputStream stream,
+                                         int[] blockStarts,
+                                         long numWords,
+                                         long numKeys,
+                                         int numHashes,
+                                         int bitsPerKey) throws IOException {
+    byte[] buffer = new byte[4];
+    for (int blockStart : blockStarts) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(blockStart, buffer, 0, 4);
+      stream.write(buffer, 0, 4);
+    }
+    byte[] trailer = new byte[MembershipFilter.TRAILER_SIZE];
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numWords, trailer, 0, 8);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numKeys, trailer, 8, 8);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numHashes, trailer, 16, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(bitsPerKey, trailer, 20, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(MembershipFilter.MAGIC, trailer, 24, 8);
+    stream.write(trailer);
+    return blockStarts.length * 4L + trailer.length;
+  }
+
+  // Blocks up to the given one (inclusive) start at the current end of the filter
+  private void startBlocks(int block) {
+    for (; numBlocksStarted <= block; ++numBlocksStarted) {
+      blockStarts[numBlocksStarted] = numWords;
+    }
+  }
+
+  private void buildBlock() {
+    if (numBlockHashes == 0) {
+      return;
+    }
+    int numBlockWords = (int) Math.max(1, ((long) numBlockHashes * bitsPerKey + 63) / 64);
+    if (numWords + numBlockWords > words.length) {
+      long[] newWords = new long[Math.max(words.length * 2, numWords + numBlockWords)];
+      System.arraycopy(words, 0, newWords, 0, numWords);
+      words = newWords;
+    }
+    long numBits = numBlockWords * 64L;
+    for (int i = 0; i < numBlockHashes; ++i) {
+      long hash = blockHashes[i];
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32) | 1;
+      for (int j = 0; j < numHashes; ++j) {
+        long bit = ((h1 + j * h2) & 0xffffffffL) % numBits;
+        words[numWords + (int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+    numWords += numBlockWords;
+    numBlockHashes = 0;
+  }
+}
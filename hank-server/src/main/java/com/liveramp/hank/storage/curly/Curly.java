@@ -38,12 +38,14 @@ import com.liveramp.hank.coordinator.DomainVersionPropertiesSerialization;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.storage.Compactor;
 import com.liveramp.hank.storage.Deleter;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.PartitionRemoteFileOps;
 import com.liveramp.hank.storage.PartitionRemoteFileOpsFactory;
 import com.liveramp.hank.storage.PartitionUpdater;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.RemoteDomainCleaner;
 import com.liveramp.hank.storage.RemoteDomainVersionDeleter;
+import com.liveramp.hank.storage.SharedValueCacheStorageEngine;
 import com.liveramp.hank.storage.StorageEngine;
 import com.liveramp.hank.storage.StorageEngineFactory;
 import com.liveramp.hank.storage.Writer;
@@ -59,7 +61,7 @@ import com.liveramp.hank.util.FsUtils;
  * Curly is a storage engine designed for larger, variable-sized values. It uses
  * Cueball under the hood.
  */
-public class Curly extends IncrementalStorageEngine implements StorageEngine {
+public class Curly extends IncrementalStorageEngine implements StorageEngine, SharedValueCacheStorageEngine {
 
   private static final Pattern BASE_OR_REGEX_PATTERN = Pattern.compile(".*(\\d{5})\\.((base)|(delta))\\.curly");
   static final String BASE_REGEX = ".*\\d{5}\\.base\\.curly";
@@ -83,6 +85,11 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     private static final String BLOCK_COMPRESSION_CODEC = "block_compression_codec";
     private static final String COMPRESSED_BLOCK_SIZE_THRESHOLD = "compressed_block_size_threshold";
     private static final String OFFSET_IN_BLOCK_NUM_BYTES = "offset_in_block_num_bytes";
+    public static final String MEMORY_MAPPED_READS = "memory_mapped_reads";
+    public static final String PARTITION_CACHE_NUM_SEGMENTS = "partition_cache_num_segments";
+    public static final String OFF_HEAP_CACHE_NUM_BYTES = "off_heap_cache_num_bytes";
+    public static final String NUM_COMPRESSION_THREADS = "num_compression_threads";
+    public static final String BLOCK_COMPRESSION_DICTIONARY = "block_compression_dictionary";
 
     private static final Set<String> REQUIRED_KEYS = new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY,
         RECORD_FILE_READ_BUFFER_BYTES_KEY, HASH_INDEX_BITS_KEY, MAX_ALLOWED_PART_SIZE_KEY, KEY_HASH_SIZE_KEY,
@@ -154,6 +161,36 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         offsetInBlockNumBytes = -1;
       }
 
+      // Memory mapped reads (of both the key file and the record file)
+      Boolean memoryMappedReads = (Boolean)options.get(MEMORY_MAPPED_READS);
+      if (memoryMappedReads == null) {
+        memoryMappedReads = false;
+      }
+
+      // Number of independently locked segments (of both the key file and the record file caches)
+      Integer partitionCacheNumSegments = (Integer)options.get(PARTITION_CACHE_NUM_SEGMENTS);
+      if (partitionCacheNumSegments == null) {
+        partitionCacheNumSegments = -1;
+      }
+
+      // Off heap record file cache shared by all partitions, bounded by a number of bytes
+      long offHeapCacheNumBytes = -1;
+      Object offHeapCacheNumBytesOption = options.get(OFF_HEAP_CACHE_NUM_BYTES);
+      if (offHeapCacheNumBytesOption != null) {
+        offHeapCacheNumBytes = offHeapCacheNumBytesOption instanceof Long ? (Long)offHeapCacheNumBytesOption
+            : ((Integer)offHeapCacheNumBytesOption).longValue();
+      }
+
+      // Number of threads compressing blocks in the background when writing, blocks are compressed inline by default
+      Integer numCompressionThreads = (Integer)options.get(NUM_COMPRESSION_THREADS);
+      if (numCompressionThreads == null) {
+        numCompressionThreads = 0;
+      }
+
+      // Dictionary that record blocks are compressed against, given in binary form (!!binary). It is shared by
+      // all versions of the domain, since deltas are appended to bases when merging, and must not change.
+      byte[] blockCompressionDictionary = (byte[])options.get(BLOCK_COMPRESSION_DICTIONARY);
+
       return new Curly((Integer)options.get(KEY_HASH_SIZE_KEY),
           hasher,
           maxAllowedPartSize,
@@ -170,7 +207,12 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
           recordFilePartitionCompactorCacheCapacity,
           blockCompressionCodec,
           compressedBlockSizeThreshold,
-          offsetInBlockNumBytes);
+          offsetInBlockNumBytes,
+          memoryMappedReads,
+          partitionCacheNumSegments,
+          offHeapCacheNumBytes,
+          numCompressionThreads,
+          blockCompressionDictionary);
     }
 
     @Override
@@ -203,6 +245,13 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
   private final int cueballValueNumBytes;
+  private final boolean memoryMappedReads;
+  private final int partitionCacheNumSegments;
+  private final long offHeapCacheNumBytes;
+  private final int numCompressionThreads;
+  private final byte[] blockCompressionDictionary;
+  // Created when the first Reader is, and shared by all Readers
+  private OffHeapValueCache sharedValueCache;
 
   public Curly(int keyHashSize,
                Hasher hasher,
@@ -221,6 +270,52 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
                CompressionCodec blockCompressionCodec,
                int compressedBlockSizeThreshold,
                int offsetInBlockNumBytes) {
+    this(keyHashSize,
+        hasher,
+        maxAllowedPartSize,
+        hashIndexBits,
+        recordFileReadBufferBytes,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        keyFileCompressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        valueFoldingCacheCapacity,
+        keyFilePartitionCacheCapacity,
+        recordFilePartitionCacheCapacity,
+        recordFilePartitionCompactorCacheCapacity,
+        blockCompressionCodec,
+        compressedBlockSizeThreshold,
+        offsetInBlockNumBytes,
+        false,
+        -1,
+        -1,
+        0,
+        null);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String remoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               int keyFilePartitionCacheCapacity,
+               int recordFilePartitionCacheCapacity,
+               int recordFilePartitionCompactorCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMappedReads,
+               int partitionCacheNumSegments,
+               long offHeapCacheNumBytes,
+               int numCompressionThreads,
+               byte[] blockCompressionDictionary) {
     this.keyHashSize = keyHashSize;
     this.hashIndexBits = hashIndexBits;
     this.recordFileReadBufferBytes = recordFileReadBufferBytes;
@@ -235,8 +330,13 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     this.blockCompressionCodec = blockCompressionCodec;
     this.compressedBlockSizeThreshold = compressedBlockSizeThreshold;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
+    this.memoryMappedReads = memoryMappedReads;
+    this.partitionCacheNumSegments = partitionCacheNumSegments;
+    this.offHeapCacheNumBytes = offHeapCacheNumBytes;
+    this.numCompressionThreads = numCompressionThreads;
+    this.blockCompressionDictionary = blockCompressionDictionary;
 
-    this.offsetNumBytes = (int)(Math.ceil(Math.ceil(Math.log(maxAllowedPartSize) / Math.log(2)) / 8.0));
+    this.offsetNumBytes = getOffsetNumBytes(maxAllowedPartSize);
 
     // Determine size of values in Cueball. If we are using block compression in Curly,
     // the offsets stored in Cueball are appended with the offset in the block.
@@ -255,7 +355,13 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         keyFileCompressionCodecClass,
         domain,
         numRemoteLeafVersionsToKeep,
-        keyFilePartitionCacheCapacity);
+        keyFilePartitionCacheCapacity,
+        memoryMappedReads,
+        partitionCacheNumSegments,
+        -1,
+        0,
+        1,
+        numCompressionThreads);
   }
 
   @Override
@@ -267,7 +373,24 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         blockCompressionCodec,
         offsetNumBytes,
         offsetInBlockNumBytes,
-        false);
+        false,
+        memoryMappedReads,
+        partitionCacheNumSegments,
+        getSharedValueCacheForReader(),
+        blockCompressionDictionary);
+  }
+
+  @Override
+  public synchronized OffHeapValueCache getSharedValueCache() {
+    return sharedValueCache;
+  }
+
+  private synchronized OffHeapValueCache getSharedValueCacheForReader() {
+    if (offHeapCacheNumBytes > 0 && sharedValueCache == null) {
+      sharedValueCache = new OffHeapValueCache(offHeapCacheNumBytes,
+          partitionCacheNumSegments > 1 ? partitionCacheNumSegments : OffHeapValueCache.DEFAULT_NUM_SEGMENTS);
+    }
+    return sharedValueCache;
   }
 
   @Override
@@ -287,7 +410,8 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     OutputStream outputStream = partitionRemoteFileOps.getOutputStream(getName(domainVersion.getVersionNumber(),
         domainVersionProperties.isBase()));
     return new CurlyWriter(outputStream, keyFileWriter, offsetNumBytes, valueFoldingCacheCapacity,
-        blockCompressionCodec, compressedBlockSizeThreshold, offsetInBlockNumBytes);
+        blockCompressionCodec, compressedBlockSizeThreshold, offsetInBlockNumBytes, numCompressionThreads,
+        blockCompressionDictionary);
   }
 
   private IncrementalDomainVersionProperties getDomainVersionProperties(DomainVersion domainVersion) throws IOException {
@@ -303,6 +427,11 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     return result;
   }
 
+  // Number of bytes needed to store offsets in a record file of at most maxAllowedPartSize bytes
+  public static int getOffsetNumBytes(long maxAllowedPartSize) {
+    return (int)(Math.ceil(Math.ceil(Math.log(maxAllowedPartSize) / Math.log(2)) / 8.0));
+  }
+
   public static String padVersionNumber(int versionNumber) {
     return String.format("%05d", versionNumber);
   }
@@ -355,7 +484,8 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
           public ICurlyReader getInstance(CurlyFilePath curlyFilePath) throws IOException {
             // Note: key file reader is null as it will *not* be used
             return new CurlyReader(curlyFilePath, recordFileReadBufferBytes,
-                null, recordFilePartitionCompactorCacheCapacity, blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, true);
+                null, recordFilePartitionCompactorCacheCapacity, blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, true,
+                false, -1, null, blockCompressionDictionary);
           }
         }
     );
@@ -462,6 +592,9 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         + ", blockCompressionCodec=" + blockCompressionCodec
         + ", compressedBlockSizeThreshold=" + compressedBlockSizeThreshold
         + ", offsetInBlockNumBytes=" + offsetInBlockNumBytes
+        + ", memoryMappedReads=" + memoryMappedReads
+        + ", partitionCacheNumSegments=" + partitionCacheNumSegments
+        + ", offHeapCacheNumBytes=" + offHeapCacheNumBytes
         + "]";
   }
 
@@ -20,46 +20,89 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.WeakHashMap;
 
 import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.compression.Decompressor;
+import com.liveramp.hank.compression.lz4.Lz4Compressor;
+import com.liveramp.hank.compression.lz4.Lz4Decompressor;
+import com.liveramp.hank.storage.BulkReader;
+import com.liveramp.hank.storage.OffHeapValueCache;
+import com.liveramp.hank.storage.PreloadableReader;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.util.ByteBufferPool;
 import com.liveramp.hank.util.Bytes;
+import com.liveramp.hank.util.Cache;
 import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.MemoryMappedFile;
+import com.liveramp.hank.util.PageCachePreloader;
+import com.liveramp.hank.util.SegmentedLruCache;
+import com.liveramp.hank.util.PooledByteArrayOutputStream;
 import com.liveramp.hank.util.SynchronizedCache;
-import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+import com.liveramp.hank.util.WarmupBudget;
 
-public class CurlyReader implements Reader, ICurlyReader {
+public class CurlyReader implements BulkReader, ICurlyReader, PreloadableReader {
 
   private final Reader keyFileReader;
   private final int readBufferSize;
   private final FileChannel recordFile;
   private final int versionNumber;
-  private SynchronizedCache<ByteBuffer, ByteBuffer> cache;
+  private Cache<ByteBuffer, ByteBuffer> cache;
+  // Only set when using a value cache shared with other Readers, instead of cache
+  private OffHeapValueCache sharedCache;
+  private final int sharedCacheNamespace;
   private final CompressionCodec blockCompressionCodec;
+  private final byte[] blockCompressionDictionary;
   private final int offsetNumBytes;
   private final int offsetInBlockNumBytes;
+  // Only set when reading from a memory mapping of the record file
+  private MemoryMappedFile mappedRecordFile;
 
   // Last decompressed block cache
-  private final boolean cacheLastDecompressedBlock;
-  private ByteBuffer lastDecompressedBlock;
-  private long lastDecompressedBlockOffset = -1;
+  private final DecompressedBlock lastDecompressedBlock;
+
+  private static class DecompressedBlock {
+
+    private long offset = -1;
+    private ByteBuffer buffer;
+    // Whether buffer should be a copy of the decompressed block, or can point to the decompression buffer
+    private final boolean copy;
+
+    private DecompressedBlock(boolean copy) {
+      this.copy = copy;
+    }
+  }
 
   private static class Local {
 
     private final Map<CompressionCodec, Decompressor> blockDecompressors;
-    private final UnsafeByteArrayOutputStream decompressionOutputStream;
+    // Decompressors bound to a dictionary, by dictionary instance (one per domain)
+    private final Map<byte[], Decompressor> dictionaryBlockDecompressors;
+    // Decompressed blocks are written in pooled buffers, which are only held while they are needed
+    private final PooledByteArrayOutputStream decompressionOutputStream;
 
     public Local() {
       this.blockDecompressors = new HashMap<CompressionCodec, Decompressor>();
-      this.decompressionOutputStream = new UnsafeByteArrayOutputStream();
+      this.dictionaryBlockDecompressors = new WeakHashMap<byte[], Decompressor>();
+      this.decompressionOutputStream = new PooledByteArrayOutputStream(ByteBufferPool.getShared());
     }
 
-    public Decompressor getBlockDecompressor(CompressionCodec blockDecompressorCodec) {
+    public Decompressor getBlockDecompressor(CompressionCodec blockDecompressorCodec, byte[] dictionary) {
+      if (dictionary != null) {
+        Decompressor blockDecompressor = dictionaryBlockDecompressors.get(dictionary);
+        if (blockDecompressor == null) {
+          blockDecompressor = blockDecompressorCodec.getFactory(dictionary).getDecompressor();
+          dictionaryBlockDecompressors.put(dictionary, blockDecompressor);
+        }
+        return blockDecompressor;
+      }
       Decompressor blockDecompressor = blockDecompressors.get(blockDecompressorCodec);
       if (blockDecompressor == null) {
         blockDecompressor = blockDecompressorCodec.getFactory().getDecompressor();
@@ -68,12 +111,13 @@ public class CurlyReader implements Reader, ICurlyReader {
       return blockDecompressor;
     }
 
-    public UnsafeByteArrayOutputStream getDecompressionOutputStream() {
+    public PooledByteArrayOutputStream getDecompressionOutputStream() {
       return decompressionOutputStream;
     }
 
+    // Give the last decompressed block's buffer back to the pool
     public void reset() {
-      decompressionOutputStream.reset();
+      decompressionOutputStream.release();
     }
   }
 
@@ -107,15 +151,56 @@ public class CurlyReader implements Reader, ICurlyReader {
                      int offsetNumBytes,
                      int offsetInBlockNumBytes,
                      boolean cacheLastDecompressedBlock) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheCapacity, blockCompressionCodec, offsetNumBytes,
+        offsetInBlockNumBytes, cacheLastDecompressedBlock, false, -1, null, null);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     int cacheCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     boolean memoryMapped,
+                     int cacheNumSegments,
+                     OffHeapValueCache sharedCache) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheCapacity, blockCompressionCodec, offsetNumBytes,
+        offsetInBlockNumBytes, cacheLastDecompressedBlock, memoryMapped, cacheNumSegments, sharedCache, null);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     int cacheCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     boolean memoryMapped,
+                     int cacheNumSegments,
+                     OffHeapValueCache sharedCache,
+                     byte[] blockCompressionDictionary) throws IOException {
     this.recordFile = new FileInputStream(curlyFile.getPath()).getChannel();
     this.keyFileReader = keyFileReader;
     this.readBufferSize = recordFileReadBufferBytes;
     this.versionNumber = curlyFile.getVersion();
     this.blockCompressionCodec = blockCompressionCodec;
+    this.blockCompressionDictionary = blockCompressionDictionary;
     this.offsetNumBytes = offsetNumBytes;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
-    this.cacheLastDecompressedBlock = cacheLastDecompressedBlock;
-    this.cache = new SynchronizedCache<ByteBuffer, ByteBuffer>(cacheCapacity > 0, cacheCapacity);
+    this.lastDecompressedBlock = cacheLastDecompressedBlock ? new DecompressedBlock(true) : null;
+    this.sharedCache = sharedCache;
+    this.sharedCacheNamespace = sharedCache == null ? -1 : sharedCache.newNamespace();
+    if (sharedCache != null) {
+      // The shared cache replaces the partition cache
+      this.cache = new SynchronizedCache<ByteBuffer, ByteBuffer>(false, 0);
+    } else if (cacheNumSegments > 1) {
+      this.cache = new SegmentedLruCache<ByteBuffer, ByteBuffer>(cacheCapacity > 0, cacheCapacity, cacheNumSegments);
+    } else {
+      this.cache = new SynchronizedCache<ByteBuffer, ByteBuffer>(cacheCapacity > 0, cacheCapacity);
+    }
     // Check that key file is at the same version
     if (keyFileReader != null &&
         keyFileReader.getVersionNumber() != null &&
@@ -123,20 +208,52 @@ public class CurlyReader implements Reader, ICurlyReader {
       throw new IOException("Curly Reader version (" + versionNumber
           + ") does not match the provided key file Reader version (" + keyFileReader.getVersionNumber() + ")");
     }
-    if (cacheLastDecompressedBlock) {
-      lastDecompressedBlock = ByteBuffer.allocate(1);
+    if (blockCompressionCodec == CompressionCodec.LZ4) {
+      checkBlockCompressionDictionary(curlyFile);
+    }
+    if (memoryMapped) {
+      mappedRecordFile = new MemoryMappedFile(recordFile, recordFile.size());
+    }
+  }
+
+  // LZ4 blocks carry the checksum of the dictionary they were compressed against. Check the first block,
+  // so that a version written with another dictionary is rejected when it is opened.
+  private void checkBlockCompressionDictionary(CurlyFilePath curlyFile) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(2 * EncodingHelper.MAX_VARINT_SIZE
+        + Lz4Compressor.DICTIONARY_CHECKSUM_NUM_BYTES);
+    while (header.hasRemaining() && recordFile.read(header, header.position()) > 0) {
+    }
+    if (header.position() == 0) {
+      // Empty record file
+      return;
+    }
+    header.flip();
+    // Skip the size of the block
+    EncodingHelper.decodeLittleEndianVarInt(header);
+    try {
+      Lz4Decompressor.checkDictionary(header.array(), header.position(), header.remaining(),
+          blockCompressionDictionary);
+    } catch (IOException e) {
+      recordFile.close();
+      throw new IOException("Record file " + curlyFile.getPath()
+          + " was not compressed against the configured block compression dictionary", e);
     }
   }
 
   @Override
   // Note: the buffer in result must be at least readBufferSize long
   public void readRecord(ByteBuffer location, ReaderResult result) throws IOException {
+    readRecord(location, result, lastDecompressedBlock);
+  }
+
+  // When a decompressed block is supplied, it is reused if it is the block the record belongs to, and updated otherwise
+  private void readRecord(ByteBuffer location, ReaderResult result, DecompressedBlock decompressedBlock) throws IOException {
     // Attempt to load value from the cache
     if (loadValueFromCache(location, result)) {
       return;
     }
     // Deep copy the location if caching is active, since result might point to location and overwrite it
-    ByteBuffer locationDeepCopy = cache.isEnabled() ? Bytes.byteBufferDeepCopy(location) : null;
+    ByteBuffer locationDeepCopy = cache.isEnabled() || sharedCache != null ? Bytes.byteBufferDeepCopy(location) : null;
     if (blockCompressionCodec == null) {
       // When not using block compression, location just contains an offset. Decode it.
       long recordFileOffset = EncodingHelper.decodeLittleEndianFixedWidthLong(location);
@@ -150,18 +267,22 @@ public class CurlyReader implements Reader, ICurlyReader {
           location.arrayOffset() + location.position() + offsetNumBytes, offsetInBlockNumBytes);
 
       ByteBuffer decompressedBlockByteBuffer;
-      if (cacheLastDecompressedBlock && lastDecompressedBlockOffset == recordFileBlockOffset) {
+      if (decompressedBlock != null && decompressedBlock.offset == recordFileBlockOffset) {
         // This block has been decompressed just before, reuse it
-        decompressedBlockByteBuffer = lastDecompressedBlock;
+        decompressedBlockByteBuffer = decompressedBlock.buffer;
       } else {
         // Read in the compressed block into the result
         readRecordAtOffset(recordFileBlockOffset, result);
         // Decompress block
         decompressedBlockByteBuffer = decompressBlock(result.getBuffer());
         // Cache the decompressed block if requested
-        if (cacheLastDecompressedBlock) {
-          lastDecompressedBlockOffset = recordFileBlockOffset;
-          lastDecompressedBlock = Bytes.byteBufferDeepCopy(decompressedBlockByteBuffer, lastDecompressedBlock);
+        if (decompressedBlock != null) {
+          decompressedBlock.offset = recordFileBlockOffset;
+          if (decompressedBlock.copy) {
+            decompressedBlock.buffer = Bytes.byteBufferDeepCopy(decompressedBlockByteBuffer, decompressedBlock.buffer);
+          } else {
+            decompressedBlock.buffer = decompressedBlockByteBuffer;
+          }
         }
       }
 
@@ -179,6 +300,10 @@ public class CurlyReader implements Reader, ICurlyReader {
           decompressedBlockByteBuffer.arrayOffset() + decompressedBlockByteBuffer.position(),
           valueSize);
       result.getBuffer().flip();
+      // Unless the decompressed block points to the decompression buffer, the buffer is not needed anymore
+      if (decompressedBlock == null || decompressedBlock.copy) {
+        threadLocal.get().reset();
+      }
     }
     // Store result in cache if needed
     addValueToCache(locationDeepCopy, result.getBuffer());
@@ -187,7 +312,7 @@ public class CurlyReader implements Reader, ICurlyReader {
   private ByteBuffer decompressBlock(ByteBuffer block) throws IOException {
     Local local = threadLocal.get();
     local.reset();
-    local.getBlockDecompressor(blockCompressionCodec).decompressBlock(
+    local.getBlockDecompressor(blockCompressionCodec, blockCompressionDictionary).decompressBlock(
         block.array(),
         block.arrayOffset() + block.position(),
         block.remaining(),
@@ -197,6 +322,10 @@ public class CurlyReader implements Reader, ICurlyReader {
 
   // Note: the buffer in result must be at least readBufferSize long
   private void readRecordAtOffset(long recordFileOffset, ReaderResult result) throws IOException {
+    if (mappedRecordFile != null) {
+      readMappedRecordAtOffset(recordFileOffset, result);
+      return;
+    }
     // Let's reset the buffer so we can do our read.
     result.getBuffer().rewind();
     // the buffer is already at least this big, so we'll extend it back out.
@@ -250,6 +379,28 @@ public class CurlyReader implements Reader, ICurlyReader {
     result.getBuffer().limit(recordSize + result.getBuffer().position());
   }
 
+  // Decode the record size directly from the mapping and copy the record into result. This requires
+  // a single access to the mapping, and there is no intermediate read buffer.
+  private void readMappedRecordAtOffset(long recordFileOffset, ReaderResult result) throws IOException {
+    long offset = recordFileOffset;
+    // Same encoding as EncodingHelper.decodeLittleEndianVarInt()
+    byte b = mappedRecordFile.get(offset++);
+    int recordSize = b & 0x7f;
+    for (int shift = 7; (b & 0x80) != 0 && shift <= 28; shift += 7) {
+      b = mappedRecordFile.get(offset++);
+      recordSize |= (b & (shift == 28 ? 0x07 : 0x7f)) << shift;
+    }
+    if (offset + recordSize > mappedRecordFile.length()) {
+      throw new IOException("Record at offset " + recordFileOffset + " of size " + recordSize
+          + " goes past the end of the record file");
+    }
+    result.requiresBufferSize(recordSize);
+    ByteBuffer buffer = result.getBuffer();
+    mappedRecordFile.read(offset, buffer.array(), buffer.arrayOffset(), recordSize);
+    buffer.position(0);
+    buffer.limit(recordSize);
+  }
+
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
     // we want at least readBufferSize bytes of available space. we might resize
@@ -266,6 +417,70 @@ public class CurlyReader implements Reader, ICurlyReader {
     }
   }
 
+  // Locations are first looked up for all keys. Records are then read in record file offset order, and
+  // when using block compression, each block is decompressed only once.
+  @Override
+  public void getBulk(List<ByteBuffer> keys, ReaderResult[] results) throws IOException {
+    final int numKeys = keys.size();
+    // Look up locations in the key file
+    if (keyFileReader instanceof BulkReader) {
+      ((BulkReader) keyFileReader).getBulk(keys, results);
+    } else {
+      for (int i = 0; i < numKeys; ++i) {
+        keyFileReader.get(keys.get(i), results[i]);
+      }
+    }
+    // Sort found keys by location
+    final long[] recordFileOffsets = new long[numKeys];
+    final long[] offsetsInBlock = new long[numKeys];
+    Integer[] keyIndices = new Integer[numKeys];
+    int numFoundKeys = 0;
+    for (int i = 0; i < numKeys; ++i) {
+      if (results[i].isFound()) {
+        ByteBuffer location = results[i].getBuffer();
+        if (blockCompressionCodec == null) {
+          recordFileOffsets[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(location);
+        } else {
+          recordFileOffsets[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(location.array(),
+              location.arrayOffset() + location.position(), offsetNumBytes);
+          offsetsInBlock[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(location.array(),
+              location.arrayOffset() + location.position() + offsetNumBytes, offsetInBlockNumBytes);
+        }
+        keyIndices[numFoundKeys++] = i;
+      }
+    }
+    Arrays.sort(keyIndices, 0, numFoundKeys, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        if (recordFileOffsets[a] != recordFileOffsets[b]) {
+          return recordFileOffsets[a] < recordFileOffsets[b] ? -1 : 1;
+        }
+        return offsetsInBlock[a] < offsetsInBlock[b] ? -1 : (offsetsInBlock[a] == offsetsInBlock[b] ? 0 : 1);
+      }
+    });
+    // Read records in order. Since the decompressed block points to the decompression buffer, it remains valid
+    // until the next decompression.
+    ReaderResult recordResult = new ReaderResult(readBufferSize);
+    DecompressedBlock decompressedBlock = new DecompressedBlock(false);
+    try {
+      for (int i = 0; i < numFoundKeys; ++i) {
+        ReaderResult result = results[keyIndices[i]];
+        recordResult.clear();
+        readRecord(result.getBuffer(), recordResult, decompressedBlock);
+        // Location is not needed anymore, the record can replace it
+        result.deepCopyIntoResultBuffer(recordResult.getBuffer());
+        if (recordResult.getL2CacheHit()) {
+          result.setL2CacheHit(true);
+        }
+      }
+    } finally {
+      recordResult.release();
+      if (blockCompressionCodec != null) {
+        threadLocal.get().reset();
+      }
+    }
+  }
+
   @Override
   public Integer getVersionNumber() {
     return versionNumber;
@@ -273,11 +488,22 @@ public class CurlyReader implements Reader, ICurlyReader {
 
   // Note: location should already be a deep copy that won't get modified
   private void addValueToCache(ByteBuffer location, ByteBuffer value) {
+    if (sharedCache != null) {
+      sharedCache.put(sharedCacheNamespace, location, value);
+      return;
+    }
     cache.put(location, Bytes.byteBufferDeepCopy(value));
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
   private boolean loadValueFromCache(ByteBuffer location, ReaderResult result) {
+    if (sharedCache != null) {
+      if (sharedCache.get(sharedCacheNamespace, location, result)) {
+        result.setL2CacheHit(true);
+        return true;
+      }
+      return false;
+    }
     ByteBuffer value = cache.get(location);
     if (value != null) {
       result.deepCopyIntoResultBuffer(value);
@@ -289,14 +515,36 @@ public class CurlyReader implements Reader, ICurlyReader {
     }
   }
 
+  // The key file is needed by every lookup
+  @Override
+  public long preloadIndex(WarmupBudget budget) throws IOException {
+    if (keyFileReader instanceof PreloadableReader) {
+      PreloadableReader preloadableKeyFileReader = (PreloadableReader) keyFileReader;
+      return preloadableKeyFileReader.preloadIndex(budget) + preloadableKeyFileReader.preloadData(budget);
+    } else {
+      return 0;
+    }
+  }
+
+  @Override
+  public long preloadData(WarmupBudget budget) throws IOException {
+    if (mappedRecordFile != null) {
+      return PageCachePreloader.preload(mappedRecordFile, 0, mappedRecordFile.length(), budget);
+    } else {
+      return PageCachePreloader.preload(recordFile, 0, recordFile.size(), budget);
+    }
+  }
+
   @Override
   public void close() throws IOException {
     if (recordFile != null) {
       recordFile.close();
     }
+    mappedRecordFile = null;
     if (keyFileReader != null) {
       keyFileReader.close();
     }
     cache = null;
+    sharedCache = null;
   }
 }
@@ -16,7 +16,10 @@
 package com.liveramp.hank.storage.curly;
 
 import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.CompressionFactory;
+import com.liveramp.hank.compression.Compressor;
 import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.storage.BlockCompressionPipeline;
 import com.liveramp.hank.storage.Writer;
 import com.liveramp.hank.util.Bytes;
 import com.liveramp.hank.util.EncodingHelper;
@@ -28,6 +31,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class CurlyWriter implements Writer {
 
@@ -48,11 +54,17 @@ public class CurlyWriter implements Writer {
 
   // Compression
   private final CompressionCodec blockCompressionCodec;
+  // Compressor of blocks compressed inline, reused for every block
+  private final Compressor blockCompressor;
   private ByteArrayOutputStream compressedBlockOutputStream;
   private OutputStream compressionOutputStream;
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
   private int offsetInDecompressedBlock = 0;
+  // Null unless blocks are compressed in the background
+  private final BlockCompressionPipeline<RecordBlock> compressionPipeline;
+  // Block being filled when blocks are compressed in the background
+  private RecordBlock block;
 
   // Cache
   private final LruHashMap<ByteBuffer, ByteBuffer> hashedValueToEncodedRecordOffsetCache;
@@ -71,6 +83,40 @@ public class CurlyWriter implements Writer {
                      CompressionCodec blockCompressionCodec,
                      int compressedBlockSizeThreshold,
                      int offsetInBlockNumBytes) throws IOException {
+    this(recordfileStream, keyfileWriter, offsetNumBytes, valueFoldingCacheCapacity, blockCompressionCodec,
+        compressedBlockSizeThreshold, offsetInBlockNumBytes, 0);
+  }
+
+  public CurlyWriter(OutputStream recordfileStream,
+                     Writer keyfileWriter,
+                     int offsetNumBytes,
+                     int valueFoldingCacheCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int compressedBlockSizeThreshold,
+                     int offsetInBlockNumBytes,
+                     int numCompressionThreads) throws IOException {
+    this(recordfileStream, keyfileWriter, offsetNumBytes, valueFoldingCacheCapacity, blockCompressionCodec,
+        compressedBlockSizeThreshold, offsetInBlockNumBytes, numCompressionThreads, null);
+  }
+
+  /**
+   * @param numCompressionThreads number of threads compressing filled blocks while the next ones are being
+   *                              filled, or 0 to compress them inline. In the background mode, blocks are
+   *                              bounded by their uncompressed size, values are not flushed one by one
+   *                              through the compression stream, and key file entries are written once the
+   *                              offset of their block is known.
+   * @param blockCompressionDictionary dictionary that blocks are compressed against, or null. Readers must be
+   *                                   given the same dictionary.
+   */
+  public CurlyWriter(OutputStream recordfileStream,
+                     Writer keyfileWriter,
+                     int offsetNumBytes,
+                     int valueFoldingCacheCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int compressedBlockSizeThreshold,
+                     int offsetInBlockNumBytes,
+                     int numCompressionThreads,
+                     byte[] blockCompressionDictionary) throws IOException {
     // Buffer output
     this.recordFileStream = new BufferedOutputStream(recordfileStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
     this.keyfileWriter = keyfileWriter;
@@ -88,22 +134,51 @@ public class CurlyWriter implements Writer {
       hashedValueToEncodedRecordOffsetCache = null;
     }
 
+    CompressionFactory blockCompressionFactory;
     if (blockCompressionCodec == null) {
       // No block compression
       valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes]);
+      blockCompressionFactory = null;
       compressedBlockOutputStream = null;
       compressionOutputStream = null;
     } else {
       // Initialize block compression
       valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes + offsetInBlockNumBytes]);
+      blockCompressionFactory = blockCompressionCodec.getFactory(blockCompressionDictionary);
       compressedBlockOutputStream = new ByteArrayOutputStream();
       compressionOutputStream = null;
     }
+
+    if (blockCompressionCodec != null && numCompressionThreads > 0) {
+      List<RecordBlock> blocks = new ArrayList<RecordBlock>();
+      for (int i = 0; i < 2 * numCompressionThreads; ++i) {
+        blocks.add(new RecordBlock(blockCompressionFactory.getCompressor()));
+      }
+      compressionPipeline = new BlockCompressionPipeline<RecordBlock>(blocks, numCompressionThreads,
+          new BlockCompressionPipeline.BlockWriter<RecordBlock>() {
+            @Override
+            public void write(RecordBlock block) throws IOException {
+              writeBlock(block);
+            }
+          });
+      block = compressionPipeline.acquire();
+      blockCompressor = null;
+    } else {
+      compressionPipeline = null;
+      block = null;
+      blockCompressor = blockCompressionFactory == null ? null : blockCompressionFactory.getCompressor();
+    }
   }
 
   @Override
   public void close() throws IOException {
-    if (blockCompressionCodec != null) {
+    if (compressionPipeline != null) {
+      if (block.numEntries > 0) {
+        compressionPipeline.submit();
+      }
+      compressionPipeline.flush();
+      compressionPipeline.close();
+    } else if (blockCompressionCodec != null) {
       flushCompressedBlock();
     }
     recordFileStream.flush();
@@ -131,7 +206,9 @@ public class CurlyWriter implements Writer {
       cachedValueRecordEncodedOffset = hashedValueToEncodedRecordOffsetCache.get(hashedValue);
     }
 
-    if (cachedValueRecordEncodedOffset != null) {
+    if (compressionPipeline != null) {
+      writeToBlock(key, value, hashedValue, cachedValueRecordEncodedOffset);
+    } else if (cachedValueRecordEncodedOffset != null) {
       // Write cached offset in key file and nothing else needs to be done
       keyfileWriter.write(key, cachedValueRecordEncodedOffset);
       numFoldedValues += 1;
@@ -193,12 +270,81 @@ public class CurlyWriter implements Writer {
     }
   }
 
+  // Block compression mode, with blocks compressed in the background
+  private void writeToBlock(ByteBuffer key,
+                            ByteBuffer value,
+                            ByteBuffer hashedValue,
+                            ByteBuffer cachedValueRecordEncodedOffset) throws IOException {
+    if (cachedValueRecordEncodedOffset != null) {
+      // The cached offset is complete by the time this entry is written, since its block comes first
+      block.addEntry(key, 0, cachedValueRecordEncodedOffset);
+      numFoldedValues += 1;
+      numFoldedBytesApproximate += value.remaining();
+      return;
+    }
+    // Hand the block over to the compression threads if needed
+    if (block.uncompressed.size() > 0 && block.uncompressed.size() >= compressedBlockSizeThreshold) {
+      compressionPipeline.submit();
+      block = compressionPipeline.acquire();
+    }
+    int offsetInBlock = block.uncompressed.size();
+    // Encode value size and write it to the block, followed by the value
+    int valueLength = value.remaining();
+    int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(valueLength, valueLengthBuffer);
+    block.uncompressed.write(valueLengthBuffer, 0, valueLengthNumBytes);
+    block.uncompressed.write(value.array(), value.arrayOffset() + value.position(), valueLength);
+    // Value was not found in cache. Cache its encoded offset if needed, it will be completed with the block offset
+    ByteBuffer encodedOffset = null;
+    if (hashedValueToEncodedRecordOffsetCache != null) {
+      encodedOffset = ByteBuffer.wrap(new byte[offsetNumBytes + offsetInBlockNumBytes]);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(offsetInBlock, encodedOffset.array(), offsetNumBytes, offsetInBlockNumBytes);
+      hashedValueToEncodedRecordOffsetCache.put(hashedValue, encodedOffset);
+      block.cachedEncodedOffsets.add(encodedOffset);
+    }
+    block.addEntry(key, offsetInBlock, encodedOffset);
+  }
+
+  // Write a compressed block, and then the key file entries of the records written while filling it
+  private void writeBlock(RecordBlock block) throws IOException {
+    long blockOffset = currentRecordOffset;
+    if (block.uncompressed.size() > 0) {
+      if (blockOffset > maxOffset) {
+        throw new IOException("Exceeded configured max recordfile size of "
+            + maxOffset
+            + ". Increase number of partitions to go back below this level.");
+      }
+      // Encode compressed block size and write it to record stream
+      int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(block.compressed.size(), valueLengthBuffer);
+      recordFileStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
+      currentRecordOffset += valueLengthNumBytes;
+      // Write compressed block to record stream
+      block.compressed.writeTo(recordFileStream);
+      currentRecordOffset += block.compressed.size();
+    }
+    for (ByteBuffer encodedOffset : block.cachedEncodedOffsets) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(blockOffset, encodedOffset.array(), 0, offsetNumBytes);
+    }
+    int keyOffset = 0;
+    for (int i = 0; i < block.numEntries; ++i) {
+      ByteBuffer key = ByteBuffer.wrap(block.keys, keyOffset, block.keyEnds[i] - keyOffset);
+      keyOffset = block.keyEnds[i];
+      if (block.encodedOffsets[i] != null) {
+        keyfileWriter.write(key, block.encodedOffsets[i]);
+      } else {
+        EncodingHelper.encodeLittleEndianFixedWidthLong(blockOffset, valueOffsetBuffer.array(), 0, offsetNumBytes);
+        EncodingHelper.encodeLittleEndianFixedWidthLong(block.offsetsInBlock[i], valueOffsetBuffer.array(), offsetNumBytes, offsetInBlockNumBytes);
+        keyfileWriter.write(key, valueOffsetBuffer);
+      }
+    }
+    block.clear();
+  }
+
   private void initStreams() throws IOException {
     // Reset the byte array output stream and the offset in it
     compressedBlockOutputStream.reset();
     offsetInDecompressedBlock = 0;
     // Initialize new compression stream
-    compressionOutputStream = blockCompressionCodec.getFactory().getCompressor().getOutputStream(compressedBlockOutputStream);
+    compressionOutputStream = blockCompressor.getOutputStream(compressedBlockOutputStream);
   }
 
   private void flushCompressedBlock() throws IOException {
@@ -216,6 +362,64 @@ public class CurlyWriter implements Writer {
     }
   }
 
+  private static class RecordBlock implements BlockCompressionPipeline.Block {
+
+    private static final int INITIAL_NUM_ENTRIES = 64;
+
+    private final Compressor compressor;
+    private final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    // Key file entries of the records written while filling this block
+    private byte[] keys = new byte[INITIAL_NUM_ENTRIES * 16];
+    private int[] keyEnds = new int[INITIAL_NUM_ENTRIES];
+    private int[] offsetsInBlock = new int[INITIAL_NUM_ENTRIES];
+    // Complete encoded offsets, for folded values and values that were cached
+    private ByteBuffer[] encodedOffsets = new ByteBuffer[INITIAL_NUM_ENTRIES];
+    private int numEntries = 0;
+    // Encoded offsets of values of this block that were cached, to be completed with the block offset
+    private final List<ByteBuffer> cachedEncodedOffsets = new ArrayList<ByteBuffer>();
+
+    private RecordBlock(Compressor compressor) {
+      this.compressor = compressor;
+    }
+
+    private void addEntry(ByteBuffer key, int offsetInBlock, ByteBuffer encodedOffset) {
+      if (numEntries == keyEnds.length) {
+        keyEnds = Arrays.copyOf(keyEnds, numEntries * 2);
+        offsetsInBlock = Arrays.copyOf(offsetsInBlock, numEntries * 2);
+        encodedOffsets = Arrays.copyOf(encodedOffsets, numEntries * 2);
+      }
+      int keyStart = numEntries == 0 ? 0 : keyEnds[numEntries - 1];
+      int keyLength = key.remaining();
+      if (keyStart + keyLength > keys.length) {
+        keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyStart + keyLength));
+      }
+      System.arraycopy(key.array(), key.arrayOffset() + key.position(), keys, keyStart, keyLength);
+      keyEnds[numEntries] = keyStart + keyLength;
+      offsetsInBlock[numEntries] = offsetInBlock;
+      encodedOffsets[numEntries] = encodedOffset;
+      ++numEntries;
+    }
+
+    @Override
+    public void compress() throws IOException {
+      compressed.reset();
+      if (uncompressed.size() > 0) {
+        OutputStream compressionOutputStream = compressor.getOutputStream(compressed);
+        uncompressed.writeTo(compressionOutputStream);
+        compressionOutputStream.close();
+      }
+    }
+
+    private void clear() {
+      uncompressed.reset();
+      compressed.reset();
+      Arrays.fill(encodedOffsets, 0, numEntries, null);
+      numEntries = 0;
+      cachedEncodedOffsets.clear();
+    }
+  }
+
   private ByteBuffer computeHash(ByteBuffer value) {
     // 128-bit murmur64 hash
     byte[] hashBytes = new byte[VALUE_FOLDING_HASH_NUM_BYTES];
@@ -16,18 +16,27 @@
 
 package com.liveramp.hank.storage.curly;
 
+import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
 import com.liveramp.hank.coordinator.mock.MockDomainVersion;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
 import com.liveramp.hank.util.Bytes;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 
 public class TestDomainGenerator {
 
+  public static final long MAX_ALLOWED_PART_SIZE = 10L * 1024 * 1024 * 1024;
+  public static final int RECORD_FILE_READ_BUFFER_BYTES = 32 * 1024;
+  // Only used with block compression
+  public static final int COMPRESSED_BLOCK_SIZE_THRESHOLD = 32 * 1024;
+  public static final int OFFSET_IN_BLOCK_NUM_BYTES = 3;
+
   /**
    * @param args
    * @throws Exception
@@ -45,15 +54,39 @@ public class TestDomainGenerator {
     String compressionCodecClassName = args[7];
     int numPartitions = Integer.parseInt(args[8]);
     String partitionerClass = args[9];
+    CompressionCodec blockCompressionCodec = args.length > 10 ? CompressionCodec.valueOf(args[10]) : null;
 
     final Class<? extends CueballCompressionCodec> codecClass = (Class<? extends CueballCompressionCodec>) Class.forName(compressionCodecClassName);
 
     Partitioner p = (Partitioner) Class.forName(partitionerClass).newInstance();
     Hasher h = (Hasher) Class.forName(hasherClassName).newInstance();
 
+    long start = System.currentTimeMillis();
+    generate(outputPath, totalNumRecords, keyLength, hashLength, indexBits, valueLength, h, codecClass, numPartitions, p,
+        blockCompressionCodec);
+    long end = System.currentTimeMillis();
+    System.out.println("Elapsed ms: " + (end - start));
+  }
+
+  // Write a base version of random records for each partition under outputPath/<partition number>,
+  // and return the keys written to each partition. Records are the same for a given set of arguments.
+  // blockCompressionCodec can be null to disable block compression.
+  public static Map<Integer, List<byte[]>> generate(String outputPath,
+                                                    int totalNumRecords,
+                                                    int keyLength,
+                                                    int hashLength,
+                                                    int indexBits,
+                                                    int valueLength,
+                                                    Hasher h,
+                                                    Class<? extends CueballCompressionCodec> codecClass,
+                                                    int numPartitions,
+                                                    Partitioner p,
+                                                    CompressionCodec blockCompressionCodec) throws IOException {
     Map<Integer, List<byte[]>> partitionedKeys = new HashMap<Integer, List<byte[]>>();
+    Map<Integer, List<byte[]>> partitionedHashes = new HashMap<Integer, List<byte[]>>();
     for (int i = 0; i < numPartitions; i++) {
       partitionedKeys.put(i, new ArrayList<byte[]>());
+      partitionedHashes.put(i, new ArrayList<byte[]>());
     }
 
     Map<byte[], byte[]> hashesToKeys = new HashMap<byte[], byte[]>();
@@ -67,17 +100,20 @@ public class TestDomainGenerator {
       final int partitionNumber = p.partition(ByteBuffer.wrap(key), numPartitions);
       byte[] hash = new byte[hashLength];
       h.hash(ByteBuffer.wrap(key), hashLength, hash);
-      partitionedKeys.get(partitionNumber).add(hash);
+      partitionedKeys.get(partitionNumber).add(key);
+      partitionedHashes.get(partitionNumber).add(hash);
       hashesToKeys.put(hash, key);
       byte[] valueBytes = new byte[valueLength];
       r.nextBytes(valueBytes);
       hashesToValues.put(hash, valueBytes);
     }
 
-    final Curly curly = new Curly(hashLength, h, 10L * 1024 * 1024 * 1024,
-        indexBits, 32 * 1024, "", null, codecClass, null, 0, -1, -1, -1, -1, null, -1, -1);
+    final Curly curly = new Curly(hashLength, h, MAX_ALLOWED_PART_SIZE,
+        indexBits, RECORD_FILE_READ_BUFFER_BYTES, "", null, codecClass, null, 0, -1, -1, -1, -1, blockCompressionCodec,
+        blockCompressionCodec == null ? -1 : COMPRESSED_BLOCK_SIZE_THRESHOLD,
+        blockCompressionCodec == null ? -1 : OFFSET_IN_BLOCK_NUM_BYTES);
 
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
       Collections.sort(part.getValue(), new Comparator<byte[]>() {
         @Override
         public int compare(byte[] arg0, byte[] arg1) {
@@ -86,9 +122,9 @@ public class TestDomainGenerator {
       });
     }
 
-    long start = System.currentTimeMillis();
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
-      final CurlyWriter writer = (CurlyWriter) curly.getWriter(new MockDomainVersion(0, 0L),
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
+      final CurlyWriter writer = (CurlyWriter) curly.getWriter(
+          new MockDomainVersion(0, 0L, new IncrementalDomainVersionProperties.Base()),
           new LocalPartitionRemoteFileOps(outputPath, part.getKey()), part.getKey());
       for (int i = 0; i < part.getValue().size(); i++) {
         final byte[] keyHash = part.getValue().get(i);
@@ -96,8 +132,6 @@ public class TestDomainGenerator {
       }
       writer.close();
     }
-    long end = System.currentTimeMillis();
-    System.out.println("Elapsed ms: " + (end - start));
+    return partitionedKeys;
   }
-
 }
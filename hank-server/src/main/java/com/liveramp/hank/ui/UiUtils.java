@@ -1,8 +1,10 @@
 package com.liveramp.hank.ui;
 
 import com.liveramp.hank.coordinator.*;
+import com.liveramp.hank.partition_server.CacheStatistics;
 import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
 import com.liveramp.hank.partition_server.FilesystemStatisticsAggregator;
+import com.liveramp.hank.partition_server.MembershipFilterStatistics;
 import com.liveramp.hank.partition_server.RuntimeStatisticsAggregator;
 import com.liveramp.hank.util.FormatUtils;
 import org.apache.commons.lang.StringUtils;
@@ -150,6 +152,8 @@ public class UiUtils {
       for (int i = 0; i < 9; ++i) {
         addBar(tooltipContent, ((i + 1) * 10) + "%", deciles[i], populationStatistics.getMaximum(), "ms");
       }
+      addBar(tooltipContent, "99%", populationStatistics.getValueAtPercentile(99), populationStatistics.getMaximum(), "ms");
+      addBar(tooltipContent, "99.9%", populationStatistics.getValueAtPercentile(99.9), populationStatistics.getMaximum(), "ms");
       addBar(tooltipContent, "max", populationStatistics.getMaximum(), populationStatistics.getMaximum(), "ms");
       tooltipContent.append("</table>");
 
@@ -166,6 +170,17 @@ public class UiUtils {
   }
 
   public static String formatCacheHits(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
+    String hits = formatCacheHitRates(runtimeStatisticsAggregator);
+    CacheStatistics cacheStatistics = runtimeStatisticsAggregator.getCacheStatistics();
+    if (cacheStatistics.getNumBytesCapacity() > 0) {
+      hits += " (" + FormatUtils.formatNumBytes(cacheStatistics.getNumManagedBytes())
+          + "/" + FormatUtils.formatNumBytes(cacheStatistics.getNumBytesCapacity())
+          + ", " + cacheStatistics.getNumItems() + " items)";
+    }
+    return hits;
+  }
+
+  private static String formatCacheHitRates(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
     double l1 = runtimeStatisticsAggregator.getL1CacheHitRate();
     double l2 = runtimeStatisticsAggregator.getL2CacheHitRate();
     if (l1 == 0 && l2 == 0) {
@@ -183,6 +198,15 @@ public class UiUtils {
     }
   }
 
+  public static String formatMembershipFilter(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
+    MembershipFilterStatistics membershipFilterStatistics = runtimeStatisticsAggregator.getMembershipFilterStatistics();
+    if (membershipFilterStatistics.getNumBytes() == 0) {
+      return "-";
+    }
+    return FormatUtils.formatDouble(membershipFilterStatistics.getFalsePositiveRate() * 100.0) + "% false positives ("
+        + FormatUtils.formatNumBytes(membershipFilterStatistics.getNumBytes()) + ")";
+  }
+
   public static String formatUpdateProgress(UpdateProgressAggregator updateProgressAggregator) {
     return formatUpdateProgress(updateProgressAggregator, -1);
   }
@@ -114,6 +114,13 @@
     </td>
     </tr>
 
+    <tr>
+    <td>Membership Filters:</td>
+    <td>
+      <%= UiUtils.formatMembershipFilter(runtimeStatisticsForHost) %>
+    </td>
+    </tr>
+
     <tr>
     <td>Uptime:</td>
     <td>
@@ -185,6 +192,7 @@
     <th>Latency</th>
     <th>Hit Rate</th>
     <th>Cache Hits</th>
+    <th>Membership Filter</th>
     </tr>
       <%
      for (DomainGroupDomainVersion dgdv : domainGroup.getDomainVersionsSorted()) {
@@ -203,6 +211,7 @@
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForDomain.getHitRate() * 100) %>%</td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForDomain) %></td>
+    <td class='centered'><%= UiUtils.formatMembershipFilter(runtimeStatisticsForDomain) %></td>
     </tr>
       <%
     }
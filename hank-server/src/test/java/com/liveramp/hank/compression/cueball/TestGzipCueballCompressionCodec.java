@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestGzipCueballCompressionCodec extends BaseTestCase {
   private static final List<byte[]> TESTCASES = Arrays.asList(
@@ -50,4 +51,47 @@ public class TestGzipCueballCompressionCodec extends BaseTestCase {
       assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressedBytes, 0, decompressedLength));
     }
   }
+
+  @Test
+  public void testOffsets() throws Exception {
+    GzipCueballCompressionCodec codec = new GzipCueballCompressionCodec();
+
+    for (byte[] testcase : TESTCASES) {
+      byte[] src = new byte[testcase.length + 3];
+      System.arraycopy(testcase, 0, src, 3, testcase.length);
+
+      byte[] compressedBytes = new byte[5 + codec.getMaxCompressBufferSize(testcase.length)];
+      int compressedLength = codec.compress(src, 3, testcase.length, compressedBytes, 5);
+      assertTrue(compressedLength <= codec.getMaxCompressBufferSize(testcase.length));
+
+      // The returned value is a length, not an offset in the destination
+      byte[] decompressedBytes = new byte[7 + testcase.length];
+      int decompressedLength = codec.decompress(compressedBytes, 5, compressedLength, decompressedBytes, 7);
+      assertEquals(testcase.length, decompressedLength);
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressedBytes, 7, decompressedLength));
+    }
+  }
+
+  @Test
+  public void testTrailingBytes() throws Exception {
+    GzipCueballCompressionCodec codec = new GzipCueballCompressionCodec();
+    byte[] nextBlock = lotsOfBytes(1024);
+
+    for (byte[] testcase : TESTCASES) {
+      if (testcase.length == 0) {
+        continue;
+      }
+      // Readers pass the beginning of the following blocks along with the block itself
+      byte[] compressedBytes = new byte[codec.getMaxCompressBufferSize(testcase.length)
+          + codec.getMaxCompressBufferSize(nextBlock.length) + 16];
+      int compressedLength = codec.compress(testcase, 0, testcase.length, compressedBytes, 0);
+      int nextCompressedLength = codec.compress(nextBlock, 0, nextBlock.length, compressedBytes, compressedLength);
+      Arrays.fill(compressedBytes, compressedLength + nextCompressedLength, compressedBytes.length, (byte) 42);
+
+      byte[] decompressedBytes = new byte[2 + testcase.length + nextBlock.length];
+      int decompressedLength = codec.decompress(compressedBytes, 0, compressedBytes.length, decompressedBytes, 2);
+      assertEquals(testcase.length, decompressedLength);
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressedBytes, 2, decompressedLength));
+    }
+  }
 }
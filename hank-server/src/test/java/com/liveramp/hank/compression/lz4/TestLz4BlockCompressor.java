@@ -0,0 +1,223 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.EncodingHelper;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLz4BlockCompressor extends BaseTestCase {
+
+  @Test
+  public void testDecompressSpecBlock() throws Exception {
+    byte[] block = new byte[]{
+        0x44, 'a', 'b', 'c', 'd', 4, 0, // 4 literals, match of 8 bytes at offset 4
+        0x50, 'e', 'f', 'g', 'h', 'i' // 5 last literals
+    };
+    byte[] dst = new byte[32];
+    int length = Lz4BlockDecompressor.decompress(block, 0, block.length, dst, 0, dst.length, null);
+    assertEquals("abcdabcdabcdefghi", new String(dst, 0, length, "US-ASCII"));
+  }
+
+  @Test
+  public void testRoundTrips() throws Exception {
+    Random random = new Random(42);
+    Lz4BlockCompressor compressor = new Lz4BlockCompressor();
+    for (int length = 0; length < 100; ++length) {
+      byte[] randomBytes = new byte[length];
+      random.nextBytes(randomBytes);
+      assertRoundTrip(compressor, randomBytes, null);
+    }
+    byte[] randomBytes = new byte[100 * 1024];
+    random.nextBytes(randomBytes);
+    assertRoundTrip(compressor, randomBytes, null);
+
+    // Long repetitions, with matches that overlap their output and offsets beyond the window
+    byte[] repetitiveBytes = new byte[200 * 1024];
+    for (int i = 0; i < repetitiveBytes.length; ++i) {
+      repetitiveBytes[i] = (byte) (i % 7 == 0 ? random.nextInt(4) : i % 13);
+    }
+    int compressedLength = assertRoundTrip(compressor, repetitiveBytes, null);
+    assertTrue(compressedLength < repetitiveBytes.length / 2);
+
+    byte[] zeros = new byte[64 * 1024];
+    compressedLength = assertRoundTrip(compressor, zeros, null);
+    assertTrue(compressedLength < 512);
+  }
+
+  @Test
+  public void testDictionary() throws Exception {
+    Random random = new Random(7);
+    List<byte[]> samples = new ArrayList<byte[]>();
+    for (int i = 0; i < 200; ++i) {
+      samples.add(getSimilarValue(random));
+    }
+    byte[] dictionary = Lz4DictionaryTrainer.train(samples, 4 << 10);
+    assertTrue(dictionary.length > 0);
+    assertTrue(dictionary.length <= 4 << 10);
+
+    Lz4BlockCompressor compressor = new Lz4BlockCompressor();
+    Lz4BlockCompressor dictionaryCompressor = new Lz4BlockCompressor(dictionary);
+    int totalLength = 0;
+    int totalDictionaryLength = 0;
+    for (int i = 0; i < 50; ++i) {
+      byte[] value = getSimilarValue(random);
+      totalLength += assertRoundTrip(compressor, value, null);
+      totalDictionaryLength += assertRoundTrip(dictionaryCompressor, value, dictionary);
+    }
+    assertTrue(totalDictionaryLength < totalLength * 2 / 3);
+
+    // A dictionary larger than the window only contributes its end
+    byte[] largeDictionary = new byte[100 * 1024];
+    random.nextBytes(largeDictionary);
+    byte[] value = Arrays.copyOfRange(largeDictionary, largeDictionary.length - 1000, largeDictionary.length - 500);
+    int compressedLength = assertRoundTrip(new Lz4BlockCompressor(largeDictionary), value, largeDictionary);
+    assertTrue(compressedLength < 50);
+  }
+
+  @Test
+  public void testCorruptBlocks() throws Exception {
+    byte[] value = new byte[1000];
+    for (int i = 0; i < value.length; ++i) {
+      value[i] = (byte) (i % 10);
+    }
+    byte[] compressed = new byte[Lz4BlockCompressor.getMaxCompressedLength(value.length)];
+    int compressedLength = new Lz4BlockCompressor().compress(value, 0, value.length, compressed, 0);
+    byte[] dst = new byte[value.length];
+
+    // Truncated block
+    assertFails(compressed, compressedLength - 1, dst);
+    // Output larger than expected
+    assertFails(compressed, compressedLength, new byte[value.length - 1]);
+    // Match before the start of the output
+    assertFails(new byte[]{0x10, 'a', 8, 0, 0x50, 'e', 'f', 'g', 'h', 'i'}, 10, dst);
+  }
+
+  @Test
+  public void testDictionaryChecksum() throws Exception {
+    byte[] dictionary = "{\"country\":\"US\"}".getBytes("UTF-8");
+    byte[] value = "{\"country\":\"US\"}{\"country\":\"FR\"}".getBytes("UTF-8");
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    OutputStream outputStream = new Lz4Compressor(dictionary).getOutputStream(compressed);
+    outputStream.write(value);
+    outputStream.close();
+    byte[] block = compressed.toByteArray();
+
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    new Lz4Decompressor(dictionary).decompressBlock(block, 0, block.length, decompressed);
+    assertEquals(ByteBuffer.wrap(value), ByteBuffer.wrap(decompressed.toByteArray()));
+    Lz4Decompressor.checkDictionary(block, 0, block.length, dictionary);
+
+    // Blocks are not decompressed against another dictionary, or without one
+    byte[] otherDictionary = "{\"country\":\"UK\"}".getBytes("UTF-8");
+    for (byte[] readerDictionary : Arrays.asList(null, otherDictionary)) {
+      try {
+        new Lz4Decompressor(readerDictionary).decompressBlock(block, 0, block.length, new ByteArrayOutputStream());
+        fail("Decompressing against another dictionary should fail");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testDictionaryTrainerInput() throws Exception {
+    Random random = new Random(11);
+    List<byte[]> samples = new ArrayList<byte[]>();
+    ByteArrayOutputStream sampleFileContent = new ByteArrayOutputStream();
+    byte[] lengthBuffer = new byte[EncodingHelper.MAX_VARINT_SIZE];
+    for (int i = 0; i < 100; ++i) {
+      byte[] sample = getSimilarValue(random);
+      samples.add(sample);
+      sampleFileContent.write(lengthBuffer, 0, EncodingHelper.encodeLittleEndianVarInt(sample.length, lengthBuffer));
+      sampleFileContent.write(sample);
+    }
+    File sampleFile = new File(localTmpDir, "samples");
+    FileUtils.writeByteArrayToFile(sampleFile, sampleFileContent.toByteArray());
+
+    List<byte[]> readSamples = new ArrayList<byte[]>();
+    Lz4DictionaryTrainer.readSamples(sampleFile, readSamples);
+    assertEquals(samples.size(), readSamples.size());
+    for (int i = 0; i < samples.size(); ++i) {
+      assertEquals(ByteBuffer.wrap(samples.get(i)), ByteBuffer.wrap(readSamples.get(i)));
+    }
+
+    // The dictionary is given to Curly as a !!binary option
+    byte[] dictionary = Lz4DictionaryTrainer.train(readSamples, 1024);
+    String yaml = Lz4DictionaryTrainer.toYaml(dictionary);
+    assertTrue(yaml.contains("!!binary"));
+    Map<String, Object> options = (Map<String, Object>) new Yaml().load(yaml);
+    assertEquals(ByteBuffer.wrap(dictionary),
+        ByteBuffer.wrap((byte[]) options.get(Curly.Factory.BLOCK_COMPRESSION_DICTIONARY)));
+
+    // Truncated sample file
+    FileUtils.writeByteArrayToFile(sampleFile, Arrays.copyOf(sampleFileContent.toByteArray(), 50));
+    try {
+      Lz4DictionaryTrainer.readSamples(sampleFile, new ArrayList<byte[]>());
+      fail("Reading a truncated sample file should fail");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static byte[] getSimilarValue(Random random) throws IOException {
+    return ("{\"user_id\":" + random.nextInt(1000000)
+        + ",\"segments\":[" + random.nextInt(100) + "," + random.nextInt(100) + "],\"country\":\"US\""
+        + ",\"last_seen\":\"2013-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10) + "\"}").getBytes("UTF-8");
+  }
+
+  private static int assertRoundTrip(Lz4BlockCompressor compressor, byte[] value, byte[] dictionary) throws IOException {
+    // Compress and decompress at offsets to check that they are honored
+    byte[] src = new byte[value.length + 3];
+    System.arraycopy(value, 0, src, 3, value.length);
+    byte[] compressed = new byte[Lz4BlockCompressor.getMaxCompressedLength(value.length) + 5];
+    int compressedLength = compressor.compress(src, 3, value.length, compressed, 5);
+    byte[] decompressed = new byte[value.length + 2];
+    int length = Lz4BlockDecompressor.decompress(compressed, 5, compressedLength, decompressed, 2, value.length,
+        dictionary);
+    assertEquals(value.length, length);
+    assertEquals(ByteBuffer.wrap(value), ByteBuffer.wrap(decompressed, 2, length));
+    return compressedLength;
+  }
+
+  private static void assertFails(byte[] compressed, int compressedLength, byte[] dst) {
+    try {
+      Lz4BlockDecompressor.decompress(compressed, 0, compressedLength, dst, 0, dst.length, null);
+      fail("Decompressing a corrupt block should fail");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+}
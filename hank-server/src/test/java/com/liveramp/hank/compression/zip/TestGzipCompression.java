@@ -0,0 +1,183 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.zip;
+
+import com.liveramp.hank.compression.cueball.GzipCueballCompressionCodec;
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestGzipCompression extends BaseTestCase {
+
+  private static final List<byte[]> TESTCASES = Arrays.asList(
+      new byte[]{},
+      new byte[]{0, 1, 2, 3, 4, 5, 6},
+      someBytes(16 * 1024),
+      someBytes(128 * 1024)
+  );
+
+  private static byte[] someBytes(int length) {
+    Random random = new Random(length);
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      bytes[i] = (byte) random.nextInt(16);
+    }
+    return bytes;
+  }
+
+  @Test
+  public void testCompressorOutputIsReadByGZIPInputStream() throws IOException {
+    GzipCompressor compressor = new GzipCompressor();
+    // The compressor reuses its Deflater across streams
+    for (int i = 0; i < 2; ++i) {
+      for (byte[] testcase : TESTCASES) {
+        assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(gunzip(compress(compressor, testcase))));
+      }
+    }
+  }
+
+  @Test
+  public void testDecompressorReadsGZIPOutputStreamOutput() throws IOException {
+    GzipDecompressor decompressor = new GzipDecompressor();
+    for (byte[] testcase : TESTCASES) {
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompress(decompressor, gzip(testcase))));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    GzipCompressor compressor = new GzipCompressor();
+    GzipDecompressor decompressor = new GzipDecompressor();
+    for (byte[] testcase : TESTCASES) {
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompress(decompressor, compress(compressor, testcase))));
+    }
+  }
+
+  @Test
+  public void testConcatenatedMembers() throws IOException {
+    byte[] first = TESTCASES.get(2);
+    byte[] second = TESTCASES.get(1);
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    block.write(compress(new GzipCompressor(), first));
+    block.write(gzip(second));
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(first);
+    expected.write(second);
+
+    byte[] decompressed = decompress(new GzipDecompressor(), block.toByteArray());
+    assertEquals(ByteBuffer.wrap(expected.toByteArray()), ByteBuffer.wrap(decompressed));
+    assertEquals(ByteBuffer.wrap(expected.toByteArray()), ByteBuffer.wrap(gunzip(block.toByteArray())));
+  }
+
+  @Test
+  public void testCorruptTrailer() throws IOException {
+    GzipDecompressor decompressor = new GzipDecompressor();
+    byte[] compressed = compress(new GzipCompressor(), TESTCASES.get(2));
+    // Flip a byte of the CRC, then of the size
+    for (int offset : new int[]{compressed.length - GzipFormat.TRAILER_SIZE, compressed.length - 1}) {
+      byte[] corrupted = Arrays.copyOf(compressed, compressed.length);
+      corrupted[offset] ^= 0xff;
+      try {
+        decompress(decompressor, corrupted);
+        fail("Should have thrown an IOException");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+    // The decompressor is still usable
+    assertEquals(ByteBuffer.wrap(TESTCASES.get(2)), ByteBuffer.wrap(decompress(decompressor, compressed)));
+  }
+
+  @Test
+  public void testTruncatedBlock() throws IOException {
+    byte[] compressed = compress(new GzipCompressor(), TESTCASES.get(2));
+    try {
+      decompress(new GzipDecompressor(), Arrays.copyOf(compressed, compressed.length - 1));
+      fail("Should have thrown an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testCueballCodecCompatibility() throws IOException {
+    GzipCueballCompressionCodec codec = new GzipCueballCompressionCodec();
+    for (byte[] testcase : TESTCASES) {
+      if (testcase.length == 0) {
+        continue;
+      }
+      byte[] compressed = new byte[codec.getMaxCompressBufferSize(testcase.length)];
+      int compressedLength = codec.compress(testcase, 0, testcase.length, compressed, 0);
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(gunzip(Arrays.copyOf(compressed, compressedLength))));
+
+      // Blocks written with GZIPOutputStream by earlier versions
+      byte[] gzipped = gzip(testcase);
+      byte[] decompressed = new byte[testcase.length];
+      assertEquals(testcase.length, codec.decompress(gzipped, 0, gzipped.length, decompressed, 0));
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressed));
+    }
+  }
+
+  private static byte[] compress(GzipCompressor compressor, byte[] data) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    OutputStream outputStream = compressor.getOutputStream(result);
+    outputStream.write(data);
+    outputStream.close();
+    return result.toByteArray();
+  }
+
+  private static byte[] decompress(GzipDecompressor decompressor, byte[] block) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    decompressor.decompressBlock(block, 0, block.length, result);
+    return result.toByteArray();
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    GZIPOutputStream outputStream = new GZIPOutputStream(result);
+    outputStream.write(data);
+    outputStream.close();
+    return result.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] data) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(data));
+    byte[] buffer = new byte[4096];
+    int numBytes;
+    while ((numBytes = inputStream.read(buffer)) > 0) {
+      result.write(buffer, 0, numBytes);
+    }
+    inputStream.close();
+    return result.toByteArray();
+  }
+}
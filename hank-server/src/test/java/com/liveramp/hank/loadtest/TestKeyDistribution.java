@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.loadtest;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyDistribution extends BaseTestCase {
+
+  private static final int NUM_KEYS = 1000;
+  private static final int NUM_SAMPLES = 100000;
+
+  @Test
+  public void testUniform() {
+    int[] counts = sample(new KeyDistribution.Uniform(NUM_KEYS));
+    for (int count : counts) {
+      assertTrue(count > 0);
+    }
+  }
+
+  @Test
+  public void testZipfian() {
+    int[] counts = sample(new KeyDistribution.Zipfian(NUM_KEYS, 0.99));
+    // Most popular keys come first, and the first key gets about 1 / zeta(NUM_KEYS) of the requests
+    assertTrue(counts[0] > counts[1]);
+    assertTrue(counts[1] > counts[10]);
+    assertTrue(counts[10] > counts[NUM_KEYS - 1]);
+    assertEquals(0.13, counts[0] / (double) NUM_SAMPLES, 0.02);
+  }
+
+  @Test
+  public void testHotSet() {
+    int[] counts = sample(new KeyDistribution.HotSet(NUM_KEYS, 0.01, 0.9));
+    int numHotRequests = 0;
+    for (int i = 0; i < 10; ++i) {
+      numHotRequests += counts[i];
+    }
+    assertEquals(0.9, numHotRequests / (double) NUM_SAMPLES, 0.01);
+  }
+
+  private static int[] sample(KeyDistribution keyDistribution) {
+    Random random = new Random(0);
+    int[] counts = new int[NUM_KEYS];
+    for (int i = 0; i < NUM_SAMPLES; ++i) {
+      long index = keyDistribution.nextKeyIndex(random);
+      assertTrue(index >= 0 && index < NUM_KEYS);
+      ++counts[(int) index];
+    }
+    return counts;
+  }
+}
@@ -74,11 +74,41 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return 1;
   }
 
+  @Override
+  public String getGetBulkTaskExecutorType() {
+    return "fixed";
+  }
+
+  @Override
+  public int getMaxQueuedGetBulkTasks() {
+    return 0;
+  }
+
   @Override
   public int getGetTimerAggregatorWindow() {
     return 10;
   }
 
+  @Override
+  public int getWarmupMaxDurationMs() {
+    return 1000;
+  }
+
+  @Override
+  public int getWarmupMaxPreloadMB() {
+    return 16;
+  }
+
+  @Override
+  public int getWarmupKeySampleSize() {
+    return 0;
+  }
+
+  @Override
+  public int getBufferPoolMaxMB() {
+    return 16;
+  }
+
   @Override
   public int getNumConcurrentUpdates() {
     return 10;
@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Test;
+
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDirectBufferCompactProtocol extends BaseTestCase {
+
+  @Test
+  public void testWriteDirectBuffer() throws Exception {
+    byte[] value = new byte[20000];
+    for (int i = 0; i < value.length; ++i) {
+      value[i] = (byte) i;
+    }
+    ByteBuffer directValue = ByteBuffer.allocateDirect(value.length + 10);
+    directValue.position(5);
+    directValue.put(value);
+    directValue.flip();
+    directValue.position(5);
+
+    // Direct and heap values are serialized identically
+    assertEquals(serialize(HankResponse.value(value)), serialize(HankResponse.value(directValue)));
+    // The value's position was left untouched
+    assertEquals(5, directValue.position());
+
+    TMemoryBuffer transport = new TMemoryBuffer(64);
+    HankResponse.value(directValue).write(new DirectBufferCompactProtocol(transport));
+    HankResponse response = new HankResponse();
+    response.read(new TCompactProtocol(transport));
+    assertEquals(ByteBuffer.wrap(value), response.buffer_for_value());
+  }
+
+  private static ByteBuffer serialize(HankResponse response) throws Exception {
+    TMemoryBuffer transport = new TMemoryBuffer(64);
+    response.write(new DirectBufferCompactProtocol.Factory().getProtocol(transport));
+    return ByteBuffer.wrap(transport.getArray(), 0, transport.length());
+  }
+}
@@ -4,12 +4,20 @@ import com.liveramp.hank.test.BaseTestCase;
 import com.liveramp.hank.test.coordinator.MockHostDomain;
 import com.liveramp.hank.test.coordinator.MockHostDomainPartition;
 import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.generated.HankException;
+import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.test.partitioner.MapPartitioner;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.mock.MockReader;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestDomainAccessor extends BaseTestCase {
   @Test
@@ -29,4 +37,88 @@ public class TestDomainAccessor extends BaseTestCase {
     drs.get(key, new ReaderResult());
     drs.get(nullKey, new ReaderResult());
   }
+
+  @Test
+  public void testGetBulk() throws Exception {
+    PartitionAccessor partitionAccessors[] = new PartitionAccessor[3];
+
+    ByteBuffer key0 = ByteBuffer.wrap("key0".getBytes());
+    ByteBuffer key1 = ByteBuffer.wrap("key1".getBytes());
+    ByteBuffer nullKey = ByteBuffer.wrap("nullKey".getBytes());
+    ByteBuffer wrongHostKey = ByteBuffer.wrap("wrongHostKey".getBytes());
+
+    partitionAccessors[0] = new PartitionAccessor(new MockHostDomainPartition(0, 1),
+        new MockReader(null, 0, "v0".getBytes(), null));
+    partitionAccessors[1] = new PartitionAccessor(new MockHostDomainPartition(1, 1),
+        new MockReader(null, 1, "v1".getBytes(), null));
+    DomainAccessor drs = new DomainAccessor(new MockHostDomain(new MockDomain("domain")), partitionAccessors,
+        new MapPartitioner(key0, 0, key1, 1, nullKey, 1, wrongHostKey, 2), 0);
+
+    // Responses are in the same order as keys, even though keys are grouped by partition
+    HankResponse[] responses = drs.getBulk(Arrays.asList(key1, key0, wrongHostKey, nullKey, key0));
+    assertEquals(5, responses.length);
+    assertEquals(HankResponse.value("v1".getBytes()), responses[0]);
+    assertEquals(HankResponse.value("v0".getBytes()), responses[1]);
+    assertEquals(HankResponse.xception(HankException.wrong_host(true)), responses[2]);
+    assertEquals(HankResponse.not_found(true), responses[3]);
+    assertEquals(HankResponse.value("v0".getBytes()), responses[4]);
+  }
+
+  @Test
+  public void testFailedGetBulkIsNotCounted() throws Exception {
+    PartitionAccessor partitionAccessors[] = new PartitionAccessor[2];
+
+    ByteBuffer key0 = ByteBuffer.wrap("key0".getBytes());
+    ByteBuffer key1 = ByteBuffer.wrap("key1".getBytes());
+
+    KeySampler keySampler = new KeySampler(10, 1);
+    partitionAccessors[0] = new PartitionAccessor(new MockHostDomainPartition(0, 1),
+        new MockReader(null, 0, "v0".getBytes(), null), keySampler);
+    partitionAccessors[1] = new PartitionAccessor(new MockHostDomainPartition(1, 1),
+        new MockReader(null, 1, "v1".getBytes(), null) {
+          @Override
+          public void get(ByteBuffer key, ReaderResult result) throws IOException {
+            throw new IOException("Failed to read");
+          }
+        });
+    DomainAccessor drs = new DomainAccessor(new MockHostDomain(new MockDomain("domain")), partitionAccessors,
+        new MapPartitioner(key0, 0, key1, 1), 1000);
+
+    // Partition 0 is looked up before partition 1 fails
+    try {
+      drs.getBulk(Arrays.asList(key0, key1));
+      fail("Should have thrown an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    // Keys are counted by the individual lookups that follow, not by the failed bulk lookup
+    assertTrue(keySampler.getKeys().isEmpty());
+    assertEquals(0, drs.getRuntimeStatistics().getGetRequestsPopulationStatistics().getNumValues());
+
+    assertEquals(HankResponse.value("v0".getBytes()), drs.get(key0, new ReaderResult()));
+    assertEquals(Arrays.asList(key0), keySampler.getKeys());
+    assertEquals(1, drs.getRuntimeStatistics().getGetRequestsPopulationStatistics().getNumValues());
+  }
+
+  @Test
+  public void testSwapReader() throws Exception {
+    PartitionAccessor partitionAccessors[] = new PartitionAccessor[1];
+
+    ByteBuffer key = ByteBuffer.wrap("key".getBytes());
+
+    partitionAccessors[0] = new PartitionAccessor(new MockHostDomainPartition(0, 1),
+        new MockReader(null, 0, "v1".getBytes(), null));
+    DomainAccessor drs = new DomainAccessor(new MockHostDomain(new MockDomain("domain")), partitionAccessors,
+        new MapPartitioner(key, 0), 0);
+
+    assertEquals(HankResponse.value("v1".getBytes()), drs.get(key, new ReaderResult()));
+
+    // Swap in a new version
+    drs.getPartitionAccessor(0).swapReader(new MockReader(null, 0, "v2".getBytes(), null));
+    assertEquals(HankResponse.value("v2".getBytes()), drs.get(key, new ReaderResult()));
+
+    // Stop serving the partition
+    drs.getPartitionAccessor(0).swapReader(null);
+    assertEquals(HankResponse.xception(HankException.wrong_host(true)), drs.get(key, new ReaderResult()));
+  }
 }
@@ -1,9 +1,13 @@
 package com.liveramp.hank.partition_server;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.liveramp.hank.test.BaseTestCase;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class TestDoublePopulationStatisticsAggregator extends BaseTestCase {
 
@@ -77,4 +81,82 @@ public class TestDoublePopulationStatisticsAggregator extends BaseTestCase {
     assertEquals(1.1, DoublePopulationStatisticsAggregator.getInterpolatedValueAtIndex(p, 0.1), .0001);
     assertEquals(3.9, DoublePopulationStatisticsAggregator.getInterpolatedValueAtIndex(p, 2.9), .0001);
   }
+
+  @Test
+  public void testPercentiles() {
+    DoublePopulationStatisticsAggregator aggregator = new DoublePopulationStatisticsAggregator();
+    assertNull(aggregator.getMinimum());
+    assertNull(aggregator.getMaximum());
+    assertEquals(0.0, aggregator.getValueAtPercentile(50), 0);
+    for (int i = 1; i <= 1000; ++i) {
+      aggregator.record(i / 10.0);
+    }
+    assertEquals(0.1, aggregator.getMinimum(), 0);
+    assertEquals(100.0, aggregator.getMaximum(), 0);
+    assertEquals(50.05, aggregator.getMean(), .0001);
+    double[] deciles = aggregator.computeDeciles();
+    for (int i = 0; i < 9; ++i) {
+      assertEquals((i + 1) * 10, deciles[i], (i + 1) * 0.1);
+    }
+    assertEquals(99.0, aggregator.getValueAtPercentile(99), 1);
+    assertEquals(100.0, aggregator.getValueAtPercentile(100), 0);
+  }
+
+  @Test
+  public void testCombine() {
+    List<DoublePopulationStatisticsAggregator> aggregators = new ArrayList<DoublePopulationStatisticsAggregator>();
+    DoublePopulationStatisticsAggregator all = new DoublePopulationStatisticsAggregator();
+    for (int i = 0; i < 3; ++i) {
+      DoublePopulationStatisticsAggregator aggregator = new DoublePopulationStatisticsAggregator();
+      // Populations of very different sizes
+      int numValues = i == 0 ? 10 : 10000;
+      for (int j = 0; j < numValues; ++j) {
+        double value = (i + 1) * (j % 100);
+        aggregator.record(value);
+        all.record(value);
+      }
+      aggregators.add(aggregator);
+    }
+    DoublePopulationStatisticsAggregator combined = DoublePopulationStatisticsAggregator.combine(aggregators);
+    assertEquals(all.getNumValues(), combined.getNumValues());
+    assertEquals(all.getMinimum(), combined.getMinimum());
+    assertEquals(all.getMaximum(), combined.getMaximum());
+    assertEquals(all.getMean(), combined.getMean(), .0001);
+    for (double percentile : new double[]{10, 50, 90, 99, 99.9}) {
+      assertEquals(all.getValueAtPercentile(percentile), combined.getValueAtPercentile(percentile), 0);
+    }
+  }
+
+  @Test
+  public void testSerialization() {
+    DoublePopulationStatisticsAggregator aggregator = new DoublePopulationStatisticsAggregator();
+    for (int i = 0; i < 1000; ++i) {
+      aggregator.record(i * 0.37);
+    }
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(RuntimeStatisticsAggregator.toString(
+        new RuntimeStatisticsAggregator(1, 2, 3, 4, 5, 6, aggregator)));
+    assertEquals(4 / 3.0, parsed.getHitRate(), .0001);
+    DoublePopulationStatisticsAggregator parsedAggregator = parsed.getGetRequestsPopulationStatistics();
+    assertEquals(aggregator.getNumValues(), parsedAggregator.getNumValues());
+    assertEquals(aggregator.getMinimum(), parsedAggregator.getMinimum());
+    assertEquals(aggregator.getMaximum(), parsedAggregator.getMaximum());
+    assertEquals(aggregator.getMean(), parsedAggregator.getMean(), .0001);
+    for (double percentile : new double[]{10, 50, 90, 99}) {
+      assertEquals(aggregator.getValueAtPercentile(percentile), parsedAggregator.getValueAtPercentile(percentile),
+          aggregator.getValueAtPercentile(percentile) / 100);
+    }
+
+    // Empty statistics
+    parsedAggregator = RuntimeStatisticsAggregator.parse(RuntimeStatisticsAggregator.toString(
+        new RuntimeStatisticsAggregator())).getGetRequestsPopulationStatistics();
+    assertEquals(0, parsedAggregator.getNumValues());
+    assertNull(parsedAggregator.getMaximum());
+
+    // Legacy format, with a random sample of values
+    parsedAggregator = RuntimeStatisticsAggregator.parse("1 2 3 4 5 6 1.0 5.0 100 250.0 1.0 2.0 3.0 4.0 5.0")
+        .getGetRequestsPopulationStatistics();
+    assertEquals(100, parsedAggregator.getNumValues());
+    assertEquals(2.5, parsedAggregator.getMean(), .0001);
+    assertEquals(3.0, parsedAggregator.getValueAtPercentile(50), .0001);
+  }
 }
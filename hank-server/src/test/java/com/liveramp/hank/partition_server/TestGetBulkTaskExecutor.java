@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestGetBulkTaskExecutor extends BaseTestCase {
+
+  @Test
+  public void testFairExecutorRoundRobin() throws Exception {
+    FairGetBulkTaskExecutor executor = new FairGetBulkTaskExecutor(1, 0);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    // Occupy the only worker while the other requests are queued
+    executor.execute(Collections.singletonList(new BlockingTask(blocked, release)));
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    executor.execute(Arrays.asList(new RecordingTask(order, "a0"), new RecordingTask(order, "a1"),
+        new RecordingTask(order, "a2")));
+    executor.execute(Collections.singletonList(new RecordingTask(order, "b0")));
+    assertEquals(4, executor.getNumQueuedTasks());
+    release.countDown();
+    executor.shutDown();
+
+    // The small request is not queued behind the large one
+    assertEquals(Arrays.asList("a0", "b0", "a1", "a2"), order);
+    assertEquals(0, executor.getNumQueuedTasks());
+  }
+
+  @Test
+  public void testFairExecutorAdmission() throws Exception {
+    checkAdmission(new FairGetBulkTaskExecutor(1, 3));
+  }
+
+  @Test
+  public void testThreadPoolExecutorAdmission() throws Exception {
+    checkAdmission(new ThreadPoolGetBulkTaskExecutor(1, 3));
+  }
+
+  private void checkAdmission(GetBulkTaskExecutor executor) throws Exception {
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    executor.execute(Collections.singletonList(new BlockingTask(blocked, release)));
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    // A request larger than the limit is admitted when nothing is queued
+    executor.execute(Arrays.asList(new RecordingTask(order, "a0"), new RecordingTask(order, "a1"),
+        new RecordingTask(order, "a2"), new RecordingTask(order, "a3")));
+    // Requests are then rejected as a whole
+    try {
+      executor.execute(Collections.singletonList(new RecordingTask(order, "b0")));
+      fail("Request should have been rejected");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(4, executor.getNumQueuedTasks());
+    release.countDown();
+    executor.shutDown();
+
+    assertEquals(Arrays.asList("a0", "a1", "a2", "a3"), order);
+    assertEquals(0, executor.getNumQueuedTasks());
+  }
+
+  private static class RecordingTask implements Runnable {
+
+    private final List<String> order;
+    private final String name;
+
+    private RecordingTask(List<String> order, String name) {
+      this.order = order;
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+    }
+  }
+
+  private static class BlockingTask implements Runnable {
+
+    private final CountDownLatch blocked;
+    private final CountDownLatch release;
+
+    private BlockingTask(CountDownLatch blocked, CountDownLatch release) {
+      this.blocked = blocked;
+      this.release = release;
+    }
+
+    @Override
+    public void run() {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
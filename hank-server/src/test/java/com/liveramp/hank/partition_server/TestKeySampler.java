@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestKeySampler extends BaseTestCase {
+
+  private static ByteBuffer key(int i) {
+    return ByteBuffer.wrap(("key" + i).getBytes());
+  }
+
+  @Test
+  public void testHottestKeys() throws Exception {
+    KeySampler keySampler = new KeySampler(2, 1);
+    assertTrue(keySampler.getKeys().isEmpty());
+
+    for (int i = 0; i < 5; ++i) {
+      keySampler.record(key(1));
+    }
+    for (int i = 0; i < 3; ++i) {
+      keySampler.record(key(2));
+    }
+    keySampler.record(key(3));
+    assertEquals(Arrays.asList(key(1), key(2)), keySampler.getKeys());
+
+    // Many cold keys do not evict a hot key
+    for (int i = 100; i < 1000; ++i) {
+      keySampler.record(key(i));
+      if (i % 100 == 0) {
+        keySampler.record(key(1));
+      }
+    }
+    assertEquals(key(1), keySampler.getKeys().get(0));
+  }
+
+  @Test
+  public void testSamplingAndDecay() throws Exception {
+    // One key out of two is sampled
+    KeySampler keySampler = new KeySampler(10, 2);
+    keySampler.record(key(1));
+    keySampler.record(key(2));
+    keySampler.record(key(3));
+    keySampler.record(key(4));
+    List<ByteBuffer> keys = keySampler.getKeys();
+    Collections.sort(keys);
+    assertEquals(Arrays.asList(key(1), key(3)), keys);
+
+    // Keys sampled once fade out
+    keySampler.record(key(1));
+    keySampler.decay();
+    assertEquals(Collections.singletonList(key(1)), keySampler.getKeys());
+    keySampler.decay();
+    assertTrue(keySampler.getKeys().isEmpty());
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    File file = new File(localTmpDir + "/key_sample");
+    List<ByteBuffer> keys = Arrays.asList(key(1), ByteBuffer.wrap(new byte[0]), key(12));
+    KeySampler.write(keys, file);
+    assertEquals(keys, KeySampler.read(file));
+    assertTrue(!new File(localTmpDir + "/key_sample.tmp").exists());
+  }
+
+  @Test
+  public void testConcurrentRecords() throws Exception {
+    final KeySampler keySampler = new KeySampler(4, 1);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; ++i) {
+            keySampler.record(key(i % 10 == 0 ? 1 : 100 + i));
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    List<ByteBuffer> keys = keySampler.getKeys();
+    assertEquals(4, keys.size());
+    assertEquals(key(1), keys.get(0));
+  }
+
+  @Test
+  public void testReadCorruptFile() throws Exception {
+    File file = new File(localTmpDir + "/key_sample");
+    for (int length : new int[]{-1, 1000, Integer.MAX_VALUE}) {
+      DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file));
+      outputStream.writeInt(length);
+      outputStream.write(new byte[10]);
+      outputStream.close();
+      try {
+        KeySampler.read(file);
+        fail("Reading a key sample file with a key length of " + length + " should fail");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+}
@@ -16,8 +16,10 @@
 package com.liveramp.hank.partition_server;
 
 import com.liveramp.hank.config.PartitionServerConfigurator;
+import com.liveramp.hank.coordinator.Domain;
 import com.liveramp.hank.coordinator.Host;
 import com.liveramp.hank.coordinator.HostCommand;
+import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.coordinator.HostState;
 import com.liveramp.hank.coordinator.PartitionServerAddress;
 import com.liveramp.hank.coordinator.Ring;
@@ -43,6 +45,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -150,6 +153,36 @@ public class TestPartitionServer extends BaseTestCase {
     }
   }
 
+  private static class SwappingHandler implements IfaceWithShutdown, PartitionSwapper {
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key) throws TException {
+      return HankResponse.not_found(true);
+    }
+
+    @Override
+    public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
+      return HankBulkResponse.responses(Collections.singletonList(HankResponse.not_found(true)));
+    }
+
+    @Override
+    public void shutDown() throws InterruptedException {
+    }
+
+    @Override
+    public boolean canSwapPartitions() throws IOException {
+      return true;
+    }
+
+    @Override
+    public void swapPartition(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException {
+    }
+
+    @Override
+    public void unloadPartition(Domain domain, int partitionNumber) throws IOException {
+    }
+  }
+
   private final class SleepingUpdateManager extends MockUpdateManager {
     public boolean updateCalled = false;
 
@@ -230,6 +263,59 @@ public class TestPartitionServer extends BaseTestCase {
     assertEquals(HostState.OFFLINE, fixtures.host.getState());
   }
 
+  @Test
+  public void testExecuteUpdateWhileServing() throws Exception {
+    final SleepingUpdateManager updateManager = new SleepingUpdateManager();
+    final SwappingHandler handler = new SwappingHandler();
+    final PartitionServer partitionServer = new MockPartitionServer(fixtures.CONFIGURATOR1, "localhost") {
+      @Override
+      protected IfaceWithShutdown getHandler() throws IOException {
+        return handler;
+      }
+
+      @Override
+      protected IUpdateManager getUpdateManager() {
+        throw new RuntimeException("Update should be performed while serving.");
+      }
+
+      @Override
+      protected IUpdateManager getOnlineUpdateManager(PartitionSwapper partitionSwapper) {
+        assertSame(handler, partitionSwapper);
+        return updateManager;
+      }
+    };
+
+    Thread thread = createPartitionServerThread(partitionServer);
+
+    thread.start();
+    waitUntilHost(HostState.IDLE, fixtures.host);
+
+    fixtures.host.enqueueCommand(HostCommand.SERVE_DATA);
+    waitUntilHost(HostState.SERVING, fixtures.host);
+
+    fixtures.host.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+
+    WaitUntil.orDie(new Condition() {
+      @Override
+      public boolean test() {
+        try {
+          return updateManager.updateCalled
+              && fixtures.host.getCurrentCommand() == null;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    assertTrue("Update called", updateManager.updateCalled);
+    assertEquals("Still SERVING after update", HostState.SERVING, fixtures.host.getState());
+
+    partitionServer.stopSynchronized();
+
+    thread.join();
+    assertEquals(HostState.OFFLINE, fixtures.host.getState());
+  }
+
   @Test
   public void testNonEmptyCommandQueue() throws Exception {
     final SleepingUpdateManager updateManager = new SleepingUpdateManager();
@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestReaderResultPool extends BaseTestCase {
+
+  @Test
+  public void testReuse() throws Exception {
+    ReaderResultPool pool = new ReaderResultPool(2);
+
+    ReaderResult result = pool.acquire();
+    result.requiresBufferSize(40);
+    result.found();
+    pool.release(result);
+    assertEquals(1, pool.getNumResults());
+    // The buffer was given back to the shared buffer pool
+    assertNull(result.getBuffer());
+
+    // Results are cleared when acquired
+    ReaderResult reused = pool.acquire();
+    assertSame(result, reused);
+    assertFalse(reused.isFound());
+    assertEquals(0, pool.getNumResults());
+  }
+
+  @Test
+  public void testBounds() throws Exception {
+    ReaderResultPool pool = new ReaderResultPool(2);
+    ReaderResult result = new ReaderResult();
+    pool.release(new ReaderResult());
+    pool.release(new ReaderResult());
+    // The pool does not grow beyond its maximum size
+    pool.release(result);
+    assertEquals(2, pool.getNumResults());
+    assertNotSame(result, pool.acquire());
+    assertNotSame(result, pool.acquire());
+  }
+}
@@ -15,14 +15,19 @@
  */
 package com.liveramp.hank.storage.cueball;
 
+import com.liveramp.hank.compression.cueball.GzipCueballCompressionCodec;
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
 import org.junit.Test;
 
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestCueballMerger extends AbstractCueballTest {
   private final String LOCAL_ROOT = localTmpDir;
@@ -187,4 +192,107 @@ public class TestCueballMerger extends AbstractCueballTest {
 
     assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(actualMergedData));
   }
+
+  @Test
+  public void testMergeWithMembershipFilter() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    OutputStream s = new FileOutputStream(BASE.getPath());
+    s.write(BASE_DATA);
+    s.flush();
+    s.close();
+
+    s = new FileOutputStream(DELTA_1.getPath());
+    s.write(DELTA_1_DATA);
+    s.flush();
+    s.close();
+
+    s = new FileOutputStream(DELTA_2.getPath());
+    s.write(DELTA_2_DATA);
+    s.flush();
+    s.close();
+
+    new CueballMerger(8).merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+
+    // Blocks are unchanged, and followed by the membership filter
+    FileInputStream in = new FileInputStream(NEW_BASE_PATH);
+    Footer footer = new Footer(in.getChannel(), 1);
+    assertTrue(footer.hasMembershipFilter());
+    assertEquals(8, footer.getMembershipFilterNumKeys());
+    assertEquals(16, footer.getDataLength());
+    byte[] actualBlocks = new byte[16];
+    new DataInputStream(in).readFully(actualBlocks);
+    in.close();
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA, 0, 16), ByteBuffer.wrap(actualBlocks));
+
+    // Merging the new base again carries the filter over
+    String mergedTwicePath = LOCAL_ROOT + "/00003.base.cueball";
+    new CueballMerger(8).merge(new CueballFilePath(NEW_BASE_PATH),
+        Collections.<CueballFilePath>emptyList(),
+        mergedTwicePath,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+    assertEquals(new File(NEW_BASE_PATH).length(), new File(mergedTwicePath).length());
+  }
+
+  @Test
+  public void testParallelMergeIsIdenticalToSequentialMerge() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    Random random = new Random(42);
+    writeRandomCueballFile(BASE.getPath(), random, 2000);
+    writeRandomCueballFile(DELTA_1.getPath(), random, 500);
+    writeRandomCueballFile(DELTA_2.getPath(), random, 500);
+
+    for (int membershipFilterBitsPerKey : new int[]{0, 8}) {
+      String sequentialPath = LOCAL_ROOT + "/sequential.base.cueball";
+      new CueballMerger(membershipFilterBitsPerKey, 1).merge(BASE,
+          Arrays.asList(DELTA_1, DELTA_2), sequentialPath, 8, 4, null, 4, new GzipCueballCompressionCodec());
+      for (int numThreads : new int[]{2, 3, 16, 64}) {
+        String parallelPath = LOCAL_ROOT + "/parallel.base.cueball";
+        new CueballMerger(membershipFilterBitsPerKey, numThreads).merge(BASE,
+            Arrays.asList(DELTA_1, DELTA_2), parallelPath, 8, 4, null, 4, new GzipCueballCompressionCodec());
+        assertEquals(ByteBuffer.wrap(readFile(sequentialPath)), ByteBuffer.wrap(readFile(parallelPath)));
+        // Temporary range files are removed
+        assertEquals(0, new File(LOCAL_ROOT).list(new FilenameFilter() {
+          @Override
+          public boolean accept(File dir, String name) {
+            return name.contains(".range");
+          }
+        }).length);
+      }
+    }
+  }
+
+  // Write a file with a given number of random 8 byte key hashes, in increasing order, and 4 byte values
+  private static void writeRandomCueballFile(String path, Random random, int numKeys) throws IOException {
+    TreeSet<Long> keyHashes = new TreeSet<Long>();
+    while (keyHashes.size() < numKeys) {
+      keyHashes.add(random.nextLong());
+    }
+    CueballWriter writer = new CueballWriter(new FileOutputStream(path), 8, null, 4,
+        new GzipCueballCompressionCodec(), 4);
+    for (long keyHash : keyHashes) {
+      // Flip the sign bit so that signed order matches unsigned byte order
+      ByteBuffer keyHashBuffer = ByteBuffer.allocate(8).putLong(0, keyHash ^ Long.MIN_VALUE);
+      writer.writeHash(keyHashBuffer, ByteBuffer.allocate(4).putInt(0, random.nextInt()));
+    }
+    writer.close();
+  }
+
+  private static byte[] readFile(String path) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(path));
+    byte[] result = new byte[(int) new File(path).length()];
+    in.readFully(result);
+    in.close();
+    return result;
+  }
 }
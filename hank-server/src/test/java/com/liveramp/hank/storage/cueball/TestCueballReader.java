@@ -15,7 +15,10 @@
  */
 package com.liveramp.hank.storage.cueball;
 
+import com.liveramp.hank.compression.cueball.GzipCueballCompressionCodec;
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.hasher.IdentityHasher;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.ReaderResult;
 import org.junit.Test;
 
@@ -23,6 +26,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -106,4 +111,192 @@ public class TestCueballReader extends AbstractCueballTest {
     assertEquals(false, result.getL2CacheHit());
     result.clear();
   }
+
+  @Test
+  public void testMemoryMappedRead() throws Exception {
+    String root = localTmpDir + "/2";
+    new File(root).mkdir();
+    OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
+    os.write(EXPECTED_DATA);
+    os.flush();
+    os.close();
+
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 10, true, 4, null);
+
+    ReaderResult result = new ReaderResult();
+    reader.get(ByteBuffer.wrap(KEY1), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), result.getBuffer());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY3), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{(byte) 0x8f, 1, 2, 1, 2}), result.getBuffer());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY2), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{2, 1, 2, 1, 2}), result.getBuffer());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY4), result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY10), result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    // Test segmented cache
+    reader.get(ByteBuffer.wrap(KEY3), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{(byte) 0x8f, 1, 2, 1, 2}), result.getBuffer());
+    assertEquals(true, result.getL1CacheHit());
+    result.clear();
+
+    reader.close();
+  }
+
+  @Test
+  public void testSharedValueCache() throws Exception {
+    String root = localTmpDir + "/3";
+    new File(root).mkdir();
+    OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
+    os.write(EXPECTED_DATA);
+    os.flush();
+    os.close();
+
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 16, 4);
+    CueballReader reader1 = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), -1, false, -1, cache);
+    CueballReader reader2 = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), -1, false, -1, cache);
+
+    ReaderResult result = new ReaderResult();
+    reader1.get(ByteBuffer.wrap(KEY1), result);
+    assertTrue(result.isFound());
+    assertEquals(false, result.getL1CacheHit());
+    result.clear();
+
+    reader1.get(ByteBuffer.wrap(KEY1), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), result.getBuffer());
+    assertEquals(true, result.getL1CacheHit());
+    result.clear();
+
+    // Readers do not see each other's entries
+    reader2.get(ByteBuffer.wrap(KEY1), result);
+    assertTrue(result.isFound());
+    assertEquals(false, result.getL1CacheHit());
+    result.clear();
+
+    // Keys not found are cached
+    reader2.get(ByteBuffer.wrap(KEY4), result);
+    assertFalse(result.isFound());
+    result.clear();
+    reader2.get(ByteBuffer.wrap(KEY4), result);
+    assertFalse(result.isFound());
+    assertEquals(true, result.getL1CacheHit());
+    result.clear();
+
+    assertEquals(3, cache.getNumItems());
+
+    reader1.close();
+    reader2.close();
+  }
+
+  @Test
+  public void testGetBulk() throws Exception {
+    String root = localTmpDir + "/4";
+    new File(root).mkdir();
+    OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
+    os.write(EXPECTED_DATA);
+    os.flush();
+    os.close();
+
+    List<ByteBuffer> keys = Arrays.asList(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(KEY10), ByteBuffer.wrap(KEY1),
+        ByteBuffer.wrap(KEY4), ByteBuffer.wrap(KEY2), ByteBuffer.wrap(KEY1));
+
+    for (boolean memoryMapped : new boolean[]{false, true}) {
+      CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 10, memoryMapped, -1, null);
+      // Twice, to also read from the cache
+      for (int i = 0; i < 2; ++i) {
+        ReaderResult[] results = new ReaderResult[keys.size()];
+        for (int j = 0; j < results.length; ++j) {
+          results[j] = new ReaderResult();
+        }
+        reader.getBulk(keys, results);
+        assertTrue(results[0].isFound());
+        assertEquals(ByteBuffer.wrap(new byte[]{(byte) 0x8f, 1, 2, 1, 2}), results[0].getBuffer());
+        assertFalse(results[1].isFound());
+        assertTrue(results[2].isFound());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), results[2].getBuffer());
+        assertFalse(results[3].isFound());
+        assertTrue(results[4].isFound());
+        assertEquals(ByteBuffer.wrap(new byte[]{2, 1, 2, 1, 2}), results[4].getBuffer());
+        assertTrue(results[5].isFound());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), results[5].getBuffer());
+        assertEquals(i == 1, results[4].getL1CacheHit());
+      }
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testMembershipFilter() throws Exception {
+    String root = localTmpDir + "/5";
+    new File(root).mkdir();
+    // Present keys are even multiples of the stride, absent keys are odd multiples
+    int numKeys = 1000;
+    long stride = (1L << 32) / (2 * numKeys);
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/00000.base.cueball"),
+        4, new IdentityHasher(), 1, new GzipCueballCompressionCodec(), 4, 10);
+    for (int i = 0; i < numKeys; ++i) {
+      writer.write(membershipFilterKey(2 * i * stride), ByteBuffer.wrap(new byte[]{(byte) i}));
+    }
+    writer.close();
+
+    for (boolean memoryMapped : new boolean[]{false, true}) {
+      CueballReader reader = new CueballReader(root, 4, new IdentityHasher(), 1, 4, new GzipCueballCompressionCodec(), -1, memoryMapped, -1, null);
+      assertTrue(reader.getMembershipFilterNumBytes() > numKeys * 10 / 8);
+      ReaderResult result = new ReaderResult();
+      int numNegatives = 0;
+      int numFalsePositives = 0;
+      for (int i = 0; i < numKeys; ++i) {
+        result.clear();
+        reader.get(membershipFilterKey(2 * i * stride), result);
+        assertTrue(result.isFound());
+        assertEquals((byte) i, result.getBuffer().get(result.getBuffer().position()));
+        assertFalse(result.getMembershipFilterNegative());
+        assertFalse(result.getMembershipFilterFalsePositive());
+
+        result.clear();
+        reader.get(membershipFilterKey((2 * i + 1) * stride), result);
+        assertFalse(result.isFound());
+        if (result.getMembershipFilterNegative()) {
+          ++numNegatives;
+        }
+        if (result.getMembershipFilterFalsePositive()) {
+          ++numFalsePositives;
+        }
+      }
+      assertEquals(numKeys, numNegatives + numFalsePositives);
+      // About 1% false positives with 10 bits per key
+      assertTrue(numFalsePositives < numKeys / 20);
+
+      // Bulk lookups are filtered too
+      List<ByteBuffer> keys = Arrays.asList(membershipFilterKey(0), membershipFilterKey(stride));
+      ReaderResult[] results = new ReaderResult[]{new ReaderResult(), new ReaderResult()};
+      reader.getBulk(keys, results);
+      assertTrue(results[0].isFound());
+      assertFalse(results[1].isFound());
+      reader.close();
+    }
+  }
+
+  private static ByteBuffer membershipFilterKey(long hash) {
+    byte[] key = new byte[4];
+    for (int i = 0; i < 4; ++i) {
+      key[i] = (byte) (hash >>> (8 * (3 - i)));
+    }
+    return ByteBuffer.wrap(key);
+  }
 }
@@ -14,11 +14,13 @@
  *  limitations under the License.
  */
 package com.liveramp.hank.storage.cueball;
+import com.liveramp.hank.compression.cueball.GzipCueballCompressionCodec;
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -45,6 +47,39 @@ public class TestCueballWriter extends AbstractCueballTest {
         ByteBuffer.wrap(result));
   }
 
+  @Test
+  public void testPipelinedCompression() throws Exception {
+    ByteArrayOutputStream s = new ByteArrayOutputStream();
+    CueballWriter cw = new CueballWriter(s, 10, HASHER, 5, new NoCueballCompressionCodec(), 1, 0, 2);
+    cw.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,2,1,2,1}));
+    cw.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,1,2,1,2}));
+    cw.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{(byte) 0x8f,1,2,1,2}));
+    cw.close();
+    assertEquals(ByteBuffer.wrap(EXPECTED_DATA), ByteBuffer.wrap(s.toByteArray()));
+
+    // Many compressed blocks are written in order, as they would be inline
+    assertEquals(ByteBuffer.wrap(writeRandomBlocks(0)), ByteBuffer.wrap(writeRandomBlocks(1)));
+    assertEquals(ByteBuffer.wrap(writeRandomBlocks(0)), ByteBuffer.wrap(writeRandomBlocks(3)));
+  }
+
+  private static byte[] writeRandomBlocks(int numCompressionThreads) throws Exception {
+    ByteArrayOutputStream s = new ByteArrayOutputStream();
+    CueballWriter cw = new CueballWriter(s, 4, null, 4, new GzipCueballCompressionCodec(), 8, 8, numCompressionThreads);
+    Random random = new Random(42);
+    byte[] keyHash = new byte[4];
+    byte[] value = new byte[4];
+    for (int i = 0; i < 1 << 16; ++i) {
+      // Increasing key hashes, a few per block
+      keyHash[0] = (byte) (i >>> 8);
+      keyHash[1] = (byte) i;
+      random.nextBytes(value);
+      value[0] = 0;
+      cw.writeHash(keyHash, 0, value, 0);
+    }
+    cw.close();
+    return s.toByteArray();
+  }
+
   @Test
   public void testEnforceKeyOrdering() {
     try {
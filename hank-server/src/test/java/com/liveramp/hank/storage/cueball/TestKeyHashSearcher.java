@@ -0,0 +1,113 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.cueball;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestKeyHashSearcher extends BaseTestCase {
+
+  @Test
+  public void testSearch() {
+    Random random = new Random(42);
+    for (int keyHashSize : new int[]{3, 8, 10, 17}) {
+      for (int numRecords : new int[]{0, 1, 5, KeyHashSearcher.MIN_NUM_RECORDS_FOR_SEARCH, 1000}) {
+        for (boolean direct : new boolean[]{false, true}) {
+          checkSearch(random, keyHashSize, numRecords, direct);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSkewedKeyHashes() {
+    // All key hashes share their first word, interpolation can not be used
+    byte[][] keyHashes = new byte[100][];
+    for (int i = 0; i < keyHashes.length; ++i) {
+      keyHashes[i] = new byte[12];
+      keyHashes[i][11] = (byte) (2 * i);
+    }
+    ByteBuffer block = toBlock(keyHashes, 1, false);
+    KeyHashSearcher searcher = new KeyHashSearcher(12, 1);
+    for (int i = 0; i < keyHashes.length; ++i) {
+      assertEquals(7 + 13 * i + 12, searcher.getValueOffset(block, 7, block.limit(), keyHashes[i]));
+      byte[] absent = Arrays.copyOf(keyHashes[i], 12);
+      absent[11] += 1;
+      assertEquals(-1, searcher.getValueOffset(block, 7, block.limit(), absent));
+    }
+  }
+
+  private void checkSearch(Random random, int keyHashSize, int numRecords, boolean direct) {
+    // Key hashes are sorted as unsigned bytes
+    TreeSet<byte[]> sortedKeyHashes = new TreeSet<byte[]>(new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] a, byte[] b) {
+        return Bytes.compareBytesUnsigned(a, 0, b, 0, a.length);
+      }
+    });
+    while (sortedKeyHashes.size() < 2 * numRecords) {
+      byte[] keyHash = new byte[keyHashSize];
+      random.nextBytes(keyHash);
+      sortedKeyHashes.add(keyHash);
+    }
+    // Every other key hash is in the block
+    byte[][] keyHashes = new byte[numRecords][];
+    byte[][] absentKeyHashes = new byte[numRecords][];
+    int i = 0;
+    for (byte[] keyHash : sortedKeyHashes) {
+      if (i % 2 == 0) {
+        keyHashes[i / 2] = keyHash;
+      } else {
+        absentKeyHashes[i / 2] = keyHash;
+      }
+      ++i;
+    }
+    int valueSize = 3;
+    int start = 7;
+    ByteBuffer block = toBlock(keyHashes, valueSize, direct);
+    KeyHashSearcher searcher = new KeyHashSearcher(keyHashSize, valueSize);
+    for (i = 0; i < numRecords; ++i) {
+      int expectedOffset = start + i * (keyHashSize + valueSize) + keyHashSize;
+      assertEquals(expectedOffset, searcher.getValueOffset(block, start, block.limit(), keyHashes[i]));
+      assertEquals(-1, searcher.getValueOffset(block, start, block.limit(), absentKeyHashes[i]));
+    }
+  }
+
+  // Records start at offset 7
+  private static ByteBuffer toBlock(byte[][] keyHashes, int valueSize, boolean direct) {
+    int start = 7;
+    int recordSize = keyHashes.length == 0 ? 0 : keyHashes[0].length + valueSize;
+    int size = start + keyHashes.length * recordSize;
+    ByteBuffer block = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    block.position(start);
+    for (byte[] keyHash : keyHashes) {
+      block.put(keyHash);
+      block.put(new byte[valueSize]);
+    }
+    block.flip();
+    return block;
+  }
+}
@@ -64,6 +64,16 @@ public abstract class AbstractCurlyTestBase extends TestCase {
       0x07, 0x05, 0x10, 0x04, 0x0c, 0x0b, 0x0a, 0x09
   };
 
+  protected static final byte[] EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4 = new byte[]{
+      22, // block size
+      15, // uncompressed size
+      0, 0, 0, 0, // dictionary checksum
+      (byte) 0xf0, 0, // 15 literals, no match
+      4, 4, 3, 2, 1,
+      4, 8, 7, 6, 5,
+      4, 12, 11, 10, 9
+  };
+
   protected static final byte[] EXPECTED_FOLDED_RECORD_FILE = new byte[]{
       4, 4, 3, 2, 1,
       4, 8, 7, 6, 5
@@ -16,14 +16,18 @@
 package com.liveramp.hank.storage.curly;
 
 import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.map.MapReader;
+import com.liveramp.hank.storage.map.MapWriter;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 public class TestCurlyReader extends AbstractCurlyTestBase {
   private static final String TMP_TEST_CURLY_READER = "/tmp/TestCurlyReader";
@@ -39,6 +43,14 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
   }
 
   public void testReader() throws Exception {
+    doTestReader(false);
+  }
+
+  public void testReaderMemoryMapped() throws Exception {
+    doTestReader(true);
+  }
+
+  private void doTestReader(boolean memoryMapped) throws Exception {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
     s.write(EXPECTED_RECORD_FILE);
@@ -54,7 +66,8 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
         KEY5.array(), new byte[]{15, 0, 0}
     );
 
-    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, 1);
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, 1,
+        null, -1, -1, false, memoryMapped, -1, null);
 
     // test version number
     assertEquals(Integer.valueOf(0), reader.getVersionNumber());
@@ -107,7 +120,124 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     result.clear();
   }
 
+  public void testReaderSharedValueCache() throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE);
+    s.write(new byte[]{(byte) 0x80, (byte) 0xa0, 1});
+    s.write(TWENTYK_BLOB);
+    s.flush();
+    s.close();
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0},
+        KEY5.array(), new byte[]{15, 0, 0}
+    );
+
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 20, 1);
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1,
+        null, -1, -1, false, false, -1, cache);
+
+    ReaderResult result = new ReaderResult();
+    for (int i = 0; i < 2; ++i) {
+      reader.get(KEY1, result);
+      assertTrue(result.isFound());
+      assertEquals(VALUE1, result.getBuffer());
+      assertEquals(i == 1, result.getL2CacheHit());
+      result.clear();
+
+      reader.get(KEY5, result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(TWENTYK_BLOB), result.getBuffer());
+      assertEquals(i == 1, result.getL2CacheHit());
+      result.clear();
+    }
+    assertEquals(2, cache.getNumItems());
+  }
+
+  public void testReaderGetBulk() throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE);
+    s.write(new byte[]{(byte) 0x80, (byte) 0xa0, 1});
+    s.write(TWENTYK_BLOB);
+    s.flush();
+    s.close();
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0},
+        KEY2.array(), new byte[]{5, 0, 0},
+        KEY3.array(), new byte[]{10, 0, 0},
+        KEY5.array(), new byte[]{15, 0, 0}
+    );
+
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, 10,
+        null, -1, -1, false, false, -1, null);
+
+    // Keys are not in record file order
+    List<ByteBuffer> keys = Arrays.asList(KEY5, KEY3, KEY4, KEY1, KEY2, KEY3);
+    for (int i = 0; i < 2; ++i) {
+      ReaderResult[] results = newReaderResults(keys.size());
+      reader.getBulk(keys, results);
+      assertTrue(results[0].isFound());
+      assertEquals(ByteBuffer.wrap(TWENTYK_BLOB), results[0].getBuffer());
+      assertTrue(results[1].isFound());
+      assertEquals(VALUE3, results[1].getBuffer());
+      assertFalse(results[2].isFound());
+      assertTrue(results[3].isFound());
+      assertEquals(VALUE1, results[3].getBuffer());
+      assertTrue(results[4].isFound());
+      assertEquals(VALUE2, results[4].getBuffer());
+      assertTrue(results[5].isFound());
+      assertEquals(VALUE3, results[5].getBuffer());
+      // Second time, values are read from the cache
+      assertEquals(i == 1, results[3].getL2CacheHit());
+    }
+  }
+
+  public void testBlockCompressionGetBulk() throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE);
+    s.flush();
+    s.close();
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0, 0, 0},
+        KEY2.array(), new byte[]{0, 0, 0, 5, 0},
+        KEY3.array(), new byte[]{0, 0, 0, 10, 0}
+    );
+
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1,
+        CompressionCodec.DEFLATE, 3, 2, false, false, -1, null);
+
+    List<ByteBuffer> keys = Arrays.asList(KEY3, KEY4, KEY1, KEY2);
+    ReaderResult[] results = newReaderResults(keys.size());
+    reader.getBulk(keys, results);
+    assertTrue(results[0].isFound());
+    assertEquals(VALUE3, results[0].getBuffer());
+    assertFalse(results[1].isFound());
+    assertTrue(results[2].isFound());
+    assertEquals(VALUE1, results[2].getBuffer());
+    assertTrue(results[3].isFound());
+    assertEquals(VALUE2, results[3].getBuffer());
+  }
+
+  private static ReaderResult[] newReaderResults(int numResults) {
+    ReaderResult[] results = new ReaderResult[numResults];
+    for (int i = 0; i < numResults; ++i) {
+      results[i] = new ReaderResult();
+    }
+    return results;
+  }
+
   private void doTestBlockCompression(CompressionCodec blockCompressionCodec, byte[] compressedBlock) throws IOException {
+    doTestBlockCompression(blockCompressionCodec, compressedBlock, false);
+  }
+
+  private void doTestBlockCompression(CompressionCodec blockCompressionCodec,
+                                      byte[] compressedBlock,
+                                      boolean memoryMapped) throws IOException {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
     s.write(compressedBlock);
@@ -121,7 +251,7 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     );
 
     CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1,
-        blockCompressionCodec, 3, 2, true);
+        blockCompressionCodec, 3, 2, true, memoryMapped, -1, null);
 
     ReaderResult result = new ReaderResult();
 
@@ -160,4 +290,63 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
   public void testBlockCompressionSnappy() throws Exception {
     doTestBlockCompression(CompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
   }
+
+  public void testBlockCompressionLz4() throws Exception {
+    doTestBlockCompression(CompressionCodec.LZ4, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4);
+  }
+
+  public void testBlockCompressionLz4Dictionary() throws Exception {
+    // The dictionary contains the whole block, which is then mostly a match
+    byte[] dictionary = EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION;
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    MapWriter keyfileWriter = new MapWriter();
+    CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, -1, CompressionCodec.LZ4, 1024, 2, 0, dictionary);
+    writer.write(KEY1, VALUE1);
+    writer.write(KEY2, VALUE2);
+    writer.write(KEY3, VALUE3);
+    writer.close();
+    assertTrue(writer.getNumBytesWritten() < EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4.length);
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0, 0, 0},
+        KEY2.array(), new byte[]{0, 0, 0, 5, 0},
+        KEY3.array(), new byte[]{0, 0, 0, 10, 0}
+    );
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1,
+        CompressionCodec.LZ4, 3, 2, false, false, -1, null, dictionary);
+
+    List<ByteBuffer> keys = Arrays.asList(KEY3, KEY4, KEY1, KEY2);
+    ReaderResult[] results = newReaderResults(keys.size());
+    reader.getBulk(keys, results);
+    assertEquals(VALUE3, results[0].getBuffer());
+    assertFalse(results[1].isFound());
+    assertEquals(VALUE1, results[2].getBuffer());
+    assertEquals(VALUE2, results[3].getBuffer());
+  }
+
+  public void testBlockCompressionLz4DictionaryMismatch() throws Exception {
+    byte[] dictionary = EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION;
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    CurlyWriter writer = new CurlyWriter(s, new MapWriter(), 3, -1, CompressionCodec.LZ4, 1024, 2, 0, dictionary);
+    writer.write(KEY1, VALUE1);
+    writer.close();
+
+    byte[] otherDictionary = Arrays.copyOf(dictionary, dictionary.length);
+    otherDictionary[0] ^= 1;
+    for (byte[] readerDictionary : Arrays.asList(null, otherDictionary)) {
+      try {
+        new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, new MapReader(0), -1,
+            CompressionCodec.LZ4, 3, 2, false, false, -1, null, readerDictionary);
+        fail("Should have failed to open a record file compressed against another dictionary");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+
+  public void testBlockCompressionDeflateMemoryMapped() throws Exception {
+    doTestBlockCompression(CompressionCodec.DEFLATE, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE, true);
+  }
 }
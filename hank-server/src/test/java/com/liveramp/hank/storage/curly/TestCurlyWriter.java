@@ -78,9 +78,15 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
   }
 
   private void doTestBlockCompression(CompressionCodec blockCompressionCodec, byte[] expectedBlock) throws IOException {
+    doTestBlockCompression(blockCompressionCodec, expectedBlock, 0);
+  }
+
+  private void doTestBlockCompression(CompressionCodec blockCompressionCodec,
+                                      byte[] expectedBlock,
+                                      int numCompressionThreads) throws IOException {
     ByteArrayOutputStream s = new ByteArrayOutputStream();
     MapWriter keyfileWriter = new MapWriter();
-    CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, -1, blockCompressionCodec, 1024, 2);
+    CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, -1, blockCompressionCodec, 1024, 2, numCompressionThreads);
 
     writer.write(KEY1, VALUE1);
     writer.write(KEY2, VALUE2);
@@ -119,4 +125,41 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
   public void testBlockCompressionSnappy() throws Exception {
     doTestBlockCompression(CompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
   }
+
+  public void testBlockCompressionLz4() throws Exception {
+    doTestBlockCompression(CompressionCodec.LZ4, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4);
+    doTestBlockCompression(CompressionCodec.LZ4, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4, 2);
+  }
+
+  public void testPipelinedBlockCompression() throws Exception {
+    doTestBlockCompression(CompressionCodec.SLOW_NO_COMPRESSION, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION, 2);
+    doTestBlockCompression(CompressionCodec.DEFLATE, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE, 2);
+    doTestBlockCompression(CompressionCodec.GZIP, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP, 2);
+  }
+
+  public void testPipelinedBlockCompressionValueFolding() throws Exception {
+    ByteArrayOutputStream s = new ByteArrayOutputStream();
+    MapWriter keyfileWriter = new MapWriter();
+    // One value per block
+    CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, 2, CompressionCodec.SLOW_NO_COMPRESSION, 1, 2, 2);
+
+    writer.write(KEY1, VALUE1);
+    writer.write(KEY2, VALUE2);
+    writer.write(KEY3, VALUE1);
+    writer.close();
+    assertEquals(3, writer.getNumRecordsWritten());
+
+    // Folded value points to the first block
+    assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 0}), keyfileWriter.entries.get(KEY1));
+    assertEquals(ByteBuffer.wrap(new byte[]{6, 0, 0, 0, 0}), keyfileWriter.entries.get(KEY2));
+    assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 0}), keyfileWriter.entries.get(KEY3));
+
+    // Each block is its size followed by a single record
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(5);
+    expected.write(EXPECTED_FOLDED_RECORD_FILE, 0, 5);
+    expected.write(5);
+    expected.write(EXPECTED_FOLDED_RECORD_FILE, 5, 5);
+    assertEquals(ByteBuffer.wrap(expected.toByteArray()), ByteBuffer.wrap(s.toByteArray()));
+  }
 }